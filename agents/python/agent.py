@@ -5,7 +5,15 @@ import time
 import logging
 import json
 import os
+import random
+import struct
 import uuid
+import gzip
+
+try:
+    import zstandard
+except ImportError:
+    zstandard = None
 
 # ====== CONFIGURATION ======
 SERVER_URL = "http://192.168.12.115:8080/api/metrics/batch"
@@ -14,7 +22,13 @@ DEVICE_ID_FILE = "agents/python/device_data/device_id.json"
 INTERVAL_SECONDS = 3
 MAX_RETRIES = 3
 BUFFER_FILE = "unsent_metrics.json"
+# Starting point until the backend's flow-control hints say otherwise
 BATCH_SIZE = 5
+FLUSH_INTERVAL_SECONDS = 15
+MAX_BATCH_SIZE = 500
+WIRE_FORMAT = os.getenv("AGENT_WIRE_FORMAT", "json")  # "json" or "binary"
+BINARY_CONTENT_TYPE = "application/x-sentinel-metrics"
+COMPRESSION = os.getenv("AGENT_COMPRESSION", "gzip")  # "gzip", "zstd" or "none"
 
 USERNAME = os.getenv("AGENT_USERNAME", "agent")
 PASSWORD = os.getenv("AGENT_PASSWORD", "pass")
@@ -50,20 +64,68 @@ def get_or_create_device_id():
 
 DEVICE_ID = os.getenv("DEVICE_ID", get_or_create_device_id())
 
+# ====== SEQUENCE NUMBERS ======
+# Every sample carries a per-device seq so the backend can acknowledge a retried batch without
+# storing it twice. Seqs are reserved SEQ_BLOCK at a time in SEQ_FILE, so a restarted agent
+# carries on past anything it may already have sent without writing the file on every sample.
+SEQ_FILE = "agents/python/device_data/seq.json"
+SEQ_BLOCK = 256
+_seq = {"next": None, "reserved": 0}
+
+def _reserve_seq_block(start):
+    reserved = start + SEQ_BLOCK
+    try:
+        os.makedirs(os.path.dirname(SEQ_FILE), exist_ok=True)
+        with open(SEQ_FILE + ".tmp", "w") as f:
+            json.dump({"reserved": reserved}, f)
+        os.replace(SEQ_FILE + ".tmp", SEQ_FILE)
+    except Exception as e:
+        logging.error(f"Failed to write sequence file: {e}")
+    _seq["reserved"] = reserved
+
+def next_seq():
+    if _seq["next"] is None:
+        start = 1
+        if os.path.exists(SEQ_FILE):
+            try:
+                with open(SEQ_FILE, "r") as f:
+                    start = int(json.load(f)["reserved"])
+            except Exception as e:
+                # Starting over is safe: the backend notices a counter that restarted with newer samples
+                logging.warning(f"Could not read sequence file, restarting from 1: {e}")
+        _seq["next"] = start
+        _reserve_seq_block(start)
+    elif _seq["next"] >= _seq["reserved"]:
+        _reserve_seq_block(_seq["next"])
+    seq = _seq["next"]
+    _seq["next"] += 1
+    return seq
+
+# Counter rates are taken between consecutive samples instead of sleeping a second to measure them
+_previous_counters = {}
+
+def _per_second(name, values):
+    now = time.monotonic()
+    previous = _previous_counters.get(name)
+    _previous_counters[name] = (now, values)
+    if previous is None or now <= previous[0]:
+        return (None,) * len(values)
+    elapsed = now - previous[0]
+    # A counter that went backwards was reset (reboot, interface change): skip this sample
+    return tuple(int((v - p) / elapsed) if v >= p else None for v, p in zip(values, previous[1]))
+
 def get_network_traffic():
-    net1 = psutil.net_io_counters()
-    time.sleep(1)
-    net2 = psutil.net_io_counters()
-    return net2.bytes_sent - net1.bytes_sent, net2.bytes_recv - net1.bytes_recv
+    net = psutil.net_io_counters()
+    return _per_second("net", (net.bytes_sent, net.bytes_recv))
 
 def get_system_uptime():
     return time.time() - psutil.boot_time()
 
 def get_disk_io():
-    disk1 = psutil.disk_io_counters()
-    time.sleep(1)
-    disk2 = psutil.disk_io_counters()
-    return disk2.read_bytes - disk1.read_bytes, disk2.write_bytes - disk1.write_bytes
+    disk = psutil.disk_io_counters()
+    if disk is None:
+        return None, None
+    return _per_second("disk", (disk.read_bytes, disk.write_bytes))
 
 def get_latency(host="8.8.8.8"):
     try:
@@ -79,7 +141,10 @@ def collect_metrics():
     disk_read, disk_write = get_disk_io()
     return {
         "deviceId": DEVICE_ID,
-        "cpuUsage": psutil.cpu_percent(interval=1),
+        "seq": next_seq(),
+        # The sample's own time, so retried samples keep it; epoch millis avoid time zone mix-ups
+        "timestampMillis": int(time.time() * 1000),
+        "cpuUsage": psutil.cpu_percent(interval=None),  # since the previous sample
         "memoryUsage": psutil.virtual_memory().percent,
         "diskUsage": psutil.disk_usage('/').percent,
         "bytesSentPerSec": bytes_sent,
@@ -105,24 +170,148 @@ def get_jwt_token():
         logging.error(f"Login failed: {e}")
         return None
 
+# ====== BINARY WIRE FORMAT ======
+# Mirrors BinaryMetricsCodec on the backend: magic "SMB\x02", a device-id dictionary,
+# then one row per metric with a presence-flag byte for the nullable fields. Gauges go as
+# float64 so a sample stores the same value it would over JSON.
+FLAG_TIMESTAMP = 1
+FLAG_BYTES_SENT = 1 << 1
+FLAG_BYTES_RECV = 1 << 2
+FLAG_DISK_READ = 1 << 3
+FLAG_DISK_WRITE = 1 << 4
+FLAG_LATENCY = 1 << 5
+FLAG_UPTIME = 1 << 6
+FLAG_SEQ = 1 << 7
+
+OPTIONAL_COUNTERS = [
+    ("bytesSentPerSec", FLAG_BYTES_SENT),
+    ("bytesRecvPerSec", FLAG_BYTES_RECV),
+    ("diskReadBytesPerSec", FLAG_DISK_READ),
+    ("diskWriteBytesPerSec", FLAG_DISK_WRITE),
+]
+
+def _write_varint(out, value):
+    while value > 0x7F:
+        out.append((value & 0x7F) | 0x80)
+        value >>= 7
+    out.append(value)
+
+def _write_zigzag(out, value):
+    _write_varint(out, (value << 1) if value >= 0 else ((-value) << 1) - 1)
+
+def encode_metrics_binary(metrics_batch):
+    devices = []
+    index = {}
+    for metric in metrics_batch:
+        if metric["deviceId"] not in index:
+            index[metric["deviceId"]] = len(devices)
+            devices.append(metric["deviceId"])
+
+    out = bytearray(b"SMB\x02")
+    _write_varint(out, len(devices))
+    for device in devices:
+        encoded = device.encode("utf-8")
+        _write_varint(out, len(encoded))
+        out += encoded
+    _write_varint(out, len(metrics_batch))
+
+    previous_ts = 0
+    previous_seq = 0
+    for metric in metrics_batch:
+        _write_varint(out, index[metric["deviceId"]])
+        flags = 0
+        if metric.get("timestampMillis") is not None:
+            flags |= FLAG_TIMESTAMP
+        for key, flag in OPTIONAL_COUNTERS:
+            if metric.get(key) is not None:
+                flags |= flag
+        if metric.get("latencyMs") is not None:
+            flags |= FLAG_LATENCY
+        if metric.get("systemUptimeSeconds") is not None:
+            flags |= FLAG_UPTIME
+        if metric.get("seq") is not None:
+            flags |= FLAG_SEQ
+        out.append(flags)
+
+        if flags & FLAG_TIMESTAMP:
+            _write_zigzag(out, metric["timestampMillis"] - previous_ts)
+            previous_ts = metric["timestampMillis"]
+        if flags & FLAG_SEQ:
+            _write_zigzag(out, metric["seq"] - previous_seq)
+            previous_seq = metric["seq"]
+        out += struct.pack(">ddd", metric["cpuUsage"], metric["memoryUsage"], metric["diskUsage"])
+        for key, flag in OPTIONAL_COUNTERS:
+            if flags & flag:
+                _write_zigzag(out, int(metric[key]))
+        if flags & FLAG_LATENCY:
+            out += struct.pack(">d", metric["latencyMs"])
+        if flags & FLAG_UPTIME:
+            out += struct.pack(">d", metric["systemUptimeSeconds"])
+    return bytes(out)
+
+# ====== FLOW CONTROL ======
+# Batch responses carry the backend's hints: X-Sentinel-Batch-Size, X-Sentinel-Flush-Interval-Ms
+# and, while its ingest queue is backed up, Retry-After. Sending is held until retry_at.
+flow = {"batch_size": BATCH_SIZE, "flush_interval": FLUSH_INTERVAL_SECONDS, "retry_at": 0.0}
+
+def apply_flow_hints(response):
+    try:
+        batch_size = response.headers.get("X-Sentinel-Batch-Size")
+        if batch_size:
+            flow["batch_size"] = max(1, min(MAX_BATCH_SIZE, int(batch_size)))
+        flush_interval = response.headers.get("X-Sentinel-Flush-Interval-Ms")
+        if flush_interval:
+            flow["flush_interval"] = max(INTERVAL_SECONDS, int(flush_interval) / 1000)
+        retry_after = response.headers.get("Retry-After")
+        if retry_after:
+            # Jitter so agents told to back off at the same moment do not all come back together
+            flow["retry_at"] = time.monotonic() + int(retry_after) * random.uniform(1.0, 1.5)
+    except ValueError:
+        logging.warning("Ignoring malformed flow-control headers.")
+
+def may_send():
+    return time.monotonic() >= flow["retry_at"]
+
+def compress(body, headers):
+    global COMPRESSION
+    if COMPRESSION == "zstd" and zstandard is None:
+        logging.warning("zstandard is not installed, compressing with gzip instead.")
+        COMPRESSION = "gzip"
+    if COMPRESSION == "zstd":
+        headers["Content-Encoding"] = "zstd"
+        return zstandard.ZstdCompressor(level=3).compress(body)
+    if COMPRESSION == "gzip":
+        headers["Content-Encoding"] = "gzip"
+        return gzip.compress(body, compresslevel=6)
+    return body
+
 def send_metrics_batch(metrics_batch, token):
-    headers = {
-        "Authorization": f"Bearer {token}",
-        "Content-Type": "application/json"
-    }
+    headers = {"Authorization": f"Bearer {token}"}
+    if WIRE_FORMAT == "binary":
+        headers["Content-Type"] = BINARY_CONTENT_TYPE
+        body = encode_metrics_binary(metrics_batch)
+    else:
+        headers["Content-Type"] = "application/json"
+        body = json.dumps(metrics_batch).encode("utf-8")
+    body = compress(body, headers)
     for attempt in range(1, MAX_RETRIES + 1):
         try:
-            response = requests.post(SERVER_URL, json=metrics_batch, headers=headers, timeout=5)
+            response = requests.post(SERVER_URL, data=body, headers=headers, timeout=5)
+            apply_flow_hints(response)
             if response.status_code in [200, 201]:
                 logging.info(f"Batch sent successfully with {len(metrics_batch)} metrics.")
                 return True, None
             elif response.status_code == 401:
                 return False, 401
+            elif response.status_code in [429, 503]:
+                # Retrying right away is what tips an overloaded backend over; wait for Retry-After
+                logging.warning(f"Backend busy ({response.status_code}), backing off.")
+                return False, response.status_code
             else:
                 logging.warning(f"Unexpected status code {response.status_code}")
         except Exception as e:
             logging.error(f"Send attempt {attempt} failed: {e}")
-            time.sleep(2 * attempt)
+            time.sleep(2 * attempt * random.uniform(0.5, 1.5))
     return False, None
 
 def save_to_buffer(metrics):
@@ -134,14 +323,14 @@ def save_to_buffer(metrics):
         except json.JSONDecodeError:
             logging.warning("Buffer file corrupted. Resetting buffer.")
             buffer = []
-    buffer.append(metrics)
+    buffer.extend(metrics)
     with open(BUFFER_FILE, "w") as f:
         json.dump(buffer, f)
-    logging.info("Saved metrics to buffer.")
+    logging.info(f"Saved {len(metrics)} metrics to buffer.")
 
 def flush_buffer(token):
     if not os.path.exists(BUFFER_FILE):
-        return True
+        return True, None
 
     try:
         with open(BUFFER_FILE, "r") as f:
@@ -149,29 +338,32 @@ def flush_buffer(token):
     except json.JSONDecodeError:
         logging.error("Buffer file corrupted, deleting.")
         os.remove(BUFFER_FILE)
-        return True
+        return True, None
 
     if not buffer:
-        return True
+        return True, None
 
+    # Replayed in hinted batch sizes, so an agent coming back from an outage does not send one request per sample
     failed_metrics = []
-    for metric in buffer:
-        success, status = send_metrics_batch([metric], token)
+    status = None
+    for start in range(0, len(buffer), flow["batch_size"]):
+        chunk = buffer[start:start + flow["batch_size"]]
+        success, status = send_metrics_batch(chunk, token) if may_send() else (False, None)
         if not success:
-            failed_metrics.append(metric)
+            failed_metrics = buffer[start:]
             if status == 401:
                 logging.warning("401 during buffer flush, will refresh token.")
-                break
+            break
 
     if failed_metrics:
         with open(BUFFER_FILE, "w") as f:
             json.dump(failed_metrics, f)
         logging.info(f"{len(failed_metrics)} buffered metrics retained.")
-        return False
+        return False, status
     else:
         os.remove(BUFFER_FILE)
         logging.info("Buffer flushed successfully.")
-        return True
+        return True, None
 
 def run():
     logging.info("Sentinel Agent Started.")
@@ -181,31 +373,44 @@ def run():
         return
 
     metric_batch = []
+    batch_started = time.monotonic()
+    # Prime the since-last-call measurements so the first real sample has rates
+    psutil.cpu_percent(interval=None)
+    get_network_traffic()
+    get_disk_io()
+    next_sample = time.monotonic() + INTERVAL_SECONDS
 
     while True:
-        flushed = flush_buffer(token)
-        if not flushed:
+        time.sleep(max(0.0, next_sample - time.monotonic()))
+        # Skip ticks lost to a slow send rather than sampling in a burst to catch up
+        next_sample = max(next_sample + INTERVAL_SECONDS, time.monotonic())
+
+        if not metric_batch:
+            batch_started = time.monotonic()
+        metric_batch.append(collect_metrics())
+
+        due = (len(metric_batch) >= flow["batch_size"]
+               or time.monotonic() - batch_started >= flow["flush_interval"])
+        if due and not may_send() and len(metric_batch) >= MAX_BATCH_SIZE:
+            save_to_buffer(metric_batch)
+            metric_batch = []
+        if not due or not may_send():
+            continue
+
+        flushed, status = flush_buffer(token)
+        if not flushed and status == 401:
+            token = get_jwt_token() or token
+        if not may_send():
+            continue
+
+        success, status = send_metrics_batch(metric_batch, token)
+        if not success and status == 401:
             token = get_jwt_token()
-            if not token:
-                time.sleep(INTERVAL_SECONDS)
-                continue
-
-        metric = collect_metrics()
-        metric_batch.append(metric)
-
-        if len(metric_batch) >= BATCH_SIZE:
-            success, status = send_metrics_batch(metric_batch, token)
-            if not success:
-                if status == 401:
-                    token = get_jwt_token()
-                    if token:
-                        success, _ = send_metrics_batch(metric_batch, token)
-                if not success:
-                    for m in metric_batch:
-                        save_to_buffer(m)
-            metric_batch.clear()
-
-        time.sleep(INTERVAL_SECONDS)
+            if token:
+                success, _ = send_metrics_batch(metric_batch, token)
+        if not success:
+            save_to_buffer(metric_batch)
+        metric_batch = []
 
 if __name__ == "__main__":
     run()
@@ -1,16 +1,22 @@
 package com.sentinel;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @Configuration
+@EnableScheduling
 public class AppConfig {
 
     @Bean
-    public BlockingQueue<DeviceMetrics> metricsQueue() {
-        return new LinkedBlockingQueue<>();
+    public MetricsIngestQueue metricsQueue(
+            @Value("${sentinel.ingest.queue-capacity:50000}") int capacity,
+            @Value("${sentinel.ingest.workers:4}") int workers,
+            @Value("${sentinel.ingest.overflow-policy:REJECT}") MetricsIngestQueue.OverflowPolicy overflowPolicy,
+            @Value("${sentinel.ingest.block-timeout-ms:200}") long blockTimeoutMs,
+            MetricsWriteAheadLog wal) {
+        // Evicted metrics will never be persisted, so they must not be replayed either
+        return new MetricsIngestQueue(capacity, workers, overflowPolicy, blockTimeoutMs, wal::release);
     }
 }
@@ -0,0 +1,127 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps how many threads may hold or wait on a pooled JDBC connection at once. With virtual
+ * threads, thousands of requests can reach the pool together; this makes the excess queue
+ * fairly on a semaphore and fail fast instead of piling onto the pool's own wait.
+ * Active when sentinel.jdbc.max-concurrency is positive, which it is by default in virtual mode
+ * (sized to the Hikari pool).
+ */
+@Component
+public class JdbcConcurrencyGuard implements BeanPostProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcConcurrencyGuard.class);
+
+    private final int maxConcurrency;
+    private final long acquireTimeoutMs;
+
+    public JdbcConcurrencyGuard(Environment environment) {
+        int poolSize = environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10);
+        int defaultConcurrency = Threading.VIRTUAL.isActive(environment) ? poolSize : 0;
+        this.maxConcurrency = environment.getProperty("sentinel.jdbc.max-concurrency", Integer.class, defaultConcurrency);
+        this.acquireTimeoutMs = environment.getProperty("sentinel.jdbc.acquire-timeout-ms", Long.class, 30000L);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (maxConcurrency > 0 && bean instanceof DataSource dataSource && !(bean instanceof GuardedDataSource)) {
+            logger.info("Limiting concurrent JDBC access on {} to {}", beanName, maxConcurrency);
+            return new GuardedDataSource(dataSource, maxConcurrency, acquireTimeoutMs);
+        }
+        return bean;
+    }
+
+    static class GuardedDataSource extends DelegatingDataSource {
+
+        private final Semaphore permits;
+        private final long acquireTimeoutMs;
+
+        GuardedDataSource(DataSource target, int maxConcurrency, long acquireTimeoutMs) {
+            super(target);
+            this.permits = new Semaphore(maxConcurrency, true);
+            this.acquireTimeoutMs = acquireTimeoutMs;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            acquire();
+            try {
+                return guard(super.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            acquire();
+            try {
+                return guard(super.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        public int getAvailablePermits() {
+            return permits.availablePermits();
+        }
+
+        public int getQueueLength() {
+            return permits.getQueueLength();
+        }
+
+        private void acquire() throws SQLException {
+            try {
+                if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new SQLTransientConnectionException(
+                            "No JDBC permit within " + acquireTimeoutMs + "ms, " + permits.getQueueLength() + " waiting");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Interrupted waiting for a JDBC permit", e);
+            }
+        }
+
+        // Returns the permit exactly once, when the connection goes back to the pool
+        private Connection guard(Connection connection) {
+            AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+}
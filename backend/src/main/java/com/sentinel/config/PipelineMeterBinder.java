@@ -0,0 +1,165 @@
+package com.sentinel;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pull-based gauges and counters over state the pipeline already tracks, read only at scrape time.
+ */
+@Component
+public class PipelineMeterBinder implements MeterBinder {
+
+    private final MetricsIngestQueue metricsQueue;
+    private final IngestDeduplicator deduplicator;
+    private final MetricsBroadcaster broadcaster;
+    private final MetricsDeltaStream deltas;
+    private final MetricRollupService rollupService;
+    private final LatestMetricsStore latestStore;
+    private final RecentMetricsBuffer recentBuffer;
+    private final MetricHistoryCache historyCache;
+    private final PinnedThreadMonitor pinnedThreadMonitor;
+    private final AlertEngine alertEngine;
+    private final ClusterService cluster;
+    private final ClusterRelay relay;
+    private final LineProtocolListener lineListener;
+    private final boolean enabled;
+
+    public PipelineMeterBinder(MetricsIngestQueue metricsQueue,
+                               IngestDeduplicator deduplicator,
+                               MetricsBroadcaster broadcaster,
+                               MetricsDeltaStream deltas,
+                               MetricRollupService rollupService,
+                               LatestMetricsStore latestStore,
+                               RecentMetricsBuffer recentBuffer,
+                               MetricHistoryCache historyCache,
+                               PinnedThreadMonitor pinnedThreadMonitor,
+                               AlertEngine alertEngine,
+                               ClusterService cluster,
+                               ClusterRelay relay,
+                               LineProtocolListener lineListener,
+                               @Value("${sentinel.metrics.enabled:true}") boolean enabled) {
+        this.metricsQueue = metricsQueue;
+        this.deduplicator = deduplicator;
+        this.broadcaster = broadcaster;
+        this.deltas = deltas;
+        this.rollupService = rollupService;
+        this.latestStore = latestStore;
+        this.recentBuffer = recentBuffer;
+        this.historyCache = historyCache;
+        this.pinnedThreadMonitor = pinnedThreadMonitor;
+        this.alertEngine = alertEngine;
+        this.cluster = cluster;
+        this.relay = relay;
+        this.lineListener = lineListener;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        Gauge.builder("sentinel.ingest.queue.depth", metricsQueue, MetricsIngestQueue::getDepth)
+                .register(registry);
+        Gauge.builder("sentinel.ingest.queue.capacity", metricsQueue, MetricsIngestQueue::getCapacity)
+                .register(registry);
+        FunctionCounter.builder("sentinel.ingest.queue.dropped", metricsQueue, MetricsIngestQueue::getDroppedCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.ingest.queue.rejected", metricsQueue, MetricsIngestQueue::getRejectedCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.ingest.rows.duplicate", deduplicator, IngestDeduplicator::getDuplicateCount)
+                .description("Retried samples acknowledged without being stored again")
+                .register(registry);
+        FunctionCounter.builder("sentinel.ingest.rows.late", deduplicator, IngestDeduplicator::getLateCount)
+                .description("Samples further behind their device's newest than max-lateness, dropped")
+                .register(registry);
+
+        FunctionCounter.builder("sentinel.websocket.updates.published", broadcaster, MetricsBroadcaster::getPublishedCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.websocket.messages.sent", broadcaster, MetricsBroadcaster::getFramesSentCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.websocket.messages.dropped", broadcaster, MetricsBroadcaster::getSendFailureCount)
+                .description("Frames that failed to reach the broker")
+                .register(registry);
+        FunctionCounter.builder("sentinel.websocket.deltas.sent", deltas, MetricsDeltaStream::getMessagesSentCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.websocket.deltas.bytes", deltas, MetricsDeltaStream::getBytesSentCount)
+                .baseUnit("bytes")
+                .register(registry);
+
+        FunctionCounter.builder("sentinel.rollups.late.samples", rollupService, MetricRollupService::getLateSampleCount)
+                .register(registry);
+        Gauge.builder("sentinel.devices.tracked", latestStore, LatestMetricsStore::size)
+                .register(registry);
+        Gauge.builder("sentinel.recent.devices", recentBuffer, RecentMetricsBuffer::getDeviceCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.recent.queries", recentBuffer, RecentMetricsBuffer::getHitCount)
+                .tag("source", "memory")
+                .register(registry);
+        FunctionCounter.builder("sentinel.recent.queries", recentBuffer, RecentMetricsBuffer::getMissCount)
+                .tag("source", "database")
+                .description("Ranged history queries answered from memory or sent to the database")
+                .register(registry);
+        FunctionCounter.builder("sentinel.history.cache.requests", historyCache, MetricHistoryCache::getHitCount)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("sentinel.history.cache.requests", historyCache, MetricHistoryCache::getMissCount)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("sentinel.history.cache.requests", historyCache, MetricHistoryCache::getOpenReadCount)
+                .tag("result", "open")
+                .description("History slices served from the cache, read for it, or read uncached as they reach the open edge")
+                .register(registry);
+        Gauge.builder("sentinel.history.cache.rows", historyCache, MetricHistoryCache::getCachedRows)
+                .register(registry);
+        FunctionCounter.builder("sentinel.history.cache.evictions", historyCache, MetricHistoryCache::getEvictionCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.history.cache.invalidations", historyCache, MetricHistoryCache::getInvalidationCount)
+                .description("Cached slices dropped for late rows, device deletes and retention")
+                .register(registry);
+        FunctionCounter.builder("sentinel.threads.pinned", pinnedThreadMonitor, PinnedThreadMonitor::getPinnedCount)
+                .description("Virtual threads pinned to their carrier past the threshold")
+                .register(registry);
+
+        FunctionCounter.builder("sentinel.alerts.fired", alertEngine, AlertEngine::getFiredCount)
+                .register(registry);
+        FunctionCounter.builder("sentinel.alerts.resolved", alertEngine, AlertEngine::getResolvedCount)
+                .register(registry);
+        Gauge.builder("sentinel.alerts.active", alertEngine, AlertEngine::getActiveCount)
+                .register(registry);
+
+        if (cluster.isEnabled()) {
+            FunctionCounter.builder("sentinel.cluster.forwarded.rows", cluster, ClusterService::getForwardedRowCount)
+                    .description("Rows forwarded to and accepted by their owning node")
+                    .register(registry);
+            FunctionCounter.builder("sentinel.cluster.forward.failures", cluster, ClusterService::getForwardFailureCount)
+                    .register(registry);
+            FunctionCounter.builder("sentinel.cluster.relay.failures", relay, ClusterRelay::getFailedCount)
+                    .description("Relayed frames a peer did not take, including ones skipped while it was busy")
+                    .register(registry);
+        }
+
+        if (lineListener.isEnabled()) {
+            Gauge.builder("sentinel.ingest.line.connections", lineListener, LineProtocolListener::getConnectionCount)
+                    .register(registry);
+            Gauge.builder("sentinel.ingest.line.sessions", lineListener, LineProtocolListener::getSessionCount)
+                    .register(registry);
+            FunctionCounter.builder("sentinel.ingest.line.frames.rejected", lineListener,
+                            LineProtocolListener::getRejectedFrameCount)
+                    .description("Line protocol frames or datagrams that did not parse")
+                    .register(registry);
+            FunctionCounter.builder("sentinel.ingest.line.datagrams.dropped", lineListener,
+                            LineProtocolListener::getDroppedDatagramCount)
+                    .description("UDP datagrams with an unknown or expired session, or arriving while workers were saturated")
+                    .register(registry);
+            FunctionCounter.builder("sentinel.ingest.line.connections.refused", lineListener,
+                            LineProtocolListener::getRefusedConnectionCount)
+                    .description("TCP connections closed at max-connections or for not authenticating in time")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.sentinel;
+
+import com.github.luben.zstd.ZstdInputStream;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Accepts request bodies sent with Content-Encoding gzip or zstd. The body is decompressed as it
+ * is read, so a large compressed batch is parsed without ever being inflated in memory, and
+ * reading more than sentinel.ingest.max-decompressed-bytes fails the request.
+ */
+@Component
+public class RequestDecompressionFilter extends OncePerRequestFilter {
+
+    private final long maxDecompressedBytes;
+
+    public RequestDecompressionFilter(@Value("${sentinel.ingest.max-decompressed-bytes:16777216}") long maxDecompressedBytes) {
+        this.maxDecompressedBytes = maxDecompressedBytes;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null || encoding.isBlank() || encoding.equalsIgnoreCase("identity")) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String codec = encoding.trim().toLowerCase();
+        if (!codec.equals("gzip") && !codec.equals("x-gzip") && !codec.equals("zstd")) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding " + encoding);
+            return;
+        }
+        InputStream body;
+        try {
+            body = codec.equals("zstd")
+                    ? new ZstdInputStream(request.getInputStream())
+                    : new GZIPInputStream(request.getInputStream(), 8192);
+        } catch (IOException e) {
+            // GZIPInputStream reads the header up front, so a body that is not gzip fails here
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Malformed " + encoding + " request body");
+            return;
+        }
+        try (InputStream decompressed = body) {
+            filterChain.doFilter(new DecompressedRequest(request, decompressed, maxDecompressedBytes), response);
+        }
+    }
+
+    private static final class DecompressedRequest extends HttpServletRequestWrapper {
+
+        private final ServletInputStream body;
+
+        DecompressedRequest(HttpServletRequest request, InputStream decompressed, long limit) {
+            super(request);
+            this.body = new LimitedInputStream(decompressed, limit);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return body;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                    ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                    ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+    }
+
+    // Guards against compression bombs: a few KB of zeros can inflate to gigabytes
+    private static final class LimitedInputStream extends ServletInputStream {
+
+        private final InputStream in;
+        private final long limit;
+        private long read;
+        private boolean finished;
+
+        LimitedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n == -1) {
+                finished = true;
+                return -1;
+            }
+            read += n;
+            if (read > limit) {
+                throw new IOException("Decompressed request body exceeds " + limit + " bytes");
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException("Decompressed request bodies are read blocking");
+        }
+    }
+}
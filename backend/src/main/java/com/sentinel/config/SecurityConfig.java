@@ -1,5 +1,6 @@
 package com.sentinel;
 
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -21,15 +22,22 @@ public class SecurityConfig {
 
     private final CustomUserDetailsService userDetailsService;
     private final JwtUtil jwtUtil;
+    private final JwtTokenCache tokenCache;
+    private final PipelineMetrics pipelineMetrics;
 
-    public SecurityConfig(CustomUserDetailsService userDetailsService, JwtUtil jwtUtil) {
+    public SecurityConfig(CustomUserDetailsService userDetailsService,
+                          JwtUtil jwtUtil,
+                          JwtTokenCache tokenCache,
+                          PipelineMetrics pipelineMetrics) {
         this.userDetailsService = userDetailsService;
         this.jwtUtil = jwtUtil;
+        this.tokenCache = tokenCache;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
     @Bean
     public JwtAuthenticationFilter jwtAuthFilter() {
-        return new JwtAuthenticationFilter(jwtUtil, userDetailsService);
+        return new JwtAuthenticationFilter(jwtUtil, userDetailsService, tokenCache, pipelineMetrics);
     }
 
     @Bean
@@ -38,8 +46,15 @@ public class SecurityConfig {
             .csrf(csrf -> csrf.disable())
             .cors(withDefaults())
             .authorizeHttpRequests(auth -> auth
+                // The request was authorized on its original dispatch; streamed exports complete on an async one
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 .requestMatchers("/login", "/register", "/ws/**").permitAll()
+                // Checked against the shared cluster secret by ClusterController
+                .requestMatchers("/api/cluster/**").permitAll()
                 .requestMatchers("/api/**").authenticated()
+                // Health stays open for container healthchecks; meters need a token to scrape
+                .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                .requestMatchers("/actuator/**").authenticated()
                 .anyRequest().permitAll()
             )
             .sessionManagement(sess -> sess
@@ -1,13 +1,31 @@
 package com.sentinel;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.socket.config.annotation.*;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Value("${sentinel.websocket.send-buffer-limit-kb:512}")
+    private int sendBufferLimitKb;
+
+    @Value("${sentinel.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${sentinel.websocket.outbound-concurrency:256}")
+    private int outboundConcurrency;
+
+    private final WorkerThreads workerThreads;
+
+    public WebSocketConfig(WorkerThreads workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
@@ -19,5 +37,28 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.enableSimpleBroker("/topic");
         registry.setApplicationDestinationPrefixes("/app");
+        // Delta subscribers resume by sequence number, which needs each session's frames in order
+        registry.setPreservePublishOrder(true);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Sessions that can't drain their buffer within these limits are closed (slow consumer eviction)
+        registration.setSendBufferSizeLimit(sendBufferLimitKb * 1024);
+        registration.setSendTimeLimit(sendTimeLimitMs);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        if (!workerThreads.isVirtual()) {
+            return; // keep Spring's default pool sized to the CPU count
+        }
+        // Per-session socket writes block on slow clients; virtual threads make those waits cheap
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(workerThreads.factory("clientOutboundChannel", true));
+        executor.setCorePoolSize(outboundConcurrency);
+        executor.setMaxPoolSize(outboundConcurrency);
+        executor.setAllowCoreThreadTimeOut(true);
+        registration.taskExecutor(executor);
     }
 }
@@ -0,0 +1,68 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the pipeline's own threads. With spring.threads.virtual.enabled=true on Java 21+
+ * they are virtual threads, like Tomcat's request threads; otherwise platform threads.
+ * The build targets Java 17, so the virtual factory comes from Spring's multi-release delegate.
+ */
+@Component
+public class WorkerThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerThreads.class);
+
+    private final boolean virtual;
+
+    public WorkerThreads(Environment environment) {
+        this.virtual = Threading.VIRTUAL.isActive(environment);
+        if (!virtual && environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            logger.warn("spring.threads.virtual.enabled is set but Java {} has no virtual threads, using platform threads",
+                    Runtime.version().feature());
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Thread factory naming threads prefix-0, prefix-1, ... Platform threads are daemons if asked;
+     * virtual threads always are.
+     */
+    public ThreadFactory factory(String prefix, boolean daemon) {
+        AtomicInteger counter = new AtomicInteger();
+        if (virtual) {
+            ThreadFactory delegate = new VirtualThreadTaskExecutor().getVirtualThreadFactory();
+            return task -> {
+                Thread thread = delegate.newThread(task);
+                thread.setName(prefix + "-" + counter.getAndIncrement());
+                return thread;
+            };
+        }
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    public Thread newThread(String name, boolean daemon, Runnable task) {
+        Thread thread = virtual
+                ? new VirtualThreadTaskExecutor().getVirtualThreadFactory().newThread(task)
+                : new Thread(task);
+        thread.setName(name);
+        if (!virtual) {
+            thread.setDaemon(daemon);
+        }
+        return thread;
+    }
+}
@@ -0,0 +1,32 @@
+package com.sentinel;
+
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/alerts")
+public class AlertController {
+
+    private final AlertEngine alertEngine;
+
+    public AlertController(AlertEngine alertEngine) {
+        this.alertEngine = alertEngine;
+    }
+
+    // Alerts currently firing; state changes are pushed on /topic/alerts
+    @GetMapping
+    public List<AlertEvent> getActiveAlerts(@RequestParam(required = false) String deviceId) {
+        List<AlertEvent> alerts = alertEngine.getActiveAlerts();
+        if (deviceId == null) {
+            return alerts;
+        }
+        return alerts.stream().filter(alert -> alert.getDeviceId().equals(deviceId)).collect(Collectors.toList());
+    }
+
+    @GetMapping("/rules")
+    public List<String> getRules() {
+        return alertEngine.getRules().stream().map(AlertRule::toString).collect(Collectors.toList());
+    }
+}
@@ -20,17 +20,20 @@ public class AuthController {
     private final JwtUtil jwtUtil;
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final JwtTokenCache tokenCache;
 
     public AuthController(
         AuthenticationManager authManager,
         JwtUtil jwtUtil,
         UserRepository userRepository,
-        PasswordEncoder passwordEncoder
+        PasswordEncoder passwordEncoder,
+        JwtTokenCache tokenCache
     ) {
         this.authManager = authManager;
         this.jwtUtil = jwtUtil;
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.tokenCache = tokenCache;
     }
 
     @PostMapping("/login")
@@ -47,7 +50,7 @@ public class AuthController {
                 new UsernamePasswordAuthenticationToken(username, password)
             );
 
-            String token = jwtUtil.generateToken(username);
+            String token = jwtUtil.generateToken(username, auth.getAuthorities());
             return ResponseEntity.ok(Map.of("token", token));
 
         } catch (AuthenticationException e) {
@@ -73,6 +76,7 @@ public class AuthController {
         newUser.setPassword(passwordEncoder.encode(password));
         newUser.setRole("ROLE_USER");  // assign a default role
         userRepository.save(newUser);
+        tokenCache.invalidateUser(username); // tokens of an earlier account with this name must not carry over
 
         return ResponseEntity.status(HttpStatus.CREATED).body("User registered successfully.");
     }
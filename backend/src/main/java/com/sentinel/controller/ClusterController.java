@@ -0,0 +1,57 @@
+package com.sentinel;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+// Node-to-node endpoints, authenticated with the shared cluster secret instead of a user JWT
+@RestController
+@RequestMapping("/api/cluster")
+public class ClusterController {
+
+    private final ClusterMembership membership;
+    private final ClusterService cluster;
+
+    public ClusterController(ClusterMembership membership, ClusterService cluster) {
+        this.membership = membership;
+        this.cluster = cluster;
+    }
+
+    // Latest updates of devices the sending node owns, for this node's state and subscribers
+    @PostMapping("/metrics")
+    public ResponseEntity<Void> relayedMetrics(
+            @RequestHeader(value = ClusterMembership.TOKEN_HEADER, required = false) String token,
+            @RequestBody List<DeviceMetrics> updates) {
+        if (!membership.isTrusted(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        cluster.onMetrics(updates);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping("/devices/deleted")
+    public ResponseEntity<String> relayedDeviceDeleted(
+            @RequestHeader(value = ClusterMembership.TOKEN_HEADER, required = false) String token,
+            @RequestBody Map<String, String> body) {
+        if (!membership.isTrusted(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        String deviceId = body.get("deviceId");
+        LocalDateTime deletedAt;
+        try {
+            deletedAt = LocalDateTime.parse(body.get("deletedAt"));
+        } catch (NullPointerException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("deletedAt must be an ISO-8601 timestamp");
+        }
+        if (deviceId == null || deviceId.isBlank()) {
+            return ResponseEntity.badRequest().body("deviceId is required");
+        }
+        cluster.onDeviceDeleted(deviceId, deletedAt);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,37 @@
+package com.sentinel;
+
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Starts a delta subscription. A dashboard subscribes to /topic/deltas/{deviceId} and /topic/status,
+ * then to /app/deltas/{deviceIds} (comma-separated, or * for every device), which answers once with a
+ * DeltaSnapshot. On reconnect it sends the stream and highest seq it has seen as "stream" and "since"
+ * STOMP headers and gets back only what changed in the meantime.
+ */
+@Controller
+public class DeltaSubscriptionController {
+
+    private final MetricsDeltaStream deltas;
+
+    public DeltaSubscriptionController(MetricsDeltaStream deltas) {
+        this.deltas = deltas;
+    }
+
+    @SubscribeMapping("/deltas/{deviceIds}")
+    public DeltaSnapshot subscribe(@DestinationVariable String deviceIds,
+                                   @Header(name = "since", required = false) Long since,
+                                   @Header(name = "stream", required = false) String stream) {
+        Set<String> ids = null;
+        if (!"*".equals(deviceIds)) {
+            ids = new LinkedHashSet<>(Arrays.asList(deviceIds.split(",")));
+        }
+        return deltas.snapshot(ids, since, stream);
+    }
+}
@@ -1,110 +1,292 @@
 package com.sentinel;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api")
 public class DeviceMetricsController {
 
-    private final DeviceMetricsRepository repo;
-    private final SimpMessagingTemplate messagingTemplate;
-    private final BlockingQueue<DeviceMetrics> metricsQueue;
+    private static final int MAX_PAGE_SIZE = 1000;
 
-    public DeviceMetricsController(DeviceMetricsRepository repo,
-                                   SimpMessagingTemplate messagingTemplate,
-                                   BlockingQueue<DeviceMetrics> metricsQueue) {
-        this.repo = repo;
-        this.messagingTemplate = messagingTemplate;
+    // Flow-control hints on batch responses, see MetricsQueueConsumerService.flowControl()
+    private static final String BATCH_SIZE_HEADER = "X-Sentinel-Batch-Size";
+    private static final String FLUSH_INTERVAL_HEADER = "X-Sentinel-Flush-Interval-Ms";
+
+    private static final String DEVICE_ID_TOO_LONG =
+            "deviceId longer than " + DeviceMetrics.MAX_DEVICE_ID_BYTES + " bytes";
+
+    private final DeviceRegistry registry;
+    private final MetricsBroadcaster broadcaster;
+    private final MetricsIngestQueue metricsQueue;
+    private final IngestDeduplicator deduplicator;
+    private final LatestMetricsStore latestStore;
+    private final RecentMetricsBuffer recentBuffer;
+    private final MetricHistoryService historyService;
+    private final AlertEngine alertEngine;
+    private final MetricRollupService rollupService;
+    private final FleetAggregateService fleetAggregates;
+    private final DeviceTombstoneService tombstones;
+    private final ClusterService cluster;
+    private final MetricsQueueConsumerService queueConsumer;
+    private final MetricsIngestService ingestService;
+    private final MetricHistoryCache historyCache;
+
+    public DeviceMetricsController(DeviceRegistry registry,
+                                   MetricsBroadcaster broadcaster,
+                                   MetricsIngestQueue metricsQueue,
+                                   IngestDeduplicator deduplicator,
+                                   LatestMetricsStore latestStore,
+                                   RecentMetricsBuffer recentBuffer,
+                                   MetricHistoryService historyService,
+                                   AlertEngine alertEngine,
+                                   MetricRollupService rollupService,
+                                   FleetAggregateService fleetAggregates,
+                                   DeviceTombstoneService tombstones,
+                                   ClusterService cluster,
+                                   MetricsQueueConsumerService queueConsumer,
+                                   MetricsIngestService ingestService,
+                                   MetricHistoryCache historyCache) {
+        this.registry = registry;
+        this.broadcaster = broadcaster;
         this.metricsQueue = metricsQueue;
+        this.deduplicator = deduplicator;
+        this.latestStore = latestStore;
+        this.recentBuffer = recentBuffer;
+        this.historyService = historyService;
+        this.alertEngine = alertEngine;
+        this.rollupService = rollupService;
+        this.fleetAggregates = fleetAggregates;
+        this.tombstones = tombstones;
+        this.cluster = cluster;
+        this.queueConsumer = queueConsumer;
+        this.ingestService = ingestService;
+        this.historyCache = historyCache;
     }
 
     @PostMapping("/metrics")
-    public ResponseEntity<String> submitMetrics(@RequestBody DeviceMetrics metrics) {
-        metrics.setTimestamp(LocalDateTime.now());
-        metricsQueue.offer(metrics); // enqueue instead of saving immediately
-
-        messagingTemplate.convertAndSend("/topic/metrics/" + metrics.getDeviceId(), metrics);
+    public ResponseEntity<String> submitMetrics(
+            @RequestBody DeviceMetrics metrics,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = ClusterMembership.TOKEN_HEADER, required = false) String clusterToken) {
+        if (!DeviceMetrics.isDeviceIdWithinLimit(metrics.getDeviceId())) {
+            return ResponseEntity.badRequest().body(DEVICE_ID_TOO_LONG);
+        }
+        if (cluster != null && !cluster.isLocal(metrics.getDeviceId())
+                && !isForwardedByPeer(forwardedBy, clusterToken)) {
+            return acceptBatch(List.of(metrics), PipelineMetrics.IngestEndpoint.SINGLE, authorization, false);
+        }
+        // Duplicates and late samples count as taken, so the agent stops retrying them
+        if (ingestService.ingestLocal(List.of(metrics), PipelineMetrics.IngestEndpoint.SINGLE) == 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body("Ingest queue full");
+        }
         return ResponseEntity.ok("Metric accepted");
     }
     
     @PostMapping("/metrics/batch")
-    public ResponseEntity<String> submitMetricsBatch(@RequestBody List<DeviceMetrics> metricsList) {
+    public ResponseEntity<String> submitMetricsBatch(
+            @RequestBody List<DeviceMetrics> metricsList,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = ClusterMembership.TOKEN_HEADER, required = false) String clusterToken) {
+        return acceptBatch(metricsList, PipelineMetrics.IngestEndpoint.BATCH_JSON, authorization,
+                isForwardedByPeer(forwardedBy, clusterToken));
+    }
+
+    @PostMapping(value = "/metrics/batch", consumes = BinaryMetricsCodec.CONTENT_TYPE)
+    public ResponseEntity<String> submitBinaryMetricsBatch(
+            @RequestBody byte[] body,
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+            @RequestHeader(value = ClusterMembership.TOKEN_HEADER, required = false) String clusterToken) {
+        List<DeviceMetrics> metricsList;
+        try {
+            metricsList = BinaryMetricsCodec.decode(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return acceptBatch(metricsList, PipelineMetrics.IngestEndpoint.BATCH_BINARY, authorization,
+                isForwardedByPeer(forwardedBy, clusterToken));
+    }
+
+    private ResponseEntity<String> acceptBatch(List<DeviceMetrics> metricsList, PipelineMetrics.IngestEndpoint endpoint,
+                                               String authorization, boolean forwarded) {
         for (DeviceMetrics metrics : metricsList) {
-            metrics.setTimestamp(LocalDateTime.now());
-            metricsQueue.offer(metrics);
-            messagingTemplate.convertAndSend("/topic/metrics/" + metrics.getDeviceId(), metrics);
+            if (!DeviceMetrics.isDeviceIdWithinLimit(metrics.getDeviceId())) {
+                return ResponseEntity.badRequest().body(DEVICE_ID_TOO_LONG);
+            }
+        }
+        if (forwarded) {
+            return batchResponse(ingestService.ingestLocal(metricsList, endpoint), metricsList.size(), false);
+        }
+        ClusterService.ForwardResult result = ingestService.ingest(metricsList, endpoint, authorization);
+        return batchResponse(result.getAccepted(), metricsList.size(), result.isOwnerUnavailable());
+    }
+
+    private boolean isForwardedByPeer(String forwardedBy, String clusterToken) {
+        return cluster != null && cluster.isForwardedByPeer(forwardedBy, clusterToken);
+    }
+
+    private ResponseEntity<String> batchResponse(int accepted, int total, boolean ownerUnavailable) {
+        HttpStatus status = ownerUnavailable ? HttpStatus.SERVICE_UNAVAILABLE
+                : accepted < total ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.OK;
+        MetricsQueueConsumerService.FlowControl flow = queueConsumer.flowControl();
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status)
+                .header(ClusterService.ACCEPTED_HEADER, Integer.toString(accepted))
+                .header(BATCH_SIZE_HEADER, Integer.toString(flow.getBatchSize()))
+                .header(FLUSH_INTERVAL_HEADER, Long.toString(flow.getFlushIntervalMs()));
+        long retryAfter = (status == HttpStatus.OK) ? flow.getRetryAfterSeconds() : Math.max(1, flow.getRetryAfterSeconds());
+        if (retryAfter > 0) {
+            response.header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+        }
+        if (ownerUnavailable) {
+            return response.body("Owner node unavailable, accepted " + accepted + " of " + total);
+        }
+        if (accepted < total) {
+            return response.body("Ingest queue full, accepted " + accepted + " of " + total);
         }
-        return ResponseEntity.ok("Batch accepted");
+        return response.body("Batch accepted");
     }
 
+    // Rows are queued but not confirmed on disk; the agent retries and seq deduplication drops repeats
+    @ExceptionHandler(MetricsWriteAheadLog.NotDurableException.class)
+    public ResponseEntity<String> handleNotDurable(MetricsWriteAheadLog.NotDurableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Write-ahead log unavailable, retry");
+    }
+
+    @GetMapping("/ingest/stats")
+    public Map<String, Object> getIngestStats() {
+        return Map.of(
+                "queueDepth", metricsQueue.getDepth(),
+                "queueCapacity", metricsQueue.getCapacity(),
+                "partitions", metricsQueue.getPartitionCount(),
+                "overflowPolicy", metricsQueue.getOverflowPolicy(),
+                "accepted", metricsQueue.getAcceptedCount(),
+                "dropped", metricsQueue.getDroppedCount(),
+                "rejected", metricsQueue.getRejectedCount(),
+                "duplicates", deduplicator.getDuplicateCount(),
+                "late", deduplicator.getLateCount()
+        );
+    }
+
+    // Newest first by default; with fromTimestamp, oldest first from there. Follow nextCursor for more.
+    // Carries an ETag (and Last-Modified once the range is sealed), so If-None-Match gets a 304.
     @GetMapping("/metrics/{deviceId}")
-    public Page<DeviceMetrics> getMetrics(
+    public ResponseEntity<?> getMetrics(
             @PathVariable String deviceId,
-            @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(required = false) String fromTimestamp,
+            @RequestParam(required = false) String toTimestamp,
+            @RequestParam(required = false) String cursor) {
+
+        LocalDateTime from;
+        LocalDateTime to;
+        HistoryCursor position;
+        try {
+            from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : null;
+            to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : null;
+            position = (cursor != null) ? HistoryCursor.decode(cursor) : null;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        MetricHistoryCache.CachedSlice result = historyCache.readSlice(deviceId, visibleFrom(deviceId, from), to, position, size);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(result.etag())
+                .cacheControl(CacheControl.noCache().cachePrivate());
+        if (result.lastModifiedMillis() >= 0) {
+            response.lastModified(result.lastModifiedMillis());
+        }
+        return response.body(result.slice());
+    }
+
+    // Every row in the range, oldest first, streamed as CSV (default) or NDJSON
+    @GetMapping("/metrics/{deviceId}/export")
+    public ResponseEntity<StreamingResponseBody> exportMetrics(
+            @PathVariable String deviceId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) String fromTimestamp,
             @RequestParam(required = false) String toTimestamp) {
 
-        Pageable pageable = PageRequest.of(page, size);
-        LocalDateTime from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : null;
-        LocalDateTime to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : null;
-
-        if (from != null && to != null) {
-            return repo.findByDeviceIdAndTimestampBetween(deviceId, from, to, pageable);
-        } else if (from != null) {
-            return repo.findByDeviceIdAndTimestampAfter(deviceId, from, pageable);
-        } else if (to != null) {
-            return repo.findByDeviceIdAndTimestampBefore(deviceId, to, pageable);
-        } else {
-            return repo.findByDeviceIdOrderByTimestampDesc(deviceId, pageable);
+        MetricHistoryService.ExportFormat exportFormat;
+        LocalDateTime from;
+        LocalDateTime to;
+        try {
+            exportFormat = MetricHistoryService.ExportFormat.valueOf(format.toUpperCase());
+            from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : null;
+            to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : null;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            byte[] message = "format must be csv or ndjson and timestamps ISO-8601".getBytes(StandardCharsets.UTF_8);
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(out -> out.write(message));
+        }
+        LocalDateTime visibleFrom = visibleFrom(deviceId, from);
+        StreamingResponseBody body = out -> historyService.export(deviceId, visibleFrom, to, exportFormat, out);
+        String extension = exportFormat == MetricHistoryService.ExportFormat.CSV ? "csv" : "ndjson";
+        return ResponseEntity.ok()
+                .contentType(exportFormat == MetricHistoryService.ExportFormat.CSV
+                        ? MediaType.parseMediaType("text/csv") : MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(deviceId + "." + extension).build().toString())
+                .body(body);
+    }
+
+    // Hide history of a deleted device until the background purge has removed it
+    private LocalDateTime visibleFrom(String deviceId, LocalDateTime from) {
+        LocalDateTime deletedAt = tombstones.deletedAt(deviceId);
+        if (deletedAt != null && (from == null || from.isBefore(deletedAt))) {
+            return deletedAt;
         }
+        return from;
     }
 
     @GetMapping("/metrics/status")
     public List<DeviceStatus> getDeviceStatuses() {
-        List<DeviceStatus> statuses = new ArrayList<>();
-        List<String> deviceIds = repo.findDistinctDeviceIds();
-        for (String deviceId : deviceIds) {
-            DeviceMetrics latest = repo.findTopByDeviceIdOrderByTimestampDesc(deviceId);
-            if (latest != null) {
-                boolean online = latest.getTimestamp().isAfter(LocalDateTime.now().minusSeconds(120));
-                statuses.add(new DeviceStatus(deviceId, latest.getTimestamp(), online));
-            }
-        }
-        return statuses;
+        return latestStore.getStatuses();
     }
 
     @GetMapping("/devices")
     public List<String> getAllDeviceIds() {
-        return repo.findDistinctDeviceIds();
+        List<String> deviceIds = registry.getDeviceIds();
+        deviceIds.removeIf(deviceId -> tombstones.deletedAt(deviceId) != null && latestStore.getLatest(deviceId) == null);
+        return deviceIds;
     }
 
     @GetMapping("/metrics/latest")
     public List<DeviceMetrics> getLatestMetrics() {
-        List<String> deviceIds = repo.findDistinctDeviceIds();
-        List<DeviceMetrics> latestMetrics = new ArrayList<>();
-        for (String deviceId : deviceIds) {
-            DeviceMetrics latest = repo.findTopByDeviceIdOrderByTimestampDesc(deviceId);
-            if (latest != null) {
-                latestMetrics.add(latest);
-            }
-        }
-        return latestMetrics;
+        return latestStore.getLatest();
     }
 
     @DeleteMapping("/devices/{deviceId}")
     public ResponseEntity<Void> deleteDevice(@PathVariable String deviceId) {
-        repo.deleteByDeviceId(deviceId);
+        tombstones.markDeleted(deviceId);
+        latestStore.remove(deviceId);
+        recentBuffer.remove(deviceId);
+        rollupService.forget(deviceId);
+        fleetAggregates.forget(deviceId);
+        alertEngine.forget(deviceId);
+        broadcaster.forget(deviceId);
+        deduplicator.forget(deviceId);
+        historyCache.forget(deviceId);
+        if (cluster != null) {
+            cluster.deviceDeleted(deviceId, tombstones.deletedAt(deviceId));
+        }
         return ResponseEntity.noContent().build();
     }
 }
@@ -0,0 +1,83 @@
+package com.sentinel;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fleet-wide queries. Without fromTimestamp they cover each online device's latest sample ("right
+ * now"); with it, the devices' samples in the range, within the last sentinel.fleet.window-minutes.
+ */
+@RestController
+@RequestMapping("/api/fleet")
+public class FleetController {
+
+    private static final String DEFAULT_STATS = "avg,min,max,p50,p95,p99";
+    private static final int MAX_K = 1000;
+
+    private final FleetAggregateService fleetAggregates;
+
+    public FleetController(FleetAggregateService fleetAggregates) {
+        this.fleetAggregates = fleetAggregates;
+    }
+
+    // e.g. /api/fleet/aggregate?field=cpuUsage&stats=p95&fromTimestamp=2024-05-01T10:00:00
+    //      /api/fleet/aggregate?field=memoryUsage&above=90  (how many devices: "devices")
+    @GetMapping("/aggregate")
+    public ResponseEntity<?> aggregate(
+            @RequestParam String field,
+            @RequestParam(defaultValue = DEFAULT_STATS) String stats,
+            @RequestParam(required = false) String fromTimestamp,
+            @RequestParam(required = false) String toTimestamp,
+            @RequestParam(required = false) Double above,
+            @RequestParam(required = false) Double below) {
+
+        try {
+            LocalDateTime to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : LocalDateTime.now();
+            LocalDateTime from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : null;
+            if (from != null && !from.isBefore(to)) {
+                return ResponseEntity.badRequest().body("fromTimestamp must be before toTimestamp");
+            }
+            List<String> statList = new ArrayList<>();
+            for (String stat : stats.split(",")) {
+                statList.add(stat.trim());
+            }
+            return ResponseEntity.ok(fleetAggregates.aggregate(MetricField.fromFieldName(field), statList, from, to, above, below));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // e.g. /api/fleet/topk?field=diskWriteBytesPerSec&stat=avg&k=20&fromTimestamp=2024-05-01T10:00:00
+    @GetMapping("/topk")
+    public ResponseEntity<?> topK(
+            @RequestParam String field,
+            @RequestParam(defaultValue = "avg") String stat,
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(defaultValue = "desc") String order,
+            @RequestParam(required = false) String fromTimestamp,
+            @RequestParam(required = false) String toTimestamp) {
+
+        try {
+            LocalDateTime to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : LocalDateTime.now();
+            LocalDateTime from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : null;
+            if (from != null && !from.isBefore(to)) {
+                return ResponseEntity.badRequest().body("fromTimestamp must be before toTimestamp");
+            }
+            if (k < 1 || k > MAX_K) {
+                return ResponseEntity.badRequest().body("k must be between 1 and " + MAX_K);
+            }
+            if (!order.equalsIgnoreCase("desc") && !order.equalsIgnoreCase("asc")) {
+                return ResponseEntity.badRequest().body("order must be asc or desc");
+            }
+            return ResponseEntity.ok(fleetAggregates.topK(MetricField.fromFieldName(field), stat, k,
+                    order.equalsIgnoreCase("asc"), from, to));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.sentinel;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api")
+public class MetricSeriesController {
+
+    private static final String DEFAULT_FIELDS = "cpuUsage:avg,memoryUsage:avg,diskUsage:avg";
+
+    private final MetricRollupService rollupService;
+
+    public MetricSeriesController(MetricRollupService rollupService) {
+        this.rollupService = rollupService;
+    }
+
+    // e.g. /api/metrics/host-1/series?fields=cpuUsage:avg,cpuUsage:p95&resolution=1m&maxPoints=500
+    @GetMapping("/metrics/{deviceId}/series")
+    public ResponseEntity<?> getSeries(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) String fromTimestamp,
+            @RequestParam(required = false) String toTimestamp,
+            @RequestParam(required = false) String resolution,
+            @RequestParam(defaultValue = DEFAULT_FIELDS) String fields,
+            @RequestParam(defaultValue = "1000") int maxPoints) {
+
+        try {
+            LocalDateTime to = (toTimestamp != null) ? LocalDateTime.parse(toTimestamp) : LocalDateTime.now();
+            LocalDateTime from = (fromTimestamp != null) ? LocalDateTime.parse(fromTimestamp) : to.minusHours(1);
+            if (!from.isBefore(to) || maxPoints < 1) {
+                return ResponseEntity.badRequest().body("fromTimestamp must be before toTimestamp and maxPoints >= 1");
+            }
+            RollupResolution requested = (resolution != null) ? RollupResolution.fromLabel(resolution) : null;
+
+            List<String> columns = new ArrayList<>();
+            for (String field : fields.split(",")) {
+                String[] parts = field.trim().split(":", 2);
+                String aggregation = (parts.length > 1) ? parts[1] : "avg";
+                MetricField.fromFieldName(parts[0]);
+                RollupAggregation.fromName(aggregation);
+                columns.add(parts[0] + "." + aggregation.toLowerCase());
+            }
+
+            return ResponseEntity.ok(rollupService.querySeries(deviceId, from, to, requested, columns, maxPoints));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+
+/**
+ * A rule changing state for a device, as published on /topic/alerts. The heartbeat rule fires
+ * when a device stops reporting and resolves when it reports again.
+ */
+public class AlertEvent {
+
+    public enum State { FIRING, RESOLVED }
+
+    private final String deviceId;
+    private final String rule;
+    private final State state;
+    private final Double value;
+    private final String message;
+    private final LocalDateTime timestamp;
+
+    public AlertEvent(String deviceId, String rule, State state, Double value, String message, LocalDateTime timestamp) {
+        this.deviceId = deviceId;
+        this.rule = rule;
+        this.state = state;
+        this.value = value;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    public String getDeviceId() { return deviceId; }
+    public String getRule() { return rule; }
+    public State getState() { return state; }
+    public Double getValue() { return value; }
+    public String getMessage() { return message; }
+    public LocalDateTime getTimestamp() { return timestamp; }
+}
@@ -0,0 +1,125 @@
+package com.sentinel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An alert condition evaluated by AlertEngine against every accepted sample, written as
+ * {@code name: field [zscore] op value [for duration]}, e.g.
+ * <pre>
+ * cpu-high: cpuUsage > 90 for 60s
+ * latency-anomaly: latencyMs zscore > 4
+ * </pre>
+ * A threshold rule compares the raw value; a z-score rule compares the sample's distance from the
+ * device's exponentially weighted mean, in standard deviations. With "for", the condition must hold
+ * on every sample for that long before the alert fires.
+ */
+public class AlertRule {
+
+    public enum Kind { THRESHOLD, ZSCORE }
+
+    public enum Operator {
+        GT(">"), GE(">="), LT("<"), LE("<=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public boolean test(double value, double threshold) {
+            switch (this) {
+                case GT: return value > threshold;
+                case GE: return value >= threshold;
+                case LT: return value < threshold;
+                default: return value <= threshold;
+            }
+        }
+
+        static Operator fromSymbol(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operator: " + symbol);
+        }
+    }
+
+    private static final Pattern SYNTAX = Pattern.compile(
+            "\\s*([\\w.-]+)\\s*:\\s*(\\w+)\\s+(zscore\\s+)?(>=|<=|>|<)\\s*(-?[\\d.]+)(?:\\s+for\\s+(\\d+)\\s*(ms|s|m|h))?\\s*");
+
+    private final String name;
+    private final MetricField field;
+    private final Kind kind;
+    private final Operator operator;
+    private final double threshold;
+    private final long forMillis;
+
+    public AlertRule(String name, MetricField field, Kind kind, Operator operator, double threshold, long forMillis) {
+        this.name = name;
+        this.field = field;
+        this.kind = kind;
+        this.operator = operator;
+        this.threshold = threshold;
+        this.forMillis = forMillis;
+    }
+
+    public static AlertRule parse(String definition) {
+        Matcher matcher = SYNTAX.matcher(definition);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid alert rule '" + definition.trim()
+                    + "', expected 'name: field [zscore] op value [for duration]'");
+        }
+        long forMillis = 0;
+        if (matcher.group(6) != null) {
+            long amount = Long.parseLong(matcher.group(6));
+            switch (matcher.group(7)) {
+                case "ms": forMillis = amount; break;
+                case "s": forMillis = amount * 1000; break;
+                case "m": forMillis = amount * 60_000; break;
+                default: forMillis = amount * 3_600_000; break;
+            }
+        }
+        return new AlertRule(matcher.group(1), MetricField.fromFieldName(matcher.group(2)),
+                matcher.group(3) != null ? Kind.ZSCORE : Kind.THRESHOLD,
+                Operator.fromSymbol(matcher.group(4)), Double.parseDouble(matcher.group(5)), forMillis);
+    }
+
+    /** Parses a ';'-separated list of rule definitions; rule names must be unique. */
+    public static List<AlertRule> parseAll(String definitions) {
+        List<AlertRule> rules = new ArrayList<>();
+        for (String definition : definitions.split(";")) {
+            if (definition.isBlank()) {
+                continue;
+            }
+            AlertRule rule = parse(definition);
+            if (rules.stream().anyMatch(r -> r.name.equals(rule.name))) {
+                throw new IllegalArgumentException("Duplicate alert rule name: " + rule.name);
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    public String getName() { return name; }
+    public MetricField getField() { return field; }
+    public Kind getKind() { return kind; }
+    public Operator getOperator() { return operator; }
+    public double getThreshold() { return threshold; }
+    public long getForMillis() { return forMillis; }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: %s%s %s %s%s", name, field.getFieldName(),
+                kind == Kind.ZSCORE ? " zscore" : "", operator.symbol, threshold,
+                forMillis > 0 ? " for " + forMillis + "ms" : "");
+    }
+}
@@ -0,0 +1,56 @@
+package com.sentinel;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state a delta subscription starts from. A full snapshot carries every field of every
+ * requested device; a resume (full = false) carries only what changed after the client's
+ * last seq, plus the devices deleted since. Frames on the delta topics apply to a device
+ * only when their seq is higher than that device's seq here.
+ */
+public class DeltaSnapshot {
+    private final String stream;
+    private final long seq;
+    private final boolean full;
+    private final List<Entry> devices;
+    private final List<String> removed;
+
+    public DeltaSnapshot(String stream, long seq, boolean full, List<Entry> devices, List<String> removed) {
+        this.stream = stream;
+        this.seq = seq;
+        this.full = full;
+        this.devices = devices;
+        this.removed = removed;
+    }
+
+    public String getStream() { return stream; }
+    public long getSeq() { return seq; }
+    public boolean isFull() { return full; }
+    public List<Entry> getDevices() { return devices; }
+    public List<String> getRemoved() { return removed; }
+
+    public static class Entry {
+        private final String deviceId;
+        private final long seq;
+        private final LocalDateTime timestamp;
+        private final boolean online;
+        private final Map<String, BigDecimal> values;
+
+        public Entry(String deviceId, long seq, LocalDateTime timestamp, boolean online, Map<String, BigDecimal> values) {
+            this.deviceId = deviceId;
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.online = online;
+            this.values = values;
+        }
+
+        public String getDeviceId() { return deviceId; }
+        public long getSeq() { return seq; }
+        public LocalDateTime getTimestamp() { return timestamp; }
+        public boolean isOnline() { return online; }
+        public Map<String, BigDecimal> getValues() { return values; }
+    }
+}
@@ -0,0 +1,42 @@
+package com.sentinel;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * A known device. The integer id is what device_metrics rows store instead of the device name;
+ * DeviceRegistry assigns it the first time a device sends metrics.
+ */
+@Entity
+@Table(name = "devices", indexes = {
+        @Index(name = "idx_devices_device_id", columnList = "deviceId", unique = true)
+})
+public class Device {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "devices_seq")
+    @SequenceGenerator(name = "devices_seq", sequenceName = "devices_seq", allocationSize = 50)
+    private Integer id;
+
+    @Column(nullable = false)
+    private String deviceId;
+
+    private LocalDateTime registeredAt;
+
+    public Device() {}
+
+    public Device(Integer id, String deviceId, LocalDateTime registeredAt) {
+        this.id = id;
+        this.deviceId = deviceId;
+        this.registeredAt = registeredAt;
+    }
+
+    public Integer getId() { return id; }
+    public void setId(Integer id) { this.id = id; }
+
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public LocalDateTime getRegisteredAt() { return registeredAt; }
+    public void setRegisteredAt(LocalDateTime registeredAt) { this.registeredAt = registeredAt; }
+}
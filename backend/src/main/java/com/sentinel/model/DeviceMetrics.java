@@ -1,15 +1,31 @@
 package com.sentinel;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import jakarta.persistence.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 @Entity
+@Table(name = "device_metrics", indexes = {
+        @Index(name = "idx_device_metrics_device_ts", columnList = "device_key, timestamp")
+})
 public class DeviceMetrics {
 
+    // Longest device id, in UTF-8 bytes, accepted on any ingest path; the write-ahead log relies on it
+    public static final int MAX_DEVICE_ID_BYTES = 1024;
+
+    // Pooled sequence ids let Hibernate batch inserts; IDENTITY forces one round trip per row
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "device_metrics_seq")
+    @SequenceGenerator(name = "device_metrics_seq", sequenceName = "device_metrics_seq", allocationSize = 50)
     private Long id;
-    
+
+    // Stored as the device's integer key from DeviceRegistry rather than the name
+    @Convert(converter = DeviceKeyConverter.class)
+    @Column(name = "device_key")
     private String deviceId;
     private double cpuUsage;
     private double memoryUsage;
@@ -27,6 +43,26 @@ public class DeviceMetrics {
 
     private LocalDateTime timestamp;
 
+    // The agent's per-device sample counter, which retried batches are deduplicated by; null from older agents
+    @Column(name = "client_seq")
+    private Long seq;
+
+    // System.nanoTime() when the metric entered the ingest queue, for enqueue-to-persist lag
+    @Transient
+    @JsonIgnore
+    private long enqueuedAtNanos;
+
+    // Segment and offset of the write-ahead log record, 0 once released or when not logged
+    @Transient
+    @JsonIgnore
+    private long walPosition;
+
+    /** Whether the id fits MAX_DEVICE_ID_BYTES; null counts as fitting. */
+    public static boolean isDeviceIdWithinLimit(String deviceId) {
+        return deviceId == null || deviceId.length() * 3 <= MAX_DEVICE_ID_BYTES
+                || deviceId.getBytes(StandardCharsets.UTF_8).length <= MAX_DEVICE_ID_BYTES;
+    }
+
     // Getters
     public Long getId() {
         return id;
@@ -76,6 +112,18 @@ public class DeviceMetrics {
         return timestamp;
     }
 
+    public Long getSeq() {
+        return seq;
+    }
+
+    public long getEnqueuedAtNanos() {
+        return enqueuedAtNanos;
+    }
+
+    public long getWalPosition() {
+        return walPosition;
+    }
+
     // Setters
     public void setId(Long id) {
         this.id = id;
@@ -124,4 +172,22 @@ public class DeviceMetrics {
     public void setTimestamp(LocalDateTime timestamp) {
         this.timestamp = timestamp;
     }
+
+    // Agents may send epoch millis instead of a local timestamp, as in the binary format
+    @JsonSetter("timestampMillis")
+    public void setTimestampMillis(long timestampMillis) {
+        this.timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestampMillis), ZoneId.systemDefault());
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    public void setEnqueuedAtNanos(long enqueuedAtNanos) {
+        this.enqueuedAtNanos = enqueuedAtNanos;
+    }
+
+    public void setWalPosition(long walPosition) {
+        this.walPosition = walPosition;
+    }
 }
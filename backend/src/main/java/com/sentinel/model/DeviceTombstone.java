@@ -0,0 +1,30 @@
+package com.sentinel;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Marks a deleted device. Metrics up to deletedAt are hidden immediately and purged in the background.
+ */
+@Entity
+@Table(name = "device_tombstones")
+public class DeviceTombstone {
+
+    @Id
+    private String deviceId;
+
+    private LocalDateTime deletedAt;
+
+    public DeviceTombstone() {}
+
+    public DeviceTombstone(String deviceId, LocalDateTime deletedAt) {
+        this.deviceId = deviceId;
+        this.deletedAt = deletedAt;
+    }
+
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public LocalDateTime getDeletedAt() { return deletedAt; }
+    public void setDeletedAt(LocalDateTime deletedAt) { this.deletedAt = deletedAt; }
+}
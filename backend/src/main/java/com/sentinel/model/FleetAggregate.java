@@ -0,0 +1,34 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * One field aggregated across the fleet. from/to are null for a query over each online device's
+ * latest sample; otherwise they are the bucket-aligned range actually covered.
+ */
+public class FleetAggregate {
+    private final String field;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final int devices;
+    private final long samples;
+    private final Map<String, Double> values;
+
+    public FleetAggregate(String field, LocalDateTime from, LocalDateTime to, int devices, long samples,
+                          Map<String, Double> values) {
+        this.field = field;
+        this.from = from;
+        this.to = to;
+        this.devices = devices;
+        this.samples = samples;
+        this.values = values;
+    }
+
+    public String getField() { return field; }
+    public LocalDateTime getFrom() { return from; }
+    public LocalDateTime getTo() { return to; }
+    public int getDevices() { return devices; }
+    public long getSamples() { return samples; }
+    public Map<String, Double> getValues() { return values; }
+}
@@ -0,0 +1,42 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The k devices ranking highest (or lowest) on one statistic of one field, best first.
+ */
+public class FleetTopK {
+    private final String field;
+    private final String stat;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+    private final List<Entry> devices;
+
+    public FleetTopK(String field, String stat, LocalDateTime from, LocalDateTime to, List<Entry> devices) {
+        this.field = field;
+        this.stat = stat;
+        this.from = from;
+        this.to = to;
+        this.devices = devices;
+    }
+
+    public String getField() { return field; }
+    public String getStat() { return stat; }
+    public LocalDateTime getFrom() { return from; }
+    public LocalDateTime getTo() { return to; }
+    public List<Entry> getDevices() { return devices; }
+
+    public static class Entry {
+        private final String deviceId;
+        private final double value;
+
+        public Entry(String deviceId, double value) {
+            this.deviceId = deviceId;
+            this.value = value;
+        }
+
+        public String getDeviceId() { return deviceId; }
+        public double getValue() { return value; }
+    }
+}
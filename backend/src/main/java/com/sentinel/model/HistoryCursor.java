@@ -0,0 +1,70 @@
+package com.sentinel;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+/**
+ * Continuation token for keyset pagination over (timestamp, id): where the last returned row sits
+ * and which way the history is being read. Clients get it as opaque URL-safe base64.
+ * Rows served from memory have no id yet; their cursors use an id past every real one, so the
+ * next page starts strictly beyond their timestamp.
+ */
+public class HistoryCursor {
+
+    private static final int ENCODED_BYTES = 1 + Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final boolean descending;
+    private final LocalDateTime timestamp;
+    private final long id;
+
+    public HistoryCursor(boolean descending, LocalDateTime timestamp, long id) {
+        this.descending = descending;
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public static HistoryCursor after(DeviceMetrics last, boolean descending) {
+        long id = (last.getId() != null) ? last.getId() : (descending ? Long.MIN_VALUE : Long.MAX_VALUE);
+        return new HistoryCursor(descending, last.getTimestamp(), id);
+    }
+
+    public boolean isDescending() { return descending; }
+    public LocalDateTime getTimestamp() { return timestamp; }
+    public long getId() { return id; }
+
+    /** False when the cursor came from a row without an id, so ties on its timestamp can't occur. */
+    public boolean hasRowId() {
+        return id != Long.MIN_VALUE && id != Long.MAX_VALUE;
+    }
+
+    public String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_BYTES);
+        buffer.put((byte) (descending ? 1 : 0));
+        buffer.putLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(timestamp.getNano());
+        buffer.putLong(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    public static HistoryCursor decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        if (bytes.length != ENCODED_BYTES || bytes[0] > 1) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        boolean descending = buffer.get() == 1;
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+        if (nano < 0 || nano > 999_999_999) {
+            throw new IllegalArgumentException("Malformed cursor");
+        }
+        return new HistoryCursor(descending, LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC), buffer.getLong());
+    }
+}
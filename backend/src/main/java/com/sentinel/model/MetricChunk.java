@@ -0,0 +1,51 @@
+package com.sentinel;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * One device's raw samples for one sealed hour, compressed with MetricChunkCodec.
+ * firstTimestamp and lastTimestamp bound the samples inside, so range reads only
+ * fetch and decode the chunks that overlap them.
+ */
+@Entity
+@Table(name = "metric_chunks", indexes = {
+        @Index(name = "idx_metric_chunks_device_start", columnList = "deviceId, chunkStart", unique = true)
+})
+public class MetricChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "metric_chunks_seq")
+    @SequenceGenerator(name = "metric_chunks_seq", sequenceName = "metric_chunks_seq", allocationSize = 50)
+    private Long id;
+
+    private String deviceId;
+    private LocalDateTime chunkStart;
+    private LocalDateTime firstTimestamp;
+    private LocalDateTime lastTimestamp;
+    private int sampleCount;
+
+    // bytea on PostgreSQL; an hour at 3s encodes to well under 100 KB
+    @Column(length = 1024 * 1024)
+    private byte[] data;
+
+    public MetricChunk() {}
+
+    public MetricChunk(String deviceId, LocalDateTime chunkStart) {
+        this.deviceId = deviceId;
+        this.chunkStart = chunkStart;
+    }
+
+    public Long getId() { return id; }
+    public String getDeviceId() { return deviceId; }
+    public LocalDateTime getChunkStart() { return chunkStart; }
+    public LocalDateTime getFirstTimestamp() { return firstTimestamp; }
+    public LocalDateTime getLastTimestamp() { return lastTimestamp; }
+    public int getSampleCount() { return sampleCount; }
+    public byte[] getData() { return data; }
+
+    public void setFirstTimestamp(LocalDateTime firstTimestamp) { this.firstTimestamp = firstTimestamp; }
+    public void setLastTimestamp(LocalDateTime lastTimestamp) { this.lastTimestamp = lastTimestamp; }
+    public void setSampleCount(int sampleCount) { this.sampleCount = sampleCount; }
+    public void setData(byte[] data) { this.data = data; }
+}
@@ -0,0 +1,47 @@
+package com.sentinel;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Numeric fields of DeviceMetrics that can be aggregated. Missing values read as NaN.
+ */
+public enum MetricField {
+    CPU_USAGE("cpuUsage", DeviceMetrics::getCpuUsage),
+    MEMORY_USAGE("memoryUsage", DeviceMetrics::getMemoryUsage),
+    DISK_USAGE("diskUsage", DeviceMetrics::getDiskUsage),
+    BYTES_SENT_PER_SEC("bytesSentPerSec", m -> orNaN(m.getBytesSentPerSec())),
+    BYTES_RECV_PER_SEC("bytesRecvPerSec", m -> orNaN(m.getBytesRecvPerSec())),
+    DISK_READ_BYTES_PER_SEC("diskReadBytesPerSec", m -> orNaN(m.getDiskReadBytesPerSec())),
+    DISK_WRITE_BYTES_PER_SEC("diskWriteBytesPerSec", m -> orNaN(m.getDiskWriteBytesPerSec())),
+    LATENCY_MS("latencyMs", m -> orNaN(m.getLatencyMs())),
+    SYSTEM_UPTIME_SECONDS("systemUptimeSeconds", m -> orNaN(m.getSystemUptimeSeconds()));
+
+    private final String fieldName;
+    private final ToDoubleFunction<DeviceMetrics> extractor;
+
+    MetricField(String fieldName, ToDoubleFunction<DeviceMetrics> extractor) {
+        this.fieldName = fieldName;
+        this.extractor = extractor;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public double valueOf(DeviceMetrics metrics) {
+        return extractor.applyAsDouble(metrics);
+    }
+
+    public static MetricField fromFieldName(String fieldName) {
+        for (MetricField field : values()) {
+            if (field.fieldName.equals(fieldName)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric field: " + fieldName);
+    }
+
+    private static double orNaN(Number value) {
+        return value == null ? Double.NaN : value.doubleValue();
+    }
+}
@@ -0,0 +1,27 @@
+package com.sentinel;
+
+import java.util.List;
+
+/**
+ * One slice of a device's raw history. Pass nextCursor back as the cursor parameter, with the
+ * same range, to continue; it is null on the last slice.
+ */
+public class MetricHistorySlice {
+    private final List<DeviceMetrics> content;
+    private final int size;
+    private final boolean hasNext;
+    private final String nextCursor;
+
+    public MetricHistorySlice(List<DeviceMetrics> content, int size, boolean hasNext, String nextCursor) {
+        this.content = content;
+        this.size = size;
+        this.hasNext = hasNext;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<DeviceMetrics> getContent() { return content; }
+    public int getSize() { return size; }
+    public int getNumberOfElements() { return content.size(); }
+    public boolean isHasNext() { return hasNext; }
+    public String getNextCursor() { return nextCursor; }
+}
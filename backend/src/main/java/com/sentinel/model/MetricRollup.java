@@ -0,0 +1,74 @@
+package com.sentinel;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Aggregate of one metric field for one device over one rollup bucket.
+ */
+@Entity
+@Table(name = "metric_rollups", indexes = {
+        @Index(name = "idx_rollup_device_res_metric_bucket",
+               columnList = "deviceId, resolutionSeconds, metric, bucketStart", unique = true)
+})
+public class MetricRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "metric_rollups_seq")
+    @SequenceGenerator(name = "metric_rollups_seq", sequenceName = "metric_rollups_seq", allocationSize = 50)
+    private Long id;
+
+    private String deviceId;
+    private int resolutionSeconds;
+    private String metric;
+    private LocalDateTime bucketStart;
+
+    private long sampleCount;
+    private double sum;
+    private double min;
+    private double max;
+    private double last;
+    private double p95;
+
+    public MetricRollup() {}
+
+    public MetricRollup(String deviceId, int resolutionSeconds, String metric, LocalDateTime bucketStart) {
+        this.deviceId = deviceId;
+        this.resolutionSeconds = resolutionSeconds;
+        this.metric = metric;
+        this.bucketStart = bucketStart;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getDeviceId() { return deviceId; }
+    public void setDeviceId(String deviceId) { this.deviceId = deviceId; }
+
+    public int getResolutionSeconds() { return resolutionSeconds; }
+    public void setResolutionSeconds(int resolutionSeconds) { this.resolutionSeconds = resolutionSeconds; }
+
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+
+    public LocalDateTime getBucketStart() { return bucketStart; }
+    public void setBucketStart(LocalDateTime bucketStart) { this.bucketStart = bucketStart; }
+
+    public long getSampleCount() { return sampleCount; }
+    public void setSampleCount(long sampleCount) { this.sampleCount = sampleCount; }
+
+    public double getSum() { return sum; }
+    public void setSum(double sum) { this.sum = sum; }
+
+    public double getMin() { return min; }
+    public void setMin(double min) { this.min = min; }
+
+    public double getMax() { return max; }
+    public void setMax(double max) { this.max = max; }
+
+    public double getLast() { return last; }
+    public void setLast(double last) { this.last = last; }
+
+    public double getP95() { return p95; }
+    public void setP95(double p95) { this.p95 = p95; }
+}
@@ -0,0 +1,40 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Downsampled history for one device. Each point carries one value per column,
+ * columns being "field.aggregation" pairs such as "cpuUsage.p95".
+ */
+public class MetricSeries {
+    private final String deviceId;
+    private final String resolution;
+    private final List<String> columns;
+    private final List<Point> points;
+
+    public MetricSeries(String deviceId, String resolution, List<String> columns, List<Point> points) {
+        this.deviceId = deviceId;
+        this.resolution = resolution;
+        this.columns = columns;
+        this.points = points;
+    }
+
+    public String getDeviceId() { return deviceId; }
+    public String getResolution() { return resolution; }
+    public List<String> getColumns() { return columns; }
+    public List<Point> getPoints() { return points; }
+
+    public static class Point {
+        private final LocalDateTime timestamp;
+        private final Double[] values;
+
+        public Point(LocalDateTime timestamp, Double[] values) {
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        public LocalDateTime getTimestamp() { return timestamp; }
+        public Double[] getValues() { return values; }
+    }
+}
@@ -0,0 +1,24 @@
+package com.sentinel;
+
+public enum RollupAggregation {
+    AVG, MIN, MAX, P95, LAST;
+
+    public double valueOf(MetricRollup rollup) {
+        switch (this) {
+            case AVG: return rollup.getSampleCount() == 0 ? Double.NaN : rollup.getSum() / rollup.getSampleCount();
+            case MIN: return rollup.getMin();
+            case MAX: return rollup.getMax();
+            case P95: return rollup.getP95();
+            case LAST:
+            default: return rollup.getLast();
+        }
+    }
+
+    public static RollupAggregation fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported aggregation: " + name);
+        }
+    }
+}
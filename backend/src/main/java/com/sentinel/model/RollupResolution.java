@@ -0,0 +1,53 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Rollup tiers maintained by MetricRollupService, finest first.
+ */
+public enum RollupResolution {
+    TEN_SECONDS("10s", 10),
+    ONE_MINUTE("1m", 60),
+    FIVE_MINUTES("5m", 300),
+    ONE_HOUR("1h", 3600);
+
+    private final String label;
+    private final int seconds;
+
+    RollupResolution(String label, int seconds) {
+        this.label = label;
+        this.seconds = seconds;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    public LocalDateTime bucketStart(LocalDateTime timestamp) {
+        long epochSecond = timestamp.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(epochSecond - Math.floorMod(epochSecond, seconds), 0, ZoneOffset.UTC);
+    }
+
+    public static RollupResolution fromLabel(String label) {
+        for (RollupResolution resolution : values()) {
+            if (resolution.label.equals(label)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported resolution: " + label);
+    }
+
+    public static RollupResolution fromSeconds(int seconds) {
+        for (RollupResolution resolution : values()) {
+            if (resolution.seconds == seconds) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported resolution: " + seconds + "s");
+    }
+}
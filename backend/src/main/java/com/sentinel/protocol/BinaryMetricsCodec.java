@@ -0,0 +1,225 @@
+package com.sentinel;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary batch format for /api/metrics/batch (Content-Type application/x-sentinel-metrics).
+ *
+ * <pre>
+ * "SMB" 0x02                      magic + version
+ * varint n, n x (varint len, utf8) device-id dictionary
+ * varint rows
+ * per row:
+ *   varint  device index into the dictionary
+ *   byte    presence flags (see FLAG_*)
+ *   zigzag  timestamp delta in epoch millis from the previous timestamped row   [FLAG_TIMESTAMP]
+ *   zigzag  agent sequence number delta from the previous sequenced row         [FLAG_SEQ]
+ *   float64 cpuUsage, memoryUsage, diskUsage
+ *   zigzag  bytesSent, bytesRecv, diskRead, diskWrite per second                [FLAG_* each]
+ *   float64 latencyMs                                                           [FLAG_LATENCY]
+ *   float64 systemUptimeSeconds                                                 [FLAG_UPTIME]
+ * </pre>
+ * Multi-byte fixed-width values are big-endian. Rows decode straight into DeviceMetrics.
+ * <p>
+ * Version 1 frames, from older agents, carry the four gauges as float32. They are still
+ * accepted, and each float is rounded to its shortest decimal form (45.3f to 45.3, not
+ * 45.29999923706055), so the stored value matches what the agent would have sent over JSON
+ * whenever that value has at most about seven significant digits.
+ */
+public final class BinaryMetricsCodec {
+
+    public static final String CONTENT_TYPE = "application/x-sentinel-metrics";
+
+    private static final byte[] MAGIC = {'S', 'M', 'B', 2};
+    private static final byte VERSION_FLOAT32 = 1;
+
+    static final int FLAG_TIMESTAMP = 1;
+    static final int FLAG_BYTES_SENT = 1 << 1;
+    static final int FLAG_BYTES_RECV = 1 << 2;
+    static final int FLAG_DISK_READ = 1 << 3;
+    static final int FLAG_DISK_WRITE = 1 << 4;
+    static final int FLAG_LATENCY = 1 << 5;
+    static final int FLAG_UPTIME = 1 << 6;
+    static final int FLAG_SEQ = 1 << 7;
+
+    // Guards against hostile length prefixes allocating huge arrays; counts are also bounded by
+    // the bytes left, at one per dictionary entry and MIN_ROW_BYTES per row
+    private static final int MAX_ROWS = 1_000_000;
+    private static final int MIN_ROW_BYTES = 26; // device index, flags, three doubles
+    private static final int MIN_ROW_BYTES_FLOAT32 = 14;
+
+    private BinaryMetricsCodec() {}
+
+    public static List<DeviceMetrics> decode(byte[] body) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            for (int i = 0; i < MAGIC.length - 1; i++) {
+                if (buffer.get() != MAGIC[i]) {
+                    throw new IllegalArgumentException("Not a Sentinel binary metrics frame");
+                }
+            }
+            byte version = buffer.get();
+            if (version != MAGIC[MAGIC.length - 1] && version != VERSION_FLOAT32) {
+                throw new IllegalArgumentException("Unsupported binary metrics frame version " + version);
+            }
+            boolean float32 = version == VERSION_FLOAT32;
+
+            int deviceCount = readLength(buffer, Math.min(MAX_ROWS, buffer.remaining()));
+            String[] devices = new String[deviceCount];
+            for (int i = 0; i < deviceCount; i++) {
+                int length = readLength(buffer, Math.min(DeviceMetrics.MAX_DEVICE_ID_BYTES, buffer.remaining()));
+                devices[i] = new String(body, buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+
+            int rows = readLength(buffer, Math.min(MAX_ROWS,
+                    buffer.remaining() / (float32 ? MIN_ROW_BYTES_FLOAT32 : MIN_ROW_BYTES)));
+            List<DeviceMetrics> metrics = new ArrayList<>(rows);
+            long timestamp = 0;
+            long seq = 0;
+            for (int i = 0; i < rows; i++) {
+                DeviceMetrics m = new DeviceMetrics();
+                int deviceIndex = readLength(buffer, deviceCount - 1);
+                m.setDeviceId(devices[deviceIndex]);
+                int flags = buffer.get() & 0xFF;
+                if ((flags & FLAG_TIMESTAMP) != 0) {
+                    timestamp += readZigZag(buffer);
+                    m.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+                }
+                if ((flags & FLAG_SEQ) != 0) {
+                    seq += readZigZag(buffer);
+                    m.setSeq(seq);
+                }
+                m.setCpuUsage(readGauge(buffer, float32));
+                m.setMemoryUsage(readGauge(buffer, float32));
+                m.setDiskUsage(readGauge(buffer, float32));
+                if ((flags & FLAG_BYTES_SENT) != 0) m.setBytesSentPerSec(readZigZag(buffer));
+                if ((flags & FLAG_BYTES_RECV) != 0) m.setBytesRecvPerSec(readZigZag(buffer));
+                if ((flags & FLAG_DISK_READ) != 0) m.setDiskReadBytesPerSec(readZigZag(buffer));
+                if ((flags & FLAG_DISK_WRITE) != 0) m.setDiskWriteBytesPerSec(readZigZag(buffer));
+                if ((flags & FLAG_LATENCY) != 0) m.setLatencyMs(readGauge(buffer, float32));
+                if ((flags & FLAG_UPTIME) != 0) m.setSystemUptimeSeconds(buffer.getDouble());
+                metrics.add(m);
+            }
+            return metrics;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated binary metrics frame", e);
+        }
+    }
+
+    public static byte[] encode(List<DeviceMetrics> metrics) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> devices = new ArrayList<>();
+        for (DeviceMetrics m : metrics) {
+            if (dictionary.putIfAbsent(m.getDeviceId(), devices.size()) == null) {
+                devices.add(m.getDeviceId());
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + metrics.size() * 40);
+        out.writeBytes(MAGIC);
+        writeVarint(out, devices.size());
+        for (String device : devices) {
+            byte[] bytes = device.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+        writeVarint(out, metrics.size());
+
+        ByteBuffer fixed = ByteBuffer.allocate(8);
+        long previousTimestamp = 0;
+        long previousSeq = 0;
+        for (DeviceMetrics m : metrics) {
+            writeVarint(out, dictionary.get(m.getDeviceId()));
+            int flags = (m.getTimestamp() != null ? FLAG_TIMESTAMP : 0)
+                    | (m.getBytesSentPerSec() != null ? FLAG_BYTES_SENT : 0)
+                    | (m.getBytesRecvPerSec() != null ? FLAG_BYTES_RECV : 0)
+                    | (m.getDiskReadBytesPerSec() != null ? FLAG_DISK_READ : 0)
+                    | (m.getDiskWriteBytesPerSec() != null ? FLAG_DISK_WRITE : 0)
+                    | (m.getLatencyMs() != null ? FLAG_LATENCY : 0)
+                    | (m.getSystemUptimeSeconds() != null ? FLAG_UPTIME : 0)
+                    | (m.getSeq() != null ? FLAG_SEQ : 0);
+            out.write(flags);
+            if (m.getTimestamp() != null) {
+                long timestamp = m.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                writeZigZag(out, timestamp - previousTimestamp);
+                previousTimestamp = timestamp;
+            }
+            if (m.getSeq() != null) {
+                writeZigZag(out, m.getSeq() - previousSeq);
+                previousSeq = m.getSeq();
+            }
+            writeDouble(out, fixed, m.getCpuUsage());
+            writeDouble(out, fixed, m.getMemoryUsage());
+            writeDouble(out, fixed, m.getDiskUsage());
+            if (m.getBytesSentPerSec() != null) writeZigZag(out, m.getBytesSentPerSec());
+            if (m.getBytesRecvPerSec() != null) writeZigZag(out, m.getBytesRecvPerSec());
+            if (m.getDiskReadBytesPerSec() != null) writeZigZag(out, m.getDiskReadBytesPerSec());
+            if (m.getDiskWriteBytesPerSec() != null) writeZigZag(out, m.getDiskWriteBytesPerSec());
+            if (m.getLatencyMs() != null) writeDouble(out, fixed, m.getLatencyMs());
+            if (m.getSystemUptimeSeconds() != null) writeDouble(out, fixed, m.getSystemUptimeSeconds());
+        }
+        return out.toByteArray();
+    }
+
+    private static int readLength(ByteBuffer buffer, int max) {
+        long value = readVarint(buffer);
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("Invalid length or index in binary metrics frame: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary metrics frame");
+    }
+
+    private static long readZigZag(ByteBuffer buffer) {
+        long raw = readVarint(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeZigZag(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static double readGauge(ByteBuffer buffer, boolean float32) {
+        if (!float32) {
+            return buffer.getDouble();
+        }
+        float value = buffer.getFloat();
+        return Float.isFinite(value) ? Double.parseDouble(Float.toString(value)) : value;
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, ByteBuffer fixed, double value) {
+        fixed.clear();
+        fixed.putDouble(value);
+        out.write(fixed.array(), 0, 8);
+    }
+}
@@ -0,0 +1,276 @@
+package com.sentinel;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text line protocol for the TCP/UDP ingest listener, one sample per line:
+ *
+ * <pre>
+ * deviceId field=value[,field=value...] [timestampMillis]
+ * web-01 seq=812,cpu=12.5,mem=40.1,disk=55.0,tx=12034,rx=88211,dr=0,dw=4096,lat=11.2,up=86400 1718000000000
+ * </pre>
+ * Fields are seq, cpu, mem, disk, tx, rx, dr, dw, lat and up (or the DeviceMetrics property names,
+ * cpuUsage, bytesSentPerSec, ...); absent ones are null, or 0 for the three usage percentages, as
+ * in JSON. Without a timestamp the backend stamps arrival time. Device ids may not contain
+ * whitespace. Lines end in \n (a preceding \r is ignored); blank lines and lines starting with #
+ * are skipped. Numbers are parsed straight from the bytes.
+ */
+public final class LineProtocolCodec {
+
+
+    // Field indexes, in the order of SHORT_NAMES and LONG_NAMES
+    private static final int SEQ = 0;
+    private static final int CPU = 1;
+    private static final int MEMORY = 2;
+    private static final int DISK = 3;
+    private static final int BYTES_SENT = 4;
+    private static final int BYTES_RECV = 5;
+    private static final int DISK_READ = 6;
+    private static final int DISK_WRITE = 7;
+    private static final int LATENCY = 8;
+    private static final int UPTIME = 9;
+
+    private static final byte[][] SHORT_NAMES = names("seq", "cpu", "mem", "disk", "tx", "rx", "dr", "dw", "lat", "up");
+    private static final byte[][] LONG_NAMES = names("seq", "cpuUsage", "memoryUsage", "diskUsage", "bytesSentPerSec",
+            "bytesRecvPerSec", "diskReadBytesPerSec", "diskWriteBytesPerSec", "latencyMs", "systemUptimeSeconds");
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private LineProtocolCodec() {}
+
+    public static List<DeviceMetrics> decode(byte[] body) {
+        return decode(body, 0, body.length);
+    }
+
+    public static List<DeviceMetrics> decode(byte[] body, int offset, int length) {
+        List<DeviceMetrics> metrics = new ArrayList<>();
+        String[] previousDevice = new String[1]; // consecutive rows of one device share its id
+        int end = offset + length;
+        int line = 0;
+        int position = offset;
+        while (position < end) {
+            line++;
+            int lineEnd = position;
+            while (lineEnd < end && body[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = (lineEnd > position && body[lineEnd - 1] == '\r') ? lineEnd - 1 : lineEnd;
+            if (contentEnd > position && body[position] != '#') {
+                try {
+                    metrics.add(decodeLine(body, position, contentEnd, previousDevice));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + line + ": " + e.getMessage());
+                }
+            }
+            position = lineEnd + 1;
+        }
+        return metrics;
+    }
+
+    public static byte[] encode(List<DeviceMetrics> metrics) {
+        StringBuilder out = new StringBuilder(metrics.size() * 120);
+        for (DeviceMetrics m : metrics) {
+            out.append(m.getDeviceId()).append(' ');
+            if (m.getSeq() != null) {
+                out.append("seq=").append(m.getSeq()).append(',');
+            }
+            out.append("cpu=").append(m.getCpuUsage())
+                    .append(",mem=").append(m.getMemoryUsage())
+                    .append(",disk=").append(m.getDiskUsage());
+            appendIfPresent(out, "tx", m.getBytesSentPerSec());
+            appendIfPresent(out, "rx", m.getBytesRecvPerSec());
+            appendIfPresent(out, "dr", m.getDiskReadBytesPerSec());
+            appendIfPresent(out, "dw", m.getDiskWriteBytesPerSec());
+            appendIfPresent(out, "lat", m.getLatencyMs());
+            appendIfPresent(out, "up", m.getSystemUptimeSeconds());
+            if (m.getTimestamp() != null) {
+                out.append(' ').append(m.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+            out.append('\n');
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static DeviceMetrics decodeLine(byte[] body, int start, int end, String[] previousDevice) {
+        int idEnd = indexOf(body, start, end, (byte) ' ');
+        if (idEnd == start || idEnd == end) {
+            throw new IllegalArgumentException("expected 'deviceId field=value,...'");
+        }
+        if (idEnd - start > DeviceMetrics.MAX_DEVICE_ID_BYTES) {
+            throw new IllegalArgumentException("device id longer than " + DeviceMetrics.MAX_DEVICE_ID_BYTES + " bytes");
+        }
+        DeviceMetrics m = new DeviceMetrics();
+        String deviceId = previousDevice[0];
+        if (deviceId == null || !matches(body, start, idEnd, deviceId)) {
+            deviceId = new String(body, start, idEnd - start, StandardCharsets.UTF_8);
+            previousDevice[0] = deviceId;
+        }
+        m.setDeviceId(deviceId);
+
+        int fieldsEnd = indexOf(body, idEnd + 1, end, (byte) ' ');
+        int position = idEnd + 1;
+        while (position < fieldsEnd) {
+            int fieldEnd = indexOf(body, position, fieldsEnd, (byte) ',');
+            int equals = indexOf(body, position, fieldEnd, (byte) '=');
+            if (equals == fieldEnd) {
+                throw new IllegalArgumentException("expected field=value");
+            }
+            int field = fieldIndex(body, position, equals);
+            switch (field) {
+                case SEQ -> m.setSeq(parseLong(body, equals + 1, fieldEnd));
+                case CPU -> m.setCpuUsage(parseDouble(body, equals + 1, fieldEnd));
+                case MEMORY -> m.setMemoryUsage(parseDouble(body, equals + 1, fieldEnd));
+                case DISK -> m.setDiskUsage(parseDouble(body, equals + 1, fieldEnd));
+                case BYTES_SENT -> m.setBytesSentPerSec(Math.round(parseDouble(body, equals + 1, fieldEnd)));
+                case BYTES_RECV -> m.setBytesRecvPerSec(Math.round(parseDouble(body, equals + 1, fieldEnd)));
+                case DISK_READ -> m.setDiskReadBytesPerSec(Math.round(parseDouble(body, equals + 1, fieldEnd)));
+                case DISK_WRITE -> m.setDiskWriteBytesPerSec(Math.round(parseDouble(body, equals + 1, fieldEnd)));
+                case LATENCY -> m.setLatencyMs(parseDouble(body, equals + 1, fieldEnd));
+                case UPTIME -> m.setSystemUptimeSeconds(parseDouble(body, equals + 1, fieldEnd));
+                default -> throw new IllegalArgumentException("unknown field "
+                        + new String(body, position, equals - position, StandardCharsets.UTF_8));
+            }
+            position = fieldEnd + 1;
+        }
+        if (fieldsEnd < end) {
+            m.setTimestampMillis(parseLong(body, fieldsEnd + 1, end));
+        }
+        return m;
+    }
+
+    private static int fieldIndex(byte[] body, int start, int end) {
+        // Short names are what the encoder writes; try the likely one by first byte and length
+        int guess = switch (body[start]) {
+            case 's' -> SEQ;
+            case 'c' -> CPU;
+            case 'm' -> MEMORY;
+            case 't' -> BYTES_SENT;
+            case 'r' -> BYTES_RECV;
+            case 'l' -> LATENCY;
+            case 'u' -> UPTIME;
+            case 'd' -> end - start == 4 ? DISK : body[start + 1] == 'r' ? DISK_READ : DISK_WRITE;
+            default -> -1;
+        };
+        if (guess >= 0 && matches(body, start, end, SHORT_NAMES[guess])) {
+            return guess;
+        }
+        for (int i = 0; i < SHORT_NAMES.length; i++) {
+            if (matches(body, start, end, SHORT_NAMES[i]) || matches(body, start, end, LONG_NAMES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] body, int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (body[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Device ids are compared as UTF-16 code units, which for the ASCII ids agents use are the bytes
+    private static boolean matches(byte[] body, int start, int end, String id) {
+        if (end - start != id.length()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (body[start + i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(byte[] body, int start, int end) {
+        boolean negative = start < end && body[start] == '-';
+        int position = negative ? start + 1 : start;
+        if (position == end || end - position > 18) {
+            throw new IllegalArgumentException("invalid integer " + text(body, start, end));
+        }
+        long value = 0;
+        for (; position < end; position++) {
+            int digit = body[position] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("invalid integer " + text(body, start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Plain decimals up to 15 significant digits are exact as mantissa / 10^scale; anything else
+    // (exponents, NaN, longer mantissas) goes through Double.parseDouble
+    private static double parseDouble(byte[] body, int start, int end) {
+        boolean negative = start < end && body[start] == '-';
+        int position = negative ? start + 1 : start;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; position < end; position++) {
+            byte b = body[position];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (position == end && digits > 0 && digits <= 15) {
+            double value = (scale > 0) ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(text(body, start, end));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number " + text(body, start, end));
+        }
+    }
+
+    private static int indexOf(byte[] body, int start, int end, byte target) {
+        for (int i = start; i < end; i++) {
+            if (body[i] == target) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static String text(byte[] body, int start, int end) {
+        return new String(body, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static void appendIfPresent(StringBuilder out, String name, Number value) {
+        if (value != null) {
+            out.append(',').append(name).append('=').append(value);
+        }
+    }
+
+    private static byte[][] names(String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,345 @@
+package com.sentinel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed column layout for a sealed run of one device's samples (see MetricChunk), after
+ * Facebook's Gorilla: timestamps as delta-of-delta, doubles as XOR against the previous value.
+ * Everything is one big-endian bit stream with the samples interleaved, oldest first.
+ *
+ * <pre>
+ * 8 bits   version
+ * 32 bits  sample count
+ * per sample:
+ *   int     timestamp delta-of-delta, epoch micros
+ *   int     id delta
+ *   1 bit   present, then int delta from the last present client seq (version 2 and later)
+ *   xor     cpuUsage, memoryUsage, diskUsage, latencyMs, systemUptimeSeconds (null = NaN)
+ *   1 bit   present, then int delta from the last present value: bytesSent, bytesRecv,
+ *           diskRead, diskWrite per second
+ *
+ * int: '0' zero | '10' 7 bits | '110' 12 bits | '1110' 20 bits | '11110' 32 bits | '11111' 64 bits,
+ *      zigzag-encoded
+ * xor: '0' same value | '10' meaningful bits inside the previous window
+ *      | '11' 5 bits leading zeros, 6 bits length - 1, meaningful bits
+ * </pre>
+ * A steady 3s sampling interval costs one bit per timestamp; slowly moving gauges mostly cost
+ * a few bits each, and consecutive client seqs one bit. Version 1 chunks, written before seqs
+ * were stored, still decode, with every seq null.
+ */
+public final class MetricChunkCodec {
+
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_SEQ = 1;
+    private static final int DOUBLES = 5;
+    private static final int LONGS = 4;
+    private static final int[] INT_BUCKETS = {7, 12, 20, 32};
+    private static final long NULL_DOUBLE = Double.doubleToLongBits(Double.NaN);
+
+    // Guards against corrupt counts allocating huge arrays
+    private static final int MAX_SAMPLES = 10_000_000;
+
+    private MetricChunkCodec() {}
+
+    /** Encodes samples, which must be sorted by timestamp and have ids. */
+    public static byte[] encode(List<DeviceMetrics> samples) {
+        BitWriter out = new BitWriter(16 + samples.size() * 24);
+        out.write(VERSION, 8);
+        out.write(samples.size(), 32);
+
+        long previousMicros = 0;
+        long previousDelta = 0;
+        long previousId = 0;
+        long[] previousSeq = new long[1];
+        XorState[] doubles = newXorStates();
+        long[] longs = new long[LONGS];
+        for (DeviceMetrics m : samples) {
+            long micros = RecentMetricsBuffer.toMicros(m.getTimestamp());
+            long delta = micros - previousMicros;
+            writeInt(out, delta - previousDelta);
+            previousMicros = micros;
+            previousDelta = delta;
+
+            writeInt(out, m.getId() - previousId);
+            previousId = m.getId();
+            writeNullable(out, previousSeq, 0, m.getSeq());
+
+            doubles[0].write(out, Double.doubleToLongBits(m.getCpuUsage()));
+            doubles[1].write(out, Double.doubleToLongBits(m.getMemoryUsage()));
+            doubles[2].write(out, Double.doubleToLongBits(m.getDiskUsage()));
+            doubles[3].write(out, m.getLatencyMs() == null ? NULL_DOUBLE : Double.doubleToLongBits(m.getLatencyMs()));
+            doubles[4].write(out, m.getSystemUptimeSeconds() == null
+                    ? NULL_DOUBLE : Double.doubleToLongBits(m.getSystemUptimeSeconds()));
+
+            writeNullable(out, longs, 0, m.getBytesSentPerSec());
+            writeNullable(out, longs, 1, m.getBytesRecvPerSec());
+            writeNullable(out, longs, 2, m.getDiskReadBytesPerSec());
+            writeNullable(out, longs, 3, m.getDiskWriteBytesPerSec());
+        }
+        return out.toByteArray();
+    }
+
+    public static List<DeviceMetrics> decode(String deviceId, byte[] data) {
+        return decode(deviceId, data, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The samples stamped within [fromMicros, toMicros], oldest first. Decoding stops at the
+     * first sample past toMicros.
+     */
+    public static List<DeviceMetrics> decode(String deviceId, byte[] data, long fromMicros, long toMicros) {
+        BitReader in = new BitReader(data);
+        int version = (int) in.read(8);
+        if (version != VERSION && version != VERSION_WITHOUT_SEQ) {
+            throw new IllegalArgumentException("Unsupported metric chunk version " + version);
+        }
+        long count = in.read(32);
+        if (count > MAX_SAMPLES) {
+            throw new IllegalArgumentException("Metric chunk claims " + count + " samples");
+        }
+
+        List<DeviceMetrics> samples = new ArrayList<>();
+        long micros = 0;
+        long delta = 0;
+        long id = 0;
+        long seq = 0;
+        XorState[] doubles = newXorStates();
+        long[] longs = new long[LONGS];
+        boolean[] present = new boolean[LONGS];
+        for (long i = 0; i < count; i++) {
+            delta += readInt(in);
+            micros += delta;
+            id += readInt(in);
+            boolean hasSeq = version >= VERSION && in.read(1) != 0;
+            if (hasSeq) {
+                seq += readInt(in);
+            }
+            long cpu = doubles[0].read(in);
+            long memory = doubles[1].read(in);
+            long disk = doubles[2].read(in);
+            long latency = doubles[3].read(in);
+            long uptime = doubles[4].read(in);
+            for (int column = 0; column < LONGS; column++) {
+                present[column] = in.read(1) != 0;
+                if (present[column]) {
+                    longs[column] += readInt(in);
+                }
+            }
+            if (micros > toMicros) {
+                break;
+            }
+            if (micros < fromMicros) {
+                continue;
+            }
+
+            DeviceMetrics m = new DeviceMetrics();
+            m.setId(id);
+            m.setSeq(hasSeq ? seq : null);
+            m.setDeviceId(deviceId);
+            m.setTimestamp(RecentMetricsBuffer.fromMicros(micros));
+            m.setCpuUsage(Double.longBitsToDouble(cpu));
+            m.setMemoryUsage(Double.longBitsToDouble(memory));
+            m.setDiskUsage(Double.longBitsToDouble(disk));
+            m.setLatencyMs(latency == NULL_DOUBLE ? null : Double.longBitsToDouble(latency));
+            m.setSystemUptimeSeconds(uptime == NULL_DOUBLE ? null : Double.longBitsToDouble(uptime));
+            m.setBytesSentPerSec(present[0] ? longs[0] : null);
+            m.setBytesRecvPerSec(present[1] ? longs[1] : null);
+            m.setDiskReadBytesPerSec(present[2] ? longs[2] : null);
+            m.setDiskWriteBytesPerSec(present[3] ? longs[3] : null);
+            samples.add(m);
+        }
+        return samples;
+    }
+
+    private static XorState[] newXorStates() {
+        XorState[] states = new XorState[DOUBLES];
+        Arrays.setAll(states, i -> new XorState());
+        return states;
+    }
+
+    private static void writeNullable(BitWriter out, long[] previous, int column, Long value) {
+        if (value == null) {
+            out.write(0, 1);
+            return;
+        }
+        out.write(1, 1);
+        writeInt(out, value - previous[column]);
+        previous[column] = value;
+    }
+
+    private static void writeInt(BitWriter out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        if (zigzag == 0) {
+            out.write(0, 1);
+            return;
+        }
+        for (int bucket = 0; bucket < INT_BUCKETS.length; bucket++) {
+            int bits = INT_BUCKETS[bucket];
+            if (zigzag >>> bits == 0) {
+                // bucket + 1 ones, then a zero
+                out.write(((1L << (bucket + 1)) - 1) << 1, bucket + 2);
+                out.write(zigzag, bits);
+                return;
+            }
+        }
+        out.write(0b11111, 5);
+        out.write(zigzag, 64);
+    }
+
+    private static long readInt(BitReader in) {
+        int ones = 0;
+        while (ones <= INT_BUCKETS.length && in.read(1) != 0) {
+            ones++;
+        }
+        if (ones == 0) {
+            return 0;
+        }
+        long zigzag = in.read(ones > INT_BUCKETS.length ? 64 : INT_BUCKETS[ones - 1]);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /** Previous value and meaningful-bit window of one XOR-encoded column. */
+    private static final class XorState {
+        long previous;
+        int leading = Integer.MAX_VALUE;
+        int trailing;
+
+        void write(BitWriter out, long bits) {
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (newLeading >= leading && newTrailing >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+                return;
+            }
+            leading = newLeading;
+            trailing = newTrailing;
+            int length = 64 - leading - trailing;
+            out.write(0b11, 2);
+            out.write(leading, 5);
+            out.write(length - 1, 6);
+            out.write(xor >>> trailing, length);
+        }
+
+        long read(BitReader in) {
+            if (in.read(1) == 0) {
+                return previous;
+            }
+            if (in.read(1) != 0) {
+                leading = (int) in.read(5);
+                int length = (int) in.read(6) + 1;
+                trailing = 64 - leading - length;
+                if (trailing < 0) {
+                    throw new IllegalArgumentException("Corrupt metric chunk");
+                }
+            } else if (leading == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Corrupt metric chunk");
+            }
+            previous ^= in.read(64 - leading - trailing) << trailing;
+            return previous;
+        }
+    }
+
+    static final class BitWriter {
+        private byte[] bytes;
+        private int size;
+        private long buffer; // pending bits, left-aligned
+        private int used;
+
+        BitWriter(int expectedBytes) {
+            bytes = new byte[Math.max(16, expectedBytes)];
+        }
+
+        /** Writes the low bits of value, most significant first. */
+        void write(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            int free = 64 - used;
+            if (bits <= free) {
+                buffer |= value << (free - bits);
+                used += bits;
+                if (used == 64) {
+                    flush(8);
+                }
+            } else {
+                int rest = bits - free;
+                buffer |= value >>> rest;
+                used = 64;
+                flush(8);
+                buffer = value << (64 - rest);
+                used = rest;
+            }
+        }
+
+        byte[] toByteArray() {
+            flush((used + 7) / 8);
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void flush(int count) {
+            if (size + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+            }
+            for (int i = 0; i < count; i++) {
+                bytes[size++] = (byte) (buffer >>> (56 - 8 * i));
+            }
+            buffer = 0;
+            used = 0;
+        }
+    }
+
+    static final class BitReader {
+        private final byte[] bytes;
+        private int position;
+        private long buffer; // unread bits, left-aligned
+        private int available;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long read(int bits) {
+            if (bits < available) {
+                long value = buffer >>> (64 - bits);
+                buffer <<= bits;
+                available -= bits;
+                return value;
+            }
+            long result = 0;
+            while (bits > 0) {
+                if (available == 0) {
+                    refill();
+                }
+                int take = Math.min(bits, available);
+                long chunk = buffer >>> (64 - take);
+                buffer = (take == 64) ? 0 : buffer << take;
+                available -= take;
+                result = (take == 64) ? chunk : (result << take) | chunk;
+                bits -= take;
+            }
+            return result;
+        }
+
+        private void refill() {
+            while (available <= 56 && position < bytes.length) {
+                buffer |= (bytes[position++] & 0xFFL) << (56 - available);
+                available += 8;
+            }
+            if (available == 0) {
+                throw new IllegalArgumentException("Truncated metric chunk");
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.sentinel;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores DeviceMetrics.deviceId as its DeviceRegistry key. Lookups never register: a query for
+ * an unknown device binds null and matches nothing. Writers register devices before saving.
+ */
+@Converter
+public class DeviceKeyConverter implements AttributeConverter<String, Integer> {
+
+    private final DeviceRegistry registry;
+
+    public DeviceKeyConverter(DeviceRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String deviceId) {
+        return deviceId != null ? registry.find(deviceId) : null;
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer key) {
+        return key != null ? registry.deviceIdOf(key) : null;
+    }
+}
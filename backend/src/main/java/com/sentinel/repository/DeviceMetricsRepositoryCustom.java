@@ -0,0 +1,22 @@
+package com.sentinel;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * History queries that span both raw rows and sealed MetricChunks.
+ */
+public interface DeviceMetricsRepositoryCustom {
+
+    // Keyset pages over (timestamp, id): the timestamp range uses the (deviceId, timestamp) index, id only breaks ties
+    Slice<DeviceMetrics> findSliceAfter(String deviceId, LocalDateTime afterTimestamp, long afterId,
+                                        LocalDateTime to, Pageable pageable);
+
+    Slice<DeviceMetrics> findSliceBefore(String deviceId, LocalDateTime beforeTimestamp, long beforeId,
+                                         LocalDateTime from, Pageable pageable);
+
+    List<DeviceMetrics> findLatestPerDevice();
+}
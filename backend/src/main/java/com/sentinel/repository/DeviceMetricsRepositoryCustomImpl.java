@@ -0,0 +1,93 @@
+package com.sentinel;
+
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class DeviceMetricsRepositoryCustomImpl implements DeviceMetricsRepositoryCustom {
+
+    private static final String SLICE_AFTER = "SELECT dm FROM DeviceMetrics dm WHERE dm.deviceId = :deviceId "
+            + "AND dm.timestamp >= :afterTimestamp AND (dm.timestamp > :afterTimestamp OR dm.id > :afterId) "
+            + "AND dm.timestamp <= :to ORDER BY dm.timestamp ASC, dm.id ASC";
+
+    private static final String SLICE_BEFORE = "SELECT dm FROM DeviceMetrics dm WHERE dm.deviceId = :deviceId "
+            + "AND dm.timestamp <= :beforeTimestamp AND (dm.timestamp < :beforeTimestamp OR dm.id < :beforeId) "
+            + "AND dm.timestamp >= :from ORDER BY dm.timestamp DESC, dm.id DESC";
+
+    private static final String LATEST_PER_DEVICE = "SELECT dm FROM DeviceMetrics dm WHERE (dm.deviceId, dm.timestamp) IN "
+            + "(SELECT d.deviceId, MAX(d.timestamp) FROM DeviceMetrics d GROUP BY d.deviceId)";
+
+    private final EntityManager entityManager;
+    private final MetricChunkStore chunkStore;
+
+    DeviceMetricsRepositoryCustomImpl(EntityManager entityManager, MetricChunkStore chunkStore) {
+        this.entityManager = entityManager;
+        this.chunkStore = chunkStore;
+    }
+
+    @Override
+    public Slice<DeviceMetrics> findSliceAfter(String deviceId, LocalDateTime afterTimestamp, long afterId,
+                                               LocalDateTime to, Pageable pageable) {
+        int limit = pageable.getPageSize() + 1;
+        List<DeviceMetrics> rows = entityManager.createQuery(SLICE_AFTER, DeviceMetrics.class)
+                .setParameter("deviceId", deviceId)
+                .setParameter("afterTimestamp", afterTimestamp)
+                .setParameter("afterId", afterId)
+                .setParameter("to", to)
+                .setMaxResults(limit)
+                .getResultList();
+        if (chunkStore.hasChunks()) {
+            rows = MetricChunkStore.merge(rows, chunkStore.readAfter(deviceId, afterTimestamp, afterId, to, limit),
+                    MetricChunkStore.BY_TIME_AND_ID);
+        }
+        return toSlice(rows, pageable);
+    }
+
+    @Override
+    public Slice<DeviceMetrics> findSliceBefore(String deviceId, LocalDateTime beforeTimestamp, long beforeId,
+                                                LocalDateTime from, Pageable pageable) {
+        int limit = pageable.getPageSize() + 1;
+        List<DeviceMetrics> rows = entityManager.createQuery(SLICE_BEFORE, DeviceMetrics.class)
+                .setParameter("deviceId", deviceId)
+                .setParameter("beforeTimestamp", beforeTimestamp)
+                .setParameter("beforeId", beforeId)
+                .setParameter("from", from)
+                .setMaxResults(limit)
+                .getResultList();
+        if (chunkStore.hasChunks()) {
+            rows = MetricChunkStore.merge(rows, chunkStore.readBefore(deviceId, beforeTimestamp, beforeId, from, limit),
+                    MetricChunkStore.BY_TIME_AND_ID.reversed());
+        }
+        return toSlice(rows, pageable);
+    }
+
+    @Override
+    public List<DeviceMetrics> findLatestPerDevice() {
+        List<DeviceMetrics> latest = entityManager.createQuery(LATEST_PER_DEVICE, DeviceMetrics.class).getResultList();
+        if (!chunkStore.hasChunks()) {
+            return latest;
+        }
+        Map<String, DeviceMetrics> byDevice = new HashMap<>();
+        for (DeviceMetrics m : latest) {
+            byDevice.put(m.getDeviceId(), m);
+        }
+        // A device whose newest raw rows were all sealed only has chunks left
+        for (DeviceMetrics m : chunkStore.findLatestPerDevice()) {
+            byDevice.merge(m.getDeviceId(), m, (raw, chunked) -> chunked.getTimestamp().isAfter(raw.getTimestamp()) ? chunked : raw);
+        }
+        return new ArrayList<>(byDevice.values());
+    }
+
+    private static Slice<DeviceMetrics> toSlice(List<DeviceMetrics> rows, Pageable pageable) {
+        boolean hasNext = rows.size() > pageable.getPageSize();
+        List<DeviceMetrics> content = hasNext ? new ArrayList<>(rows.subList(0, pageable.getPageSize())) : rows;
+        return new SliceImpl<>(content, pageable, hasNext);
+    }
+}
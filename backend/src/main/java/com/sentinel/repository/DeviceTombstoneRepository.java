@@ -0,0 +1,6 @@
+package com.sentinel;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface DeviceTombstoneRepository extends JpaRepository<DeviceTombstone, String> {
+}
@@ -0,0 +1,26 @@
+package com.sentinel;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface MetricChunkRepository extends JpaRepository<MetricChunk, Long> {
+
+    MetricChunk findByDeviceIdAndChunkStart(String deviceId, LocalDateTime chunkStart);
+
+    @Query("SELECT c FROM MetricChunk c WHERE c.deviceId = :deviceId "
+            + "AND c.lastTimestamp >= :from AND c.firstTimestamp <= :to ORDER BY c.chunkStart ASC")
+    Slice<MetricChunk> findOverlappingAsc(@Param("deviceId") String deviceId,
+                                          @Param("from") LocalDateTime from,
+                                          @Param("to") LocalDateTime to,
+                                          Pageable pageable);
+
+    @Query("SELECT c FROM MetricChunk c WHERE (c.deviceId, c.chunkStart) IN "
+            + "(SELECT d.deviceId, MAX(d.chunkStart) FROM MetricChunk d GROUP BY d.deviceId)")
+    List<MetricChunk> findLatestPerDevice();
+}
@@ -0,0 +1,25 @@
+package com.sentinel;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface MetricRollupRepository extends JpaRepository<MetricRollup, Long> {
+
+    @Query("SELECT r FROM MetricRollup r WHERE r.deviceId = :deviceId AND r.resolutionSeconds = :resolutionSeconds "
+            + "AND r.metric IN :metrics AND r.bucketStart >= :from AND r.bucketStart < :to ORDER BY r.bucketStart")
+    List<MetricRollup> findSeries(@Param("deviceId") String deviceId,
+                                  @Param("resolutionSeconds") int resolutionSeconds,
+                                  @Param("metrics") Collection<String> metrics,
+                                  @Param("from") LocalDateTime from,
+                                  @Param("to") LocalDateTime to);
+
+    /** Candidate rows for a flush; callers match on the full (device, resolution, metric, bucket) key. */
+    @Query("SELECT r FROM MetricRollup r WHERE r.deviceId IN :deviceIds AND r.bucketStart IN :bucketStarts")
+    List<MetricRollup> findBuckets(@Param("deviceIds") Collection<String> deviceIds,
+                                   @Param("bucketStarts") Collection<LocalDateTime> bucketStarts);
+}
@@ -1,5 +1,7 @@
 package com.sentinel;
 
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -8,19 +10,33 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.List;
 
+/**
+ * Authenticates Bearer tokens. Tokens carrying their authorities are trusted after a single
+ * signature check, and verified tokens are cached, so the user store is only consulted for
+ * tokens without authority claims. Tokens issued before the user last changed are rejected.
+ */
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtUtil jwtUtil;
     private final UserDetailsService userDetailsService;
+    private final JwtTokenCache tokenCache;
+    private final PipelineMetrics pipelineMetrics;
 
-    public JwtAuthenticationFilter(JwtUtil jwtUtil, UserDetailsService userDetailsService) {
+    public JwtAuthenticationFilter(JwtUtil jwtUtil,
+                                   UserDetailsService userDetailsService,
+                                   JwtTokenCache tokenCache,
+                                   PipelineMetrics pipelineMetrics) {
         this.jwtUtil = jwtUtil;
         this.userDetailsService = userDetailsService;
+        this.tokenCache = tokenCache;
+        this.pipelineMetrics = pipelineMetrics;
     }
 
     @Override
@@ -29,25 +45,13 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                                     FilterChain filterChain) throws ServletException, IOException {
 
         final String authHeader = request.getHeader("Authorization");
-        String username = null;
-        String jwtToken = null;
 
         // JWT token is expected to be in format "Bearer <token>"
-        if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            jwtToken = authHeader.substring(7);
-            try {
-                username = jwtUtil.extractUsername(jwtToken);
-            } catch (Exception e) {
-                logger.error("Failed to extract username from JWT", e);
-            }
-        }
-
-        // If username found and Security context not yet authenticated
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-
-            // Validate token
-            if (jwtUtil.validateToken(jwtToken, userDetails)) {
+        if (authHeader != null && authHeader.startsWith("Bearer ")
+                && SecurityContextHolder.getContext().getAuthentication() == null) {
+            final long start = System.nanoTime();
+            UserDetails userDetails = resolve(authHeader.substring(7));
+            if (userDetails != null) {
                 UsernamePasswordAuthenticationToken authToken =
                         new UsernamePasswordAuthenticationToken(
                                 userDetails,
@@ -59,8 +63,46 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 // Set authentication into Security Context
                 SecurityContextHolder.getContext().setAuthentication(authToken);
             }
+            pipelineMetrics.recordJwtValidation(System.nanoTime() - start);
         }
 
         filterChain.doFilter(request, response);
     }
+
+    /** The user a token authenticates, or null if it is invalid, expired or its user is gone. */
+    public UserDetails resolve(String jwtToken) {
+        UserDetails cached = tokenCache.get(jwtToken);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims;
+        try {
+            claims = jwtUtil.extractAllClaims(jwtToken);
+        } catch (JwtException | IllegalArgumentException e) {
+            logger.error("Failed to validate JWT", e);
+            return null;
+        }
+
+        String username = claims.getSubject();
+        if (tokenCache.isChangedSince(username, claims.getIssuedAt())) {
+            return null;
+        }
+        List<String> authorities = jwtUtil.extractAuthorities(claims);
+        UserDetails userDetails;
+        if (authorities != null) {
+            userDetails = org.springframework.security.core.userdetails.User.withUsername(username)
+                    .password("")
+                    .authorities(authorities.toArray(String[]::new))
+                    .build();
+        } else {
+            try {
+                userDetails = userDetailsService.loadUserByUsername(username);
+            } catch (UsernameNotFoundException e) {
+                return null;
+            }
+        }
+        tokenCache.put(jwtToken, userDetails, claims.getExpiration());
+        return userDetails;
+    }
 }
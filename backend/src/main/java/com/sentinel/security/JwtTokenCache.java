@@ -0,0 +1,91 @@
+package com.sentinel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded, TTL-limited cache of already verified tokens and the principal they resolved to,
+ * so a token that passed signature verification is not parsed again on every request.
+ * invalidateUser must be called whenever a user's account or roles change.
+ */
+@Component
+public class JwtTokenCache {
+
+    private record Entry(UserDetails user, long expiresAtMillis) {}
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Tokens issued before this time are no longer accepted
+    private final ConcurrentMap<String, Long> changedAt = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    public JwtTokenCache(@Value("${sentinel.auth.token-cache.ttl-seconds:300}") long ttlSeconds,
+                         @Value("${sentinel.auth.token-cache.max-entries:10000}") int maxEntries) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.maxEntries = maxEntries;
+    }
+
+    public UserDetails get(String token) {
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtMillis() <= System.currentTimeMillis()) {
+            entries.remove(token, entry);
+            return null;
+        }
+        return entry.user();
+    }
+
+    public void put(String token, UserDetails user, Date tokenExpiration) {
+        if (ttlMillis <= 0 || maxEntries <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiresAt = Math.min(now + ttlMillis, tokenExpiration.getTime());
+        if (entries.size() >= maxEntries) {
+            evictExpired(now);
+            if (entries.size() >= maxEntries) {
+                return; // full of live tokens, callers just take the parse path
+            }
+        }
+        entries.put(token, new Entry(user, expiresAt));
+    }
+
+    /**
+     * Drops cached tokens of the user and makes tokens issued before now invalid, so neither they
+     * nor the claims baked into them outlive an account or role change.
+     */
+    public void invalidateUser(String username) {
+        changedAt.put(username, System.currentTimeMillis());
+        entries.values().removeIf(entry -> entry.user().getUsername().equals(username));
+    }
+
+    /**
+     * Whether the user changed after the token was issued. Token issue times are whole seconds,
+     * so a token issued in the same second as the change still counts as issued after it.
+     */
+    public boolean isChangedSince(String username, Date issuedAt) {
+        Long changed = changedAt.get(username);
+        return changed != null && (issuedAt == null || issuedAt.getTime() / 1000 < changed / 1000);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiresAtMillis() <= now) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -1,22 +1,39 @@
 package com.sentinel;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Value;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 @Component
 public class JwtUtil {
-    
-    @Value("${jwt.secret}")
-    private String SECRET_KEY;
+
+    // Granted authority names, so the auth filter can build the principal without a user lookup
+    public static final String AUTHORITIES_CLAIM = "roles";
+
+    // Derived once; jwt.secret is base64, as the string-keyed jjwt API always assumed
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+
+    public JwtUtil(@Value("${jwt.secret}") String secretKey) {
+        this.signingKey = new SecretKeySpec(Decoders.BASE64.decode(secretKey), SignatureAlgorithm.HS256.getJcaName());
+        this.parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+    }
 
     public String extractUsername(String token) {
         return extractClaim(token, Claims::getSubject);
@@ -31,25 +48,41 @@ public class JwtUtil {
         return claimsResolver.apply(claims);
     }
 
-    private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .setSigningKey(SECRET_KEY)
-                .parseClaimsJws(token)
-                .getBody();
+    /**
+     * Verifies the signature and expiry in a single parse. Throws a JwtException if either fails.
+     */
+    public Claims extractAllClaims(String token) {
+        return parser.parseClaimsJws(token).getBody();
     }
 
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    /**
+     * Authority names carried by the token, or null for tokens issued without them.
+     */
+    public List<String> extractAuthorities(Claims claims) {
+        Object value = claims.get(AUTHORITIES_CLAIM);
+        if (!(value instanceof Collection<?> names)) {
+            return null;
+        }
+        List<String> authorities = new ArrayList<>(names.size());
+        for (Object name : names) {
+            authorities.add(String.valueOf(name));
+        }
+        return authorities;
     }
 
-    public String generateToken(String username) {
+    public String generateToken(String username, Collection<? extends GrantedAuthority> authorities) {
         Map<String, Object> claims = new HashMap<>();
+        List<String> names = new ArrayList<>(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            names.add(authority.getAuthority());
+        }
+        claims.put(AUTHORITIES_CLAIM, names);
         return createToken(claims, username);
     }
 
     public Boolean validateToken(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        final Claims claims = extractAllClaims(token); // rejects expired tokens
+        return claims.getSubject().equals(userDetails.getUsername());
     }
 
     private String createToken(Map<String, Object> claims, String subject) {
@@ -58,12 +91,11 @@ public class JwtUtil {
                 .setSubject(subject)
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 10)) // 10 hours
-                .signWith(SignatureAlgorithm.HS256, SECRET_KEY)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public Boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        return validateToken(token, userDetails);
     }
 }
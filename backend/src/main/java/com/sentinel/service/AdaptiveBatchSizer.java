@@ -0,0 +1,37 @@
+package com.sentinel;
+
+/**
+ * Tunes the persistence batch size from observed flush latency: grow while full batches
+ * flush comfortably under the target, halve as soon as a flush overshoots it.
+ * Not thread-safe; each consumer worker owns its own instance.
+ */
+public class AdaptiveBatchSizer {
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetNanos;
+
+    private int current;
+
+    public AdaptiveBatchSizer(int minSize, int maxSize, long targetMillis) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Require 1 <= minSize <= maxSize");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetNanos = targetMillis * 1_000_000L;
+        this.current = minSize;
+    }
+
+    public int current() {
+        return current;
+    }
+
+    public void record(int batchSize, long elapsedNanos) {
+        if (elapsedNanos > targetNanos) {
+            current = Math.max(minSize, current / 2);
+        } else if (batchSize >= current && elapsedNanos < targetNanos / 2) {
+            current = Math.min(maxSize, current + Math.max(1, current / 4));
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Evaluates the configured AlertRules incrementally as samples are accepted, and detects devices
+ * that stop reporting. Each device keeps a fixed set of primitive slots per rule (breach start,
+ * EWMA mean and variance), so a sample costs one pass over the rules and no history is kept.
+ * Heartbeat timeouts live on a hashed timing wheel: a sample only records its arrival time, and
+ * a device's single timer is moved forward lazily when it comes due, so nothing scans the fleet.
+ * State changes are published to /topic/alerts from the ticker thread, never from ingest.
+ */
+@Service
+public class AlertEngine {
+
+    public static final String HEARTBEAT_RULE = "heartbeat";
+
+    private static final Logger logger = LoggerFactory.getLogger(AlertEngine.class);
+
+    private static final String TOPIC = "/topic/alerts";
+    private static final int WHEEL_SLOTS = 1024;
+    private static final long NOT_BREACHED = Long.MIN_VALUE;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final LatestMetricsStore latestStore;
+    private final WorkerThreads workerThreads;
+    private final AlertRule[] rules;
+    private final double ewmaAlpha;
+    private final int minSamples;
+    private final long heartbeatTimeoutMs;
+    private final long tickMs;
+
+    private final ConcurrentMap<String, DeviceState> states = new ConcurrentHashMap<>();
+    private final Queue<AlertEvent> outbox = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    private final HashedTimingWheel<DeviceState> wheel;
+
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    private ScheduledExecutorService ticker;
+
+    public AlertEngine(SimpMessagingTemplate messagingTemplate,
+                       ObjectMapper objectMapper,
+                       LatestMetricsStore latestStore,
+                       WorkerThreads workerThreads,
+                       @Value("${sentinel.alerts.rules:}") String rules,
+                       @Value("${sentinel.alerts.ewma-alpha:0.05}") double ewmaAlpha,
+                       @Value("${sentinel.alerts.min-samples:30}") int minSamples,
+                       @Value("${sentinel.alerts.heartbeat-timeout-seconds:${sentinel.devices.offline-after-seconds:120}}") long heartbeatTimeoutSeconds,
+                       @Value("${sentinel.alerts.tick-ms:250}") long tickMs) {
+        if (ewmaAlpha <= 0 || ewmaAlpha >= 1) {
+            throw new IllegalArgumentException("sentinel.alerts.ewma-alpha must be between 0 and 1");
+        }
+        this.messagingTemplate = messagingTemplate;
+        this.objectMapper = objectMapper;
+        this.latestStore = latestStore;
+        this.workerThreads = workerThreads;
+        this.rules = AlertRule.parseAll(rules).toArray(new AlertRule[0]);
+        this.ewmaAlpha = ewmaAlpha;
+        this.minSamples = Math.max(2, minSamples);
+        this.heartbeatTimeoutMs = TimeUnit.SECONDS.toMillis(heartbeatTimeoutSeconds);
+        this.tickMs = tickMs;
+        this.wheel = new HashedTimingWheel<>(WHEEL_SLOTS, tickMs, System.currentTimeMillis());
+    }
+
+    @PostConstruct
+    public void start() {
+        // Devices that reported recently before a restart still go offline on time
+        LocalDateTime now = LocalDateTime.now();
+        long nowMillis = System.currentTimeMillis();
+        for (DeviceMetrics latest : latestStore.getLatest()) {
+            long silentMs = Duration.between(latest.getTimestamp(), now).toMillis();
+            if (silentMs < heartbeatTimeoutMs) {
+                DeviceState state = states.computeIfAbsent(latest.getDeviceId(), id -> new DeviceState(id, rules.length));
+                state.lastSeenMillis = nowMillis - Math.max(0, silentMs);
+                watch(state);
+            }
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> workerThreads.newThread("AlertEngineThread", true, r));
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        logger.info("Started AlertEngine with {} rules, heartbeat timeout {}s, watching {} devices",
+                rules.length, heartbeatTimeoutMs / 1000, states.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    public void evaluate(DeviceMetrics metrics) {
+        evaluate(metrics, System.currentTimeMillis());
+    }
+
+    void evaluate(DeviceMetrics metrics, long nowMillis) {
+        String deviceId = metrics.getDeviceId();
+        if (deviceId == null) {
+            return;
+        }
+        DeviceState state = states.get(deviceId);
+        if (state == null) {
+            state = states.computeIfAbsent(deviceId, id -> new DeviceState(id, rules.length));
+        }
+        state.lastSeenMillis = nowMillis;
+        if (!state.scheduled) {
+            watch(state);
+        }
+        if (rules.length == 0) {
+            return;
+        }
+        LocalDateTime timestamp = metrics.getTimestamp() != null ? metrics.getTimestamp() : LocalDateTime.now();
+        long sampleMillis = timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+        synchronized (state) {
+            for (int i = 0; i < rules.length; i++) {
+                evaluateRule(state, i, metrics, timestamp, sampleMillis);
+            }
+        }
+    }
+
+    private void evaluateRule(DeviceState state, int i, DeviceMetrics metrics, LocalDateTime timestamp, long sampleMillis) {
+        AlertRule rule = rules[i];
+        double value = rule.getField().valueOf(metrics);
+        if (Double.isNaN(value)) {
+            return;
+        }
+        boolean breached;
+        double zScore = 0;
+        double mean = state.mean[i];
+        if (rule.getKind() == AlertRule.Kind.ZSCORE) {
+            double variance = state.variance[i];
+            boolean warm = state.samples[i] >= minSamples && variance > 0;
+            zScore = warm ? (value - mean) / Math.sqrt(variance) : 0;
+            breached = warm && rule.getOperator().test(zScore, rule.getThreshold());
+            // Exponentially weighted mean and variance, updated after scoring the sample against them
+            if (state.samples[i] == 0) {
+                state.mean[i] = value;
+            } else {
+                double diff = value - mean;
+                double increment = ewmaAlpha * diff;
+                state.mean[i] = mean + increment;
+                state.variance[i] = (1 - ewmaAlpha) * (variance + diff * increment);
+            }
+            if (state.samples[i] < minSamples) {
+                state.samples[i]++;
+            }
+        } else {
+            breached = rule.getOperator().test(value, rule.getThreshold());
+        }
+
+        if (!breached) {
+            state.breachedSince[i] = NOT_BREACHED;
+            if (state.active[i] != null) {
+                state.active[i] = null;
+                emit(new AlertEvent(state.deviceId, rule.getName(), AlertEvent.State.RESOLVED, value,
+                        rule.getField().getFieldName() + " back to normal", timestamp));
+            }
+            return;
+        }
+        if (state.breachedSince[i] == NOT_BREACHED) {
+            state.breachedSince[i] = sampleMillis;
+        }
+        if (state.active[i] == null && sampleMillis - state.breachedSince[i] >= rule.getForMillis()) {
+            String message = (rule.getKind() == AlertRule.Kind.ZSCORE)
+                    ? String.format(Locale.ROOT, "%s %.2f is %.1f standard deviations from its average %.2f",
+                            rule.getField().getFieldName(), value, zScore, mean)
+                    : String.format(Locale.ROOT, "%s %.2f %s %s%s", rule.getField().getFieldName(), value,
+                            rule.getOperator().getSymbol(), rule.getThreshold(),
+                            rule.getForMillis() > 0 ? " for " + rule.getForMillis() / 1000 + "s" : "");
+            state.active[i] = new AlertEvent(state.deviceId, rule.getName(), AlertEvent.State.FIRING, value, message, timestamp);
+            emit(state.active[i]);
+        }
+    }
+
+    // Gives the device a heartbeat timer if it has none, resolving its offline alert
+    private void watch(DeviceState state) {
+        wheelLock.lock();
+        try {
+            if (state.scheduled || state.removed) {
+                return;
+            }
+            state.scheduled = true;
+            wheel.schedule(state, state.lastSeenMillis + heartbeatTimeoutMs);
+            if (state.offlineAlert != null) {
+                state.offlineAlert = null;
+                emit(new AlertEvent(state.deviceId, HEARTBEAT_RULE, AlertEvent.State.RESOLVED, null,
+                        "Device reporting again", LocalDateTime.now()));
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    void tick() {
+        tick(System.currentTimeMillis());
+    }
+
+    void tick(long nowMillis) {
+        try {
+            wheelLock.lock();
+            try {
+                wheel.advance(nowMillis, state -> expire(state, nowMillis));
+            } finally {
+                wheelLock.unlock();
+            }
+            AlertEvent event;
+            while ((event = outbox.poll()) != null) {
+                send(event);
+            }
+        } catch (Exception e) {
+            logger.error("Error running alert tick", e);
+        }
+    }
+
+    private void expire(DeviceState state, long nowMillis) {
+        if (state.removed) {
+            state.scheduled = false;
+            return;
+        }
+        // Samples only move lastSeenMillis; the timer catches up here, once per timeout period
+        long deadline = state.lastSeenMillis + heartbeatTimeoutMs;
+        if (deadline > nowMillis) {
+            wheel.schedule(state, deadline);
+            return;
+        }
+        state.scheduled = false;
+        state.offlineAlert = new AlertEvent(state.deviceId, HEARTBEAT_RULE, AlertEvent.State.FIRING, null,
+                "No metrics for " + heartbeatTimeoutMs / 1000 + "s", LocalDateTime.now());
+        emit(state.offlineAlert);
+    }
+
+    /** Drops a deleted device's state, resolving its open alerts. */
+    public void forget(String deviceId) {
+        DeviceState state = states.remove(deviceId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            for (int i = 0; i < rules.length; i++) {
+                if (state.active[i] != null) {
+                    state.active[i] = null;
+                    emit(new AlertEvent(deviceId, rules[i].getName(), AlertEvent.State.RESOLVED, null,
+                            "Device deleted", LocalDateTime.now()));
+                }
+            }
+        }
+        wheelLock.lock();
+        try {
+            state.removed = true;
+            if (state.offlineAlert != null) {
+                state.offlineAlert = null;
+                emit(new AlertEvent(deviceId, HEARTBEAT_RULE, AlertEvent.State.RESOLVED, null,
+                        "Device deleted", LocalDateTime.now()));
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private void emit(AlertEvent event) {
+        if (event.getState() == AlertEvent.State.FIRING) {
+            fired.incrementAndGet();
+            active.incrementAndGet();
+        } else {
+            resolved.incrementAndGet();
+            active.decrementAndGet();
+        }
+        outbox.add(event);
+    }
+
+    private void send(AlertEvent event) {
+        logger.debug("Alert {} {} on {}: {}", event.getRule(), event.getState(), event.getDeviceId(), event.getMessage());
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(event);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(TOPIC, MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+        } catch (Exception e) {
+            sendFailures.incrementAndGet();
+            logger.warn("Failed to publish alert {} for device {}", event.getRule(), event.getDeviceId(), e);
+        }
+    }
+
+    /** Alerts currently firing, heartbeat alerts included. */
+    public List<AlertEvent> getActiveAlerts() {
+        List<AlertEvent> alerts = new ArrayList<>();
+        for (DeviceState state : states.values()) {
+            synchronized (state) {
+                for (AlertEvent alert : state.active) {
+                    if (alert != null) {
+                        alerts.add(alert);
+                    }
+                }
+            }
+            AlertEvent offline = state.offlineAlert;
+            if (offline != null) {
+                alerts.add(offline);
+            }
+        }
+        return alerts;
+    }
+
+    public List<AlertRule> getRules() {
+        return List.of(rules);
+    }
+
+    public long getFiredCount() {
+        return fired.get();
+    }
+
+    public long getResolvedCount() {
+        return resolved.get();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public long getSendFailureCount() {
+        return sendFailures.get();
+    }
+
+    private static final class DeviceState {
+        final String deviceId;
+        // Per rule, indexed like rules; guarded by the state's monitor
+        final long[] breachedSince;
+        final double[] mean;
+        final double[] variance;
+        final int[] samples;
+        final AlertEvent[] active;
+
+        volatile long lastSeenMillis;
+        // Guarded by wheelLock; scheduled is also read without it on the ingest path
+        volatile boolean scheduled;
+        volatile AlertEvent offlineAlert;
+        boolean removed;
+
+        DeviceState(String deviceId, int ruleCount) {
+            this.deviceId = deviceId;
+            this.breachedSince = new long[ruleCount];
+            this.mean = new double[ruleCount];
+            this.variance = new double[ruleCount];
+            this.samples = new int[ruleCount];
+            this.active = new AlertEvent[ruleCount];
+            Arrays.fill(breachedSince, NOT_BREACHED);
+        }
+    }
+}
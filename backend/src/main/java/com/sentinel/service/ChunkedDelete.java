@@ -0,0 +1,25 @@
+package com.sentinel;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Deletes rows a bounded chunk at a time, so no single statement holds long locks on a table
+ * ingest is writing to. Used by retention and by device purges.
+ */
+final class ChunkedDelete {
+
+    private ChunkedDelete() {}
+
+    /** Deletes the rows of table matching where, at most chunkSize per statement, and returns the total. */
+    static long deleteInChunks(JdbcTemplate jdbcTemplate, String table, String where, int chunkSize, Object... args) {
+        String sql = "DELETE FROM " + table + " WHERE id IN (SELECT id FROM " + table
+                + " WHERE " + where + " LIMIT " + chunkSize + ")";
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, args);
+            total += deleted;
+        } while (deleted > 0 && deleted >= chunkSize);
+        return total;
+    }
+}
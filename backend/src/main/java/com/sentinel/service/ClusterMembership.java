@@ -0,0 +1,98 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static cluster layout from sentinel.cluster.nodes (base URLs of every backend, this one included
+ * as sentinel.cluster.self-url). Every node builds the same ConsistentHashRing from the same list,
+ * so they agree on which node owns a device without talking to each other. Nodes authenticate to
+ * each other with the shared sentinel.cluster.secret. Disabled, this node owns every device.
+ */
+@Component
+public class ClusterMembership {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterMembership.class);
+
+    public static final String TOKEN_HEADER = "X-Sentinel-Cluster-Token";
+
+    private final boolean enabled;
+    private final String self;
+    private final List<String> peers = new ArrayList<>();
+    private final ConsistentHashRing ring;
+    private final byte[] secret;
+
+    public ClusterMembership(@Value("${sentinel.cluster.enabled:false}") boolean enabled,
+                             @Value("${sentinel.cluster.self-url:}") String selfUrl,
+                             @Value("${sentinel.cluster.nodes:}") List<String> nodes,
+                             @Value("${sentinel.cluster.secret:}") String secret,
+                             @Value("${sentinel.cluster.virtual-nodes:128}") int virtualNodes) {
+        this.enabled = enabled;
+        this.self = normalize(selfUrl);
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        if (!enabled) {
+            this.ring = null;
+            return;
+        }
+        List<String> members = new ArrayList<>();
+        for (String node : nodes) {
+            if (!node.isBlank() && !members.contains(normalize(node))) {
+                members.add(normalize(node));
+            }
+        }
+        if (!members.contains(self)) {
+            throw new IllegalStateException("sentinel.cluster.self-url '" + selfUrl + "' is not one of sentinel.cluster.nodes");
+        }
+        if (secret.isBlank()) {
+            throw new IllegalStateException("sentinel.cluster.secret must be set in clustered mode");
+        }
+        for (String member : members) {
+            if (!member.equals(self)) {
+                peers.add(member);
+            }
+        }
+        this.ring = new ConsistentHashRing(members, virtualNodes);
+        logger.info("Cluster node {} of {}: {}", self, members.size(), members);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /** Base URLs of the other nodes. */
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public String ownerOf(String deviceId) {
+        return enabled ? ring.ownerOf(deviceId) : self;
+    }
+
+    public boolean isLocal(String deviceId) {
+        return !enabled || deviceId == null || ring.ownerOf(deviceId).equals(self);
+    }
+
+    public String getSecret() {
+        return new String(secret, StandardCharsets.UTF_8);
+    }
+
+    public boolean isTrusted(String token) {
+        return enabled && token != null && MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
@@ -0,0 +1,31 @@
+package com.sentinel;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Carries node-local state changes to the other cluster nodes: each frame's metric updates, so
+ * dashboards and the latest-state view on every node see devices owned elsewhere, and device
+ * deletions. Delivery is best effort; a lost frame is superseded by the next one.
+ * Chosen by sentinel.cluster.relay: http (between processes) or local (nodes in one JVM).
+ */
+public interface ClusterRelay {
+
+    interface Listener {
+        void onMetrics(List<DeviceMetrics> updates);
+
+        void onDeviceDeleted(String deviceId, LocalDateTime deletedAt);
+    }
+
+    void setListener(Listener listener);
+
+    /** Whether there is anyone to relay to; publishers can skip collecting updates otherwise. */
+    boolean isActive();
+
+    void publishMetrics(List<DeviceMetrics> updates);
+
+    void publishDeviceDeleted(String deviceId, LocalDateTime deletedAt);
+
+    /** Frames or events that did not reach a peer. */
+    long getFailedCount();
+}
@@ -0,0 +1,229 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clustered ingest. Each device is owned by one node (see ClusterMembership); rows that reach
+ * another node are forwarded to the owner's /api/metrics/batch with the caller's credentials,
+ * so the owner's queue, write-ahead log, alert state and recent buffer see all of a device's
+ * samples. Owners relay every frame's updates through the ClusterRelay, which keeps the
+ * latest-state view and /topic/metrics/* subscribers on every node current.
+ */
+@Service
+public class ClusterService implements ClusterRelay.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterService.class);
+
+    /**
+     * Set on forwarded requests, along with the cluster token; the receiver ingests them without
+     * re-forwarding. Without a valid token the header is ignored.
+     */
+    public static final String FORWARDED_HEADER = "X-Sentinel-Forwarded";
+    /** Rows of a batch the node accepted, so a forwarding node can add them up. */
+    public static final String ACCEPTED_HEADER = "X-Sentinel-Accepted";
+
+    /** What the owners made of forwarded rows. */
+    public static final class ForwardResult {
+        private final int accepted;
+        private final boolean ownerUnavailable;
+
+        ForwardResult(int accepted, boolean ownerUnavailable) {
+            this.accepted = accepted;
+            this.ownerUnavailable = ownerUnavailable;
+        }
+
+        public int getAccepted() { return accepted; }
+        public boolean isOwnerUnavailable() { return ownerUnavailable; }
+    }
+
+    private final ClusterMembership membership;
+    private final ClusterRelay relay;
+    private final ObjectMapper objectMapper;
+    private final LatestMetricsStore latestStore;
+    private final RecentMetricsBuffer recentBuffer;
+    private final MetricsBroadcaster broadcaster;
+    private final DeviceTombstoneService tombstones;
+    private final AlertEngine alertEngine;
+    private final MetricRollupService rollupService;
+    private final FleetAggregateService fleetAggregates;
+    private final DeviceRegistry registry;
+    private final IngestDeduplicator deduplicator;
+    private final MetricHistoryCache historyCache;
+    private final Duration forwardTimeout;
+    private final HttpClient client;
+
+    private final AtomicLong forwardedRows = new AtomicLong();
+    private final AtomicLong forwardFailures = new AtomicLong();
+
+    public ClusterService(ClusterMembership membership,
+                          ClusterRelay relay,
+                          ObjectMapper objectMapper,
+                          LatestMetricsStore latestStore,
+                          RecentMetricsBuffer recentBuffer,
+                          MetricsBroadcaster broadcaster,
+                          DeviceTombstoneService tombstones,
+                          AlertEngine alertEngine,
+                          MetricRollupService rollupService,
+                          FleetAggregateService fleetAggregates,
+                          DeviceRegistry registry,
+                          IngestDeduplicator deduplicator,
+                          MetricHistoryCache historyCache,
+                          @Value("${sentinel.cluster.forward-timeout-ms:5000}") long forwardTimeoutMs) {
+        this.membership = membership;
+        this.relay = relay;
+        this.objectMapper = objectMapper;
+        this.latestStore = latestStore;
+        this.recentBuffer = recentBuffer;
+        this.broadcaster = broadcaster;
+        this.tombstones = tombstones;
+        this.alertEngine = alertEngine;
+        this.rollupService = rollupService;
+        this.fleetAggregates = fleetAggregates;
+        this.registry = registry;
+        this.deduplicator = deduplicator;
+        this.historyCache = historyCache;
+        this.forwardTimeout = Duration.ofMillis(forwardTimeoutMs);
+        this.client = membership.isEnabled() ? HttpClient.newBuilder().connectTimeout(forwardTimeout).build() : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        relay.setListener(this);
+    }
+
+    public boolean isEnabled() {
+        return membership.isEnabled();
+    }
+
+    public boolean isLocal(String deviceId) {
+        return membership.isLocal(deviceId);
+    }
+
+    public String getSelf() {
+        return membership.getSelf();
+    }
+
+    /**
+     * Whether a request came from a peer forwarding rows this node owns. Any client can set the
+     * forwarded header, so it only counts with the cluster token.
+     */
+    public boolean isForwardedByPeer(String forwardedBy, String token) {
+        return forwardedBy != null && membership.isTrusted(token);
+    }
+
+    /** Rows grouped by owning node, in arrival order; this node's own rows are under getSelf(). */
+    public Map<String, List<DeviceMetrics>> groupByOwner(List<DeviceMetrics> metricsList) {
+        Map<String, List<DeviceMetrics>> byOwner = new LinkedHashMap<>();
+        for (DeviceMetrics metrics : metricsList) {
+            String owner = membership.isLocal(metrics.getDeviceId()) ? membership.getSelf() : membership.ownerOf(metrics.getDeviceId());
+            byOwner.computeIfAbsent(owner, node -> new ArrayList<>()).add(metrics);
+        }
+        return byOwner;
+    }
+
+    /** Sends each owner its rows concurrently; completes once every owner has answered or timed out. */
+    public CompletableFuture<ForwardResult> forward(Map<String, List<DeviceMetrics>> byOwner, String authorization) {
+        List<CompletableFuture<ForwardResult>> pending = new ArrayList<>(byOwner.size());
+        for (Map.Entry<String, List<DeviceMetrics>> entry : byOwner.entrySet()) {
+            pending.add(forward(entry.getKey(), entry.getValue(), authorization));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            int accepted = 0;
+            boolean unavailable = false;
+            for (CompletableFuture<ForwardResult> result : pending) {
+                accepted += result.join().accepted;
+                unavailable |= result.join().ownerUnavailable;
+            }
+            return new ForwardResult(accepted, unavailable);
+        });
+    }
+
+    private CompletableFuture<ForwardResult> forward(String owner, List<DeviceMetrics> rows, String authorization) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(rows);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(owner + "/api/metrics/batch"))
+                .timeout(forwardTimeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(FORWARDED_HEADER, membership.getSelf())
+                .header(ClusterMembership.TOKEN_HEADER, membership.getSecret())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json));
+        if (authorization != null) {
+            request.header(HttpHeaders.AUTHORIZATION, authorization);
+        }
+        return client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).handle((response, error) -> {
+            if (error != null || response.statusCode() >= 500) {
+                forwardFailures.incrementAndGet();
+                logger.warn("Forwarding {} rows to {} failed: {}", rows.size(), owner,
+                        error != null ? error.toString() : "HTTP " + response.statusCode());
+                return new ForwardResult(0, true);
+            }
+            int accepted = response.headers().firstValue(ACCEPTED_HEADER).map(Integer::parseInt)
+                    .orElse(response.statusCode() / 100 == 2 ? rows.size() : 0);
+            forwardedRows.addAndGet(accepted);
+            return new ForwardResult(accepted, false);
+        });
+    }
+
+    /** Tells the other nodes a device was deleted here. */
+    public void deviceDeleted(String deviceId, LocalDateTime deletedAt) {
+        if (membership.isEnabled()) {
+            relay.publishDeviceDeleted(deviceId, deletedAt);
+        }
+    }
+
+    @Override
+    public void onMetrics(List<DeviceMetrics> updates) {
+        for (DeviceMetrics metrics : updates) {
+            // Lists the device here too, without waiting for this node to see it in the shared table
+            registry.register(metrics.getDeviceId());
+            latestStore.update(metrics);
+            broadcaster.publishRemote(metrics);
+        }
+    }
+
+    @Override
+    public void onDeviceDeleted(String deviceId, LocalDateTime deletedAt) {
+        tombstones.remember(deviceId, deletedAt);
+        latestStore.remove(deviceId);
+        recentBuffer.remove(deviceId);
+        rollupService.forget(deviceId);
+        fleetAggregates.forget(deviceId);
+        alertEngine.forget(deviceId);
+        broadcaster.forget(deviceId);
+        deduplicator.forget(deviceId);
+        historyCache.forget(deviceId);
+    }
+
+    public long getForwardedRowCount() {
+        return forwardedRows.get();
+    }
+
+    public long getForwardFailureCount() {
+        return forwardFailures.get();
+    }
+}
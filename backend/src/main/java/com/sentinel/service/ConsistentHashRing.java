@@ -0,0 +1,67 @@
+package com.sentinel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of keys onto nodes. Each node is placed at virtualNodes points on a 64-bit
+ * ring and a key belongs to the first point at or after its hash, so load spreads evenly and
+ * adding or removing one of N nodes moves only about 1/N of the keys. Immutable.
+ */
+public final class ConsistentHashRing {
+
+    private final long[] points;
+    private final String[] owners;
+    private final List<String> nodes;
+
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one point per node");
+        }
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the (vanishingly rare) collision the node that sorts first keeps the point, on every member alike
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int index = 0;
+        for (var point : ring.entrySet()) {
+            points[index] = point.getKey();
+            owners[index++] = point.getValue();
+        }
+        this.nodes = List.copyOf(nodes);
+    }
+
+    public String ownerOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /** 64-bit FNV-1a over the UTF-8 bytes, finished with the SplitMix64 mixer to spread nearby keys. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,326 @@
+package com.sentinel;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * High-throughput persistence path for DeviceMetrics batches.
+ * JPA goes through Hibernate's insert batching, JDBC_BATCH issues a single JDBC batch, and
+ * COPY streams the rows with PostgreSQL's binary COPY protocol. The PostgreSQL driver only
+ * turns a JDBC batch into multi-row INSERTs with reWriteBatchedInserts=true on the datasource
+ * URL (as docker-compose.yml sets it); without it JDBC_BATCH still sends one INSERT per row.
+ */
+@Service
+public class DeviceMetricsBatchWriter {
+
+    public enum WriteMode { JPA, JDBC_BATCH, COPY }
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceMetricsBatchWriter.class);
+
+    static final String TABLE = "device_metrics";
+    static final String SEQUENCE = "device_metrics_seq";
+    static final int ID_ALLOCATION_SIZE = 50; // must match @SequenceGenerator.allocationSize on DeviceMetrics
+
+    private static final String COLUMNS = "id, device_key, cpu_usage, memory_usage, disk_usage, "
+            + "bytes_sent_per_sec, bytes_recv_per_sec, disk_read_bytes_per_sec, disk_write_bytes_per_sec, "
+            + "latency_ms, system_uptime_seconds, timestamp, client_seq";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO " + TABLE + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // The timestamp bounds keep the lookup on the (device_key, timestamp) index
+    private static final String STORED_SEQS_SQL = "SELECT client_seq FROM " + TABLE
+            + " WHERE device_key = ? AND timestamp BETWEEN ? AND ? AND client_seq BETWEEN ? AND ?";
+
+    private static final String COPY_SQL =
+            "COPY " + TABLE + " (" + COLUMNS + ") FROM STDIN (FORMAT binary)";
+
+    // Binary COPY header: signature, flags, header extension length
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final LocalDateTime PG_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+    private static final short COPY_FIELD_COUNT = 13;
+
+    private final DeviceMetricsRepository repo;
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry registry;
+    private final WriteMode writeMode;
+    private final PooledIdAllocator idAllocator;
+
+    private volatile Boolean copySupported;
+
+    public DeviceMetricsBatchWriter(DeviceMetricsRepository repo,
+                                    JdbcTemplate jdbcTemplate,
+                                    DeviceRegistry registry,
+                                    @Value("${sentinel.persistence.write-mode:JDBC_BATCH}") WriteMode writeMode) {
+        this.repo = repo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+        this.writeMode = writeMode;
+        this.idAllocator = new PooledIdAllocator(jdbcTemplate, SEQUENCE, ID_ALLOCATION_SIZE);
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void write(List<DeviceMetrics> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        switch (writeMode) {
+            case JPA:
+                // DeviceKeyConverter only looks keys up, so new devices are registered first
+                for (DeviceMetrics metrics : batch) {
+                    deviceKey(metrics);
+                }
+                repo.saveAll(batch);
+                break;
+            case COPY:
+                if (isCopySupported()) {
+                    copy(batch);
+                } else {
+                    batchInsert(batch);
+                }
+                break;
+            case JDBC_BATCH:
+            default:
+                batchInsert(batch);
+        }
+    }
+
+    /**
+     * Removes from metrics, and returns, the sequenced samples already stored under the same
+     * device and seq. Write-ahead log replay goes through this, since a batch persisted just
+     * before a crash may still be pending in the log.
+     */
+    public List<DeviceMetrics> removeStored(List<DeviceMetrics> metrics) {
+        Map<String, List<DeviceMetrics>> byDevice = new HashMap<>();
+        for (DeviceMetrics m : metrics) {
+            if (m.getDeviceId() != null && m.getSeq() != null && m.getTimestamp() != null) {
+                byDevice.computeIfAbsent(m.getDeviceId(), id -> new ArrayList<>()).add(m);
+            }
+        }
+        Set<DeviceMetrics> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+        byDevice.forEach((deviceId, samples) -> {
+            Integer key = registry.find(deviceId);
+            if (key == null) {
+                return;
+            }
+            LocalDateTime oldest = samples.get(0).getTimestamp();
+            LocalDateTime newest = oldest;
+            long lowestSeq = samples.get(0).getSeq();
+            long highestSeq = lowestSeq;
+            for (DeviceMetrics m : samples) {
+                oldest = m.getTimestamp().isBefore(oldest) ? m.getTimestamp() : oldest;
+                newest = m.getTimestamp().isAfter(newest) ? m.getTimestamp() : newest;
+                lowestSeq = Math.min(lowestSeq, m.getSeq());
+                highestSeq = Math.max(highestSeq, m.getSeq());
+            }
+            // Stored timestamps are rounded or truncated to microseconds, depending on the write path
+            Set<Long> seqs = new HashSet<>(jdbcTemplate.queryForList(STORED_SEQS_SQL, Long.class, key,
+                    Timestamp.valueOf(oldest.truncatedTo(ChronoUnit.MICROS)),
+                    Timestamp.valueOf(newest.truncatedTo(ChronoUnit.MICROS).plus(1, ChronoUnit.MICROS)),
+                    lowestSeq, highestSeq));
+            for (DeviceMetrics m : samples) {
+                if (seqs.contains(m.getSeq())) {
+                    stored.add(m);
+                }
+            }
+        });
+        if (stored.isEmpty()) {
+            return List.of();
+        }
+        metrics.removeIf(stored::contains);
+        return new ArrayList<>(stored);
+    }
+
+    private void assignIds(List<DeviceMetrics> batch) {
+        for (DeviceMetrics metrics : batch) {
+            if (metrics.getId() == null) {
+                metrics.setId(idAllocator.next());
+            }
+        }
+    }
+
+    private Integer deviceKey(DeviceMetrics m) {
+        return m.getDeviceId() != null ? registry.register(m.getDeviceId()) : null;
+    }
+
+    // Registering inside the statement setter would need a second connection mid-batch
+    private Integer[] deviceKeys(List<DeviceMetrics> batch) {
+        Integer[] keys = new Integer[batch.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = deviceKey(batch.get(i));
+        }
+        return keys;
+    }
+
+    private void batchInsert(List<DeviceMetrics> batch) {
+        assignIds(batch);
+        Integer[] deviceKeys = deviceKeys(batch);
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                DeviceMetrics m = batch.get(i);
+                ps.setLong(1, m.getId());
+                setNullableInt(ps, 2, deviceKeys[i]);
+                ps.setDouble(3, m.getCpuUsage());
+                ps.setDouble(4, m.getMemoryUsage());
+                ps.setDouble(5, m.getDiskUsage());
+                setNullableLong(ps, 6, m.getBytesSentPerSec());
+                setNullableLong(ps, 7, m.getBytesRecvPerSec());
+                setNullableLong(ps, 8, m.getDiskReadBytesPerSec());
+                setNullableLong(ps, 9, m.getDiskWriteBytesPerSec());
+                setNullableDouble(ps, 10, m.getLatencyMs());
+                setNullableDouble(ps, 11, m.getSystemUptimeSeconds());
+                ps.setTimestamp(12, m.getTimestamp() != null ? Timestamp.valueOf(m.getTimestamp()) : null);
+                setNullableLong(ps, 13, m.getSeq());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batch.size();
+            }
+        });
+    }
+
+    private void copy(List<DeviceMetrics> batch) {
+        assignIds(batch);
+        Integer[] deviceKeys = deviceKeys(batch);
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new PGCopyOutputStream(pgConnection, COPY_SQL), 64 * 1024))) {
+                writeCopyData(out, batch, deviceKeys);
+            } catch (IOException e) {
+                throw new SQLException("COPY of " + batch.size() + " metrics failed", e);
+            }
+            return null;
+        });
+    }
+
+    /** The whole binary COPY stream for the batch: header, one tuple per row, trailer. */
+    static void writeCopyData(DataOutputStream out, List<DeviceMetrics> batch, Integer[] deviceKeys) throws IOException {
+        out.write(COPY_SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int i = 0; i < deviceKeys.length; i++) {
+            writeCopyRow(out, batch.get(i), deviceKeys[i]);
+        }
+        out.writeShort(-1);
+    }
+
+    private static void writeCopyRow(DataOutputStream out, DeviceMetrics m, Integer deviceKey) throws IOException {
+        out.writeShort(COPY_FIELD_COUNT);
+        out.writeInt(8);
+        out.writeLong(m.getId());
+        if (deviceKey == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(4);
+            out.writeInt(deviceKey);
+        }
+        out.writeInt(8);
+        out.writeDouble(m.getCpuUsage());
+        out.writeInt(8);
+        out.writeDouble(m.getMemoryUsage());
+        out.writeInt(8);
+        out.writeDouble(m.getDiskUsage());
+        writeCopyLong(out, m.getBytesSentPerSec());
+        writeCopyLong(out, m.getBytesRecvPerSec());
+        writeCopyLong(out, m.getDiskReadBytesPerSec());
+        writeCopyLong(out, m.getDiskWriteBytesPerSec());
+        writeCopyDouble(out, m.getLatencyMs());
+        writeCopyDouble(out, m.getSystemUptimeSeconds());
+        if (m.getTimestamp() == null) {
+            out.writeInt(-1);
+        } else {
+            // timestamp without time zone: microseconds since 2000-01-01
+            out.writeInt(8);
+            out.writeLong(ChronoUnit.MICROS.between(PG_EPOCH, m.getTimestamp()));
+        }
+        writeCopyLong(out, m.getSeq());
+    }
+
+    private static void writeCopyLong(DataOutputStream out, Long value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(8);
+            out.writeLong(value);
+        }
+    }
+
+    private static void writeCopyDouble(DataOutputStream out, Double value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(8);
+            out.writeDouble(value);
+        }
+    }
+
+    private static void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, value);
+        }
+    }
+
+    private static void setNullableLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, value);
+        }
+    }
+
+    private static void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+
+    private boolean isCopySupported() {
+        if (copySupported == null) {
+            copySupported = jdbcTemplate.execute((ConnectionCallback<Boolean>) this::supportsCopy);
+            if (!copySupported) {
+                logger.warn("COPY write mode requested but the datasource is not PostgreSQL, using JDBC batch inserts");
+            }
+        }
+        return copySupported;
+    }
+
+    private boolean supportsCopy(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+}
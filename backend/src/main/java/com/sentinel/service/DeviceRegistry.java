@@ -0,0 +1,168 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Interns device names to the compact integer keys device_metrics rows are stored under.
+ * A device is registered the first time its metrics are written; after that every lookup
+ * in either direction is a map or array read. Keys are never removed, even once a deleted
+ * device is purged: a writer or another cluster node may still hold one, and rows stored under
+ * it must keep resolving. The table is loaded on first use rather than at startup because
+ * Hibernate asks for keys while it is still creating the schema.
+ */
+@Service
+public class DeviceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    static final String SEQUENCE = "devices_seq";
+    static final int ID_ALLOCATION_SIZE = 50; // must match @SequenceGenerator.allocationSize on Device
+
+    private static final String LOAD_SQL = "SELECT id, device_id FROM devices";
+    private static final String FIND_SQL = "SELECT id FROM devices WHERE device_id = ?";
+    private static final String FIND_BY_KEY_SQL = "SELECT device_id FROM devices WHERE id = ?";
+    private static final String INSERT_SQL = "INSERT INTO devices (id, device_id, registered_at) VALUES (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PooledIdAllocator idAllocator;
+
+    private final ConcurrentMap<String, Integer> keys = new ConcurrentHashMap<>();
+    // Indexed by key; replaced (never resized in place) under the lock
+    private volatile String[] deviceIds = new String[64];
+    // A lock rather than synchronized: registration does JDBC calls, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean loaded;
+
+    public DeviceRegistry(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.idAllocator = new PooledIdAllocator(jdbcTemplate, SEQUENCE, ID_ALLOCATION_SIZE);
+    }
+
+    /** The device's key, registering it if it has never been seen. */
+    public int register(String deviceId) {
+        Integer key = find(deviceId);
+        if (key != null) {
+            return key;
+        }
+        lock.lock();
+        try {
+            key = keys.get(deviceId);
+            if (key == null) {
+                key = insert(deviceId);
+                add(deviceId, key);
+            }
+            return key;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The device's key, or null if it isn't registered. Misses go to the table, since another
+     * cluster node sharing the database may have registered the device.
+     */
+    public Integer find(String deviceId) {
+        ensureLoaded();
+        Integer key = keys.get(deviceId);
+        if (key != null || deviceId == null) {
+            return key;
+        }
+        List<Integer> found = jdbcTemplate.queryForList(FIND_SQL, Integer.class, deviceId);
+        if (found.isEmpty()) {
+            return null;
+        }
+        cache(deviceId, found.get(0));
+        return found.get(0);
+    }
+
+    /** The device registered under key, or null if there is none. */
+    public String deviceIdOf(int key) {
+        ensureLoaded();
+        String[] ids = deviceIds;
+        if (key >= 0 && key < ids.length && ids[key] != null) {
+            return ids[key];
+        }
+        List<String> found = jdbcTemplate.queryForList(FIND_BY_KEY_SQL, String.class, key);
+        if (found.isEmpty()) {
+            return null;
+        }
+        cache(found.get(0), key);
+        return found.get(0);
+    }
+
+    /** Every registered device, sorted. */
+    public List<String> getDeviceIds() {
+        ensureLoaded();
+        List<String> ids = new ArrayList<>(keys.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public int size() {
+        ensureLoaded();
+        return keys.size();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!loaded) {
+                jdbcTemplate.query(LOAD_SQL, rs -> {
+                    add(rs.getString("device_id"), rs.getInt("id"));
+                });
+                loaded = true;
+                logger.info("Loaded {} registered devices", keys.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int insert(String deviceId) {
+        int key = Math.toIntExact(idAllocator.next());
+        try {
+            jdbcTemplate.update(INSERT_SQL, key, deviceId, Timestamp.valueOf(LocalDateTime.now()));
+            return key;
+        } catch (DuplicateKeyException e) {
+            // Registered by another node between our lookup and the insert
+            return jdbcTemplate.queryForObject(FIND_SQL, Integer.class, deviceId);
+        }
+    }
+
+    private void cache(String deviceId, int key) {
+        lock.lock();
+        try {
+            add(deviceId, key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Callers hold the lock
+    private void add(String deviceId, int key) {
+        keys.put(deviceId, key);
+        String[] ids = deviceIds;
+        if (key >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(key + 1, ids.length * 2));
+        }
+        ids[key] = deviceId;
+        deviceIds = ids;
+    }
+}
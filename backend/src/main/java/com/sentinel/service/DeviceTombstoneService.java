@@ -0,0 +1,108 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cheap device deletion: a tombstone hides the device's history at once, and a background
+ * job removes the rows in bounded chunks so deletes never hold long locks on device_metrics.
+ * Tombstones outlive their purge, keeping a deleted device out of listings until it reports
+ * again; its registry key is kept, since rows written after the delete are stored under it.
+ */
+@Service
+public class DeviceTombstoneService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceTombstoneService.class);
+
+    private final DeviceTombstoneRepository tombstoneRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry registry;
+    private final MetricChunkStore chunkStore;
+    private final int chunkSize;
+
+    private final ConcurrentMap<String, LocalDateTime> tombstones = new ConcurrentHashMap<>();
+    // The deletedAt each device's rows have been purged up to
+    private final ConcurrentMap<String, LocalDateTime> purged = new ConcurrentHashMap<>();
+
+    public DeviceTombstoneService(DeviceTombstoneRepository tombstoneRepo,
+                                  JdbcTemplate jdbcTemplate,
+                                  DeviceRegistry registry,
+                                  MetricChunkStore chunkStore,
+                                  @Value("${sentinel.retention.delete-chunk-size:10000}") int chunkSize) {
+        this.tombstoneRepo = tombstoneRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+        this.chunkStore = chunkStore;
+        this.chunkSize = chunkSize;
+    }
+
+    @PostConstruct
+    public void load() {
+        for (DeviceTombstone tombstone : tombstoneRepo.findAll()) {
+            tombstones.put(tombstone.getDeviceId(), tombstone.getDeletedAt());
+        }
+    }
+
+    public void markDeleted(String deviceId) {
+        LocalDateTime now = LocalDateTime.now();
+        tombstoneRepo.save(new DeviceTombstone(deviceId, now));
+        tombstones.put(deviceId, now);
+    }
+
+    /** Adopts a tombstone another cluster node has already stored. */
+    public void remember(String deviceId, LocalDateTime deletedAt) {
+        tombstones.merge(deviceId, deletedAt, (current, incoming) -> incoming.isAfter(current) ? incoming : current);
+    }
+
+    /**
+     * Returns the deletion time if the device has a pending tombstone, otherwise null.
+     */
+    public LocalDateTime deletedAt(String deviceId) {
+        return tombstones.get(deviceId);
+    }
+
+    public boolean isHidden(DeviceMetrics metrics) {
+        LocalDateTime deletedAt = tombstones.get(metrics.getDeviceId());
+        return deletedAt != null && metrics.getTimestamp() != null && !metrics.getTimestamp().isAfter(deletedAt);
+    }
+
+    @Scheduled(fixedDelayString = "${sentinel.tombstones.purge-interval-ms:60000}")
+    public void purge() {
+        for (String deviceId : new ArrayList<>(tombstones.keySet())) {
+            LocalDateTime deletedAt = tombstones.get(deviceId);
+            // A tombstone re-issued since the last purge has a later deletedAt and is purged again
+            if (deletedAt == null || deletedAt.equals(purged.get(deviceId))) {
+                continue;
+            }
+            try {
+                Timestamp cutoff = Timestamp.valueOf(deletedAt);
+                Integer deviceKey = registry.find(deviceId);
+                long rows = 0;
+                if (deviceKey != null) {
+                    rows += ChunkedDelete.deleteInChunks(jdbcTemplate, "device_metrics",
+                            "device_key = ? AND timestamp <= ?", chunkSize, deviceKey, cutoff);
+                }
+                rows += ChunkedDelete.deleteInChunks(jdbcTemplate, "metric_rollups",
+                        "device_id = ? AND bucket_start <= ?", chunkSize, deviceId, cutoff);
+                if (chunkStore.hasChunks()) {
+                    rows += chunkStore.deleteUpTo(deviceId, deletedAt);
+                }
+                purged.put(deviceId, deletedAt);
+                logger.info("Purged {} rows for deleted device {}", rows, deviceId);
+            } catch (Exception e) {
+                logger.error("Error purging deleted device {}", deviceId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.sentinel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Fleet-wide aggregates and top-k rankings computed server-side. Every persisted sample is folded
+ * into its device's summary for the current time bucket (count, sum, min, max, last and a
+ * mergeable QuantileSketch per field), kept in a per-device ring covering the last
+ * sentinel.fleet.window-minutes. A query splits the devices across a fork-join pool; each task
+ * merges its devices' buckets in range into partials (a fleet summary, or a heap bounded to k
+ * entries), and partials merge pairwise, so the work per device stays constant as the fleet grows.
+ * Queries without a range read each online device's latest sample instead.
+ */
+@Service
+public class FleetAggregateService {
+
+    private static final double SKETCH_ACCURACY = 0.01;
+    private static final MetricField[] FIELDS = MetricField.values();
+
+    // Devices per fork-join leaf; below this splitting costs more than it saves
+    private static final int LEAF_SIZE = 256;
+
+    private final LatestMetricsStore latestStore;
+    private final long bucketSeconds;
+    private final int bucketCount;
+    private final ForkJoinPool pool;
+
+    private final ConcurrentMap<String, DeviceWindow> devices = new ConcurrentHashMap<>();
+
+    public FleetAggregateService(LatestMetricsStore latestStore,
+                                 @Value("${sentinel.fleet.bucket-seconds:300}") long bucketSeconds,
+                                 @Value("${sentinel.fleet.window-minutes:60}") long windowMinutes,
+                                 @Value("${sentinel.fleet.parallelism:0}") int parallelism) {
+        this.latestStore = latestStore;
+        this.bucketSeconds = bucketSeconds;
+        this.bucketCount = (int) Math.max(1, windowMinutes * 60 / bucketSeconds);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("FleetQueryThread-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }, null, false);
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    public void accept(List<DeviceMetrics> batch) {
+        for (DeviceMetrics metrics : batch) {
+            if (metrics.getDeviceId() != null && metrics.getTimestamp() != null) {
+                devices.computeIfAbsent(metrics.getDeviceId(), DeviceWindow::new).add(metrics);
+            }
+        }
+    }
+
+    public void forget(String deviceId) {
+        devices.remove(deviceId);
+    }
+
+    /**
+     * Aggregates one field over the devices whose value passes the above/below filter (either may
+     * be null): each device's average over the range, or its latest value when from is null.
+     */
+    public FleetAggregate aggregate(MetricField field, List<String> stats, LocalDateTime from, LocalDateTime to,
+                                    Double above, Double below) {
+        List<Stat> parsed = new ArrayList<>(stats.size());
+        boolean quantiles = false;
+        for (String stat : stats) {
+            Stat next = Stat.parse(stat);
+            parsed.add(next);
+            quantiles |= next.isQuantile();
+        }
+        boolean withSketch = quantiles;
+        FleetPartial total;
+        LocalDateTime coveredFrom = null;
+        LocalDateTime coveredTo = null;
+        if (from == null) {
+            total = fanOut(onlineLatest(), FleetPartial::new, (partial, latest) -> {
+                double value = field.valueOf(latest);
+                if (!Double.isNaN(value) && passes(value, above, below)) {
+                    partial.summary.add(value);
+                    partial.devices++;
+                }
+            }, FleetPartial::merge);
+        } else {
+            long[] range = bucketRange(from, to);
+            coveredFrom = bucketStart(range[0]);
+            coveredTo = bucketStart(range[1] + 1);
+            total = fanOut(windows(), FleetPartial::new, (partial, window) -> {
+                Summary summary = window.summarize(field, range[0], range[1], withSketch);
+                if (summary != null && passes(summary.sum / summary.count, above, below)) {
+                    partial.summary.merge(summary, withSketch);
+                    partial.devices++;
+                }
+            }, FleetPartial::merge);
+        }
+
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Stat stat : parsed) {
+            double value = stat.valueOf(total.summary);
+            values.put(stat.name, Double.isNaN(value) ? null : value);
+        }
+        return new FleetAggregate(field.getFieldName(), coveredFrom, coveredTo, total.devices, total.summary.count, values);
+    }
+
+    /**
+     * The k devices with the highest (or, ascending, lowest) value of stat over the range, or of
+     * their latest sample when from is null.
+     */
+    public FleetTopK topK(MetricField field, String stat, int k, boolean ascending, LocalDateTime from, LocalDateTime to) {
+        Stat parsed = Stat.parse(stat);
+        Comparator<FleetTopK.Entry> better = Comparator.comparingDouble(FleetTopK.Entry::getValue);
+        better = ascending ? better.reversed() : better;
+        // Ties go to the smaller deviceId so results are stable across calls
+        Comparator<FleetTopK.Entry> order = better.thenComparing(FleetTopK.Entry::getDeviceId, Comparator.reverseOrder());
+
+        TopKPartial top;
+        LocalDateTime coveredFrom = null;
+        LocalDateTime coveredTo = null;
+        if (from == null) {
+            top = fanOut(onlineLatest(), () -> new TopKPartial(k, order),
+                    (partial, latest) -> partial.offer(latest.getDeviceId(), field.valueOf(latest)), TopKPartial::merge);
+        } else {
+            long[] range = bucketRange(from, to);
+            coveredFrom = bucketStart(range[0]);
+            coveredTo = bucketStart(range[1] + 1);
+            top = fanOut(windows(), () -> new TopKPartial(k, order), (partial, window) -> {
+                Summary summary = window.summarize(field, range[0], range[1], parsed.isQuantile());
+                if (summary != null) {
+                    partial.offer(window.deviceId, parsed.valueOf(summary));
+                }
+            }, TopKPartial::merge);
+        }
+
+        List<FleetTopK.Entry> ranked = new ArrayList<>(top.heap);
+        ranked.sort(order.reversed());
+        return new FleetTopK(field.getFieldName(), from == null ? "latest" : parsed.name, coveredFrom, coveredTo, ranked);
+    }
+
+    private static boolean passes(double value, Double above, Double below) {
+        return (above == null || value > above) && (below == null || value < below);
+    }
+
+    private DeviceMetrics[] onlineLatest() {
+        LocalDateTime onlineSince = LocalDateTime.now().minus(latestStore.getOfflineAfter());
+        return latestStore.getLatest().stream()
+                .filter(latest -> latest.getTimestamp().isAfter(onlineSince))
+                .toArray(DeviceMetrics[]::new);
+    }
+
+    private DeviceWindow[] windows() {
+        return devices.values().toArray(new DeviceWindow[0]);
+    }
+
+    // Ids of the first and last bucket overlapping [from, to), clipped to the retained window
+    private long[] bucketRange(LocalDateTime from, LocalDateTime to) {
+        long newest = bucketId(LocalDateTime.now());
+        long last = Math.min(newest, bucketId(to.minusNanos(1)));
+        long first = Math.max(newest - bucketCount + 1, bucketId(from));
+        return new long[] {first, last};
+    }
+
+    private long bucketId(LocalDateTime timestamp) {
+        return Math.floorDiv(timestamp.toEpochSecond(ZoneOffset.UTC), bucketSeconds);
+    }
+
+    private LocalDateTime bucketStart(long bucketId) {
+        return LocalDateTime.ofEpochSecond(bucketId * bucketSeconds, 0, ZoneOffset.UTC);
+    }
+
+    private <T, P> P fanOut(T[] items, Supplier<P> identity, BiConsumer<P, T> accumulator, BinaryOperator<P> combiner) {
+        return pool.invoke(new FanOut<>(items, 0, items.length, identity, accumulator, combiner));
+    }
+
+    private static final class FanOut<T, P> extends RecursiveTask<P> {
+        private static final long serialVersionUID = 1L;
+
+        private final T[] items;
+        private final int from;
+        private final int to;
+        private final Supplier<P> identity;
+        private final BiConsumer<P, T> accumulator;
+        private final BinaryOperator<P> combiner;
+
+        FanOut(T[] items, int from, int to, Supplier<P> identity, BiConsumer<P, T> accumulator, BinaryOperator<P> combiner) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected P compute() {
+            if (to - from <= LEAF_SIZE) {
+                P partial = identity.get();
+                for (int i = from; i < to; i++) {
+                    accumulator.accept(partial, items[i]);
+                }
+                return partial;
+            }
+            int middle = (from + to) >>> 1;
+            FanOut<T, P> left = new FanOut<>(items, from, middle, identity, accumulator, combiner);
+            left.fork();
+            P right = new FanOut<>(items, middle, to, identity, accumulator, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+
+    private static final class FleetPartial {
+        private final Summary summary = new Summary();
+        private int devices;
+
+        FleetPartial merge(FleetPartial other) {
+            summary.merge(other.summary, true);
+            devices += other.devices;
+            return this;
+        }
+    }
+
+    // Min-heap on "better", so the head is the entry to evict when a better one arrives
+    private static final class TopKPartial {
+        private final int k;
+        private final Comparator<FleetTopK.Entry> order;
+        private final PriorityQueue<FleetTopK.Entry> heap;
+
+        TopKPartial(int k, Comparator<FleetTopK.Entry> order) {
+            this.k = k;
+            this.order = order;
+            this.heap = new PriorityQueue<>(k + 1, order);
+        }
+
+        void offer(String deviceId, double value) {
+            if (!Double.isNaN(value)) {
+                offer(new FleetTopK.Entry(deviceId, value));
+            }
+        }
+
+        private void offer(FleetTopK.Entry entry) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (order.compare(entry, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+
+        TopKPartial merge(TopKPartial other) {
+            for (FleetTopK.Entry entry : other.heap) {
+                offer(entry);
+            }
+            return this;
+        }
+    }
+
+    /** Per-device ring of bucket summaries; slot i holds bucket id bucketIds[i]. */
+    private final class DeviceWindow {
+        private final String deviceId;
+        private final long[] bucketIds = new long[bucketCount];
+        private final Summary[][] buckets = new Summary[bucketCount][];
+
+        DeviceWindow(String deviceId) {
+            this.deviceId = deviceId;
+            Arrays.fill(bucketIds, Long.MIN_VALUE);
+        }
+
+        synchronized void add(DeviceMetrics metrics) {
+            long id = bucketId(metrics.getTimestamp());
+            int slot = (int) Math.floorMod(id, (long) bucketCount);
+            if (bucketIds[slot] != id) {
+                if (bucketIds[slot] > id) {
+                    return; // older than the window
+                }
+                bucketIds[slot] = id;
+                buckets[slot] = new Summary[FIELDS.length];
+            }
+            Summary[] fields = buckets[slot];
+            for (int f = 0; f < FIELDS.length; f++) {
+                double value = FIELDS[f].valueOf(metrics);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (fields[f] == null) {
+                    fields[f] = new Summary();
+                }
+                fields[f].add(value);
+            }
+        }
+
+        // Buckets merged oldest first, so "last" ends up the newest value; null without samples.
+        // Merging sketches dominates the cost, so it is skipped unless a percentile was asked for.
+        synchronized Summary summarize(MetricField field, long first, long last, boolean withSketch) {
+            Summary merged = null;
+            for (long id = first; id <= last; id++) {
+                int slot = (int) Math.floorMod(id, (long) bucketCount);
+                if (bucketIds[slot] != id || buckets[slot][field.ordinal()] == null) {
+                    continue;
+                }
+                if (merged == null) {
+                    merged = new Summary();
+                }
+                merged.merge(buckets[slot][field.ordinal()], withSketch);
+            }
+            return merged;
+        }
+    }
+
+    static final class Summary {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double last = Double.NaN;
+        private final QuantileSketch sketch = new QuantileSketch(SKETCH_ACCURACY);
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            last = value;
+            sketch.add(value);
+        }
+
+        void merge(Summary other, boolean withSketch) {
+            if (other.count == 0) {
+                return;
+            }
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            last = other.last;
+            if (withSketch) {
+                sketch.merge(other.sketch);
+            }
+        }
+    }
+
+    /** count, sum, avg, min, max, last or a percentile such as p95 or p99.9. */
+    static final class Stat {
+        private final String name;
+        private final double quantile; // NaN unless a percentile
+
+        private Stat(String name, double quantile) {
+            this.name = name;
+            this.quantile = quantile;
+        }
+
+        static Stat parse(String name) {
+            String normalized = name.trim().toLowerCase();
+            switch (normalized) {
+                case "count", "sum", "avg", "min", "max", "last":
+                    return new Stat(normalized, Double.NaN);
+                default:
+                    break;
+            }
+            if (normalized.startsWith("p")) {
+                try {
+                    double percentile = Double.parseDouble(normalized.substring(1));
+                    if (percentile >= 0 && percentile <= 100) {
+                        return new Stat(normalized, percentile / 100);
+                    }
+                } catch (NumberFormatException e) {
+                    // fall through to the error below
+                }
+            }
+            throw new IllegalArgumentException("Unsupported statistic: " + name
+                    + " (count, sum, avg, min, max, last or a percentile such as p95)");
+        }
+
+        boolean isQuantile() {
+            return !Double.isNaN(quantile);
+        }
+
+        double valueOf(Summary summary) {
+            if (summary.count == 0) {
+                return name.equals("count") || name.equals("sum") ? 0 : Double.NaN;
+            }
+            switch (name) {
+                case "count": return summary.count;
+                case "sum": return summary.sum;
+                case "avg": return summary.sum / summary.count;
+                case "min": return summary.min;
+                case "max": return summary.max;
+                case "last": return summary.last;
+                default: return summary.sketch.quantile(quantile);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sentinel;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: timeouts are hashed by deadline tick into a ring of slots, so scheduling
+ * is O(1) and each tick visits a single slot instead of scanning every pending timeout. Deadlines
+ * further out than one revolution stay in their slot until their tick comes round.
+ * Not thread-safe; callers serialize access.
+ */
+class HashedTimingWheel<T> {
+
+    private static final class Timeout<T> {
+        final T item;
+        final long deadlineTick;
+        Timeout<T> next;
+
+        Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final Timeout<T>[] slots;
+    private final int mask;
+    private final long tickMillis;
+    private final long startMillis;
+    private long currentTick; // the next tick to expire
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    HashedTimingWheel(int slotCount, long tickMillis, long startMillis) {
+        if (slotCount < 1 || tickMillis < 1) {
+            throw new IllegalArgumentException("slotCount and tickMillis must be positive");
+        }
+        int capacity = 1;
+        while (capacity < slotCount) {
+            capacity <<= 1;
+        }
+        this.slots = (Timeout<T>[]) new Timeout<?>[capacity];
+        this.mask = capacity - 1;
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+    }
+
+    /** Schedules item to expire on the first tick at or after deadlineMillis (never in the past). */
+    void schedule(T item, long deadlineMillis) {
+        long tick = Math.max(currentTick, Math.floorDiv(deadlineMillis - startMillis + tickMillis - 1, tickMillis));
+        int slot = (int) (tick & mask);
+        Timeout<T> timeout = new Timeout<>(item, tick);
+        timeout.next = slots[slot];
+        slots[slot] = timeout;
+        size++;
+    }
+
+    /** Runs every tick up to nowMillis, handing each due item to expired, which may reschedule it. */
+    void advance(long nowMillis, Consumer<T> expired) {
+        long lastTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        while (currentTick <= lastTick) {
+            int slot = (int) (currentTick & mask);
+            Timeout<T> pending = slots[slot];
+            slots[slot] = null;
+            long tick = currentTick++;
+            // Later revolutions go back in place; expiring after the increment lets a reschedule land in a future slot
+            while (pending != null) {
+                Timeout<T> next = pending.next;
+                if (pending.deadlineTick <= tick) {
+                    size--;
+                    expired.accept(pending.item);
+                } else {
+                    pending.next = slots[slot];
+                    slots[slot] = pending;
+                }
+                pending = next;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,130 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays to every peer over HTTP (POST /api/cluster/...). A frame is serialized once and sent to
+ * all peers concurrently without waiting. While a peer is still taking the previous frame the new
+ * one is skipped for that peer rather than queued, so a slow or dead peer never backs up the sender;
+ * the next frame carries the newer state anyway.
+ */
+@Service
+@ConditionalOnProperty(name = "sentinel.cluster.relay", havingValue = "http")
+public class HttpClusterRelay implements ClusterRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClusterRelay.class);
+
+    private final ClusterMembership membership;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final ConcurrentMap<String, AtomicBoolean> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong failed = new AtomicLong();
+
+    public HttpClusterRelay(ClusterMembership membership,
+                            ObjectMapper objectMapper,
+                            @Value("${sentinel.cluster.relay-timeout-ms:2000}") long timeoutMs) {
+        this.membership = membership;
+        this.objectMapper = objectMapper;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        for (String peer : membership.getPeers()) {
+            inFlight.put(peer, new AtomicBoolean());
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        // Inbound frames arrive through ClusterController
+    }
+
+    @Override
+    public boolean isActive() {
+        return !membership.getPeers().isEmpty();
+    }
+
+    @Override
+    public void publishMetrics(List<DeviceMetrics> updates) {
+        byte[] json = serialize(updates);
+        if (json == null) {
+            return;
+        }
+        for (String peer : membership.getPeers()) {
+            AtomicBoolean busy = inFlight.get(peer);
+            if (!busy.compareAndSet(false, true)) {
+                failed.incrementAndGet();
+                continue;
+            }
+            client.sendAsync(request(peer, "/api/cluster/metrics", json), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        busy.set(false);
+                        record(peer, response, error);
+                    });
+        }
+    }
+
+    @Override
+    public void publishDeviceDeleted(String deviceId, LocalDateTime deletedAt) {
+        byte[] json = serialize(Map.of("deviceId", deviceId, "deletedAt", deletedAt));
+        if (json == null) {
+            return;
+        }
+        for (String peer : membership.getPeers()) {
+            client.sendAsync(request(peer, "/api/cluster/devices/deleted", json), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> record(peer, response, error));
+        }
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private HttpRequest request(String peer, String path, byte[] json) {
+        return HttpRequest.newBuilder(URI.create(peer + path))
+                .timeout(timeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(ClusterMembership.TOKEN_HEADER, membership.getSecret())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                .build();
+    }
+
+    private void record(String peer, HttpResponse<Void> response, Throwable error) {
+        if (error == null && response.statusCode() / 100 == 2) {
+            return;
+        }
+        // Logged at debug: a peer that is down would otherwise log several times a second
+        failed.incrementAndGet();
+        logger.debug("Relay to {} failed: {}", peer, error != null ? error.toString() : "HTTP " + response.statusCode());
+    }
+
+    private byte[] serialize(Object payload) {
+        try {
+            return objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to serialize relayed payload", e);
+            return null;
+        }
+    }
+}
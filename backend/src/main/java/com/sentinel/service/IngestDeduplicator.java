@@ -0,0 +1,197 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes ingest idempotent for agents that number their samples. Per device it keeps the highest
+ * seq seen and a sliding bitmap of the max-lateness seqs below it, so a retried batch is
+ * recognised in memory rather than by a unique-index lookup per row. Samples may arrive out of
+ * order as long as they are within max-lateness of the newest; older ones are dropped as late.
+ * A device's window is seeded from its newest stored rows the first time this node sees it, so
+ * retries survive a restart or a change of owner. Samples without a seq are always admitted.
+ */
+@Service
+public class IngestDeduplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestDeduplicator.class);
+
+    public enum Verdict { NEW, DUPLICATE, LATE }
+
+    private static final String SEED_SQL = "SELECT client_seq, timestamp FROM device_metrics "
+            + "WHERE device_key = ? AND client_seq IS NOT NULL ORDER BY timestamp DESC LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry registry;
+    private final boolean enabled;
+    private final int windowSize;
+    private final Duration maxClockSkew;
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong late = new AtomicLong();
+
+    public IngestDeduplicator(JdbcTemplate jdbcTemplate,
+                              DeviceRegistry registry,
+                              @Value("${sentinel.ingest.dedupe.enabled:true}") boolean enabled,
+                              @Value("${sentinel.ingest.dedupe.max-lateness:1024}") int maxLateness,
+                              @Value("${sentinel.ingest.max-clock-skew-seconds:300}") long maxClockSkewSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+        this.enabled = enabled;
+        // Whole words of the bitmap
+        this.windowSize = Math.max(64, (maxLateness + 63) / 64 * 64);
+        this.maxClockSkew = Duration.ofSeconds(maxClockSkewSeconds);
+        if (enabled) {
+            logger.info("Deduplicating sequenced samples up to {} behind the newest per device ({} bytes per device)",
+                    windowSize, windowSize / 8);
+        }
+    }
+
+    /**
+     * Stamps metrics with the time it arrived if the agent sent none, or one further ahead of
+     * ours than max-clock-skew, and decides whether it is a sample not yet ingested. A NEW
+     * sample is marked as seen; call {@link #release} if it is not ingested after all.
+     */
+    public Verdict admit(DeviceMetrics metrics) {
+        LocalDateTime now = LocalDateTime.now();
+        boolean agentTime = metrics.getTimestamp() != null && !metrics.getTimestamp().isAfter(now.plus(maxClockSkew));
+        if (!agentTime) {
+            metrics.setTimestamp(now);
+        }
+        if (!enabled || metrics.getSeq() == null || metrics.getDeviceId() == null) {
+            return Verdict.NEW;
+        }
+        Verdict verdict = window(metrics.getDeviceId())
+                .admit(metrics.getSeq(), agentTime ? metrics.getTimestamp() : null);
+        if (verdict == Verdict.DUPLICATE) {
+            duplicates.incrementAndGet();
+        } else if (verdict == Verdict.LATE) {
+            late.incrementAndGet();
+        }
+        return verdict;
+    }
+
+    /** Unmarks an admitted sample the queue refused, so the agent's retry of it is taken. */
+    public void release(DeviceMetrics metrics) {
+        if (!enabled || metrics.getSeq() == null || metrics.getDeviceId() == null) {
+            return;
+        }
+        Window window = windows.get(metrics.getDeviceId());
+        if (window != null) {
+            window.release(metrics.getSeq());
+        }
+    }
+
+    public void forget(String deviceId) {
+        windows.remove(deviceId);
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public long getLateCount() {
+        return late.get();
+    }
+
+    public int getDeviceCount() {
+        return windows.size();
+    }
+
+    private Window window(String deviceId) {
+        Window window = windows.get(deviceId);
+        if (window != null) {
+            return window;
+        }
+        // Seeded outside computeIfAbsent, which must not block on the database
+        Window seeded = seed(deviceId);
+        window = windows.putIfAbsent(deviceId, seeded);
+        return window != null ? window : seeded;
+    }
+
+    private Window seed(String deviceId) {
+        Window window = new Window(windowSize);
+        Integer key = registry.find(deviceId);
+        if (key != null) {
+            jdbcTemplate.query(SEED_SQL, rs -> {
+                window.admit(rs.getLong(1), rs.getTimestamp(2).toLocalDateTime());
+            }, key, windowSize);
+        }
+        return window;
+    }
+
+    /** The seqs seen in (highest - size, highest], one bit each at seq mod size. */
+    static final class Window {
+        private static final long NONE = Long.MIN_VALUE;
+
+        private final long[] seen;
+        private final int size;
+        private long highest = NONE;
+        private LocalDateTime newest;
+
+        Window(int size) {
+            this.size = size;
+            this.seen = new long[size / 64];
+        }
+
+        /** agentTime is the sample's own timestamp, or null when the agent's clock isn't known. */
+        synchronized Verdict admit(long seq, LocalDateTime agentTime) {
+            if (highest != NONE && seq <= highest && agentTime != null && newest != null && agentTime.isAfter(newest)) {
+                // Behind the newest seq but newer than every sample seen: the agent's counter restarted
+                highest = NONE;
+                Arrays.fill(seen, 0);
+            }
+            if (highest == NONE || seq > highest) {
+                advance(seq);
+            } else if (seq <= highest - size) {
+                return Verdict.LATE;
+            } else if (isSet(seq)) {
+                return Verdict.DUPLICATE;
+            }
+            set(seq);
+            if (agentTime != null && (newest == null || agentTime.isAfter(newest))) {
+                newest = agentTime;
+            }
+            return Verdict.NEW;
+        }
+
+        synchronized void release(long seq) {
+            if (highest != NONE && seq <= highest && seq > highest - size) {
+                int bit = Math.floorMod(seq, size);
+                seen[bit >>> 6] &= ~(1L << bit);
+            }
+        }
+
+        private void advance(long seq) {
+            if (highest == NONE || seq - highest >= size) {
+                Arrays.fill(seen, 0);
+            } else {
+                for (long s = highest + 1; s < seq; s++) {
+                    int bit = Math.floorMod(s, size);
+                    seen[bit >>> 6] &= ~(1L << bit);
+                }
+            }
+            highest = seq;
+        }
+
+        private boolean isSet(long seq) {
+            int bit = Math.floorMod(seq, size);
+            return (seen[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private void set(long seq) {
+            int bit = Math.floorMod(seq, size);
+            seen[bit >>> 6] |= 1L << bit;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latest metric per device, kept current by the ingest path so status and "latest"
+ * queries never touch the database. Warmed once at startup from a single grouped query.
+ */
+@Service
+public class LatestMetricsStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatestMetricsStore.class);
+
+    private final DeviceMetricsRepository repo;
+    private final DeviceTombstoneService tombstones;
+    private final Duration offlineAfter;
+    private final ConcurrentMap<String, DeviceMetrics> latestByDevice = new ConcurrentHashMap<>();
+
+    public LatestMetricsStore(DeviceMetricsRepository repo,
+                              DeviceTombstoneService tombstones,
+                              @Value("${sentinel.devices.offline-after-seconds:120}") long offlineAfterSeconds) {
+        this.repo = repo;
+        this.tombstones = tombstones;
+        this.offlineAfter = Duration.ofSeconds(offlineAfterSeconds);
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        for (DeviceMetrics metrics : repo.findLatestPerDevice()) {
+            if (!tombstones.isHidden(metrics)) {
+                update(metrics);
+            }
+        }
+        logger.info("Warmed latest metrics store with {} devices", latestByDevice.size());
+    }
+
+    public void update(DeviceMetrics metrics) {
+        if (metrics.getDeviceId() == null || metrics.getTimestamp() == null) {
+            return;
+        }
+        latestByDevice.merge(metrics.getDeviceId(), metrics,
+                (current, incoming) -> incoming.getTimestamp().isBefore(current.getTimestamp()) ? current : incoming);
+    }
+
+    public void remove(String deviceId) {
+        latestByDevice.remove(deviceId);
+    }
+
+    public DeviceMetrics getLatest(String deviceId) {
+        return latestByDevice.get(deviceId);
+    }
+
+    public List<DeviceMetrics> getLatest() {
+        return new ArrayList<>(latestByDevice.values());
+    }
+
+    public List<DeviceStatus> getStatuses() {
+        LocalDateTime onlineSince = LocalDateTime.now().minus(offlineAfter);
+        List<DeviceStatus> statuses = new ArrayList<>(latestByDevice.size());
+        for (DeviceMetrics latest : latestByDevice.values()) {
+            boolean online = latest.getTimestamp().isAfter(onlineSince);
+            statuses.add(new DeviceStatus(latest.getDeviceId(), latest.getTimestamp(), online));
+        }
+        return statuses;
+    }
+
+    public int size() {
+        return latestByDevice.size();
+    }
+
+    public Duration getOfflineAfter() {
+        return offlineAfter;
+    }
+}
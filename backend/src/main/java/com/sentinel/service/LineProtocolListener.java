@@ -0,0 +1,529 @@
+package com.sentinel;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional ingest listener beside the REST API for agents that want less per-sample overhead than
+ * HTTP, Spring Security and Jackson: LineProtocolCodec lines over non-blocking TCP or UDP, fed
+ * into the same MetricsIngestService path as /api/metrics/batch.
+ *
+ * <p>TCP frames are a 4-byte big-endian length and a UTF-8 payload, both ways. A connection
+ * authenticates once: its first frame is {@code AUTH <jwt>}, answered {@code OK <session>} or
+ * {@code ERR <reason>} (and closed). Until then frames are capped at max-auth-frame-bytes, and a
+ * connection not authenticated within auth-timeout-seconds is closed; past max-connections new
+ * connections are closed on accept. Every later frame carries lines and is answered
+ * {@code ACK <accepted> <rows>} once the accepted rows are durable, or {@code ERR <reason>} if it
+ * does not parse; rows not accepted (queue full) are the agent's to resend, as after a 429.
+ * A connection has one frame in flight and is not read meanwhile, so a slow pipeline pushes back
+ * through TCP flow control.
+ *
+ * <p>UDP datagrams are fire-and-forget: the session from a TCP handshake on the first line, then
+ * lines. Sessions last as long as the JWT they came from. Datagrams with an unknown or expired
+ * session, or arriving while max-pending-datagrams are queued, are dropped and counted.
+ *
+ * <p>One selector thread does all socket I/O; parsing and ingest run on worker threads.
+ */
+@Service
+public class LineProtocolListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(LineProtocolListener.class);
+
+    private static final String AUTH_PREFIX = "AUTH ";
+    private static final int SESSION_KEY_BYTES = 18;
+    private static final int MAX_DATAGRAM_BYTES = 65_507;
+    private static final int INITIAL_READ_BUFFER = 16 * 1024;
+
+    private final MetricsIngestService ingestService;
+    private final JwtAuthenticationFilter authFilter;
+    private final JwtUtil jwtUtil;
+    private final WorkerThreads threads;
+    private final boolean enabled;
+    private final String bindAddress;
+    private final int tcpPort;
+    private final int udpPort;
+    private final int maxFrameBytes;
+    private final int workerCount;
+    private final int maxPendingDatagrams;
+    private final int maxAuthFrameBytes;
+    private final long authTimeoutNanos;
+    private final int maxConnections;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Queue<Connection> replies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingDatagrams = new AtomicInteger();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong rejectedFrames = new AtomicLong();
+    private final AtomicLong droppedDatagrams = new AtomicLong();
+    private final AtomicLong refusedConnections = new AtomicLong();
+    // Accepted and not yet authenticated, oldest first; selector thread only
+    private final Queue<Connection> handshaking = new ArrayDeque<>();
+    private volatile int sweepSessionsAt = 1024;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private DatagramChannel datagrams;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    public LineProtocolListener(MetricsIngestService ingestService,
+                                JwtAuthenticationFilter authFilter,
+                                JwtUtil jwtUtil,
+                                WorkerThreads threads,
+                                @Value("${sentinel.ingest.line.enabled:false}") boolean enabled,
+                                @Value("${sentinel.ingest.line.bind-address:0.0.0.0}") String bindAddress,
+                                @Value("${sentinel.ingest.line.tcp-port:8094}") int tcpPort,
+                                @Value("${sentinel.ingest.line.udp-port:8094}") int udpPort,
+                                @Value("${sentinel.ingest.line.max-frame-bytes:1048576}") int maxFrameBytes,
+                                @Value("${sentinel.ingest.line.workers:8}") int workerCount,
+                                @Value("${sentinel.ingest.line.max-pending-datagrams:1024}") int maxPendingDatagrams,
+                                @Value("${sentinel.ingest.line.max-auth-frame-bytes:4096}") int maxAuthFrameBytes,
+                                @Value("${sentinel.ingest.line.auth-timeout-seconds:10}") long authTimeoutSeconds,
+                                @Value("${sentinel.ingest.line.max-connections:4096}") int maxConnections) {
+        this.ingestService = ingestService;
+        this.authFilter = authFilter;
+        this.jwtUtil = jwtUtil;
+        this.threads = threads;
+        this.enabled = enabled;
+        this.bindAddress = bindAddress;
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.maxFrameBytes = maxFrameBytes;
+        this.workerCount = workerCount;
+        this.maxPendingDatagrams = maxPendingDatagrams;
+        this.maxAuthFrameBytes = maxAuthFrameBytes;
+        this.authTimeoutNanos = TimeUnit.SECONDS.toNanos(authTimeoutSeconds);
+        this.maxConnections = maxConnections;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        selector = Selector.open();
+        if (tcpPort >= 0) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(bindAddress, tcpPort), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        if (udpPort >= 0) {
+            datagrams = DatagramChannel.open();
+            datagrams.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            datagrams.bind(new InetSocketAddress(bindAddress, udpPort));
+            datagrams.configureBlocking(false);
+            datagrams.register(selector, SelectionKey.OP_READ);
+        }
+        workers = Executors.newFixedThreadPool(workerCount, threads.factory("LineProtocolWorker", true));
+        running = true;
+        selectorThread = threads.newThread("LineProtocolSelector", true, this::selectLoop);
+        selectorThread.start();
+        logger.info("Line protocol listener on tcp {} udp {}", getTcpPort(), getUdpPort());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Stopped line protocol listener");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** The bound TCP port (useful with port 0), or -1 when TCP is off. */
+    public int getTcpPort() {
+        return server != null ? server.socket().getLocalPort() : -1;
+    }
+
+    /** The bound UDP port, or -1 when UDP is off. */
+    public int getUdpPort() {
+        return datagrams != null ? datagrams.socket().getLocalPort() : -1;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getRejectedFrameCount() {
+        return rejectedFrames.get();
+    }
+
+    public long getDroppedDatagramCount() {
+        return droppedDatagrams.get();
+    }
+
+    /** Connections closed on accept at max-connections, or for not authenticating in time. */
+    public long getRefusedConnectionCount() {
+        return refusedConnections.get();
+    }
+
+    private void selectLoop() {
+        ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM_BYTES);
+        while (running) {
+            try {
+                selector.select(1000);
+                Connection replied;
+                while ((replied = replies.poll()) != null) {
+                    replied.flush();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == datagrams) {
+                        receive(datagram);
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.flush();
+                        } else if (key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                closeUnauthenticated();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Line protocol selector error", e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key);
+        }
+        closeQuietly(selector);
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (connectionCount.get() >= maxConnections) {
+                refusedConnections.incrementAndGet();
+                closeQuietly(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connectionCount.incrementAndGet();
+            handshaking.add(connection);
+        }
+    }
+
+    // Deadlines follow accept order, so only the head of the queue needs checking
+    private void closeUnauthenticated() {
+        long now = System.nanoTime();
+        Connection connection;
+        while ((connection = handshaking.peek()) != null
+                && (connection.session != null || connection.closed || now - connection.acceptedAtNanos >= authTimeoutNanos)) {
+            handshaking.poll();
+            if (connection.session == null && !connection.closed) {
+                refusedConnections.incrementAndGet();
+                connection.close();
+            }
+        }
+    }
+
+    private void receive(ByteBuffer buffer) throws IOException {
+        SocketAddress from;
+        while (true) {
+            buffer.clear();
+            from = datagrams.receive(buffer);
+            if (from == null) {
+                return;
+            }
+            buffer.flip();
+            byte[] payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            int newline = 0;
+            while (newline < payload.length && payload[newline] != '\n') {
+                newline++;
+            }
+            Session session = sessions.get(new String(payload, 0, newline, StandardCharsets.US_ASCII).trim());
+            if (session == null || session.isExpired() || newline == payload.length) {
+                droppedDatagrams.incrementAndGet();
+                continue;
+            }
+            if (pendingDatagrams.incrementAndGet() > maxPendingDatagrams) {
+                pendingDatagrams.decrementAndGet();
+                droppedDatagrams.incrementAndGet();
+                continue;
+            }
+            int linesAt = newline + 1;
+            try {
+                workers.execute(() -> {
+                    try {
+                        ingestService.ingest(LineProtocolCodec.decode(payload, linesAt, payload.length - linesAt),
+                                PipelineMetrics.IngestEndpoint.LINE_UDP, session.authorization);
+                    } catch (IllegalArgumentException | MetricsWriteAheadLog.NotDurableException e) {
+                        // No reply channel: the agent's next datagrams carry on, like a dropped one
+                        rejectedFrames.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        // A refused forward or anything else the ingest path throws
+                        rejectedFrames.incrementAndGet();
+                        logger.warn("Line protocol datagram failed", e);
+                    } finally {
+                        pendingDatagrams.decrementAndGet();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pendingDatagrams.decrementAndGet(); // shutting down
+            }
+        }
+    }
+
+    // Runs on a worker: the handshake for a new connection, lines afterwards
+    private void handle(Connection connection, byte[] frame) {
+        String reply;
+        boolean close = false;
+        try {
+            Session session = connection.session;
+            if (session == null) {
+                session = authenticate(new String(frame, StandardCharsets.UTF_8));
+                if (session == null) {
+                    reply = "ERR unauthorized";
+                    close = true;
+                } else {
+                    connection.session = session;
+                    reply = "OK " + session.key;
+                }
+            } else if (session.isExpired()) {
+                reply = "ERR session expired";
+                close = true;
+            } else {
+                List<DeviceMetrics> rows = LineProtocolCodec.decode(frame);
+                ClusterService.ForwardResult result = rows.isEmpty() ? null
+                        : ingestService.ingest(rows, PipelineMetrics.IngestEndpoint.LINE_TCP, session.authorization);
+                reply = "ACK " + (result != null ? result.getAccepted() : 0) + " " + rows.size();
+            }
+        } catch (MetricsWriteAheadLog.NotDurableException e) {
+            reply = "ERR not durable, retry";
+        } catch (IllegalArgumentException e) {
+            rejectedFrames.incrementAndGet();
+            reply = "ERR " + e.getMessage();
+        } catch (RuntimeException e) {
+            logger.warn("Line protocol frame failed", e);
+            reply = "ERR internal error";
+            close = true;
+        }
+        connection.reply(reply, close);
+    }
+
+    private Session authenticate(String handshake) {
+        if (!handshake.startsWith(AUTH_PREFIX)) {
+            return null;
+        }
+        String token = handshake.substring(AUTH_PREFIX.length()).trim();
+        UserDetails user = authFilter.resolve(token);
+        if (user == null) {
+            return null;
+        }
+        byte[] keyBytes = new byte[SESSION_KEY_BYTES];
+        random.nextBytes(keyBytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(keyBytes),
+                "Bearer " + token, jwtUtil.extractExpiration(token).getTime());
+        sessions.put(session.key, session);
+        if (sessions.size() >= sweepSessionsAt) {
+            sessions.values().removeIf(Session::isExpired);
+            sweepSessionsAt = Math.max(1024, sessions.size() * 2);
+        }
+        return session;
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        if (key.attachment() instanceof Connection connection) {
+            connection.close();
+        } else {
+            closeQuietly(key.channel());
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+
+    private static final class Session {
+        final String key;
+        final String authorization; // for forwarding rows to their owners in a cluster
+        final long expiresAtMillis;
+
+        Session(String key, String authorization, long expiresAtMillis) {
+            this.key = key;
+            this.authorization = authorization;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAtMillis;
+        }
+    }
+
+    // State is touched only by the selector thread, except session and out, which a worker sets
+    // before handing the connection back through the replies queue
+    private final class Connection {
+        private final SocketChannel channel;
+        private final long acceptedAtNanos = System.nanoTime();
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        private volatile ByteBuffer out;
+        private volatile boolean closeAfterReply;
+        private volatile Session session;
+        private boolean inFlight;
+        private boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            dispatch();
+        }
+
+        // Hands the next complete frame to a worker and stops reading until it is answered
+        void dispatch() {
+            if (inFlight || closed || in.position() < 4) {
+                return;
+            }
+            int length = in.getInt(0);
+            int maxLength = (session != null) ? maxFrameBytes : maxAuthFrameBytes;
+            if (length < 0 || length > maxLength) {
+                rejectedFrames.incrementAndGet();
+                inFlight = true;
+                reply("ERR frame longer than " + maxLength + " bytes", true);
+                return;
+            }
+            if (in.position() < 4 + length) {
+                if (in.capacity() < 4 + length) {
+                    in = ByteBuffer.allocate(Math.max(4 + length, in.capacity() * 2)).put(in.flip());
+                }
+                return;
+            }
+            byte[] frame = new byte[length];
+            in.flip().position(4);
+            in.get(frame);
+            in.compact();
+            inFlight = true;
+            key.interestOps(0);
+            try {
+                workers.execute(() -> handle(this, frame));
+            } catch (RejectedExecutionException e) {
+                close(); // shutting down
+            }
+        }
+
+        void reply(String message, boolean close) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            closeAfterReply = close;
+            out = ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).flip();
+            if (Thread.currentThread() == selectorThread) {
+                flush();
+            } else {
+                replies.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void flush() {
+            ByteBuffer pending = out;
+            if (closed || pending == null) {
+                return;
+            }
+            try {
+                channel.write(pending);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (pending.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            out = null;
+            inFlight = false;
+            if (closeAfterReply) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            dispatch(); // a pipelined frame may already be buffered
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                connectionCount.decrementAndGet();
+                key.cancel();
+                closeQuietly(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in relay for several nodes (application contexts) in one JVM, such as tests and the load
+ * generator. Nodes with the same sentinel.cluster.local-group see each other. Updates still go
+ * through JSON, so receivers get their own copies as they would over the network.
+ */
+@Service
+@ConditionalOnProperty(name = "sentinel.cluster.relay", havingValue = "local", matchIfMissing = true)
+public class LocalClusterRelay implements ClusterRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalClusterRelay.class);
+
+    private static final ConcurrentMap<String, List<LocalClusterRelay>> GROUPS = new ConcurrentHashMap<>();
+    private static final TypeReference<List<DeviceMetrics>> METRICS_LIST = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final String group;
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Listener listener;
+
+    public LocalClusterRelay(ObjectMapper objectMapper,
+                             @Value("${sentinel.cluster.enabled:false}") boolean enabled,
+                             @Value("${sentinel.cluster.local-group:default}") String group) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.group = group;
+    }
+
+    @PostConstruct
+    public void join() {
+        if (enabled) {
+            GROUPS.computeIfAbsent(group, g -> new CopyOnWriteArrayList<>()).add(this);
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        List<LocalClusterRelay> members = GROUPS.get(group);
+        if (members != null) {
+            members.remove(this);
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean isActive() {
+        List<LocalClusterRelay> members = GROUPS.get(group);
+        return enabled && members != null && members.size() > 1;
+    }
+
+    @Override
+    public void publishMetrics(List<DeviceMetrics> updates) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(updates);
+        } catch (JsonProcessingException e) {
+            failed.incrementAndGet();
+            logger.warn("Failed to serialize relayed metrics", e);
+            return;
+        }
+        for (LocalClusterRelay member : peers()) {
+            Listener peer = member.listener;
+            if (peer != null) {
+                try {
+                    peer.onMetrics(member.objectMapper.readValue(json, METRICS_LIST));
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    logger.warn("Failed to deliver relayed metrics", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void publishDeviceDeleted(String deviceId, LocalDateTime deletedAt) {
+        for (LocalClusterRelay member : peers()) {
+            Listener peer = member.listener;
+            if (peer != null) {
+                peer.onDeviceDeleted(deviceId, deletedAt);
+            }
+        }
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private List<LocalClusterRelay> peers() {
+        if (!enabled) {
+            return List.of();
+        }
+        return GROUPS.getOrDefault(group, List.of()).stream().filter(member -> member != this).toList();
+    }
+}
@@ -0,0 +1,359 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Optional compressed tier for raw history. Once a chunk window (an hour by default) has been
+ * closed for seal-after, a background job moves each device's rows for it out of device_metrics
+ * into one MetricChunk. Samples arriving late for a sealed window stay in device_metrics until
+ * the next run merges them in. The repository reads both tiers, so sealing is invisible to queries;
+ * rows and chunks are read in that order and deduplicated by id, so a seal committing mid-read
+ * can't hide samples.
+ */
+@Service
+public class MetricChunkStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricChunkStore.class);
+
+    static final Comparator<DeviceMetrics> BY_TIME_AND_ID =
+            Comparator.comparing(DeviceMetrics::getTimestamp).thenComparing(DeviceMetrics::getId);
+
+    /** Maps raw device_metrics rows, resolving device_key back to the device name. */
+    static RowMapper<DeviceMetrics> rowMapper(DeviceRegistry registry) {
+        return (rs, rowNum) -> {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setId(rs.getLong("id"));
+            m.setDeviceId(registry.deviceIdOf(rs.getInt("device_key")));
+            m.setCpuUsage(rs.getDouble("cpu_usage"));
+            m.setMemoryUsage(rs.getDouble("memory_usage"));
+            m.setDiskUsage(rs.getDouble("disk_usage"));
+            m.setBytesSentPerSec(rs.getObject("bytes_sent_per_sec", Long.class));
+            m.setBytesRecvPerSec(rs.getObject("bytes_recv_per_sec", Long.class));
+            m.setDiskReadBytesPerSec(rs.getObject("disk_read_bytes_per_sec", Long.class));
+            m.setDiskWriteBytesPerSec(rs.getObject("disk_write_bytes_per_sec", Long.class));
+            m.setLatencyMs(rs.getObject("latency_ms", Double.class));
+            m.setSystemUptimeSeconds(rs.getObject("system_uptime_seconds", Double.class));
+            m.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+            m.setSeq(rs.getObject("client_seq", Long.class));
+            return m;
+        };
+    }
+
+    private static final String SEAL_SQL = "SELECT id, device_key, cpu_usage, memory_usage, disk_usage, "
+            + "bytes_sent_per_sec, bytes_recv_per_sec, disk_read_bytes_per_sec, disk_write_bytes_per_sec, "
+            + "latency_ms, system_uptime_seconds, timestamp, client_seq FROM " + DeviceMetricsBatchWriter.TABLE
+            + " WHERE timestamp < ? AND device_key IS NOT NULL ORDER BY device_key, timestamp, id LIMIT ?";
+
+    // The timestamp lets PostgreSQL prune to one partition when device_metrics is partitioned
+    private static final String DELETE_SQL =
+            "DELETE FROM " + DeviceMetricsBatchWriter.TABLE + " WHERE id = ? AND timestamp = ?";
+
+    private static final String OVERLAPPING_SQL = "SELECT data FROM metric_chunks "
+            + "WHERE device_id = ? AND last_timestamp >= ? AND first_timestamp <= ? ORDER BY chunk_start ";
+
+    // Chunks hold up to an hour of samples each, so fetch them a couple at a time
+    private static final int CHUNKS_PER_FETCH = 2;
+
+    private final MetricChunkRepository chunkRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final RowMapper<DeviceMetrics> rowMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final long chunkMicros;
+    private final Duration sealAfter;
+    private final int batchRows;
+
+    // Reads skip the chunk table entirely until it has something in it
+    private volatile boolean populated;
+
+    public MetricChunkStore(MetricChunkRepository chunkRepo,
+                            JdbcTemplate jdbcTemplate,
+                            DeviceRegistry registry,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${sentinel.chunks.enabled:false}") boolean enabled,
+                            @Value("${sentinel.chunks.duration-minutes:60}") long durationMinutes,
+                            @Value("${sentinel.chunks.seal-after-minutes:10}") long sealAfterMinutes,
+                            @Value("${sentinel.chunks.seal-batch-rows:50000}") int batchRows) {
+        this.chunkRepo = chunkRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.rowMapper = rowMapper(registry);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.chunkMicros = durationMinutes * 60_000_000L;
+        this.sealAfter = Duration.ofMinutes(sealAfterMinutes);
+        this.batchRows = batchRows;
+    }
+
+    @PostConstruct
+    public void init() {
+        populated = enabled || chunkRepo.count() > 0;
+        if (enabled) {
+            logger.info("Sealing raw metrics into {}-minute compressed chunks {} minutes after they close",
+                    chunkMicros / 60_000_000L, sealAfter.toMinutes());
+        }
+    }
+
+    public boolean hasChunks() {
+        return populated;
+    }
+
+    @Scheduled(initialDelayString = "${sentinel.chunks.initial-delay-ms:60000}",
+               fixedDelayString = "${sentinel.chunks.seal-interval-ms:300000}")
+    public void sealClosedChunks() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long rows = seal(chunkStart(LocalDateTime.now().minus(sealAfter)));
+            if (rows > 0) {
+                logger.info("Sealed {} raw metrics into chunks", rows);
+            }
+        } catch (Exception e) {
+            logger.error("Error sealing metric chunks", e);
+        }
+    }
+
+    /** Moves every raw row stamped before cutoff, which must be a chunk boundary, into chunks. */
+    long seal(LocalDateTime cutoff) {
+        populated = true;
+        long sealed = 0;
+        List<DeviceMetrics> rows;
+        long absorbed;
+        do {
+            rows = jdbcTemplate.query(SEAL_SQL, rowMapper, Timestamp.valueOf(cutoff), batchRows);
+            absorbed = 0;
+            int first = 0;
+            for (int i = 1; i <= rows.size(); i++) {
+                if (i == rows.size() || !sameChunk(rows.get(first), rows.get(i))) {
+                    absorbed += sealChunk(rows.subList(first, i));
+                    first = i;
+                }
+            }
+            sealed += absorbed;
+            // Rows left in place come back in the next batch, so stop once a batch seals nothing
+        } while (rows.size() >= batchRows && absorbed > 0);
+        return sealed;
+    }
+
+    private boolean sameChunk(DeviceMetrics a, DeviceMetrics b) {
+        return Objects.equals(a.getDeviceId(), b.getDeviceId()) && chunkStart(a.getTimestamp()).equals(chunkStart(b.getTimestamp()));
+    }
+
+    // Writes the chunk and deletes the rows it absorbed in one transaction; returns how many it absorbed
+    private int sealChunk(List<DeviceMetrics> rows) {
+        String deviceId = rows.get(0).getDeviceId();
+        if (deviceId == null) {
+            // Keys are never unregistered, so this is a damaged devices table; keep the rows for repair
+            logger.warn("Leaving {} rows under an unknown device key unsealed", rows.size());
+            return 0;
+        }
+        LocalDateTime start = chunkStart(rows.get(0).getTimestamp());
+        transactionTemplate.executeWithoutResult(status -> {
+            MetricChunk chunk = chunkRepo.findByDeviceIdAndChunkStart(deviceId, start);
+            List<DeviceMetrics> samples = rows;
+            if (chunk == null) {
+                chunk = new MetricChunk(deviceId, start);
+            } else {
+                samples = merge(MetricChunkCodec.decode(deviceId, chunk.getData()), rows);
+            }
+            store(chunk, samples);
+            jdbcTemplate.batchUpdate(DELETE_SQL, rows, rows.size(), (ps, m) -> {
+                ps.setLong(1, m.getId());
+                ps.setTimestamp(2, Timestamp.valueOf(m.getTimestamp()));
+            });
+        });
+        return rows.size();
+    }
+
+    private void store(MetricChunk chunk, List<DeviceMetrics> samples) {
+        chunk.setData(MetricChunkCodec.encode(samples));
+        chunk.setSampleCount(samples.size());
+        chunk.setFirstTimestamp(samples.get(0).getTimestamp());
+        chunk.setLastTimestamp(samples.get(samples.size() - 1).getTimestamp());
+        chunkRepo.save(chunk);
+    }
+
+    /**
+     * Deletes deviceId's chunked samples stamped at or before cutoff, rewriting the chunk that
+     * straddles it. Returns the number of samples removed.
+     */
+    public long deleteUpTo(String deviceId, LocalDateTime cutoff) {
+        long removed = 0;
+        while (true) {
+            List<MetricChunk> chunks = chunkRepo.findOverlappingAsc(deviceId, MetricHistoryService.EARLIEST, cutoff,
+                    PageRequest.of(0, 50)).getContent();
+            if (chunks.isEmpty()) {
+                return removed;
+            }
+            for (MetricChunk chunk : chunks) {
+                if (!chunk.getLastTimestamp().isAfter(cutoff)) {
+                    chunkRepo.delete(chunk);
+                    removed += chunk.getSampleCount();
+                    continue;
+                }
+                List<DeviceMetrics> kept = new ArrayList<>();
+                for (DeviceMetrics m : MetricChunkCodec.decode(deviceId, chunk.getData())) {
+                    if (m.getTimestamp().isAfter(cutoff)) {
+                        kept.add(m);
+                    }
+                }
+                removed += chunk.getSampleCount() - kept.size();
+                store(chunk, kept);
+            }
+        }
+    }
+
+    /** Up to limit chunked samples of deviceId after (afterTimestamp, afterId) and at or before to, oldest first. */
+    public List<DeviceMetrics> readAfter(String deviceId, LocalDateTime afterTimestamp, long afterId,
+                                         LocalDateTime to, int limit) {
+        List<DeviceMetrics> rows = new ArrayList<>();
+        Iterator<DeviceMetrics> samples = iterate(deviceId, afterTimestamp, to, false);
+        while (rows.size() < limit && samples.hasNext()) {
+            DeviceMetrics m = samples.next();
+            if (m.getTimestamp().isAfter(afterTimestamp) || m.getId() > afterId) {
+                rows.add(m);
+            }
+        }
+        return rows;
+    }
+
+    /** Up to limit chunked samples of deviceId before (beforeTimestamp, beforeId) and at or after from, newest first. */
+    public List<DeviceMetrics> readBefore(String deviceId, LocalDateTime beforeTimestamp, long beforeId,
+                                          LocalDateTime from, int limit) {
+        List<DeviceMetrics> rows = new ArrayList<>();
+        Iterator<DeviceMetrics> samples = iterate(deviceId, from, beforeTimestamp, true);
+        while (rows.size() < limit && samples.hasNext()) {
+            DeviceMetrics m = samples.next();
+            if (m.getTimestamp().isBefore(beforeTimestamp) || m.getId() < beforeId) {
+                rows.add(m);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * deviceId's chunked samples stamped within [from, to] in time order, fetching and decoding
+     * the overlapping chunks lazily as the iterator advances. Fetches go through JdbcTemplate, so
+     * inside a transaction they share its connection.
+     */
+    public Iterator<DeviceMetrics> iterate(String deviceId, LocalDateTime from, LocalDateTime to, boolean descending) {
+        return new ChunkIterator(deviceId, from, to, descending);
+    }
+
+    /** The newest chunked sample of each device that has chunks. */
+    public List<DeviceMetrics> findLatestPerDevice() {
+        List<DeviceMetrics> latest = new ArrayList<>();
+        for (MetricChunk chunk : chunkRepo.findLatestPerDevice()) {
+            List<DeviceMetrics> samples = MetricChunkCodec.decode(chunk.getDeviceId(), chunk.getData());
+            if (!samples.isEmpty()) {
+                latest.add(samples.get(samples.size() - 1));
+            }
+        }
+        return latest;
+    }
+
+    LocalDateTime chunkStart(LocalDateTime timestamp) {
+        return RecentMetricsBuffer.fromMicros(Math.floorDiv(RecentMetricsBuffer.toMicros(timestamp), chunkMicros) * chunkMicros);
+    }
+
+    /** Merges two sorted lists, keeping one copy of rows present in both. */
+    static List<DeviceMetrics> merge(List<DeviceMetrics> a, List<DeviceMetrics> b, Comparator<DeviceMetrics> order) {
+        List<DeviceMetrics> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size()) {
+                merged.add(a.get(i++));
+            } else if (i == a.size()) {
+                merged.add(b.get(j++));
+            } else {
+                int c = order.compare(a.get(i), b.get(j));
+                if (c == 0) {
+                    j++;
+                }
+                merged.add(c <= 0 ? a.get(i++) : b.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    private static List<DeviceMetrics> merge(List<DeviceMetrics> a, List<DeviceMetrics> b) {
+        return merge(a, b, BY_TIME_AND_ID);
+    }
+
+    private final class ChunkIterator implements Iterator<DeviceMetrics> {
+        private final String deviceId;
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+        private final boolean descending;
+        private final long fromMicros;
+        private final long toMicros;
+        private Iterator<byte[]> chunks = Collections.emptyIterator();
+        private Iterator<DeviceMetrics> samples = Collections.emptyIterator();
+        private int offset;
+        private boolean lastPage = !populated;
+
+        ChunkIterator(String deviceId, LocalDateTime from, LocalDateTime to, boolean descending) {
+            this.deviceId = deviceId;
+            this.from = from;
+            this.to = to;
+            this.descending = descending;
+            this.fromMicros = RecentMetricsBuffer.toMicros(from);
+            this.toMicros = RecentMetricsBuffer.toMicros(to);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!samples.hasNext()) {
+                if (!chunks.hasNext()) {
+                    if (lastPage) {
+                        return false;
+                    }
+                    List<byte[]> page = jdbcTemplate.query(
+                            OVERLAPPING_SQL + (descending ? "DESC" : "ASC") + " LIMIT ? OFFSET ?",
+                            (rs, rowNum) -> rs.getBytes(1), deviceId, Timestamp.valueOf(from), Timestamp.valueOf(to),
+                            CHUNKS_PER_FETCH + 1, offset);
+                    offset += CHUNKS_PER_FETCH;
+                    lastPage = page.size() <= CHUNKS_PER_FETCH;
+                    chunks = page.subList(0, Math.min(page.size(), CHUNKS_PER_FETCH)).iterator();
+                    continue;
+                }
+                List<DeviceMetrics> decoded = MetricChunkCodec.decode(deviceId, chunks.next(), fromMicros, toMicros);
+                if (descending) {
+                    Collections.reverse(decoded);
+                }
+                samples = decoded.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public DeviceMetrics next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return samples.next();
+        }
+    }
+}
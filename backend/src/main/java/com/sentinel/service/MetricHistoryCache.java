@@ -0,0 +1,217 @@
+package com.sentinel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Read-through cache of history slices whose range closed more than seal-after ago, bounded by
+ * the number of rows it holds (W-TinyLFU, see TinyLfuCache). Slices reaching into the open "now"
+ * edge are always read afresh. Sealed slices are not touched by ordinary ingest: only rows
+ * persisted late, with a timestamp behind the seal, drop the slices of their device that could
+ * hold them, as do device deletes and retention. Every slice comes with an ETag, sealed ones with
+ * a Last-Modified too, for conditional GETs. In a cluster only devices this node owns are cached,
+ * since only the owner sees their rows persisted.
+ */
+@Service
+public class MetricHistoryCache {
+
+    /** A slice with its conditional-GET validators; lastModifiedMillis is -1 for open ranges. */
+    public record CachedSlice(MetricHistorySlice slice, String etag, long lastModifiedMillis) {}
+
+    // upper is the newest timestamp the slice can hold, derived from the rest
+    private record Key(String deviceId, LocalDateTime from, LocalDateTime to, String cursor, int size,
+                       LocalDateTime upper) {}
+
+    private record Span(LocalDateTime oldest, LocalDateTime newest) {
+        Span including(Span other) {
+            return new Span(oldest.isBefore(other.oldest) ? oldest : other.oldest,
+                    newest.isAfter(other.newest) ? newest : other.newest);
+        }
+    }
+
+    private final MetricHistoryService historyService;
+    private final ClusterMembership membership;
+    private final Duration sealAfter;
+    private final TinyLfuCache<Key, CachedSlice> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong openReads = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    // Bumped under the cache lock by every invalidation, so a read that raced one isn't cached
+    private long generation;
+
+    public MetricHistoryCache(MetricHistoryService historyService,
+                              ClusterMembership membership,
+                              @Value("${sentinel.history.cache.max-rows:100000}") long maxRows,
+                              @Value("${sentinel.history.cache.seal-after-seconds:60}") long sealAfterSeconds) {
+        this.historyService = historyService;
+        this.membership = membership;
+        this.sealAfter = Duration.ofSeconds(sealAfterSeconds);
+        // Sized for slices of the default 10 rows
+        this.cache = (maxRows > 0) ? new TinyLfuCache<>(maxRows, (int) Math.min(maxRows / 10, 1 << 24)) : null;
+    }
+
+    /** MetricHistoryService.readSlice, answered from the cache when the slice is sealed. */
+    public CachedSlice readSlice(String deviceId, LocalDateTime from, LocalDateTime to, HistoryCursor cursor, int size) {
+        LocalDateTime upper = upperBound(from, to, cursor);
+        if (cache == null || upper == null || !upper.isBefore(horizon())
+                || (membership != null && membership.isEnabled() && !membership.isLocal(deviceId))) {
+            openReads.incrementAndGet();
+            MetricHistorySlice slice = historyService.readSlice(deviceId, from, to, cursor, size);
+            return new CachedSlice(slice, etag(slice), -1);
+        }
+        Key key = new Key(deviceId, from, to, (cursor != null) ? cursor.encode() : null, size, upper);
+        long readGeneration;
+        synchronized (cache) {
+            CachedSlice cached = cache.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            readGeneration = generation;
+        }
+        misses.incrementAndGet();
+        MetricHistorySlice slice = historyService.readSlice(deviceId, from, to, cursor, size);
+        CachedSlice loaded = new CachedSlice(slice, etag(slice), System.currentTimeMillis());
+        synchronized (cache) {
+            if (generation == readGeneration) {
+                cache.put(key, loaded, slice.getNumberOfElements() + 1);
+            }
+        }
+        return loaded;
+    }
+
+    /** Called with each persisted batch; rows stamped behind the seal drop the slices that could hold them. */
+    public void accept(List<DeviceMetrics> persisted) {
+        if (cache == null) {
+            return;
+        }
+        LocalDateTime horizon = horizon();
+        Map<String, Span> late = null;
+        for (DeviceMetrics m : persisted) {
+            LocalDateTime timestamp = m.getTimestamp();
+            if (timestamp != null && timestamp.isBefore(horizon)) {
+                if (late == null) {
+                    late = new HashMap<>();
+                }
+                late.merge(m.getDeviceId(), new Span(timestamp, timestamp), Span::including);
+            }
+        }
+        if (late != null) {
+            late.forEach((deviceId, span) -> invalidate(key -> key.deviceId().equals(deviceId)
+                    && !key.upper().isBefore(span.oldest())
+                    && (key.from() == null || !key.from().isAfter(span.newest()))));
+        }
+    }
+
+    public void forget(String deviceId) {
+        if (cache != null) {
+            invalidate(key -> key.deviceId().equals(deviceId));
+        }
+    }
+
+    /** Drops slices that may include rows older than cutoff, which retention is deleting. */
+    public void expireBefore(LocalDateTime cutoff) {
+        if (cache != null) {
+            invalidate(key -> key.from() == null || key.from().isBefore(cutoff));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getOpenReadCount() {
+        return openReads.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public long getCachedRows() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.weight() - cache.size();
+        }
+    }
+
+    public long getEvictionCount() {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.getEvictionCount();
+        }
+    }
+
+    private void invalidate(Predicate<Key> matches) {
+        synchronized (cache) {
+            generation++;
+            invalidations.addAndGet(cache.removeIf(matches));
+        }
+    }
+
+    private LocalDateTime horizon() {
+        return LocalDateTime.now().minus(sealAfter);
+    }
+
+    // Newest timestamp a slice can hold, or null when it reaches the open end. Reading newest first
+    // from a cursor, everything is older than the cursor, so later pages of a live view seal too.
+    private static LocalDateTime upperBound(LocalDateTime from, LocalDateTime to, HistoryCursor cursor) {
+        boolean descending = (cursor != null) ? cursor.isDescending() : from == null;
+        if (descending && cursor != null && (to == null || cursor.getTimestamp().isBefore(to))) {
+            return cursor.getTimestamp();
+        }
+        return to;
+    }
+
+    /** A strong validator over every field of every row, the paging state included. */
+    static String etag(MetricHistorySlice slice) {
+        long hash = 0xCBF2_9CE4_8422_2325L;
+        for (DeviceMetrics m : slice.getContent()) {
+            hash = mix(hash, (m.getId() != null) ? m.getId() : Long.MIN_VALUE);
+            hash = mix(hash, (m.getTimestamp() != null) ? RecentMetricsBuffer.toMicros(m.getTimestamp()) : Long.MIN_VALUE);
+            hash = mix(hash, Double.doubleToLongBits(m.getCpuUsage()));
+            hash = mix(hash, Double.doubleToLongBits(m.getMemoryUsage()));
+            hash = mix(hash, Double.doubleToLongBits(m.getDiskUsage()));
+            hash = mix(hash, m.getBytesSentPerSec());
+            hash = mix(hash, m.getBytesRecvPerSec());
+            hash = mix(hash, m.getDiskReadBytesPerSec());
+            hash = mix(hash, m.getDiskWriteBytesPerSec());
+            hash = mix(hash, m.getLatencyMs());
+            hash = mix(hash, m.getSystemUptimeSeconds());
+        }
+        hash = mix(hash, slice.getSize());
+        hash = mix(hash, (slice.getNextCursor() != null) ? slice.getNextCursor().hashCode() : 0);
+        return "\"" + Long.toHexString(hash) + "\"";
+    }
+
+    private static long mix(long hash, Number value) {
+        if (value == null) {
+            return mix(hash, 0x5bd1_e995L);
+        }
+        return mix(hash, (value instanceof Double d) ? Double.doubleToLongBits(d) : value.longValue());
+    }
+
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x100_0000_01B3L;
+        return hash ^ (hash >>> 29);
+    }
+}
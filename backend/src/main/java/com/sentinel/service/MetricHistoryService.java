@@ -0,0 +1,282 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Raw history reads for one device. Slices are keyset-paginated on (timestamp, id), so every page
+ * costs the same index seek with no COUNT and no OFFSET, and are served from RecentMetricsBuffer
+ * when it holds the whole slice. Exports stream the full range from a server-side cursor.
+ */
+@Service
+public class MetricHistoryService {
+
+    public enum ExportFormat { CSV, NDJSON }
+
+    // Open ends of a range, inside what every supported database can store
+    static final LocalDateTime EARLIEST = LocalDateTime.of(1970, 1, 1, 0, 0);
+    static final LocalDateTime LATEST = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+    private static final String EXPORT_SQL = "SELECT id, device_key, timestamp, cpu_usage, memory_usage, disk_usage, "
+            + "bytes_sent_per_sec, bytes_recv_per_sec, disk_read_bytes_per_sec, disk_write_bytes_per_sec, "
+            + "latency_ms, system_uptime_seconds, client_seq FROM " + DeviceMetricsBatchWriter.TABLE
+            + " WHERE device_key = ? AND timestamp >= ? AND timestamp <= ? ORDER BY timestamp, id";
+
+    private static final String[] EXPORT_FIELDS = {"deviceId", "timestamp", "cpuUsage", "memoryUsage", "diskUsage",
+            "bytesSentPerSec", "bytesRecvPerSec", "diskReadBytesPerSec", "diskWriteBytesPerSec",
+            "latencyMs", "systemUptimeSeconds"};
+
+    private final DeviceMetricsRepository repo;
+    private final MetricChunkStore chunkStore;
+    private final RecentMetricsBuffer recentBuffer;
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry registry;
+    private final RowMapper<DeviceMetrics> rowMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int exportFetchSize;
+
+    public MetricHistoryService(DeviceMetricsRepository repo,
+                                MetricChunkStore chunkStore,
+                                RecentMetricsBuffer recentBuffer,
+                                JdbcTemplate jdbcTemplate,
+                                DeviceRegistry registry,
+                                PlatformTransactionManager transactionManager,
+                                ObjectMapper objectMapper,
+                                @Value("${sentinel.export.fetch-size:1000}") int exportFetchSize) {
+        this.repo = repo;
+        this.chunkStore = chunkStore;
+        this.recentBuffer = recentBuffer;
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+        this.rowMapper = MetricChunkStore.rowMapper(registry);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    /**
+     * The next size rows of deviceId within [from, to] after cursor, or the first ones when cursor
+     * is null: oldest first when reading forward from a from bound, otherwise newest first.
+     */
+    public MetricHistorySlice readSlice(String deviceId, LocalDateTime from, LocalDateTime to,
+                                        HistoryCursor cursor, int size) {
+        boolean descending = (cursor != null) ? cursor.isDescending() : from == null;
+        LocalDateTime lower = (from != null) ? from : EARLIEST;
+        LocalDateTime upper = (to != null) ? to : LATEST;
+
+        List<DeviceMetrics> content;
+        boolean hasNext;
+        List<DeviceMetrics> buffered = readFromBuffer(deviceId, lower, upper, cursor, descending, size);
+        if (buffered != null) {
+            hasNext = buffered.size() > size;
+            content = hasNext ? buffered.subList(0, size) : buffered;
+        } else {
+            Slice<DeviceMetrics> slice;
+            if (descending) {
+                LocalDateTime before = (cursor != null) ? cursor.getTimestamp() : upper;
+                long beforeId = (cursor != null) ? cursor.getId() : Long.MAX_VALUE;
+                slice = repo.findSliceBefore(deviceId, before, beforeId, lower, PageRequest.of(0, size));
+            } else {
+                LocalDateTime after = (cursor != null) ? cursor.getTimestamp() : lower;
+                long afterId = (cursor != null) ? cursor.getId() : Long.MIN_VALUE;
+                slice = repo.findSliceAfter(deviceId, after, afterId, upper, PageRequest.of(0, size));
+            }
+            content = slice.getContent();
+            hasNext = slice.hasNext();
+        }
+        String nextCursor = hasNext ? HistoryCursor.after(content.get(content.size() - 1), descending).encode() : null;
+        return new MetricHistorySlice(content, size, hasNext, nextCursor);
+    }
+
+    // size + 1 rows from memory, or null when the buffer can't answer exactly
+    private List<DeviceMetrics> readFromBuffer(String deviceId, LocalDateTime lower, LocalDateTime upper,
+                                               HistoryCursor cursor, boolean descending, int size) {
+        long fromMicros = RecentMetricsBuffer.toMicros(lower);
+        long toMicros = upper.equals(LATEST) ? Long.MAX_VALUE : RecentMetricsBuffer.toMicros(upper);
+        if (cursor != null) {
+            // Stored timestamps have microsecond precision, so "strictly beyond" is one microsecond on
+            long position = RecentMetricsBuffer.toMicros(cursor.getTimestamp());
+            if (descending) {
+                toMicros = Math.min(toMicros, cursor.hasRowId() ? position : position - 1);
+            } else {
+                fromMicros = Math.max(fromMicros, cursor.hasRowId() ? position : position + 1);
+            }
+        }
+        List<DeviceMetrics> rows = recentBuffer.find(deviceId, fromMicros, toMicros, descending, size + 1);
+        if (rows == null || rows.isEmpty()) {
+            return rows;
+        }
+        // Buffered rows have no id to break ties on, so leave timestamp ties at a page edge to the database
+        if (cursor != null && cursor.hasRowId() && rows.get(0).getTimestamp().equals(cursor.getTimestamp())) {
+            return null;
+        }
+        if (rows.size() > size && rows.get(size).getTimestamp().equals(rows.get(size - 1).getTimestamp())) {
+            return null;
+        }
+        return rows;
+    }
+
+    /**
+     * Writes every row of deviceId within [from, to], oldest first, reading from a server-side
+     * cursor (merged with any sealed chunks, decoded one at a time) so memory stays flat however
+     * long the range.
+     */
+    public void export(String deviceId, LocalDateTime from, LocalDateTime to, ExportFormat format, OutputStream out) {
+        LocalDateTime lower = (from != null) ? from : EARLIEST;
+        LocalDateTime upper = (to != null) ? to : LATEST;
+        // An unregistered device has no raw rows; binding null matches none
+        Integer deviceKey = registry.find(deviceId);
+        // PostgreSQL only honours the fetch size inside a transaction, which chunk reads then share
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(EXPORT_SQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(exportFetchSize);
+                if (deviceKey == null) {
+                    statement.setNull(1, Types.INTEGER);
+                } else {
+                    statement.setInt(1, deviceKey);
+                }
+                statement.setTimestamp(2, Timestamp.valueOf(lower));
+                statement.setTimestamp(3, Timestamp.valueOf(upper));
+                try (ResultSet rs = statement.executeQuery();
+                     RowWriter writer = (format == ExportFormat.CSV) ? new CsvWriter(out) : new NdjsonWriter(out)) {
+                    Iterator<DeviceMetrics> chunked = chunkStore.hasChunks()
+                            ? chunkStore.iterate(deviceId, lower, upper, false) : Collections.emptyIterator();
+                    DeviceMetrics pending = chunked.hasNext() ? chunked.next() : null;
+                    for (int rowNum = 0; rs.next(); rowNum++) {
+                        DeviceMetrics row = rowMapper.mapRow(rs, rowNum);
+                        while (pending != null && MetricChunkStore.BY_TIME_AND_ID.compare(pending, row) <= 0) {
+                            // A row sealed while the cursor was open can show up in both
+                            if (!pending.getId().equals(row.getId())) {
+                                writer.write(pending);
+                            }
+                            pending = chunked.hasNext() ? chunked.next() : null;
+                        }
+                        writer.write(row);
+                    }
+                    for (; pending != null; pending = chunked.hasNext() ? chunked.next() : null) {
+                        writer.write(pending);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }));
+    }
+
+    private interface RowWriter extends Closeable {
+        void write(DeviceMetrics m) throws IOException;
+    }
+
+    private static final class CsvWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvWriter(OutputStream out) throws IOException {
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            writer.write(String.join(",", EXPORT_FIELDS));
+            writer.write('\n');
+        }
+
+        @Override
+        public void write(DeviceMetrics m) throws IOException {
+            writer.write(csvQuote(m.getDeviceId()));
+            writer.write(',');
+            writer.write(m.getTimestamp().toString());
+            for (Object value : new Object[]{m.getCpuUsage(), m.getMemoryUsage(), m.getDiskUsage(),
+                    m.getBytesSentPerSec(), m.getBytesRecvPerSec(), m.getDiskReadBytesPerSec(),
+                    m.getDiskWriteBytesPerSec(), m.getLatencyMs(), m.getSystemUptimeSeconds()}) {
+                writer.write(',');
+                if (value != null) {
+                    writer.write(value.toString());
+                }
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.flush();
+        }
+    }
+
+    private final class NdjsonWriter implements RowWriter {
+        private final JsonGenerator generator;
+
+        NdjsonWriter(OutputStream out) throws IOException {
+            generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(DeviceMetrics m) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField(EXPORT_FIELDS[0], m.getDeviceId());
+            generator.writeStringField(EXPORT_FIELDS[1], m.getTimestamp().toString());
+            generator.writeNumberField(EXPORT_FIELDS[2], m.getCpuUsage());
+            generator.writeNumberField(EXPORT_FIELDS[3], m.getMemoryUsage());
+            generator.writeNumberField(EXPORT_FIELDS[4], m.getDiskUsage());
+            writeNullable(EXPORT_FIELDS[5], m.getBytesSentPerSec());
+            writeNullable(EXPORT_FIELDS[6], m.getBytesRecvPerSec());
+            writeNullable(EXPORT_FIELDS[7], m.getDiskReadBytesPerSec());
+            writeNullable(EXPORT_FIELDS[8], m.getDiskWriteBytesPerSec());
+            writeNullable(EXPORT_FIELDS[9], m.getLatencyMs());
+            writeNullable(EXPORT_FIELDS[10], m.getSystemUptimeSeconds());
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        private void writeNullable(String field, Number value) throws IOException {
+            generator.writeFieldName(field);
+            if (value == null) {
+                generator.writeNull();
+            } else if (value instanceof Double) {
+                generator.writeNumber(value.doubleValue());
+            } else {
+                generator.writeNumber(value.longValue());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static String csvQuote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,366 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains per-device rollups at every RollupResolution as metrics are persisted, and
+ * answers downsampled series queries from the coarsest-needed tier so chart queries read
+ * at most maxPoints buckets regardless of the requested time range.
+ */
+@Service
+public class MetricRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricRollupService.class);
+
+    private static final double SKETCH_ACCURACY = 0.01;
+    private static final RollupResolution[] TIERS = RollupResolution.values();
+    private static final MetricField[] FIELDS = MetricField.values();
+
+    private final MetricRollupRepository rollupRepo;
+    private final Duration closeGrace;
+
+    private final ConcurrentMap<String, DeviceRollups> devices = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<MetricRollup> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong lateSamples = new AtomicLong();
+
+    public MetricRollupService(MetricRollupRepository rollupRepo,
+                               @Value("${sentinel.rollups.close-grace-seconds:15}") long closeGraceSeconds) {
+        this.rollupRepo = rollupRepo;
+        this.closeGrace = Duration.ofSeconds(closeGraceSeconds);
+    }
+
+    public void accept(List<DeviceMetrics> batch) {
+        for (DeviceMetrics metrics : batch) {
+            accept(metrics);
+        }
+    }
+
+    public void accept(DeviceMetrics metrics) {
+        if (metrics.getDeviceId() == null || metrics.getTimestamp() == null) {
+            return;
+        }
+        DeviceRollups state = devices.computeIfAbsent(metrics.getDeviceId(), DeviceRollups::new);
+        synchronized (state) {
+            state.add(metrics);
+        }
+    }
+
+    public void forget(String deviceId) {
+        devices.remove(deviceId);
+        pending.removeIf(rollup -> rollup.getDeviceId().equals(deviceId));
+    }
+
+    public long getLateSampleCount() {
+        return lateSamples.get();
+    }
+
+    /**
+     * Closes buckets whose window has passed and writes every closed bucket in one batch.
+     * A bucket that already has a row (written partially before a restart, or by another node
+     * before an ownership change) is merged into that row instead of inserted again. If the
+     * write fails the polled rollups go back on the queue for the next flush.
+     */
+    @Scheduled(fixedDelayString = "${sentinel.rollups.flush-interval-ms:5000}")
+    public void flush() {
+        closeBuckets(LocalDateTime.now().minus(closeGrace));
+        List<MetricRollup> polled = new ArrayList<>();
+        MetricRollup rollup;
+        while ((rollup = pending.poll()) != null) {
+            polled.add(rollup);
+        }
+        if (polled.isEmpty()) {
+            return;
+        }
+        try {
+            List<MetricRollup> toSave = mergeWithStored(polled);
+            rollupRepo.saveAll(toSave);
+            logger.debug("Saved {} metric rollups", toSave.size());
+        } catch (RuntimeException e) {
+            pending.addAll(polled);
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closeBuckets(LocalDateTime.MAX);
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Error saving final metric rollups", e);
+        }
+    }
+
+    private List<MetricRollup> mergeWithStored(List<MetricRollup> polled) {
+        Set<String> deviceIds = new LinkedHashSet<>();
+        Set<LocalDateTime> bucketStarts = new LinkedHashSet<>();
+        for (MetricRollup rollup : polled) {
+            deviceIds.add(rollup.getDeviceId());
+            bucketStarts.add(rollup.getBucketStart());
+        }
+        Map<String, MetricRollup> merged = new LinkedHashMap<>();
+        for (MetricRollup stored : rollupRepo.findBuckets(deviceIds, bucketStarts)) {
+            merged.put(key(stored), stored);
+        }
+        Set<String> touched = new LinkedHashSet<>();
+        for (MetricRollup rollup : polled) {
+            String key = key(rollup);
+            MetricRollup existing = merged.get(key);
+            if (existing == null) {
+                // Copy so a failed write re-queues the rollup exactly as it was emitted
+                existing = new MetricRollup(rollup.getDeviceId(), rollup.getResolutionSeconds(),
+                        rollup.getMetric(), rollup.getBucketStart());
+                existing.setMin(Double.POSITIVE_INFINITY);
+                existing.setMax(Double.NEGATIVE_INFINITY);
+                merged.put(key, existing);
+            }
+            merge(existing, rollup);
+            touched.add(key);
+        }
+        List<MetricRollup> toSave = new ArrayList<>(touched.size());
+        for (String key : touched) {
+            toSave.add(merged.get(key));
+        }
+        return toSave;
+    }
+
+    private static String key(MetricRollup rollup) {
+        return rollup.getDeviceId() + '/' + rollup.getResolutionSeconds() + '/' + rollup.getMetric()
+                + '/' + rollup.getBucketStart();
+    }
+
+    static void merge(MetricRollup into, MetricRollup from) {
+        long count = into.getSampleCount() + from.getSampleCount();
+        // Sketches aren't persisted, so the merged p95 is the count-weighted mean of both sides
+        double p95 = (count == 0) ? from.getP95()
+                : (into.getP95() * into.getSampleCount() + from.getP95() * from.getSampleCount()) / count;
+        into.setSampleCount(count);
+        into.setSum(into.getSum() + from.getSum());
+        into.setMin(Math.min(into.getMin(), from.getMin()));
+        into.setMax(Math.max(into.getMax(), from.getMax()));
+        into.setLast(from.getLast());
+        into.setP95(p95);
+    }
+
+    private void closeBuckets(LocalDateTime cutoff) {
+        for (DeviceRollups state : devices.values()) {
+            synchronized (state) {
+                state.closeBefore(cutoff);
+            }
+        }
+    }
+
+    /**
+     * Returns the series for the requested columns ("field.aggregation"), using the finest tier
+     * at or above the requested resolution whose bucket count over [from, to) fits maxPoints.
+     *
+     * @throws IllegalArgumentException if even the coarsest tier needs more than maxPoints buckets
+     */
+    public MetricSeries querySeries(String deviceId, LocalDateTime from, LocalDateTime to,
+                                    RollupResolution requested, List<String> columns, int maxPoints) {
+        RollupResolution resolution = selectTier(from, to, requested, maxPoints);
+
+        MetricField[] columnFields = new MetricField[columns.size()];
+        RollupAggregation[] columnAggregations = new RollupAggregation[columns.size()];
+        Set<String> metrics = new LinkedHashSet<>();
+        for (int i = 0; i < columns.size(); i++) {
+            String[] parts = columns.get(i).split("\\.", 2);
+            columnFields[i] = MetricField.fromFieldName(parts[0]);
+            columnAggregations[i] = RollupAggregation.fromName(parts[1]);
+            metrics.add(columnFields[i].getFieldName());
+        }
+
+        // Persisted buckets first, then closed-but-unflushed and still-open buckets from memory
+        Map<LocalDateTime, Map<String, MetricRollup>> buckets = new TreeMap<>();
+        List<MetricRollup> rows = new ArrayList<>(
+                rollupRepo.findSeries(deviceId, resolution.getSeconds(), metrics, from, to));
+        for (MetricRollup rollup : pending) {
+            if (rollup.getDeviceId().equals(deviceId) && rollup.getResolutionSeconds() == resolution.getSeconds()) {
+                rows.add(rollup);
+            }
+        }
+        DeviceRollups state = devices.get(deviceId);
+        if (state != null) {
+            synchronized (state) {
+                rows.addAll(state.snapshot(resolution));
+            }
+        }
+        for (MetricRollup rollup : rows) {
+            if (!metrics.contains(rollup.getMetric())
+                    || rollup.getBucketStart().isBefore(from) || !rollup.getBucketStart().isBefore(to)) {
+                continue;
+            }
+            buckets.computeIfAbsent(rollup.getBucketStart(), k -> new HashMap<>()).put(rollup.getMetric(), rollup);
+        }
+
+        List<MetricSeries.Point> points = new ArrayList<>(buckets.size());
+        for (Map.Entry<LocalDateTime, Map<String, MetricRollup>> bucket : buckets.entrySet()) {
+            Double[] values = new Double[columns.size()];
+            for (int i = 0; i < values.length; i++) {
+                MetricRollup rollup = bucket.getValue().get(columnFields[i].getFieldName());
+                if (rollup != null) {
+                    double value = columnAggregations[i].valueOf(rollup);
+                    values[i] = Double.isNaN(value) ? null : value;
+                }
+            }
+            points.add(new MetricSeries.Point(bucket.getKey(), values));
+        }
+        return new MetricSeries(deviceId, resolution.getLabel(), columns, points);
+    }
+
+    static RollupResolution selectTier(LocalDateTime from, LocalDateTime to, RollupResolution requested, int maxPoints) {
+        long rangeSeconds = Math.max(1, Duration.between(from, to).getSeconds());
+        for (RollupResolution tier : TIERS) {
+            if (requested != null && tier.getSeconds() < requested.getSeconds()) {
+                continue;
+            }
+            if (rangeSeconds / tier.getSeconds() <= maxPoints) {
+                return tier;
+            }
+        }
+        RollupResolution coarsest = TIERS[TIERS.length - 1];
+        throw new IllegalArgumentException("Range needs " + (rangeSeconds / coarsest.getSeconds()) + " "
+                + coarsest.getLabel() + " buckets, more than maxPoints=" + maxPoints);
+    }
+
+    private final class DeviceRollups {
+        private final String deviceId;
+        private final OpenBucket[] open = new OpenBucket[TIERS.length];
+
+        DeviceRollups(String deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        void add(DeviceMetrics metrics) {
+            for (int t = 0; t < TIERS.length; t++) {
+                LocalDateTime start = TIERS[t].bucketStart(metrics.getTimestamp());
+                OpenBucket bucket = open[t];
+                if (bucket != null && (start.isBefore(bucket.start) || (bucket.closed && start.equals(bucket.start)))) {
+                    // Bucket already closed and written, rollups don't rewrite history
+                    lateSamples.incrementAndGet();
+                    continue;
+                }
+                if (bucket != null && start.isAfter(bucket.start)) {
+                    bucket.emit(deviceId, TIERS[t], pending);
+                    bucket = null;
+                }
+                if (bucket == null) {
+                    bucket = new OpenBucket(start, false);
+                    open[t] = bucket;
+                }
+                bucket.add(metrics);
+            }
+        }
+
+        void closeBefore(LocalDateTime cutoff) {
+            for (int t = 0; t < TIERS.length; t++) {
+                OpenBucket bucket = open[t];
+                if (bucket != null && !bucket.isEmpty() && !bucket.start.plusSeconds(TIERS[t].getSeconds()).isAfter(cutoff)) {
+                    bucket.emit(deviceId, TIERS[t], pending);
+                    // Keep a closed marker so later samples for this bucket count as late
+                    open[t] = new OpenBucket(bucket.start, true);
+                }
+            }
+        }
+
+        List<MetricRollup> snapshot(RollupResolution resolution) {
+            OpenBucket bucket = open[resolution.ordinal()];
+            List<MetricRollup> rollups = new ArrayList<>(FIELDS.length);
+            if (bucket != null) {
+                bucket.emit(deviceId, resolution, rollups);
+            }
+            return rollups;
+        }
+    }
+
+    private static final class OpenBucket {
+        private final LocalDateTime start;
+        private final boolean closed; // already emitted, so it must stay empty
+        private final FieldStats[] stats = new FieldStats[FIELDS.length];
+
+        OpenBucket(LocalDateTime start, boolean closed) {
+            this.start = start;
+            this.closed = closed;
+        }
+
+        boolean isEmpty() {
+            for (FieldStats fieldStats : stats) {
+                if (fieldStats != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(DeviceMetrics metrics) {
+            for (int f = 0; f < FIELDS.length; f++) {
+                double value = FIELDS[f].valueOf(metrics);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (stats[f] == null) {
+                    stats[f] = new FieldStats();
+                }
+                stats[f].add(value);
+            }
+        }
+
+        void emit(String deviceId, RollupResolution resolution, Collection<MetricRollup> target) {
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (stats[f] != null) {
+                    target.add(stats[f].toRollup(deviceId, resolution, FIELDS[f], start));
+                }
+            }
+        }
+    }
+
+    private static final class FieldStats {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double last;
+        private final QuantileSketch sketch = new QuantileSketch(SKETCH_ACCURACY);
+
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            last = value;
+            sketch.add(value);
+        }
+
+        MetricRollup toRollup(String deviceId, RollupResolution resolution, MetricField field, LocalDateTime start) {
+            MetricRollup rollup = new MetricRollup(deviceId, resolution.getSeconds(), field.getFieldName(), start);
+            rollup.setSampleCount(count);
+            rollup.setSum(sum);
+            rollup.setMin(min);
+            rollup.setMax(max);
+            rollup.setLast(last);
+            rollup.setP95(sketch.quantile(0.95));
+            return rollup;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples WebSocket fan-out from ingest. Updates are coalesced per device and flushed once
+ * per frame interval on a dedicated thread, each frame serialized exactly once no matter how
+ * many dashboards are subscribed to /topic/metrics/{deviceId}. In a cluster the updates this node
+ * ingested are also handed to the ClusterRelay once per frame, and updates relayed from the
+ * owning nodes go out to this node's subscribers, so a dashboard can connect to any node.
+ * The newest update of each device in a frame also feeds the MetricsDeltaStream.
+ */
+@Service
+public class MetricsBroadcaster {
+
+    public enum CoalesceMode {
+        LATEST, // one DeviceMetrics per device per frame, newest wins
+        BATCH   // every update of the frame, sent as a JSON array
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsBroadcaster.class);
+
+    private static final String TOPIC_PREFIX = "/topic/metrics/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final CoalesceMode mode;
+    private final long frameIntervalMs;
+    private final WorkerThreads workerThreads;
+    private final ClusterRelay relay;
+    private final MetricsDeltaStream deltas;
+
+    private final ConcurrentMap<String, DeviceMetrics> latest = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, List<DeviceMetrics>> batches = new ConcurrentHashMap<>();
+
+    // Updates ingested here that the other nodes have not been sent yet, coalesced like the frame
+    private final ConcurrentMap<String, DeviceMetrics> relayLatest = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<DeviceMetrics> relayBatch = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    public MetricsBroadcaster(SimpMessagingTemplate messagingTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${sentinel.websocket.coalesce-mode:LATEST}") CoalesceMode mode,
+                              @Value("${sentinel.websocket.frame-interval-ms:250}") long frameIntervalMs,
+                              WorkerThreads workerThreads,
+                              ClusterRelay relay,
+                              MetricsDeltaStream deltas) {
+        this.messagingTemplate = messagingTemplate;
+        this.objectMapper = objectMapper;
+        this.mode = mode;
+        this.frameIntervalMs = frameIntervalMs;
+        this.workerThreads = workerThreads;
+        this.relay = relay;
+        this.deltas = deltas;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                r -> workerThreads.newThread("MetricsBroadcasterThread", true, r));
+        scheduler.scheduleWithFixedDelay(this::flushFrame, frameIntervalMs, frameIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Started MetricsBroadcaster in {} mode with {}ms frames", mode, frameIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Records an update for the next frame. Never blocks and never serializes on the caller's thread.
+     */
+    public void publish(DeviceMetrics metrics) {
+        if (relay != null && relay.isActive()) {
+            if (mode == CoalesceMode.BATCH) {
+                relayBatch.add(metrics);
+            } else {
+                relayLatest.put(metrics.getDeviceId(), metrics);
+            }
+        }
+        publishRemote(metrics);
+    }
+
+    /** Records an update relayed from the device's owner; it goes to local subscribers only. */
+    public void publishRemote(DeviceMetrics metrics) {
+        published.incrementAndGet();
+        if (mode == CoalesceMode.BATCH) {
+            batches.compute(metrics.getDeviceId(), (deviceId, pending) -> {
+                List<DeviceMetrics> list = (pending != null) ? pending : new ArrayList<>();
+                list.add(metrics);
+                return list;
+            });
+        } else {
+            latest.put(metrics.getDeviceId(), metrics);
+        }
+    }
+
+    void flushFrame() {
+        try {
+            List<DeviceMetrics> newest = new ArrayList<>();
+            if (mode == CoalesceMode.BATCH) {
+                for (String deviceId : batches.keySet()) {
+                    List<DeviceMetrics> frame = batches.remove(deviceId);
+                    if (frame != null) {
+                        send(deviceId, frame);
+                        newest.add(frame.get(frame.size() - 1));
+                    }
+                }
+            } else {
+                for (Map.Entry<String, DeviceMetrics> entry : latest.entrySet()) {
+                    if (latest.remove(entry.getKey(), entry.getValue())) {
+                        send(entry.getKey(), entry.getValue());
+                        newest.add(entry.getValue());
+                    }
+                }
+            }
+            if (deltas != null) {
+                deltas.publishFrame(newest);
+            }
+            if (relay != null && relay.isActive()) {
+                relayFrame();
+            }
+        } catch (Exception e) {
+            logger.error("Error flushing WebSocket frame", e);
+        }
+    }
+
+    /** Drops a deleted device's pending updates and its delta state. */
+    public void forget(String deviceId) {
+        latest.remove(deviceId);
+        batches.remove(deviceId);
+        if (deltas != null) {
+            deltas.forget(deviceId);
+        }
+    }
+
+    private void relayFrame() {
+        List<DeviceMetrics> updates = new ArrayList<>();
+        if (mode == CoalesceMode.BATCH) {
+            DeviceMetrics next;
+            while ((next = relayBatch.poll()) != null) {
+                updates.add(next);
+            }
+        } else {
+            for (Map.Entry<String, DeviceMetrics> entry : relayLatest.entrySet()) {
+                if (relayLatest.remove(entry.getKey(), entry.getValue())) {
+                    updates.add(entry.getValue());
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            relay.publishMetrics(updates);
+        }
+    }
+
+    private void send(String deviceId, Object payload) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(payload);
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(TOPIC_PREFIX + deviceId, MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+            framesSent.incrementAndGet();
+        } catch (Exception e) {
+            sendFailures.incrementAndGet();
+            logger.warn("Failed to broadcast metrics for device {}", deviceId, e);
+        }
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getFramesSentCount() {
+        return framesSent.get();
+    }
+
+    public long getSendFailureCount() {
+        return sendFailures.get();
+    }
+}
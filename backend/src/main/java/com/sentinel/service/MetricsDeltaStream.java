@@ -0,0 +1,338 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact live updates for dashboards. Rather than whole DeviceMetrics objects, each frame sends a
+ * device only the fields that changed, on /topic/deltas/{deviceId}: values are quantized to a
+ * per-field precision, so jitter below it is not a change. Online/offline transitions for the
+ * whole fleet go to /topic/status. Every frame carries a sequence number; a client takes a
+ * snapshot (see DeltaSubscriptionController), applies frames newer than it, and after a reconnect
+ * asks for what changed since the last seq it saw instead of starting over.
+ * Frames are built on the MetricsBroadcaster thread, once per device per frame.
+ */
+@Service
+public class MetricsDeltaStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsDeltaStream.class);
+
+    public static final String TOPIC_PREFIX = "/topic/deltas/";
+    public static final String STATUS_TOPIC = "/topic/status";
+
+    private static final MetricField[] FIELDS = MetricField.values();
+    private static final long MISSING = Long.MIN_VALUE;
+    private static final long STATUS_SCAN_INTERVAL_MS = 1000;
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration offlineAfter;
+    private final double[] precision = new double[FIELDS.length];
+    private final BigDecimal[] step = new BigDecimal[FIELDS.length];
+
+    // Identifies this node's sequence, which restarts with it; a resume from another stream gets a full snapshot
+    private final String stream = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, DeviceState> states = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> pendingRemovals = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, Long> removedAt = new ConcurrentHashMap<>();
+
+    // Only touched by the broadcaster thread
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private long nextStatusScan;
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public MetricsDeltaStream(SimpMessagingTemplate messagingTemplate,
+                              ObjectMapper objectMapper,
+                              @Value("${sentinel.websocket.deltas.enabled:true}") boolean enabled,
+                              @Value("${sentinel.websocket.deltas.precision:0.1}") double defaultPrecision,
+                              @Value("${sentinel.websocket.deltas.field-precision:}") String fieldPrecision,
+                              @Value("${sentinel.devices.offline-after-seconds:120}") long offlineAfterSeconds) {
+        this.messagingTemplate = messagingTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.offlineAfter = Duration.ofSeconds(offlineAfterSeconds);
+        Arrays.fill(precision, defaultPrecision);
+        // "field:precision, ..." e.g. bytesSentPerSec:1000, systemUptimeSeconds:60
+        for (String spec : fieldPrecision.split(",")) {
+            if (spec.isBlank()) {
+                continue;
+            }
+            String[] parts = spec.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected field:precision, got '" + spec.trim() + "'");
+            }
+            precision[MetricField.fromFieldName(parts[0].trim()).ordinal()] = Double.parseDouble(parts[1].trim());
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (!(precision[i] > 0)) {
+                throw new IllegalArgumentException("Precision of " + FIELDS[i].getFieldName() + " must be positive");
+            }
+            step[i] = BigDecimal.valueOf(precision[i]);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sends the frame's changes: called by the broadcaster with the newest update of each device
+     * that reported since the previous frame.
+     */
+    public void publishFrame(Collection<DeviceMetrics> updates) {
+        if (!enabled) {
+            return;
+        }
+        long seq = sequence.get() + 1;
+        boolean used = false;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime onlineSince = now.minus(offlineAfter);
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        for (DeviceMetrics metrics : updates) {
+            String deviceId = metrics.getDeviceId();
+            DeviceState previous = states.get(deviceId);
+            // A late sample never rolls a dashboard back
+            if (deviceId == null || metrics.getTimestamp() == null
+                    || (previous != null && !metrics.getTimestamp().isAfter(previous.timestamp))) {
+                continue;
+            }
+            long[] units = quantize(metrics);
+            long[] fieldSeqs = (previous != null) ? previous.fieldSeqs.clone() : new long[FIELDS.length];
+            boolean changed = false;
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (previous == null || units[i] != previous.units[i]) {
+                    fieldSeqs[i] = seq;
+                    changed = true;
+                }
+            }
+            boolean isOnline = metrics.getTimestamp().isAfter(onlineSince);
+            boolean statusChanged = previous == null || isOnline != previous.online;
+            if (statusChanged) {
+                (isOnline ? online : offline).add(deviceId);
+            }
+            states.put(deviceId, new DeviceState(units, fieldSeqs, metrics.getTimestamp(),
+                    changed ? seq : previous.seq, isOnline, statusChanged ? seq : previous.statusSeq));
+            removedAt.remove(deviceId);
+            if (changed) {
+                send(TOPIC_PREFIX + deviceId, writeDelta(seq, metrics.getTimestamp(), units, previous));
+                used = true;
+            }
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        if (nowMillis >= nextStatusScan) {
+            nextStatusScan = nowMillis + STATUS_SCAN_INTERVAL_MS;
+            for (Map.Entry<String, DeviceState> entry : states.entrySet()) {
+                DeviceState state = entry.getValue();
+                if (state.online && !state.timestamp.isAfter(onlineSince)
+                        && states.replace(entry.getKey(), state, state.withOnline(false, seq))) {
+                    offline.add(entry.getKey());
+                }
+            }
+        }
+        String deviceId;
+        while ((deviceId = pendingRemovals.poll()) != null) {
+            removedAt.put(deviceId, seq);
+            removed.add(deviceId);
+        }
+        if (!online.isEmpty() || !offline.isEmpty() || !removed.isEmpty()) {
+            send(STATUS_TOPIC, writeStatus(seq, online, offline, removed));
+            used = true;
+        }
+        if (used) {
+            sequence.set(seq);
+        }
+    }
+
+    /** Drops a deleted device; subscribers see it in the next status frame's removed list. */
+    public void forget(String deviceId) {
+        if (enabled && states.remove(deviceId) != null) {
+            pendingRemovals.add(deviceId);
+        }
+    }
+
+    /**
+     * The requested devices (all when deviceIds is null) as of now. With since, the highest seq a
+     * client of this stream has seen, only fields changed in that frame or later are included and
+     * unchanged devices are left out; the frame itself is repeated in case the client got only
+     * part of it before disconnecting.
+     */
+    public DeltaSnapshot snapshot(Collection<String> deviceIds, Long since, String sinceStream) {
+        boolean full = since == null || !stream.equals(sinceStream);
+        long after = full ? -1 : since - 1;
+        // Read first: every change a client could miss after this snapshot has a higher seq
+        long seq = sequence.get();
+        Collection<String> ids = (deviceIds != null) ? deviceIds : states.keySet();
+        List<DeltaSnapshot.Entry> entries = new ArrayList<>();
+        for (String deviceId : ids) {
+            DeviceState state = states.get(deviceId);
+            if (state == null || (state.seq <= after && state.statusSeq <= after)) {
+                continue;
+            }
+            Map<String, BigDecimal> values = new LinkedHashMap<>();
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (state.fieldSeqs[i] > after) {
+                    values.put(FIELDS[i].getFieldName(), decimal(i, state.units[i]));
+                }
+            }
+            entries.add(new DeltaSnapshot.Entry(deviceId, Math.max(state.seq, state.statusSeq),
+                    state.timestamp, state.online, values));
+        }
+        List<String> removed = new ArrayList<>();
+        if (!full) {
+            for (Map.Entry<String, Long> entry : removedAt.entrySet()) {
+                if (entry.getValue() > after && (deviceIds == null || deviceIds.contains(entry.getKey()))) {
+                    removed.add(entry.getKey());
+                }
+            }
+        }
+        return new DeltaSnapshot(stream, seq, full, entries, removed);
+    }
+
+    private long[] quantize(DeviceMetrics metrics) {
+        long[] units = new long[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            double value = FIELDS[i].valueOf(metrics);
+            units[i] = Double.isNaN(value) ? MISSING : Math.round(value / precision[i]);
+        }
+        return units;
+    }
+
+    private BigDecimal decimal(int field, long units) {
+        return (units == MISSING) ? null : BigDecimal.valueOf(units).multiply(step[field]);
+    }
+
+    // {"seq":12,"t":"2024-05-01T10:00:03","v":{"cpuUsage":41.3,"latencyMs":null}}
+    private byte[] writeDelta(long seq, LocalDateTime timestamp, long[] units, DeviceState previous) {
+        try (JsonGenerator json = generator()) {
+            json.writeStartObject();
+            json.writeNumberField("seq", seq);
+            json.writeStringField("t", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp));
+            json.writeObjectFieldStart("v");
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (previous == null || units[i] != previous.units[i]) {
+                    json.writeFieldName(FIELDS[i].getFieldName());
+                    if (units[i] == MISSING) {
+                        json.writeNull();
+                    } else {
+                        json.writeNumber(decimal(i, units[i]));
+                    }
+                }
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    // {"seq":12,"online":["a"],"offline":[],"removed":[]}
+    private byte[] writeStatus(long seq, List<String> online, List<String> offline, List<String> removed) {
+        try (JsonGenerator json = generator()) {
+            json.writeStartObject();
+            json.writeNumberField("seq", seq);
+            writeArray(json, "online", online);
+            writeArray(json, "offline", offline);
+            writeArray(json, "removed", removed);
+            json.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeArray(JsonGenerator json, String name, List<String> values) throws IOException {
+        json.writeArrayFieldStart(name);
+        for (String value : values) {
+            json.writeString(value);
+        }
+        json.writeEndArray();
+    }
+
+    private JsonGenerator generator() throws IOException {
+        buffer.reset();
+        return objectMapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+    }
+
+    private void send(String destination, byte[] json) {
+        try {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+            accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            accessor.setLeaveMutable(true);
+            messagingTemplate.send(destination, MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+            messagesSent.incrementAndGet();
+            bytesSent.addAndGet(json.length);
+        } catch (Exception e) {
+            logger.warn("Failed to send delta frame to {}", destination, e);
+        }
+    }
+
+    public long getMessagesSentCount() {
+        return messagesSent.get();
+    }
+
+    public long getBytesSentCount() {
+        return bytesSent.get();
+    }
+
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    private static final class DeviceState {
+        final long[] units;
+        final long[] fieldSeqs; // frame that last changed each field
+        final LocalDateTime timestamp;
+        final long seq;         // frame that last changed any field
+        final boolean online;
+        final long statusSeq;   // frame that last changed online
+
+        DeviceState(long[] units, long[] fieldSeqs, LocalDateTime timestamp, long seq, boolean online, long statusSeq) {
+            this.units = units;
+            this.fieldSeqs = fieldSeqs;
+            this.timestamp = timestamp;
+            this.seq = seq;
+            this.online = online;
+            this.statusSeq = statusSeq;
+        }
+
+        DeviceState withOnline(boolean online, long statusSeq) {
+            return new DeviceState(units, fieldSeqs, timestamp, seq, online, statusSeq);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.sentinel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded ingest buffer split into partitions by deviceId. Each partition is drained by
+ * exactly one persistence worker, so metrics for a single device are saved in arrival order.
+ */
+public class MetricsIngestQueue {
+
+    public enum OverflowPolicy {
+        REJECT,      // refuse the new metric, caller answers 429
+        DROP_OLDEST, // evict the oldest queued metric of the partition to make room
+        BLOCK        // wait up to the block timeout for space, then refuse
+    }
+
+    private final List<BlockingQueue<DeviceMetrics>> partitions;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMs;
+    private final Consumer<DeviceMetrics> evictionListener;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public MetricsIngestQueue(int capacity, int partitionCount, OverflowPolicy overflowPolicy, long blockTimeoutMs) {
+        this(capacity, partitionCount, overflowPolicy, blockTimeoutMs, metrics -> {});
+    }
+
+    /**
+     * The eviction listener is told about every metric that DROP_OLDEST throws away after it was accepted.
+     */
+    public MetricsIngestQueue(int capacity, int partitionCount, OverflowPolicy overflowPolicy, long blockTimeoutMs,
+                              Consumer<DeviceMetrics> evictionListener) {
+        if (capacity < partitionCount || partitionCount < 1) {
+            throw new IllegalArgumentException("capacity must be >= partition count and partition count >= 1");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.evictionListener = evictionListener;
+        this.partitions = new ArrayList<>(partitionCount);
+        int perPartition = capacity / partitionCount;
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new ArrayBlockingQueue<>(perPartition));
+        }
+    }
+
+    /**
+     * Enqueues a metric according to the overflow policy.
+     * Returns false if the metric was refused and must be reported back to the sender.
+     */
+    public boolean offer(DeviceMetrics metrics) {
+        BlockingQueue<DeviceMetrics> queue = partitions.get(partitionFor(metrics.getDeviceId()));
+        metrics.setEnqueuedAtNanos(System.nanoTime());
+
+        if (queue.offer(metrics)) {
+            accepted.incrementAndGet();
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(metrics)) {
+                    DeviceMetrics evicted = queue.poll();
+                    if (evicted != null) {
+                        dropped.incrementAndGet();
+                        evictionListener.accept(evicted);
+                    }
+                }
+                accepted.incrementAndGet();
+                return true;
+            case BLOCK:
+                try {
+                    if (queue.offer(metrics, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        accepted.incrementAndGet();
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                rejected.incrementAndGet();
+                return false;
+            case REJECT:
+            default:
+                rejected.incrementAndGet();
+                return false;
+        }
+    }
+
+    public int partitionFor(String deviceId) {
+        int hash = (deviceId == null) ? 0 : deviceId.hashCode();
+        // Spread the bits so sequential device names don't cluster in one partition
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, partitions.size());
+    }
+
+    public BlockingQueue<DeviceMetrics> partition(int index) {
+        return partitions.get(index);
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDepth() {
+        int depth = 0;
+        for (BlockingQueue<DeviceMetrics> queue : partitions) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
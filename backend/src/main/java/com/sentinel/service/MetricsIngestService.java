@@ -0,0 +1,102 @@
+package com.sentinel;
+
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The batch ingest path shared by /api/metrics/batch and the line-protocol listener. Rows of
+ * devices this node owns are deduplicated, written ahead, queued for persistence and fanned out
+ * to the live views; in a cluster the others are forwarded to their owners in parallel.
+ */
+@Service
+public class MetricsIngestService {
+
+    private final MetricsIngestQueue metricsQueue;
+    private final MetricsWriteAheadLog wal;
+    private final IngestDeduplicator deduplicator;
+    private final LatestMetricsStore latestStore;
+    private final RecentMetricsBuffer recentBuffer;
+    private final AlertEngine alertEngine;
+    private final MetricsBroadcaster broadcaster;
+    private final PipelineMetrics pipelineMetrics;
+    private final ClusterService cluster;
+
+    public MetricsIngestService(MetricsIngestQueue metricsQueue,
+                                MetricsWriteAheadLog wal,
+                                IngestDeduplicator deduplicator,
+                                LatestMetricsStore latestStore,
+                                RecentMetricsBuffer recentBuffer,
+                                AlertEngine alertEngine,
+                                MetricsBroadcaster broadcaster,
+                                PipelineMetrics pipelineMetrics,
+                                ClusterService cluster) {
+        this.metricsQueue = metricsQueue;
+        this.wal = wal;
+        this.deduplicator = deduplicator;
+        this.latestStore = latestStore;
+        this.recentBuffer = recentBuffer;
+        this.alertEngine = alertEngine;
+        this.broadcaster = broadcaster;
+        this.pipelineMetrics = pipelineMetrics;
+        this.cluster = cluster;
+    }
+
+    /**
+     * Ingests the rows here or on their owners. Other nodes are called with the given
+     * Authorization header; the result says how many rows were taken and whether an owner could
+     * not be reached.
+     */
+    public ClusterService.ForwardResult ingest(List<DeviceMetrics> metricsList, PipelineMetrics.IngestEndpoint endpoint,
+                                               String authorization) {
+        if (cluster == null || !cluster.isEnabled()) {
+            return new ClusterService.ForwardResult(ingestLocal(metricsList, endpoint), false);
+        }
+        Map<String, List<DeviceMetrics>> byOwner = cluster.groupByOwner(metricsList);
+        List<DeviceMetrics> local = byOwner.remove(cluster.getSelf());
+        CompletableFuture<ClusterService.ForwardResult> forwarded = byOwner.isEmpty()
+                ? null : cluster.forward(byOwner, authorization);
+        int accepted = (local != null) ? ingestLocal(local, endpoint) : 0;
+        if (forwarded == null) {
+            return new ClusterService.ForwardResult(accepted, false);
+        }
+        ClusterService.ForwardResult result = forwarded.join();
+        return new ClusterService.ForwardResult(accepted + result.getAccepted(), result.isOwnerUnavailable());
+    }
+
+    /**
+     * Ingests rows this node owns and returns how many were taken, counting duplicates and late
+     * rows as taken. Returns once the taken rows are durable in the write-ahead log.
+     */
+    public int ingestLocal(List<DeviceMetrics> metricsList, PipelineMetrics.IngestEndpoint endpoint) {
+        int accepted = 0;
+        int skipped = 0;
+        long lsn = 0;
+        for (DeviceMetrics metrics : metricsList) {
+            if (deduplicator.admit(metrics) != IngestDeduplicator.Verdict.NEW) {
+                // Acknowledged all the same, so the agent drops it from its retry buffer
+                accepted++;
+                skipped++;
+                continue;
+            }
+            long appended = wal.append(metrics);
+            if (!metricsQueue.offer(metrics)) {
+                wal.release(metrics);
+                deduplicator.release(metrics);
+                continue;
+            }
+            lsn = appended;
+            accepted++;
+            latestStore.update(metrics);
+            recentBuffer.append(metrics);
+            alertEngine.evaluate(metrics);
+            broadcaster.publish(metrics);
+        }
+        // One wait covers the whole batch, and usually other requests' records too
+        wal.awaitDurable(lsn);
+        pipelineMetrics.recordIngest(endpoint, accepted - skipped, metricsList.size() - accepted);
+        return accepted;
+    }
+}
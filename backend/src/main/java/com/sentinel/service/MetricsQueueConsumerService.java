@@ -2,83 +2,391 @@ package com.sentinel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import java.sql.SQLException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Retention creates today's partition first, so replay and the workers never fill the default one
 @Service
+@DependsOn("retentionService")
 public class MetricsQueueConsumerService {
 
+    /**
+     * What agents should do next, sent back on every batch response: how many samples to batch,
+     * how long to hold them, and, while the queue is close to full, how long to stay away.
+     */
+    public static final class FlowControl {
+        private final int batchSize;
+        private final long flushIntervalMs;
+        private final long retryAfterSeconds;
+
+        FlowControl(int batchSize, long flushIntervalMs, long retryAfterSeconds) {
+            this.batchSize = batchSize;
+            this.flushIntervalMs = flushIntervalMs;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int getBatchSize() { return batchSize; }
+        public long getFlushIntervalMs() { return flushIntervalMs; }
+        /** 0 unless the queue is past the high watermark. */
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    // Below LOW the queue is keeping up and agents get the smallest batches; past HIGH they are told to back off
+    private static final double LOW_WATERMARK = 0.25;
+    private static final double HIGH_WATERMARK = 0.75;
+    private static final long DRAIN_RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private static final Logger logger = LoggerFactory.getLogger(MetricsQueueConsumerService.class);
 
-    private final DeviceMetricsRepository repo;
-    private final BlockingQueue<DeviceMetrics> metricsQueue;
+    private final DeviceMetricsBatchWriter writer;
+    private final MetricsIngestQueue metricsQueue;
+    private final MetricRollupService rollupService;
+    private final FleetAggregateService fleetAggregates;
+    private final MetricHistoryCache historyCache;
+    private final MetricsWriteAheadLog wal;
+    private final PipelineMetrics pipelineMetrics;
+    private final WorkerThreads threads;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetFlushMillis;
+    private final int minAgentBatch;
+    private final int maxAgentBatch;
+    private final long minAgentFlushMs;
+    private final long maxAgentFlushMs;
+    private final long maxRetryAfterSeconds;
+
+    private final AtomicLong written = new AtomicLong();
+    private volatile long rateSampledAtNanos = System.nanoTime();
+    private long rateSampledWritten;
+    private volatile double drainRowsPerSecond;
 
     private volatile boolean running = true;
-    private Thread workerThread;
+    private final List<Thread> workerThreads = new ArrayList<>();
 
-    private static final int BATCH_SIZE = 20;
     private static final Duration POLL_TIMEOUT = Duration.ofSeconds(5);
 
-    public MetricsQueueConsumerService(DeviceMetricsRepository repo, BlockingQueue<DeviceMetrics> metricsQueue) {
-        this.repo = repo;
+    // A failed batch is retried after 100ms, 200ms, ... up to 5s; after MAX_WRITE_ATTEMPTS
+    // rejections for its content it is split to find and drop the rows the database refuses
+    private static final long MIN_RETRY_BACKOFF_MS = 100;
+    private static final long MAX_RETRY_BACKOFF_MS = 5000;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+
+    public MetricsQueueConsumerService(DeviceMetricsBatchWriter writer,
+                                       MetricsIngestQueue metricsQueue,
+                                       MetricRollupService rollupService,
+                                       FleetAggregateService fleetAggregates,
+                                       MetricHistoryCache historyCache,
+                                       MetricsWriteAheadLog wal,
+                                       PipelineMetrics pipelineMetrics,
+                                       WorkerThreads threads,
+                                       @Value("${sentinel.persistence.min-batch-size:20}") int minBatchSize,
+                                       @Value("${sentinel.persistence.max-batch-size:5000}") int maxBatchSize,
+                                       @Value("${sentinel.persistence.target-flush-ms:100}") long targetFlushMillis,
+                                       @Value("${sentinel.flow.min-batch-size:5}") int minAgentBatch,
+                                       @Value("${sentinel.flow.max-batch-size:50}") int maxAgentBatch,
+                                       @Value("${sentinel.flow.min-flush-interval-ms:15000}") long minAgentFlushMs,
+                                       @Value("${sentinel.flow.max-flush-interval-ms:120000}") long maxAgentFlushMs,
+                                       @Value("${sentinel.flow.max-retry-after-seconds:60}") long maxRetryAfterSeconds) {
+        this.writer = writer;
         this.metricsQueue = metricsQueue;
+        this.rollupService = rollupService;
+        this.fleetAggregates = fleetAggregates;
+        this.historyCache = historyCache;
+        this.wal = wal;
+        this.pipelineMetrics = pipelineMetrics;
+        this.threads = threads;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetFlushMillis = targetFlushMillis;
+        this.minAgentBatch = minAgentBatch;
+        this.maxAgentBatch = maxAgentBatch;
+        this.minAgentFlushMs = minAgentFlushMs;
+        this.maxAgentFlushMs = maxAgentFlushMs;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
     }
 
     @PostConstruct
     public void start() {
-        workerThread = new Thread(this::processQueue, "MetricsQueueConsumerThread");
-        workerThread.start();
-        logger.info("Started MetricsQueueConsumerService");
+        replay();
+
+        // One worker per partition keeps per-device ordering while persisting in parallel
+        for (int i = 0; i < metricsQueue.getPartitionCount(); i++) {
+            BlockingQueue<DeviceMetrics> partition = metricsQueue.partition(i);
+            Thread worker = threads.newThread("MetricsQueueConsumerThread-" + i, false, () -> processQueue(partition));
+            workerThreads.add(worker);
+            worker.start();
+        }
+        logger.info("Started MetricsQueueConsumerService with {} {} workers in {} mode",
+                workerThreads.size(), threads.isVirtual() ? "virtual" : "platform", writer.getWriteMode());
     }
 
     @PreDestroy
     public void stop() {
         running = false;
-        workerThread.interrupt();
-        try {
-            workerThread.join();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        for (Thread worker : workerThreads) {
+            worker.interrupt();
+        }
+        for (Thread worker : workerThreads) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
         logger.info("Stopped MetricsQueueConsumerService");
     }
 
-    private void processQueue() {
-        List<DeviceMetrics> batch = new ArrayList<>();
+    private void processQueue(BlockingQueue<DeviceMetrics> partition) {
+        AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(minBatchSize, maxBatchSize, targetFlushMillis);
+        List<DeviceMetrics> batch = new ArrayList<>(minBatchSize);
+        // While a failed batch waits for its retry no new rows are taken, so it cannot grow
+        int failures = 0;
+        long retryAtNanos = 0;
         while (running) {
             try {
-                DeviceMetrics metric = metricsQueue.poll(POLL_TIMEOUT.toMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (failures > 0) {
+                    long wait = retryAtNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(wait, POLL_TIMEOUT.toNanos()));
+                        continue;
+                    }
+                    persistBatch(batch, batchSizer);
+                    logger.info("Saved batch on attempt {}", failures + 1);
+                    failures = 0;
+                    continue;
+                }
+
+                int batchSize = batchSizer.current();
+                DeviceMetrics metric = partition.poll(POLL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
                 if (metric != null) {
                     batch.add(metric);
+                    partition.drainTo(batch, Math.max(0, batchSize - batch.size()));
                 }
 
-                if (batch.size() >= BATCH_SIZE || (metric == null && !batch.isEmpty())) {
-                    repo.saveAll(batch);
-                    logger.info("Saved batch of {} metrics", batch.size());
-                    batch.clear();
+                if (batch.size() >= batchSize || (metric == null && !batch.isEmpty())) {
+                    persistBatch(batch, batchSizer);
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                logger.warn("MetricsQueueConsumerThread interrupted");
+                logger.warn("{} interrupted", Thread.currentThread().getName());
             } catch (Exception e) {
-                logger.error("Error saving batch metrics", e);
+                if (batch.isEmpty()) {
+                    logger.error("Error after saving batch metrics", e);
+                    failures = 0;
+                    continue;
+                }
+                failures++;
+                if (failures >= MAX_WRITE_ATTEMPTS && isRowRejected(e)) {
+                    logger.warn("Batch of {} metrics refused {} times, writing it in parts to set the bad rows aside",
+                            batch.size(), failures, e);
+                    try {
+                        isolate(batch);
+                        failures = 0;
+                        continue;
+                    } catch (RuntimeException again) {
+                        e = again;
+                    }
+                }
+                long backoff = retryBackoffMillis(failures);
+                retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                logger.error("Error saving batch of {} metrics (attempt {}), retrying in {}ms",
+                        batch.size(), failures, backoff, e);
             }
         }
 
-        // Final flush on shutdown
+        // Final flush on shutdown: the current batch and everything still queued in the partition
+        Thread.interrupted(); // a pending interrupt from stop() would abort the JDBC calls below
+        partition.drainTo(batch);
         if (!batch.isEmpty()) {
+            int total = batch.size();
             try {
-                repo.saveAll(batch);
-                logger.info("Saved final batch of {} metrics on shutdown", batch.size());
+                persistInChunks(batch);
+                logger.info("Saved final {} metrics on shutdown", total);
             } catch (Exception e) {
-                logger.error("Error saving final batch metrics", e);
+                logger.error("Error saving final metrics on shutdown, {} left in the write-ahead log", batch.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Flow-control hints from the current queue fill. Between the watermarks batch size and flush
+     * interval grow linearly, so a fleet sends fewer, larger requests as the queue backs up. Past
+     * the high watermark agents are also told to wait as long as the workers need, at their
+     * measured drain rate, to bring the queue back down to the low watermark.
+     */
+    public FlowControl flowControl() {
+        int capacity = metricsQueue.getCapacity();
+        int depth = metricsQueue.getDepth();
+        double fill = capacity > 0 ? (double) depth / capacity : 0;
+        double pressure = Math.max(0, Math.min(1, (fill - LOW_WATERMARK) / (HIGH_WATERMARK - LOW_WATERMARK)));
+        int batchSize = (int) Math.round(minAgentBatch + pressure * (maxAgentBatch - minAgentBatch));
+        long flushIntervalMs = Math.round(minAgentFlushMs + pressure * (maxAgentFlushMs - minAgentFlushMs));
+
+        double rate = sampleDrainRate();
+        long retryAfterSeconds = 0;
+        if (fill >= HIGH_WATERMARK) {
+            double excess = depth - LOW_WATERMARK * capacity;
+            retryAfterSeconds = rate > 0
+                    ? Math.max(1, Math.min(maxRetryAfterSeconds, (long) Math.ceil(excess / rate)))
+                    : maxRetryAfterSeconds;
+        }
+        return new FlowControl(batchSize, flushIntervalMs, retryAfterSeconds);
+    }
+
+    // Rows persisted per second, smoothed; resampled at most once a second by whichever request asks
+    private double sampleDrainRate() {
+        if (System.nanoTime() - rateSampledAtNanos < DRAIN_RATE_SAMPLE_NANOS) {
+            return drainRowsPerSecond;
+        }
+        synchronized (written) {
+            long now = System.nanoTime();
+            long elapsed = now - rateSampledAtNanos;
+            if (elapsed >= DRAIN_RATE_SAMPLE_NANOS) {
+                long total = written.get();
+                double rate = (total - rateSampledWritten) * 1e9 / elapsed;
+                drainRowsPerSecond = drainRowsPerSecond == 0 ? rate : 0.5 * drainRowsPerSecond + 0.5 * rate;
+                rateSampledAtNanos = now;
+                rateSampledWritten = total;
+            }
+            return drainRowsPerSecond;
+        }
+    }
+
+    /**
+     * Persists metrics the write-ahead log still held from before the last shutdown,
+     * before any worker starts so they land ahead of new samples. Sequenced samples found
+     * stored already are skipped, so a batch persisted just before a crash is not inserted twice.
+     */
+    private void replay() {
+        List<DeviceMetrics> recovered = wal.takeRecovered();
+        if (recovered.isEmpty()) {
+            return;
+        }
+        try {
+            List<DeviceMetrics> stored = writer.removeStored(recovered);
+            wal.release(stored);
+            int total = recovered.size();
+            persistInChunks(recovered);
+            logger.info("Replayed {} metrics from the write-ahead log, skipped {} already stored", total, stored.size());
+        } catch (Exception e) {
+            logger.error("Failed to replay write-ahead log, {} metrics kept for the next start", recovered.size(), e);
+        }
+    }
+
+    private void persistBatch(List<DeviceMetrics> batch, AdaptiveBatchSizer batchSizer) {
+        long start = System.nanoTime();
+        writer.write(batch);
+        // Persisted: whatever fails from here on, the rows must not be written again
+        try {
+            wal.release(batch);
+            written.addAndGet(batch.size());
+            long elapsed = System.nanoTime() - start;
+            batchSizer.record(batch.size(), elapsed);
+            pipelineMetrics.recordBatchWrite(batch.size(), elapsed, batch.get(0).getEnqueuedAtNanos());
+            afterPersist(batch);
+            logger.debug("Saved batch of {} metrics", batch.size());
+        } finally {
+            batch.clear();
+        }
+    }
+
+    static long retryBackoffMillis(int failures) {
+        return Math.min(MAX_RETRY_BACKOFF_MS, MIN_RETRY_BACKOFF_MS << Math.min(failures - 1, 16));
+    }
+
+    /**
+     * Writes the rows in halves, down to single rows, and dead-letters each row the database
+     * refuses on its own. Removes what it persisted or dropped from the list, so on any other
+     * failure the list holds what is left to retry.
+     */
+    private void isolate(List<DeviceMetrics> rows) {
+        try {
+            writer.write(rows);
+        } catch (RuntimeException e) {
+            if (!isRowRejected(e)) {
+                throw e;
+            }
+            if (rows.size() == 1) {
+                DeviceMetrics row = rows.get(0);
+                logger.error("Dropping metric of device {} at {} (seq {}), refused by the database: {}",
+                        row.getDeviceId(), row.getTimestamp(), row.getSeq(), e.getMessage());
+                wal.release(rows);
+                pipelineMetrics.recordDeadLetters(1);
+                rows.clear();
+                return;
             }
+            isolate(rows.subList(0, rows.size() / 2));
+            isolate(rows);
+            return;
+        }
+        try {
+            wal.release(rows);
+            written.addAndGet(rows.size());
+            afterPersist(rows);
+        } finally {
+            rows.clear();
+        }
+    }
+
+    /**
+     * Whether the database refused the rows for what they hold, a constraint or data error that
+     * retrying cannot fix, rather than for being unreachable or busy.
+     */
+    static boolean isRowRejected(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+            if (cause instanceof SQLException sql && sql.getSQLState() != null
+                    && (sql.getSQLState().startsWith("22") || sql.getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Removes each chunk from the list once it is persisted, so on failure the list holds what is left
+    private void persistInChunks(List<DeviceMetrics> metrics) {
+        while (!metrics.isEmpty()) {
+            List<DeviceMetrics> chunk = metrics.subList(0, Math.min(maxBatchSize, metrics.size()));
+            writer.write(chunk);
+            try {
+                wal.release(chunk);
+                afterPersist(chunk);
+            } finally {
+                chunk.clear();
+            }
+        }
+    }
+
+    // Each derived view is fed on its own, so one failing doesn't starve the others
+    private void afterPersist(List<DeviceMetrics> persisted) {
+        try {
+            rollupService.accept(persisted);
+        } catch (RuntimeException e) {
+            logger.error("Error updating rollups for {} persisted metrics", persisted.size(), e);
+        }
+        try {
+            fleetAggregates.accept(persisted);
+        } catch (RuntimeException e) {
+            logger.error("Error updating fleet aggregates for {} persisted metrics", persisted.size(), e);
+        }
+        try {
+            historyCache.accept(persisted);
+        } catch (RuntimeException e) {
+            logger.error("Error updating the history cache for {} persisted metrics", persisted.size(), e);
         }
     }
 }
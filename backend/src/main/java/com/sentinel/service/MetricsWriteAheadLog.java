@@ -0,0 +1,557 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of accepted metrics, written before ingest acknowledges them. Segments are
+ * fixed-size memory-mapped files; one sync thread forces everything appended since its last
+ * pass, so concurrent requests share a single msync (group commit). Each record is flagged done
+ * once persisted or refused, and a sealed segment is deleted when none of its records are pending.
+ * <p>
+ * Delivery is at-least-once: done flags are not forced, so records persisted shortly before a
+ * crash replay as pending. Replay skips samples already stored under their device and seq, which
+ * makes sequenced samples effectively exactly-once; samples without a seq may be stored twice.
+ *
+ * <pre>
+ * record: int payloadLength | byte status | int crc32(payload) | payload
+ * payload: unsigned short idLength, utf8 deviceId, byte flags, [long epochSecond, int nano],
+ *          double cpu, memory, disk, [long x4 network/disk io], [double latency], [double uptime]
+ * </pre>
+ * The length is written last, so a record torn by a crash reads as the end of the segment.
+ * <p>
+ * If a force fails, the records it covered are not counted durable: their waiters get a
+ * NotDurableException (ingest answers 503 and the agent retries) and the next pass forces them again.
+ */
+@Service
+public class MetricsWriteAheadLog {
+
+    public enum SyncMode {
+        GROUP_COMMIT, // acknowledge only after the record is forced to disk
+        NONE          // leave flushing to the OS: survives a process crash, not a power loss
+    }
+
+    /**
+     * Thrown by awaitDurable when the records could not be confirmed on disk: the force failed,
+     * the waiting thread was interrupted, or the log closed first.
+     */
+    public static final class NotDurableException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        NotDurableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsWriteAheadLog.class);
+
+    private static final String SUFFIX = ".wal";
+    private static final int HEADER_BYTES = 9;
+    private static final byte STATUS_PENDING = 1;
+    private static final byte STATUS_DONE = 2;
+    private static final long SYNC_RETRY_MILLIS = 100;
+
+    private static final int FLAG_TIMESTAMP = 1;
+    private static final int FLAG_BYTES_SENT = 1 << 1;
+    private static final int FLAG_BYTES_RECV = 1 << 2;
+    private static final int FLAG_DISK_READ = 1 << 3;
+    private static final int FLAG_DISK_WRITE = 1 << 4;
+    private static final int FLAG_LATENCY = 1 << 5;
+    private static final int FLAG_UPTIME = 1 << 6;
+    private static final int FLAG_SEQ = 1 << 7;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final AtomicInteger pending = new AtomicInteger();
+        int writePosition;
+        int forcedPosition;
+        volatile boolean sealed;
+
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+    private final SyncMode syncMode;
+
+    private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final List<Segment> unforced = new ArrayList<>();
+    private Segment active;
+    private List<DeviceMetrics> recovered = new ArrayList<>();
+
+    // Log sequence numbers: bytes appended / forced since startup
+    private volatile long appendedLsn;
+    private long durableLsn;
+    // Highest sequence number a failed force covered, and why it failed
+    private long failedLsn;
+    private RuntimeException syncFailure;
+    // Locks rather than monitors: request threads block here, and must not pin a virtual thread's carrier
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition appended = syncLock.newCondition();
+    private final Condition synced = syncLock.newCondition();
+    private volatile boolean running;
+    private Thread syncThread;
+
+    public MetricsWriteAheadLog(@Value("${sentinel.wal.enabled:true}") boolean enabled,
+                                @Value("${sentinel.wal.directory:data/wal}") String directory,
+                                @Value("${sentinel.wal.segment-size-mb:64}") int segmentSizeMb,
+                                @Value("${sentinel.wal.sync-mode:GROUP_COMMIT}") SyncMode syncMode) {
+        this.enabled = enabled;
+        this.directory = enabled ? Paths.get(directory) : null;
+        this.segmentBytes = segmentSizeMb * 1024 * 1024;
+        this.syncMode = syncMode;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        long lastId = 0;
+        for (Path path : listSegments()) {
+            Segment segment = map(path, segmentId(path));
+            segment.sealed = true;
+            segments.put(segment.id, segment);
+            recover(segment);
+            lastId = segment.id;
+            if (segment.pending.get() == 0) {
+                delete(segment);
+            }
+        }
+        active = createSegment(lastId + 1);
+
+        running = true;
+        if (syncMode == SyncMode.GROUP_COMMIT) {
+            syncThread = new Thread(this::syncLoop, "MetricsWalSyncThread");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+        logger.info("Opened write-ahead log in {} ({} mode), {} metrics pending replay",
+                directory.toAbsolutePath(), syncMode, recovered.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        syncLock.lock();
+        try {
+            appended.signalAll();
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        if (syncThread != null) {
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            if (active.pending.get() == 0) {
+                delete(active);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        logger.info("Closed write-ahead log with {} segments retained", segments.size());
+    }
+
+    /**
+     * Metrics found pending on startup, handed out once to the consumer for replay.
+     */
+    public List<DeviceMetrics> takeRecovered() {
+        appendLock.lock();
+        try {
+            List<DeviceMetrics> result = recovered;
+            recovered = new ArrayList<>();
+            return result;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a metric and returns the sequence number to pass to awaitDurable.
+     */
+    public long append(DeviceMetrics metrics) {
+        if (!enabled) {
+            return 0;
+        }
+        byte[] deviceId = (metrics.getDeviceId() == null ? "" : metrics.getDeviceId()).getBytes(StandardCharsets.UTF_8);
+        if (deviceId.length > DeviceMetrics.MAX_DEVICE_ID_BYTES) {
+            throw new IllegalArgumentException("Device id longer than " + DeviceMetrics.MAX_DEVICE_ID_BYTES + " bytes");
+        }
+        int payloadLength = payloadLength(metrics, deviceId);
+        int recordLength = HEADER_BYTES + payloadLength;
+        if (recordLength > segmentBytes - 4) {
+            throw new IllegalArgumentException("Metric too large for a write-ahead log segment");
+        }
+
+        long lsn;
+        appendLock.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            // Keep 4 zero bytes after the last record as the end marker
+            if (active.writePosition + recordLength > segmentBytes - 4) {
+                roll();
+            }
+            Segment segment = active;
+            int offset = segment.writePosition;
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(offset + HEADER_BYTES);
+            writePayload(buffer, metrics, deviceId);
+            CRC32 crc = new CRC32();
+            crc.update(segment.buffer.slice(offset + HEADER_BYTES, payloadLength));
+            segment.buffer.put(offset + 4, STATUS_PENDING);
+            segment.buffer.putInt(offset + 5, (int) crc.getValue());
+            segment.buffer.putInt(offset, payloadLength);
+
+            segment.writePosition += recordLength;
+            segment.pending.incrementAndGet();
+            metrics.setWalPosition((segment.id << 32) | offset);
+            appendedLsn += recordLength;
+            lsn = appendedLsn;
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncMode == SyncMode.GROUP_COMMIT) {
+            syncLock.lock();
+            try {
+                appended.signal();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+        return lsn;
+    }
+
+    /**
+     * Blocks until everything up to the given sequence number is on disk.
+     *
+     * @throws NotDurableException if forcing those records failed, the thread was interrupted, or
+     *         the log closed before they were forced
+     */
+    public void awaitDurable(long lsn) {
+        if (!enabled || syncMode != SyncMode.GROUP_COMMIT || lsn == 0) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (lsn <= failedLsn) {
+                    throw new NotDurableException("Failed to force the write-ahead log", syncFailure);
+                }
+                if (!running) {
+                    throw new NotDurableException("Write-ahead log closed before the records were forced", null);
+                }
+                synced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotDurableException("Interrupted waiting for the write-ahead log", e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Marks metrics as no longer needing replay, because they were persisted or refused.
+     */
+    public void release(List<DeviceMetrics> batch) {
+        for (DeviceMetrics metrics : batch) {
+            release(metrics);
+        }
+    }
+
+    public void release(DeviceMetrics metrics) {
+        long position = metrics.getWalPosition();
+        if (!enabled || position == 0) {
+            return;
+        }
+        metrics.setWalPosition(0);
+        Segment segment = segments.get(position >>> 32);
+        if (segment == null) {
+            return;
+        }
+        segment.buffer.put((int) position + 4, STATUS_DONE);
+        if (segment.pending.decrementAndGet() == 0 && segment.sealed) {
+            delete(segment);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void syncLoop() {
+        while (true) {
+            syncLock.lock();
+            try {
+                while (running && durableLsn >= appendedLsn) {
+                    appended.await();
+                }
+                if (!running) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                syncLock.unlock();
+            }
+
+            long target;
+            List<Segment> toForce = new ArrayList<>();
+            List<Integer> limits = new ArrayList<>();
+            appendLock.lock();
+            try {
+                target = appendedLsn;
+                toForce.addAll(unforced);
+                unforced.clear();
+                toForce.add(active);
+                for (Segment segment : toForce) {
+                    limits.add(segment.writePosition);
+                }
+            } finally {
+                appendLock.unlock();
+            }
+            RuntimeException failure = null;
+            try {
+                for (int i = 0; i < toForce.size(); i++) {
+                    Segment segment = toForce.get(i);
+                    int limit = limits.get(i);
+                    if (limit > segment.forcedPosition) {
+                        force(segment.buffer, segment.forcedPosition, limit - segment.forcedPosition);
+                        segment.forcedPosition = limit;
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.error("Failed to force write-ahead log segment", e);
+                failure = e;
+                // Sealed segments go back on the list so the next pass forces what is left of them
+                appendLock.lock();
+                try {
+                    for (Segment segment : toForce) {
+                        if (segment != active && segment.forcedPosition < segment.writePosition
+                                && !unforced.contains(segment)) {
+                            unforced.add(segment);
+                        }
+                    }
+                } finally {
+                    appendLock.unlock();
+                }
+            }
+            syncLock.lock();
+            try {
+                if (failure == null) {
+                    durableLsn = target;
+                } else {
+                    failedLsn = target;
+                    syncFailure = failure;
+                }
+                synced.signalAll();
+                if (failure != null && running) {
+                    appended.await(SYNC_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    // Overridden in tests to simulate a failing disk
+    void force(MappedByteBuffer buffer, int index, int length) {
+        buffer.force(index, length);
+    }
+
+    // Caller holds the append lock
+    private void roll() {
+        Segment previous = active;
+        previous.sealed = true;
+        if (syncMode == SyncMode.GROUP_COMMIT) {
+            unforced.add(previous);
+        }
+        try {
+            active = createSegment(previous.id + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create write-ahead log segment", e);
+        }
+        if (previous.pending.get() == 0) {
+            delete(previous);
+        }
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Segment segment = map(directory.resolve(String.format("%016d%s", id, SUFFIX)), id);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment map(Path path, long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping outlives the channel; a new file is zero-filled, which reads as end-of-log
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    private void delete(Segment segment) {
+        if (segments.remove(segment.id, segment)) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.warn("Failed to delete write-ahead log segment {}", segment.path, e);
+            }
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private void recover(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes) {
+            int payloadLength = buffer.getInt(offset);
+            if (payloadLength <= 0 || offset + HEADER_BYTES + payloadLength > segmentBytes) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(offset + HEADER_BYTES, payloadLength));
+            if ((int) crc.getValue() != buffer.getInt(offset + 5)) {
+                logger.warn("Stopping replay of {} at torn record, offset {}", segment.path, offset);
+                break;
+            }
+            if (buffer.get(offset + 4) == STATUS_PENDING) {
+                DeviceMetrics metrics = readPayload(buffer.slice(offset + HEADER_BYTES, payloadLength));
+                metrics.setWalPosition((segment.id << 32) | offset);
+                segment.pending.incrementAndGet();
+                recovered.add(metrics);
+            }
+            offset += HEADER_BYTES + payloadLength;
+        }
+    }
+
+    private static int payloadLength(DeviceMetrics m, byte[] deviceId) {
+        return 2 + deviceId.length + 1
+                + (m.getTimestamp() != null ? 12 : 0)
+                + 24
+                + (m.getBytesSentPerSec() != null ? 8 : 0)
+                + (m.getBytesRecvPerSec() != null ? 8 : 0)
+                + (m.getDiskReadBytesPerSec() != null ? 8 : 0)
+                + (m.getDiskWriteBytesPerSec() != null ? 8 : 0)
+                + (m.getLatencyMs() != null ? 8 : 0)
+                + (m.getSystemUptimeSeconds() != null ? 8 : 0)
+                + (m.getSeq() != null ? 8 : 0);
+    }
+
+    private static void writePayload(ByteBuffer out, DeviceMetrics m, byte[] deviceId) {
+        out.putShort((short) deviceId.length);
+        out.put(deviceId);
+        int flags = (m.getTimestamp() != null ? FLAG_TIMESTAMP : 0)
+                | (m.getBytesSentPerSec() != null ? FLAG_BYTES_SENT : 0)
+                | (m.getBytesRecvPerSec() != null ? FLAG_BYTES_RECV : 0)
+                | (m.getDiskReadBytesPerSec() != null ? FLAG_DISK_READ : 0)
+                | (m.getDiskWriteBytesPerSec() != null ? FLAG_DISK_WRITE : 0)
+                | (m.getLatencyMs() != null ? FLAG_LATENCY : 0)
+                | (m.getSystemUptimeSeconds() != null ? FLAG_UPTIME : 0)
+                | (m.getSeq() != null ? FLAG_SEQ : 0);
+        out.put((byte) flags);
+        if (m.getTimestamp() != null) {
+            out.putLong(m.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.putInt(m.getTimestamp().getNano());
+        }
+        out.putDouble(m.getCpuUsage());
+        out.putDouble(m.getMemoryUsage());
+        out.putDouble(m.getDiskUsage());
+        if (m.getBytesSentPerSec() != null) out.putLong(m.getBytesSentPerSec());
+        if (m.getBytesRecvPerSec() != null) out.putLong(m.getBytesRecvPerSec());
+        if (m.getDiskReadBytesPerSec() != null) out.putLong(m.getDiskReadBytesPerSec());
+        if (m.getDiskWriteBytesPerSec() != null) out.putLong(m.getDiskWriteBytesPerSec());
+        if (m.getLatencyMs() != null) out.putDouble(m.getLatencyMs());
+        if (m.getSystemUptimeSeconds() != null) out.putDouble(m.getSystemUptimeSeconds());
+        if (m.getSeq() != null) out.putLong(m.getSeq());
+    }
+
+    private static DeviceMetrics readPayload(ByteBuffer in) {
+        DeviceMetrics m = new DeviceMetrics();
+        // Unsigned, for records written before device ids were capped
+        byte[] deviceId = new byte[in.getShort() & 0xFFFF];
+        in.get(deviceId);
+        m.setDeviceId(new String(deviceId, StandardCharsets.UTF_8));
+        int flags = in.get() & 0xFF;
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            m.setTimestamp(LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC));
+        }
+        m.setCpuUsage(in.getDouble());
+        m.setMemoryUsage(in.getDouble());
+        m.setDiskUsage(in.getDouble());
+        if ((flags & FLAG_BYTES_SENT) != 0) m.setBytesSentPerSec(in.getLong());
+        if ((flags & FLAG_BYTES_RECV) != 0) m.setBytesRecvPerSec(in.getLong());
+        if ((flags & FLAG_DISK_READ) != 0) m.setDiskReadBytesPerSec(in.getLong());
+        if ((flags & FLAG_DISK_WRITE) != 0) m.setDiskWriteBytesPerSec(in.getLong());
+        if ((flags & FLAG_LATENCY) != 0) m.setLatencyMs(in.getDouble());
+        if ((flags & FLAG_UPTIME) != 0) m.setSystemUptimeSeconds(in.getDouble());
+        if ((flags & FLAG_SEQ) != 0) m.setSeq(in.getLong());
+        return m;
+    }
+}
@@ -0,0 +1,88 @@
+package com.sentinel;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports virtual threads pinned to their carrier (blocking inside synchronized or native code)
+ * for longer than the threshold, from the JFR jdk.VirtualThreadPinned event. Only runs in
+ * virtual-thread mode; each distinct pinning site is logged once, every occurrence is counted.
+ */
+@Service
+public class PinnedThreadMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+    private static final int MAX_LOGGED_SITES = 100;
+
+    private final WorkerThreads workerThreads;
+    private final Duration threshold;
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private final Set<String> loggedSites = ConcurrentHashMap.newKeySet();
+
+    private RecordingStream stream;
+
+    public PinnedThreadMonitor(WorkerThreads workerThreads,
+                               @Value("${sentinel.threads.pinning-threshold-ms:20}") long thresholdMs) {
+        this.workerThreads = workerThreads;
+        this.threshold = Duration.ofMillis(thresholdMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!workerThreads.isVirtual() || threshold.isNegative()) {
+            return;
+        }
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        logger.info("Watching for virtual threads pinned longer than {}ms", threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCount.incrementAndGet();
+        if (event.getStackTrace() == null) {
+            return;
+        }
+        StringBuilder site = new StringBuilder();
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        for (int i = 0; i < Math.min(LOGGED_FRAMES, frames.size()); i++) {
+            RecordedFrame frame = frames.get(i);
+            site.append("\n\tat ").append(frame.getMethod().getType().getName())
+                    .append('.').append(frame.getMethod().getName())
+                    .append(':').append(frame.getLineNumber());
+        }
+        String key = site.toString();
+        if (loggedSites.size() < MAX_LOGGED_SITES && loggedSites.add(key)) {
+            logger.warn("Virtual thread {} pinned for {}ms{}", event.getThread() != null ? event.getThread().getJavaName() : "?",
+                    event.getDuration().toMillis(), key);
+        }
+    }
+
+    public long getPinnedCount() {
+        return pinnedCount.get();
+    }
+}
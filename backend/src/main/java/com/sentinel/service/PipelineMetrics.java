@@ -0,0 +1,103 @@
+package com.sentinel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot-path meters for the ingest-to-storage pipeline. Every meter is created once up front;
+ * with sentinel.metrics.enabled=false they are bound to an empty composite registry, which
+ * makes each record call a no-op.
+ */
+@Component
+public class PipelineMetrics {
+
+    public enum IngestEndpoint {
+        SINGLE("/api/metrics", "json"),
+        BATCH_JSON("/api/metrics/batch", "json"),
+        BATCH_BINARY("/api/metrics/batch", "binary"),
+        LINE_TCP("tcp", "line"),
+        LINE_UDP("udp", "line");
+
+        private final String path;
+        private final String format;
+
+        IngestEndpoint(String path, String format) {
+            this.path = path;
+            this.format = format;
+        }
+    }
+
+    private final Map<IngestEndpoint, Counter> ingestRequests = new EnumMap<>(IngestEndpoint.class);
+    private final Map<IngestEndpoint, Counter> ingestRows = new EnumMap<>(IngestEndpoint.class);
+    private final Map<IngestEndpoint, Counter> rejectedRows = new EnumMap<>(IngestEndpoint.class);
+    private final Timer persistLag;
+    private final Timer writeLatency;
+    private final DistributionSummary batchSize;
+    private final Counter deadLetters;
+    private final Timer jwtValidation;
+
+    public PipelineMetrics(MeterRegistry registry, @Value("${sentinel.metrics.enabled:true}") boolean enabled) {
+        MeterRegistry target = enabled ? registry : new CompositeMeterRegistry();
+        for (IngestEndpoint endpoint : IngestEndpoint.values()) {
+            ingestRequests.put(endpoint, Counter.builder("sentinel.ingest.requests")
+                    .tag("endpoint", endpoint.path).tag("format", endpoint.format)
+                    .register(target));
+            ingestRows.put(endpoint, Counter.builder("sentinel.ingest.rows")
+                    .tag("endpoint", endpoint.path).tag("format", endpoint.format)
+                    .register(target));
+            rejectedRows.put(endpoint, Counter.builder("sentinel.ingest.rows.rejected")
+                    .tag("endpoint", endpoint.path).tag("format", endpoint.format)
+                    .register(target));
+        }
+        persistLag = Timer.builder("sentinel.ingest.persist.lag")
+                .description("Time from enqueue to the end of the batch write, oldest row of each batch")
+                .publishPercentileHistogram()
+                .register(target);
+        writeLatency = Timer.builder("sentinel.persistence.write")
+                .publishPercentileHistogram()
+                .register(target);
+        batchSize = DistributionSummary.builder("sentinel.persistence.batch.size")
+                .baseUnit("rows")
+                .publishPercentileHistogram()
+                .register(target);
+        deadLetters = Counter.builder("sentinel.persistence.rows.dead.lettered")
+                .description("Rows the database refused on their own, dropped so their partition keeps moving")
+                .register(target);
+        jwtValidation = Timer.builder("sentinel.auth.jwt.validation")
+                .publishPercentileHistogram()
+                .register(target);
+    }
+
+    public void recordIngest(IngestEndpoint endpoint, int accepted, int rejected) {
+        ingestRequests.get(endpoint).increment();
+        ingestRows.get(endpoint).increment(accepted);
+        if (rejected > 0) {
+            rejectedRows.get(endpoint).increment(rejected);
+        }
+    }
+
+    public void recordBatchWrite(int rows, long writeNanos, long oldestEnqueuedAtNanos) {
+        batchSize.record(rows);
+        writeLatency.record(writeNanos, TimeUnit.NANOSECONDS);
+        if (oldestEnqueuedAtNanos != 0) {
+            persistLag.record(System.nanoTime() - oldestEnqueuedAtNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordDeadLetters(int rows) {
+        deadLetters.increment(rows);
+    }
+
+    public void recordJwtValidation(long nanos) {
+        jwtValidation.record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
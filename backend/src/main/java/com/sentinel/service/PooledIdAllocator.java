@@ -0,0 +1,55 @@
+package com.sentinel;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out ids from a database sequence the same way Hibernate's pooled optimizer does:
+ * every sequence value is the upper bound of a block of allocationSize ids, so ids drawn
+ * here never collide with ids Hibernate assigns for the same sequence.
+ */
+public class PooledIdAllocator {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String sequence;
+    private final int allocationSize;
+    // A lock rather than synchronized: the sequence fetch is a JDBC call, which would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private String nextValueSql;
+    private long next;
+    private long hi = -1;
+
+    public PooledIdAllocator(JdbcTemplate jdbcTemplate, String sequence, int allocationSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sequence = sequence;
+        this.allocationSize = allocationSize;
+    }
+
+    public long next() {
+        lock.lock();
+        try {
+            if (next > hi) {
+                long upper = jdbcTemplate.queryForObject(nextValueSql(), Long.class);
+                hi = upper;
+                next = Math.max(upper - allocationSize + 1, 1);
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String nextValueSql() {
+        if (nextValueSql == null) {
+            String product = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            nextValueSql = "PostgreSQL".equalsIgnoreCase(product)
+                    ? "SELECT nextval('" + sequence + "')"
+                    : "SELECT NEXT VALUE FOR " + sequence;
+        }
+        return nextValueSql;
+    }
+}
@@ -0,0 +1,98 @@
+package com.sentinel;
+
+/**
+ * Mergeable quantile sketch with bounded relative error (DDSketch style): values are counted
+ * in logarithmically sized bins, so any quantile is within relativeAccuracy of the true value.
+ * Only non-negative values are tracked, which covers every DeviceMetrics field.
+ */
+public class QuantileSketch {
+
+    private static final double MIN_TRACKED = 1e-9;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private int[] bins = new int[0];
+    private int offset; // bin index held by bins[0]
+    private long zeroCount;
+    private long count;
+
+    public QuantileSketch(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || value < 0) {
+            return;
+        }
+        count++;
+        if (value < MIN_TRACKED) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        ensureCapacity(index, index);
+        bins[index - offset]++;
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches with different accuracy");
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        if (other.bins.length == 0) {
+            return;
+        }
+        ensureCapacity(other.offset, other.offset + other.bins.length - 1);
+        for (int i = 0; i < other.bins.length; i++) {
+            bins[other.offset + i - offset] += other.bins[i];
+        }
+    }
+
+    /**
+     * Returns the approximate value at quantile q (0..1), or NaN if the sketch is empty.
+     */
+    public double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        if (rank < zeroCount) {
+            return 0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen > rank) {
+                return 2 * Math.pow(gamma, i + offset) / (gamma + 1);
+            }
+        }
+        return 2 * Math.pow(gamma, bins.length - 1 + offset) / (gamma + 1);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void ensureCapacity(int minIndex, int maxIndex) {
+        if (bins.length == 0) {
+            offset = minIndex;
+            bins = new int[maxIndex - minIndex + 1];
+            return;
+        }
+        int currentMax = offset + bins.length - 1;
+        if (minIndex >= offset && maxIndex <= currentMax) {
+            return;
+        }
+        int newOffset = Math.min(offset, minIndex);
+        int newMax = Math.max(currentMax, maxIndex);
+        int[] grown = new int[newMax - newOffset + 1];
+        System.arraycopy(bins, 0, grown, offset - newOffset, bins.length);
+        bins = grown;
+        offset = newOffset;
+    }
+}
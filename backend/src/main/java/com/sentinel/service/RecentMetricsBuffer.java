@@ -0,0 +1,247 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot tier for recent history: the last capacity-per-device samples of each device, kept as
+ * primitive columns in a ring with epoch-microsecond timestamps (the database's precision).
+ * Each device costs a fixed 80 bytes per slot, allocated on its first sample, and at most
+ * max-devices are buffered. History reads that stay inside a device's buffered window are
+ * answered here; anything older, or devices that didn't fit, go to the repository.
+ */
+@Service
+public class RecentMetricsBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecentMetricsBuffer.class);
+
+    private static final int BYTES_PER_SLOT = 10 * Long.BYTES;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final int maxDevices;
+    private final long startedAtMicros;
+    private final ConcurrentMap<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RecentMetricsBuffer(@Value("${sentinel.recent.capacity-per-device:300}") int capacity,
+                               @Value("${sentinel.recent.max-devices:2000}") int maxDevices) {
+        this.capacity = capacity;
+        this.maxDevices = maxDevices;
+        this.startedAtMicros = toMicros(LocalDateTime.now());
+        logger.info("Recent metrics buffer holds {} samples per device for up to {} devices ({} MB at most)",
+                capacity, maxDevices, (long) capacity * BYTES_PER_SLOT * maxDevices / (1024 * 1024));
+    }
+
+    public void append(DeviceMetrics metrics) {
+        if (capacity <= 0 || metrics.getDeviceId() == null || metrics.getTimestamp() == null) {
+            return;
+        }
+        Ring ring = rings.get(metrics.getDeviceId());
+        if (ring == null) {
+            if (rings.size() >= maxDevices) {
+                return;
+            }
+            long firstMicros = toMicros(metrics.getTimestamp());
+            ring = rings.computeIfAbsent(metrics.getDeviceId(),
+                    deviceId -> new Ring(deviceId, capacity, Math.max(startedAtMicros, firstMicros)));
+        }
+        synchronized (ring) {
+            ring.add(metrics);
+        }
+    }
+
+    public void remove(String deviceId) {
+        rings.remove(deviceId);
+    }
+
+    /**
+     * Up to limit samples of deviceId stamped within [fromMicros, toMicros], oldest first or newest
+     * first, or null when some samples of that range may be missing from the buffer. Reading newest
+     * first, a full page is enough even when the range starts before the buffered window.
+     */
+    public List<DeviceMetrics> find(String deviceId, long fromMicros, long toMicros, boolean descending, int limit) {
+        Ring ring = rings.get(deviceId);
+        if (ring == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        List<DeviceMetrics> content;
+        synchronized (ring) {
+            boolean complete = fromMicros >= ring.coveredFromMicros;
+            int first = ring.lowerBound(Math.max(fromMicros, ring.coveredFromMicros));
+            int end = (toMicros == Long.MAX_VALUE) ? ring.size : ring.lowerBound(toMicros + 1);
+            int available = Math.max(0, end - first);
+            if (!complete && !(descending && available >= limit)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            int count = Math.min(limit, available);
+            content = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                content.add(ring.toMetrics(descending ? end - 1 - i : first + i));
+            }
+        }
+        hits.incrementAndGet();
+        return content;
+    }
+
+    public int getDeviceCount() {
+        return rings.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    static long toMicros(LocalDateTime timestamp) {
+        // Rounded like the database rounds stored timestamps
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + (timestamp.getNano() + 500) / 1000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    /** Columns for one device; logical index 0 is the oldest sample held. Guarded by its monitor. */
+    private static final class Ring {
+        final String deviceId;
+        final int capacity;
+        final long[] timestamps;
+        final double[] cpu;
+        final double[] memory;
+        final double[] disk;
+        final long[] bytesSent;
+        final long[] bytesRecv;
+        final long[] diskRead;
+        final long[] diskWrite;
+        final double[] latency;
+        final double[] uptime;
+        int head; // physical slot of the oldest sample
+        int size;
+        // Every sample of this device stamped at or after this instant is held
+        long coveredFromMicros;
+
+        Ring(String deviceId, int capacity, long coveredFromMicros) {
+            this.deviceId = deviceId;
+            this.capacity = capacity;
+            this.coveredFromMicros = coveredFromMicros;
+            timestamps = new long[capacity];
+            cpu = new double[capacity];
+            memory = new double[capacity];
+            disk = new double[capacity];
+            bytesSent = new long[capacity];
+            bytesRecv = new long[capacity];
+            diskRead = new long[capacity];
+            diskWrite = new long[capacity];
+            latency = new double[capacity];
+            uptime = new double[capacity];
+        }
+
+        void add(DeviceMetrics m) {
+            long micros = toMicros(m.getTimestamp());
+            if (size == capacity && micros <= timestamps[head]) {
+                // A late sample older than everything held would be evicted straight away
+                coveredFromMicros = Math.max(coveredFromMicros, micros + 1);
+                return;
+            }
+            int slot;
+            if (size == capacity) {
+                slot = head;
+                coveredFromMicros = Math.max(coveredFromMicros, timestamps[slot] + 1);
+                head = (head + 1) % capacity;
+            } else {
+                slot = physical(size++);
+            }
+            timestamps[slot] = micros;
+            cpu[slot] = m.getCpuUsage();
+            memory[slot] = m.getMemoryUsage();
+            disk[slot] = m.getDiskUsage();
+            bytesSent[slot] = orNull(m.getBytesSentPerSec());
+            bytesRecv[slot] = orNull(m.getBytesRecvPerSec());
+            diskRead[slot] = orNull(m.getDiskReadBytesPerSec());
+            diskWrite[slot] = orNull(m.getDiskWriteBytesPerSec());
+            latency[slot] = orNaN(m.getLatencyMs());
+            uptime[slot] = orNaN(m.getSystemUptimeSeconds());
+
+            // Concurrent requests can land slightly out of order; keep the ring sorted by time
+            for (int i = size - 1; i > 0 && timestamps[physical(i - 1)] > timestamps[physical(i)]; i--) {
+                swap(physical(i - 1), physical(i));
+            }
+        }
+
+        /** First logical index whose timestamp is at or after micros. */
+        int lowerBound(long micros) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[physical(mid)] < micros) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        DeviceMetrics toMetrics(int index) {
+            int slot = physical(index);
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(deviceId);
+            m.setTimestamp(fromMicros(timestamps[slot]));
+            m.setCpuUsage(cpu[slot]);
+            m.setMemoryUsage(memory[slot]);
+            m.setDiskUsage(disk[slot]);
+            m.setBytesSentPerSec(bytesSent[slot] == NULL_LONG ? null : bytesSent[slot]);
+            m.setBytesRecvPerSec(bytesRecv[slot] == NULL_LONG ? null : bytesRecv[slot]);
+            m.setDiskReadBytesPerSec(diskRead[slot] == NULL_LONG ? null : diskRead[slot]);
+            m.setDiskWriteBytesPerSec(diskWrite[slot] == NULL_LONG ? null : diskWrite[slot]);
+            m.setLatencyMs(Double.isNaN(latency[slot]) ? null : latency[slot]);
+            m.setSystemUptimeSeconds(Double.isNaN(uptime[slot]) ? null : uptime[slot]);
+            return m;
+        }
+
+        private int physical(int index) {
+            int slot = head + index;
+            return slot >= capacity ? slot - capacity : slot;
+        }
+
+        private void swap(int a, int b) {
+            long t = timestamps[a]; timestamps[a] = timestamps[b]; timestamps[b] = t;
+            double d = cpu[a]; cpu[a] = cpu[b]; cpu[b] = d;
+            d = memory[a]; memory[a] = memory[b]; memory[b] = d;
+            d = disk[a]; disk[a] = disk[b]; disk[b] = d;
+            t = bytesSent[a]; bytesSent[a] = bytesSent[b]; bytesSent[b] = t;
+            t = bytesRecv[a]; bytesRecv[a] = bytesRecv[b]; bytesRecv[b] = t;
+            t = diskRead[a]; diskRead[a] = diskRead[b]; diskRead[b] = t;
+            t = diskWrite[a]; diskWrite[a] = diskWrite[b]; diskWrite[b] = t;
+            d = latency[a]; latency[a] = latency[b]; latency[b] = d;
+            d = uptime[a]; uptime[a] = uptime[b]; uptime[b] = d;
+        }
+
+        private static long orNull(Long value) {
+            return value == null ? NULL_LONG : value;
+        }
+
+        private static double orNaN(Double value) {
+            return value == null ? Double.NaN : value;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.sentinel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enforces tiered retention: raw metrics are kept for raw-days, each rollup tier for its own
+ * period. When device_metrics is a PostgreSQL partitioned table (see db/postgres-partitioned-schema.sql)
+ * expired days are dropped as whole partitions and upcoming ones are pre-created, at startup
+ * before the consumer writes anything and on every run; otherwise expired rows are deleted in
+ * bounded chunks. Rows that landed in the default partition are expired by chunked deletes.
+ * Sealed MetricChunks expire with the raw rows. Each step fails on its own, so one bad
+ * partition or table doesn't hold back the rest of the run.
+ */
+@Service
+public class RetentionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionService.class);
+
+    static final String PARTITION_PREFIX = "device_metrics_p";
+    static final String DEFAULT_PARTITION = "device_metrics_default";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MetricHistoryCache historyCache;
+    private final boolean enabled;
+    private final int rawDays;
+    private final int partitionsAhead;
+    private final int chunkSize;
+    private final Map<RollupResolution, Integer> rollupDays = new EnumMap<>(RollupResolution.class);
+
+    private volatile Boolean partitioned;
+
+    public RetentionService(JdbcTemplate jdbcTemplate,
+                            MetricHistoryCache historyCache,
+                            @Value("${sentinel.retention.enabled:true}") boolean enabled,
+                            @Value("${sentinel.retention.raw-days:7}") int rawDays,
+                            @Value("${sentinel.retention.rollup-10s-days:3}") int rollup10sDays,
+                            @Value("${sentinel.retention.rollup-1m-days:14}") int rollup1mDays,
+                            @Value("${sentinel.retention.rollup-5m-days:90}") int rollup5mDays,
+                            @Value("${sentinel.retention.rollup-1h-days:730}") int rollup1hDays,
+                            @Value("${sentinel.retention.partitions-ahead:3}") int partitionsAhead,
+                            @Value("${sentinel.retention.delete-chunk-size:10000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.historyCache = historyCache;
+        this.enabled = enabled;
+        this.rawDays = rawDays;
+        this.partitionsAhead = partitionsAhead;
+        this.chunkSize = chunkSize;
+        rollupDays.put(RollupResolution.TEN_SECONDS, rollup10sDays);
+        rollupDays.put(RollupResolution.ONE_MINUTE, rollup1mDays);
+        rollupDays.put(RollupResolution.FIVE_MINUTES, rollup5mDays);
+        rollupDays.put(RollupResolution.ONE_HOUR, rollup1hDays);
+    }
+
+    public int getRawDays() {
+        return rawDays;
+    }
+
+    /**
+     * Creates today's and the upcoming partitions before ingest starts; once today's rows have
+     * gone to the default partition, today's own partition can no longer be created.
+     */
+    @PostConstruct
+    public void preparePartitions() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (isPartitioned()) {
+                createUpcomingPartitions(LocalDate.now());
+            }
+        } catch (Exception e) {
+            logger.error("Error creating upcoming metrics partitions", e);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${sentinel.retention.initial-delay-ms:30000}",
+               fixedDelayString = "${sentinel.retention.interval-ms:3600000}")
+    public void enforce() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        Timestamp rawCutoff = Timestamp.valueOf(today.minusDays(rawDays).atStartOfDay());
+        boolean partitionedTable;
+        try {
+            partitionedTable = isPartitioned();
+        } catch (Exception e) {
+            logger.error("Error enforcing metrics retention", e);
+            return;
+        }
+        if (partitionedTable) {
+            createUpcomingPartitions(today);
+            try {
+                dropExpiredPartitions(today.minusDays(rawDays));
+            } catch (Exception e) {
+                logger.error("Error dropping expired metrics partitions", e);
+            }
+            expireRows(DEFAULT_PARTITION, "timestamp < ?", "raw metrics in the default partition", rawCutoff);
+        } else {
+            expireRows("device_metrics", "timestamp < ?", "raw metrics", rawCutoff);
+        }
+        // Sealed raw history goes once its newest sample has expired
+        expireRows("metric_chunks", "last_timestamp < ?", "metric chunks", rawCutoff);
+        try {
+            historyCache.expireBefore(today.minusDays(rawDays).atStartOfDay());
+        } catch (Exception e) {
+            logger.error("Error expiring cached metric history", e);
+        }
+
+        for (Map.Entry<RollupResolution, Integer> tier : rollupDays.entrySet()) {
+            LocalDateTime cutoff = today.minusDays(tier.getValue()).atStartOfDay();
+            expireRows("metric_rollups", "resolution_seconds = ? AND bucket_start < ?",
+                    tier.getKey().getLabel() + " rollups", tier.getKey().getSeconds(), Timestamp.valueOf(cutoff));
+        }
+    }
+
+    private void expireRows(String table, String where, String what, Object... args) {
+        try {
+            long rows = ChunkedDelete.deleteInChunks(jdbcTemplate, table, where, chunkSize, args);
+            if (rows > 0) {
+                logger.info("Deleted {} expired {}", rows, what);
+            }
+        } catch (Exception e) {
+            logger.error("Error deleting expired {}", what, e);
+        }
+    }
+
+    private void createUpcomingPartitions(LocalDate today) {
+        for (int i = 0; i <= partitionsAhead; i++) {
+            LocalDate day = today.plusDays(i);
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partitionName(day) + " PARTITION OF device_metrics "
+                        + "FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+            } catch (Exception e) {
+                // Typically rows for that day already sit in the default partition
+                logger.error("Error creating metrics partition {}", partitionName(day), e);
+            }
+        }
+    }
+
+    private void dropExpiredPartitions(LocalDate oldestKept) {
+        List<String> partitions = jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i "
+                        + "JOIN pg_class c ON c.oid = i.inhrelid "
+                        + "JOIN pg_class p ON p.oid = i.inhparent "
+                        + "WHERE p.relname = 'device_metrics'", String.class);
+        for (String partition : partitions) {
+            if (!partition.startsWith(PARTITION_PREFIX)) {
+                continue; // e.g. the default partition
+            }
+            try {
+                LocalDate day = LocalDate.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+                if (day.isBefore(oldestKept)) {
+                    jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+                    logger.info("Dropped expired metrics partition {}", partition);
+                }
+            } catch (DateTimeParseException e) {
+                logger.warn("Ignoring unrecognised metrics partition {}", partition);
+            }
+        }
+    }
+
+    static String partitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(PARTITION_SUFFIX);
+    }
+
+    private boolean isPartitioned() {
+        if (partitioned == null) {
+            partitioned = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+                if (!"PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())) {
+                    return false;
+                }
+                List<String> kinds = jdbcTemplate.queryForList(
+                        "SELECT relkind::text FROM pg_class WHERE relname = 'device_metrics'", String.class);
+                return kinds.contains("p");
+            });
+            logger.info("Metrics retention uses {}", partitioned ? "partition drops" : "chunked deletes");
+        }
+        return partitioned;
+    }
+}
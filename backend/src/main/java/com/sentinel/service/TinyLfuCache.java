@@ -0,0 +1,242 @@
+package com.sentinel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Weight-bounded cache with W-TinyLFU eviction: new entries land in a small LRU window, and an
+ * entry leaving the window only displaces the main region's least recently used entry if a
+ * frequency sketch says its key is requested more often. The main region is a segmented LRU,
+ * so keys hit again while on probation are protected from one-off scans.
+ * Not thread-safe; callers serialize access.
+ */
+class TinyLfuCache<K, V> {
+
+    private enum Region { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        Region region = Region.WINDOW;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<K, Node<K, V>> nodes = new HashMap<>();
+    // Access-ordered, so the eldest entry of each region is its least recently used
+    private final LinkedHashMap<K, Node<K, V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<K, V>> protectedRegion = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+    private long evictions;
+
+    /** expectedEntries sizes the frequency sketch; a few times the typical entry count is plenty. */
+    TinyLfuCache(long maxWeight, int expectedEntries) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+        this.maxWeight = maxWeight;
+        this.maxWindowWeight = Math.max(1, maxWeight / 100);
+        this.maxProtectedWeight = (maxWeight - maxWindowWeight) * 4 / 5;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /** The cached value, or null; a miss still counts towards the key's frequency. */
+    V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        switch (node.region) {
+            case WINDOW -> window.get(key);
+            case PROTECTED -> protectedRegion.get(key);
+            case PROBATION -> {
+                probation.remove(key);
+                probationWeight -= node.weight;
+                node.region = Region.PROTECTED;
+                protectedRegion.put(key, node);
+                protectedWeight += node.weight;
+                // Demoted entries go back on probation as its most recently used
+                while (protectedWeight > maxProtectedWeight) {
+                    Node<K, V> demoted = removeEldest(protectedRegion);
+                    protectedWeight -= demoted.weight;
+                    demoted.region = Region.PROBATION;
+                    probation.put(demoted.key, demoted);
+                    probationWeight += demoted.weight;
+                }
+            }
+        }
+        return node.value;
+    }
+
+    /** Caches value unless weight alone exceeds the bound; replaces any value already cached for key. */
+    void put(K key, V value, long weight) {
+        remove(key);
+        if (weight > maxWeight) {
+            return;
+        }
+        Node<K, V> node = new Node<>(key, value, weight);
+        nodes.put(key, node);
+        window.put(key, node);
+        windowWeight += weight;
+        while (windowWeight > maxWindowWeight) {
+            Node<K, V> candidate = removeEldest(window);
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    void remove(K key) {
+        Node<K, V> node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /** Removes every entry whose key matches; a full scan, meant for rare invalidations. */
+    int removeIf(Predicate<K> matches) {
+        int removed = 0;
+        Iterator<Node<K, V>> it = nodes.values().iterator();
+        while (it.hasNext()) {
+            Node<K, V> node = it.next();
+            if (matches.test(node.key)) {
+                it.remove();
+                unlink(node);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    long weight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    long getEvictionCount() {
+        return evictions;
+    }
+
+    // Moves a window leaver into the main region if it beats each victim it would displace
+    private void admit(Node<K, V> candidate) {
+        long maxMainWeight = maxWeight - maxWindowWeight;
+        while (probationWeight + protectedWeight + candidate.weight > maxMainWeight) {
+            LinkedHashMap<K, Node<K, V>> region = !probation.isEmpty() ? probation : protectedRegion;
+            Node<K, V> victim = region.isEmpty() ? null : region.values().iterator().next();
+            evictions++;
+            if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                nodes.remove(candidate.key);
+                return;
+            }
+            nodes.remove(victim.key);
+            unlink(victim);
+        }
+        candidate.region = Region.PROBATION;
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.region) {
+            case WINDOW -> {
+                window.remove(node.key);
+                windowWeight -= node.weight;
+            }
+            case PROBATION -> {
+                probation.remove(node.key);
+                probationWeight -= node.weight;
+            }
+            case PROTECTED -> {
+                protectedRegion.remove(node.key);
+                protectedWeight -= node.weight;
+            }
+        }
+    }
+
+    private static <K, V> Node<K, V> removeEldest(LinkedHashMap<K, Node<K, V>> region) {
+        Iterator<Node<K, V>> it = region.values().iterator();
+        Node<K, V> eldest = it.next();
+        it.remove();
+        return eldest;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, sixteen to a word, four per key. Every counter is halved
+     * once the additions reach ten times the table size, so popularity ages out.
+     */
+    static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int words = 64;
+            while (words < expectedEntries && words < (1 << 24)) {
+                words <<= 1;
+            }
+            this.table = new long[words];
+            this.mask = words - 1;
+            this.sampleSize = 10 * words;
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int seed : SEEDS) {
+                int h = hash * seed;
+                h ^= h >>> 17;
+                frequency = Math.min(frequency, (int) (table[h & mask] >>> ((h >>> 28) << 2)) & 15);
+            }
+            return frequency;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int seed : SEEDS) {
+                int h = hash * seed;
+                h ^= h >>> 17;
+                int index = h & mask;
+                int shift = (h >>> 28) << 2;
+                if (((table[index] >>> shift) & 15) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & 0x7777_7777_7777_7777L;
+                }
+                additions /= 2;
+            }
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x45D9F3B;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+-- Upgrades an existing PostgreSQL device_metrics table to the device registry layout:
+-- device_metrics.device_id (varchar) becomes device_key (integer, a devices.id), ids come from
+-- the pooled device_metrics_seq instead of an identity column, and client_seq is added for
+-- idempotent ingest. Fresh installs use postgres-partitioned-schema.sql instead.
+--
+-- Stop the backend first (its write-ahead log replays on the next start). The backfill rewrites
+-- every row, so on a large table run it in a maintenance window. It runs in one transaction,
+-- so a failure leaves the database as it was.
+
+BEGIN;
+
+CREATE SEQUENCE IF NOT EXISTS devices_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS devices (
+    id            INTEGER PRIMARY KEY,
+    device_id     VARCHAR(255) NOT NULL,
+    registered_at TIMESTAMP(6)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_devices_device_id ON devices (device_id);
+
+-- One key per device name, in order of first sample
+INSERT INTO devices (id, device_id, registered_at)
+SELECT (SELECT COALESCE(MAX(id), 0) FROM devices) + ROW_NUMBER() OVER (ORDER BY d.first_seen, d.device_id),
+       d.device_id, d.first_seen
+FROM (SELECT device_id, MIN(timestamp) AS first_seen
+      FROM device_metrics
+      WHERE device_id IS NOT NULL
+      GROUP BY device_id) d
+WHERE NOT EXISTS (SELECT 1 FROM devices x WHERE x.device_id = d.device_id);
+
+ALTER TABLE device_metrics ADD COLUMN IF NOT EXISTS device_key INTEGER;
+ALTER TABLE device_metrics ADD COLUMN IF NOT EXISTS client_seq BIGINT;
+
+UPDATE device_metrics m
+SET device_key = d.id
+FROM devices d
+WHERE m.device_key IS NULL AND m.device_id = d.device_id;
+
+DROP INDEX IF EXISTS idx_device_metrics_device_ts;
+CREATE INDEX idx_device_metrics_device_ts ON device_metrics (device_key, timestamp);
+
+-- Ids were an identity (or serial) column; the application now assigns them
+ALTER TABLE device_metrics ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE device_metrics ALTER COLUMN id DROP DEFAULT;
+
+-- Each sequence value is the top of a block of 50 ids (Hibernate's pooled optimizer and
+-- PooledIdAllocator), so the first block handed out has to start past every existing id
+CREATE SEQUENCE IF NOT EXISTS device_metrics_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('device_metrics_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM device_metrics), false);
+SELECT setval('devices_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM devices), false);
+
+-- The name column goes only once every named row has its key
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_name = 'device_metrics' AND column_name = 'device_id') THEN
+        IF EXISTS (SELECT 1 FROM device_metrics WHERE device_id IS NOT NULL AND device_key IS NULL) THEN
+            RAISE EXCEPTION 'device_metrics rows without a device_key remain, not dropping device_id';
+        END IF;
+        ALTER TABLE device_metrics DROP COLUMN device_id;
+    END IF;
+END
+$$;
+
+COMMIT;
@@ -0,0 +1,68 @@
+-- Daily range-partitioned layout for device_metrics on PostgreSQL.
+-- Apply once on a fresh database (upgrade an existing one with migrate-device-keys.sql) and run with
+-- spring.jpa.hibernate.ddl-auto=none or validate. RetentionService pre-creates upcoming
+-- daily partitions (at startup and hourly) and drops expired ones; rows outside every daily
+-- partition land in the default one, where retention deletes them in chunks.
+
+-- Device registry: rows in device_metrics carry the integer key instead of the device name
+CREATE SEQUENCE IF NOT EXISTS devices_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS devices (
+    id            INTEGER PRIMARY KEY,
+    device_id     VARCHAR(255) NOT NULL,
+    registered_at TIMESTAMP(6)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_devices_device_id ON devices (device_id);
+
+CREATE SEQUENCE IF NOT EXISTS device_metrics_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS device_metrics (
+    id                       BIGINT NOT NULL,
+    device_key               INTEGER,
+    cpu_usage                DOUBLE PRECISION NOT NULL,
+    memory_usage             DOUBLE PRECISION NOT NULL,
+    disk_usage               DOUBLE PRECISION NOT NULL,
+    bytes_sent_per_sec       BIGINT,
+    bytes_recv_per_sec       BIGINT,
+    disk_read_bytes_per_sec  BIGINT,
+    disk_write_bytes_per_sec BIGINT,
+    latency_ms               DOUBLE PRECISION,
+    system_uptime_seconds    DOUBLE PRECISION,
+    timestamp                TIMESTAMP(6) NOT NULL,
+    client_seq               BIGINT,
+    -- the partition key has to be part of the primary key
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+CREATE INDEX IF NOT EXISTS idx_device_metrics_device_ts ON device_metrics (device_key, timestamp);
+
+-- Today's and the next three days' partitions, so nothing ingested before RetentionService
+-- first runs lands in the default partition (which would then block creating today's)
+DO $$
+DECLARE
+    day DATE;
+BEGIN
+    FOR day IN SELECT generate_series(CURRENT_DATE, CURRENT_DATE + 3, INTERVAL '1 day')::date LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF device_metrics FOR VALUES FROM (%L) TO (%L)',
+                       'device_metrics_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    END LOOP;
+END
+$$;
+
+CREATE TABLE IF NOT EXISTS device_metrics_default PARTITION OF device_metrics DEFAULT;
+
+-- Sealed hourly chunks (sentinel.chunks.enabled); small enough to need no partitioning
+CREATE SEQUENCE IF NOT EXISTS metric_chunks_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS metric_chunks (
+    id               BIGINT PRIMARY KEY,
+    device_id        VARCHAR(255),
+    chunk_start      TIMESTAMP(6),
+    first_timestamp  TIMESTAMP(6),
+    last_timestamp   TIMESTAMP(6),
+    sample_count     INTEGER NOT NULL,
+    data             BYTEA
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_metric_chunks_device_start ON metric_chunks (device_id, chunk_start);
@@ -0,0 +1,109 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AlertEngineTest {
+
+    private final List<String> sent = new ArrayList<>();
+
+    private AlertEngine engine(String rules) {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((Message<?> message, long timeout) -> {
+            sent.add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8));
+            return true;
+        });
+        return new AlertEngine(template, Jackson2ObjectMapperBuilder.json().build(),
+                new LatestMetricsStore(null, null, 120), new WorkerThreads(new StandardEnvironment()),
+                rules, 0.1, 10, 60, 100);
+    }
+
+    private static DeviceMetrics metric(String deviceId, double cpu, LocalDateTime timestamp) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(cpu);
+        m.setMemoryUsage(10.0);
+        m.setDiskUsage(10.0);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    @Test
+    void parsesRuleSyntax() {
+        AlertRule rule = AlertRule.parse("cpu-high: cpuUsage >= 90.5 for 2m");
+        assertEquals("cpu-high", rule.getName());
+        assertEquals(MetricField.CPU_USAGE, rule.getField());
+        assertEquals(AlertRule.Kind.THRESHOLD, rule.getKind());
+        assertEquals(AlertRule.Operator.GE, rule.getOperator());
+        assertEquals(120_000, rule.getForMillis());
+        assertEquals(AlertRule.Kind.ZSCORE, AlertRule.parse("lat: latencyMs zscore > 3").getKind());
+        assertThrows(IllegalArgumentException.class, () -> AlertRule.parse("cpuUsage > 90"));
+        assertThrows(IllegalArgumentException.class, () -> AlertRule.parseAll("a: cpuUsage > 1; a: diskUsage > 1"));
+    }
+
+    @Test
+    void sustainedThresholdFiresAfterDurationAndResolves() {
+        AlertEngine engine = engine("cpu-high: cpuUsage > 90 for 30s");
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        long now = System.currentTimeMillis();
+        engine.evaluate(metric("a", 95, start), now);
+        engine.evaluate(metric("a", 96, start.plusSeconds(20)), now);
+        assertEquals(0, engine.getFiredCount());
+        engine.evaluate(metric("a", 97, start.plusSeconds(30)), now);
+        assertEquals(1, engine.getFiredCount());
+        assertEquals(1, engine.getActiveAlerts().size());
+
+        engine.evaluate(metric("a", 50, start.plusSeconds(40)), now);
+        assertEquals(1, engine.getResolvedCount());
+        assertTrue(engine.getActiveAlerts().isEmpty());
+
+        engine.tick(now);
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(0).contains("\"state\":\"FIRING\""));
+        assertTrue(sent.get(1).contains("\"state\":\"RESOLVED\""));
+    }
+
+    @Test
+    void zScoreFlagsOutliersOnceWarm() {
+        AlertEngine engine = engine("cpu-anomaly: cpuUsage zscore > 4");
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        long now = System.currentTimeMillis();
+        engine.evaluate(metric("a", 99, start), now); // still warming up
+        for (int i = 1; i <= 50; i++) {
+            engine.evaluate(metric("a", 20 + (i % 3), start.plusSeconds(i)), now);
+        }
+        assertEquals(0, engine.getFiredCount());
+        engine.evaluate(metric("a", 95, start.plusSeconds(51)), now);
+        assertEquals(1, engine.getFiredCount());
+    }
+
+    @Test
+    void heartbeatTimesOutSilentDevicesOnly() {
+        AlertEngine engine = engine("");
+        LocalDateTime timestamp = LocalDateTime.now();
+        long now = System.currentTimeMillis();
+        engine.evaluate(metric("quiet", 10, timestamp), now);
+        engine.evaluate(metric("chatty", 10, timestamp), now);
+        for (long t = now; t <= now + 90_000; t += 1_000) {
+            engine.evaluate(metric("chatty", 10, timestamp), t);
+            engine.tick(t);
+        }
+        List<AlertEvent> active = engine.getActiveAlerts();
+        assertEquals(1, active.size());
+        assertEquals("quiet", active.get(0).getDeviceId());
+        assertEquals(AlertEngine.HEARTBEAT_RULE, active.get(0).getRule());
+
+        engine.evaluate(metric("quiet", 10, timestamp), now + 91_000);
+        assertTrue(engine.getActiveAlerts().isEmpty());
+        assertEquals(1, engine.getResolvedCount());
+    }
+}
@@ -0,0 +1,114 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryMetricsCodecTest {
+
+    @Test
+    void roundTripsBatchWithNullableFields() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        DeviceMetrics full = new DeviceMetrics();
+        full.setDeviceId("host-1");
+        full.setCpuUsage(12.5);
+        full.setMemoryUsage(40.25);
+        full.setDiskUsage(80);
+        full.setBytesSentPerSec(1234L);
+        full.setBytesRecvPerSec(-5L);
+        full.setDiskReadBytesPerSec(0L);
+        full.setDiskWriteBytesPerSec(9_000_000_000L);
+        full.setLatencyMs(3.5);
+        full.setSystemUptimeSeconds(123456.789);
+        full.setTimestamp(now);
+        full.setSeq(41L);
+
+        DeviceMetrics sparse = new DeviceMetrics();
+        sparse.setDeviceId("host-2");
+        sparse.setCpuUsage(1);
+
+        DeviceMetrics later = new DeviceMetrics();
+        later.setDeviceId("host-1");
+        later.setTimestamp(now.plusSeconds(3));
+        later.setSeq(42L);
+
+        List<DeviceMetrics> decoded = BinaryMetricsCodec.decode(BinaryMetricsCodec.encode(Arrays.asList(full, sparse, later)));
+
+        assertEquals(3, decoded.size());
+        DeviceMetrics a = decoded.get(0);
+        assertEquals("host-1", a.getDeviceId());
+        assertEquals(12.5, a.getCpuUsage());
+        assertEquals(-5L, a.getBytesRecvPerSec());
+        assertEquals(9_000_000_000L, a.getDiskWriteBytesPerSec());
+        assertEquals(123456.789, a.getSystemUptimeSeconds());
+        assertEquals(now, a.getTimestamp());
+        assertEquals(41L, a.getSeq());
+
+        DeviceMetrics b = decoded.get(1);
+        assertNull(b.getTimestamp());
+        assertNull(b.getLatencyMs());
+        assertNull(b.getBytesSentPerSec());
+        assertNull(b.getSeq());
+
+        assertEquals(now.plusSeconds(3), decoded.get(2).getTimestamp());
+        assertEquals(42L, decoded.get(2).getSeq());
+        assertSame(a.getDeviceId(), decoded.get(2).getDeviceId());
+    }
+
+    @Test
+    void rejectsGarbageAndTruncatedFrames() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryMetricsCodec.decode("[{}]".getBytes()));
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId("host-1");
+        byte[] frame = BinaryMetricsCodec.encode(List.of(m));
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryMetricsCodec.decode(Arrays.copyOf(frame, frame.length - 2)));
+    }
+
+    @Test
+    void rejectsCountsTheFrameIsTooShortToHold() {
+        // 1,000,000 as a varint: within MAX_ROWS, but far more than the few bytes that follow
+        byte[] million = {(byte) 0xC0, (byte) 0x84, 0x3D};
+        byte[] devices = {'S', 'M', 'B', 1, million[0], million[1], million[2], 1, 'a'};
+        byte[] rows = {'S', 'M', 'B', 1, 1, 1, 'a', million[0], million[1], million[2], 0, 0};
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BinaryMetricsCodec.decode(devices));
+        assertTrue(e.getMessage().startsWith("Invalid length"), e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> BinaryMetricsCodec.decode(rows));
+        assertTrue(e.getMessage().startsWith("Invalid length"), e.getMessage());
+    }
+
+    @Test
+    void gaugesKeepTheValueJsonWouldStore() {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId("host-1");
+        m.setCpuUsage(45.3);
+        m.setMemoryUsage(0.1 + 0.2);
+        m.setDiskUsage(99.99999999);
+        m.setLatencyMs(12.345678901);
+
+        DeviceMetrics decoded = BinaryMetricsCodec.decode(BinaryMetricsCodec.encode(List.of(m))).get(0);
+        assertEquals(45.3, decoded.getCpuUsage());
+        assertEquals(0.1 + 0.2, decoded.getMemoryUsage());
+        assertEquals(99.99999999, decoded.getDiskUsage());
+        assertEquals(12.345678901, decoded.getLatencyMs());
+    }
+
+    @Test
+    void versionOneFloatGaugesAreRoundedToTheirDecimalForm() {
+        ByteBuffer frame = ByteBuffer.allocate(26);
+        frame.put(new byte[]{'S', 'M', 'B', 1, 1, 1, 'a', 1, 0, BinaryMetricsCodec.FLAG_LATENCY});
+        frame.putFloat(45.3f).putFloat(12.5f).putFloat(80.1f).putFloat(3.7f);
+
+        DeviceMetrics decoded = BinaryMetricsCodec.decode(frame.array()).get(0);
+        assertEquals(45.3, decoded.getCpuUsage());
+        assertEquals(12.5, decoded.getMemoryUsage());
+        assertEquals(80.1, decoded.getDiskUsage());
+        assertEquals(3.7, decoded.getLatencyMs());
+    }
+}
@@ -0,0 +1,169 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterServiceTest {
+
+    private static final String SECRET = "cluster-secret";
+    private static final String SELF = "http://127.0.0.1:1";
+
+    // What the peer node was sent
+    private record Received(String path, Headers headers, JsonNode body) {}
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+    private volatile int peerStatus = 200;
+    private volatile String peerAccepted;
+    private HttpServer peer;
+    private String peerUrl;
+    private ClusterMembership membership;
+    private LatestMetricsStore latestStore;
+    private ClusterService cluster;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        peer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        peer.createContext("/", exchange -> {
+            received.add(new Received(exchange.getRequestURI().getPath(), exchange.getRequestHeaders(),
+                    objectMapper.readTree(exchange.getRequestBody().readAllBytes())));
+            if (peerAccepted != null) {
+                exchange.getResponseHeaders().add(ClusterService.ACCEPTED_HEADER, peerAccepted);
+            }
+            exchange.sendResponseHeaders(peerStatus, -1);
+            exchange.close();
+        });
+        peer.start();
+        peerUrl = "http://127.0.0.1:" + peer.getAddress().getPort();
+        membership = new ClusterMembership(true, SELF, List.of(SELF, peerUrl), SECRET, 128);
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true);
+        latestStore = new LatestMetricsStore(null, null, 120);
+        cluster = new ClusterService(membership, null, objectMapper, latestStore, null,
+                new MetricsBroadcaster(messagingTemplate, objectMapper, MetricsBroadcaster.CoalesceMode.LATEST, 250,
+                        null, null, null),
+                null, null, null, null, new DeviceRegistry(jdbcTemplate), null, null, 5000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        peer.stop(0);
+    }
+
+    private String deviceOwnedBy(String node) {
+        for (int i = 0; ; i++) {
+            if (membership.ownerOf("device-" + i).equals(node)) {
+                return "device-" + i;
+            }
+        }
+    }
+
+    private static DeviceMetrics sample(String deviceId, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(cpu);
+        m.setTimestamp(LocalDateTime.now().withNano(0));
+        return m;
+    }
+
+    @Test
+    void rowsAreForwardedToTheirOwnerWithTheClusterToken() throws Exception {
+        String remote = deviceOwnedBy(peerUrl);
+        String local = deviceOwnedBy(SELF);
+        Map<String, List<DeviceMetrics>> byOwner = cluster.groupByOwner(
+                List.of(sample(remote, 1), sample(local, 2), sample(remote, 3)));
+        assertEquals(List.of(peerUrl, SELF), new ArrayList<>(byOwner.keySet()));
+        byOwner.remove(SELF);
+
+        peerAccepted = "1"; // the owner's queue took one of the two
+        ClusterService.ForwardResult result = cluster.forward(byOwner, "Bearer agent-token").get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, result.getAccepted());
+        assertFalse(result.isOwnerUnavailable());
+        assertEquals(1, cluster.getForwardedRowCount());
+        Received request = received.poll(10, TimeUnit.SECONDS);
+        assertEquals("/api/metrics/batch", request.path());
+        assertEquals(SELF, request.headers().getFirst(ClusterService.FORWARDED_HEADER));
+        assertEquals(SECRET, request.headers().getFirst(ClusterMembership.TOKEN_HEADER));
+        assertEquals("Bearer agent-token", request.headers().getFirst("Authorization"));
+        assertEquals(2, request.body().size());
+        assertEquals(remote, request.body().get(0).get("deviceId").asText());
+        assertEquals(3.0, request.body().get(1).get("cpuUsage").asDouble());
+    }
+
+    @Test
+    void anOwnerThatFailsIsReportedUnavailable() throws Exception {
+        peerStatus = HttpStatus.SERVICE_UNAVAILABLE.value();
+        ClusterService.ForwardResult result = cluster.forward(
+                Map.of(peerUrl, List.of(sample(deviceOwnedBy(peerUrl), 1))), null).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getAccepted());
+        assertTrue(result.isOwnerUnavailable());
+        assertEquals(1, cluster.getForwardFailureCount());
+    }
+
+    @Test
+    void theForwardedHeaderCountsOnlyWithTheClusterToken() {
+        assertTrue(cluster.isForwardedByPeer(peerUrl, SECRET));
+        assertFalse(cluster.isForwardedByPeer(peerUrl, null));
+        assertFalse(cluster.isForwardedByPeer(peerUrl, "guessed"));
+        assertFalse(cluster.isForwardedByPeer(null, SECRET));
+
+        ClusterService standalone = new ClusterService(new ClusterMembership(false, "", List.of(), "", 128), null,
+                objectMapper, latestStore, null, null, null, null, null, null, null, null, null, 5000);
+        assertFalse(standalone.isForwardedByPeer(peerUrl, ""));
+    }
+
+    @Test
+    void relayedFramesReachPeersAndAreTakenOnlyWithTheToken() throws Exception {
+        HttpClusterRelay relay = new HttpClusterRelay(membership, objectMapper, 5000);
+        assertTrue(relay.isActive());
+        String device = deviceOwnedBy(SELF);
+
+        relay.publishMetrics(List.of(sample(device, 42)));
+        Received frame = received.poll(10, TimeUnit.SECONDS);
+        assertEquals("/api/cluster/metrics", frame.path());
+        assertEquals(SECRET, frame.headers().getFirst(ClusterMembership.TOKEN_HEADER));
+        assertEquals(device, frame.body().get(0).get("deviceId").asText());
+
+        relay.publishDeviceDeleted(device, LocalDateTime.of(2024, 5, 1, 12, 0));
+        Received deleted = received.poll(10, TimeUnit.SECONDS);
+        assertEquals("/api/cluster/devices/deleted", deleted.path());
+        assertEquals(device, deleted.body().get("deviceId").asText());
+
+        // The receiving side, as the peer would run it
+        List<DeviceMetrics> updates = List.of(objectMapper.treeToValue(frame.body().get(0), DeviceMetrics.class));
+        ClusterController controller = new ClusterController(membership, cluster);
+        assertEquals(HttpStatus.FORBIDDEN, controller.relayedMetrics("guessed", updates).getStatusCode());
+        assertNull(latestStore.getLatest(device));
+        assertEquals(HttpStatus.NO_CONTENT, controller.relayedMetrics(SECRET, updates).getStatusCode());
+        assertEquals(42.0, latestStore.getLatest(device).getCpuUsage());
+    }
+}
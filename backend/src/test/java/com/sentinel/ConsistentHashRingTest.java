@@ -0,0 +1,44 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int DEVICES = 30_000;
+
+    @Test
+    void devicesSpreadEvenlyAcrossNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < DEVICES; i++) {
+            counts.merge(ring.ownerOf("device-" + i), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertEquals(DEVICES / 3.0, count, DEVICES / 3.0 * 0.15);
+        }
+    }
+
+    @Test
+    void addingANodeMovesOnlyItsShare() {
+        ConsistentHashRing three = new ConsistentHashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), 128);
+        ConsistentHashRing four = new ConsistentHashRing(
+                List.of("http://d:8080", "http://c:8080", "http://b:8080", "http://a:8080"), 128);
+        int moved = 0;
+        for (int i = 0; i < DEVICES; i++) {
+            String before = three.ownerOf("device-" + i);
+            String after = four.ownerOf("device-" + i);
+            if (!before.equals(after)) {
+                assertEquals("http://d:8080", after);
+                moved++;
+            }
+        }
+        assertEquals(DEVICES / 4.0, moved, DEVICES / 4.0 * 0.2);
+    }
+}
@@ -0,0 +1,205 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceMetricsBatchWriterTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // MODE=PostgreSQL stands in for the production database
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE SEQUENCE device_metrics_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE device_metrics (id BIGINT PRIMARY KEY, device_key INTEGER, "
+                + "cpu_usage DOUBLE PRECISION, memory_usage DOUBLE PRECISION, disk_usage DOUBLE PRECISION, "
+                + "bytes_sent_per_sec BIGINT, bytes_recv_per_sec BIGINT, disk_read_bytes_per_sec BIGINT, "
+                + "disk_write_bytes_per_sec BIGINT, latency_ms DOUBLE PRECISION, system_uptime_seconds DOUBLE PRECISION, "
+                + "timestamp TIMESTAMP(6), client_seq BIGINT)");
+    }
+
+    private static List<DeviceMetrics> batch(int size) {
+        List<DeviceMetrics> batch = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId("device-" + (i % 7));
+            m.setCpuUsage(i % 100);
+            m.setMemoryUsage(50.0);
+            m.setDiskUsage(10.0);
+            m.setBytesSentPerSec((long) i);
+            m.setLatencyMs(i % 2 == 0 ? null : 12.5);
+            m.setTimestamp(LocalDateTime.now());
+            batch.add(m);
+        }
+        return batch;
+    }
+
+    @Test
+    void jdbcBatchInsertsAllRowsWithUniqueIds() {
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, new DeviceRegistry(jdbcTemplate),
+                        DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        writer.write(batch(120));
+        writer.write(batch(80));
+
+        assertEquals(200, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM device_metrics", Integer.class));
+        assertEquals(200, jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT id) FROM device_metrics", Integer.class));
+        assertEquals(100, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM device_metrics WHERE latency_ms IS NULL", Integer.class));
+    }
+
+    @Test
+    void copyModeFallsBackToBatchInsertOffPostgres() {
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, new DeviceRegistry(jdbcTemplate),
+                        DeviceMetricsBatchWriter.WriteMode.COPY);
+        writer.write(batch(10));
+
+        assertEquals(10, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM device_metrics", Integer.class));
+    }
+
+    @Test
+    void writesRegisterEachDeviceOnceUnderAStableKey() {
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        writer.write(batch(50));
+        writer.write(batch(50));
+
+        assertEquals(7, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM devices", Integer.class));
+        assertEquals(7, jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT device_key) FROM device_metrics", Integer.class));
+        int key = registry.find("device-3");
+        assertEquals("device-3", registry.deviceIdOf(key));
+        assertEquals(key, registry.register("device-3"));
+        assertNull(registry.find("never-seen"));
+
+        // A fresh registry (a restart, or another node) resolves the same keys from the table
+        DeviceRegistry reloaded = new DeviceRegistry(jdbcTemplate);
+        assertEquals(key, reloaded.find("device-3"));
+        assertEquals(List.of("device-0", "device-1", "device-2", "device-3", "device-4", "device-5", "device-6"),
+                reloaded.getDeviceIds());
+    }
+
+    @Test
+    void removeStoredSkipsSequencedSamplesAlreadyPersisted() {
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, new DeviceRegistry(jdbcTemplate),
+                        DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        List<DeviceMetrics> persisted = batch(10);
+        for (int i = 0; i < persisted.size(); i++) {
+            persisted.get(i).setSeq((long) i);
+        }
+        writer.write(persisted);
+
+        // As replayed from the log: the first five were persisted before the crash, two carry no seq
+        List<DeviceMetrics> replayed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(persisted.get(i).getDeviceId());
+            m.setTimestamp(persisted.get(i).getTimestamp());
+            m.setSeq(i < 8 ? (long) (i < 5 ? i : i + 100) : null);
+            replayed.add(m);
+        }
+        List<DeviceMetrics> stored = writer.removeStored(replayed);
+
+        assertEquals(5, stored.size());
+        assertEquals(5, replayed.size());
+        assertTrue(replayed.stream().noneMatch(m -> m.getSeq() != null && m.getSeq() < 5));
+        writer.write(replayed);
+        assertEquals(15, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM device_metrics", Integer.class));
+    }
+
+    @Test
+    void adaptiveSizerGrowsOnFastFlushesAndHalvesOnSlowOnes() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(20, 1000, 100);
+        for (int i = 0; i < 20; i++) {
+            sizer.record(sizer.current(), 1_000_000L);
+        }
+        int grown = sizer.current();
+        assertTrue(grown > 20);
+        sizer.record(grown, 500_000_000L);
+        assertEquals(Math.max(20, grown / 2), sizer.current());
+    }
+
+    @Test
+    void copyStreamFollowsThePostgresBinaryFormat() throws Exception {
+        DeviceMetrics full = batch(1).get(0);
+        full.setId(42L);
+        full.setLatencyMs(12.5);
+        full.setSystemUptimeSeconds(3600.0);
+        full.setSeq(9L);
+        full.setTimestamp(LocalDateTime.of(2000, 1, 1, 0, 0, 1, 500_000));
+        DeviceMetrics sparse = new DeviceMetrics();
+        sparse.setId(43L);
+        sparse.setCpuUsage(1.5);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeviceMetricsBatchWriter.writeCopyData(new DataOutputStream(bytes), List.of(full, sparse), new Integer[]{7, null});
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        byte[] signature = new byte[11];
+        in.readFully(signature);
+        assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0}, signature);
+        assertEquals(0, in.readInt()); // flags
+        assertEquals(0, in.readInt()); // header extension
+
+        assertEquals(13, in.readShort());
+        assertEquals(42L, readLong(in));
+        assertEquals(4, in.readInt());
+        assertEquals(7, in.readInt());
+        assertEquals(0.0, readDouble(in));
+        assertEquals(50.0, readDouble(in));
+        assertEquals(10.0, readDouble(in));
+        assertEquals(0L, readLong(in));                 // bytes sent
+        assertEquals(-1, in.readInt());                 // bytes recv
+        assertEquals(-1, in.readInt());                 // disk read
+        assertEquals(-1, in.readInt());                 // disk write
+        assertEquals(12.5, readDouble(in));
+        assertEquals(3600.0, readDouble(in));
+        assertEquals(1_000_500L, readLong(in));         // micros since 2000-01-01
+        assertEquals(9L, readLong(in));
+
+        assertEquals(13, in.readShort());
+        assertEquals(43L, readLong(in));
+        assertEquals(-1, in.readInt());                 // unregistered device
+        assertEquals(1.5, readDouble(in));
+        assertEquals(0.0, readDouble(in));
+        assertEquals(0.0, readDouble(in));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(-1, in.readInt());             // io counters, latency, uptime, timestamp, seq
+        }
+
+        assertEquals(-1, in.readShort());               // trailer
+        assertEquals(-1, in.read());
+    }
+
+    private static long readLong(DataInputStream in) throws IOException {
+        assertEquals(8, in.readInt());
+        return in.readLong();
+    }
+
+    private static double readDouble(DataInputStream in) throws IOException {
+        assertEquals(8, in.readInt());
+        return in.readDouble();
+    }
+}
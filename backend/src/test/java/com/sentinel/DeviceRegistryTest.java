@@ -0,0 +1,131 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceRegistryTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+    }
+
+    private int rows(String deviceId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM devices WHERE device_id = ?", Integer.class, deviceId);
+    }
+
+    @Test
+    void registeringANewDeviceStoresItOnce() {
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        assertNull(registry.find("a"));
+        assertEquals(0, registry.size());
+
+        int key = registry.register("a");
+        assertEquals(key, registry.register("a"));
+        assertEquals(key, registry.find("a"));
+        assertEquals("a", registry.deviceIdOf(key));
+        assertNotEquals(key, registry.register("b"));
+        assertEquals(List.of("a", "b"), registry.getDeviceIds());
+        assertEquals(1, rows("a"));
+        assertEquals(key, jdbcTemplate.queryForObject("SELECT id FROM devices WHERE device_id = 'a'", Integer.class));
+
+        // A restarted node loads what was registered
+        DeviceRegistry restarted = new DeviceRegistry(jdbcTemplate);
+        assertEquals(2, restarted.size());
+        assertEquals(key, restarted.find("a"));
+        assertNull(restarted.deviceIdOf(key + 1000));
+    }
+
+    @Test
+    void concurrentRegistrationsOfOneDeviceAgreeOnItsKey() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        DeviceRegistry otherNode = new DeviceRegistry(jdbcTemplate);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> keys = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                DeviceRegistry node = (i % 2 == 0) ? registry : otherNode;
+                keys.add(executor.submit(() -> {
+                    start.await();
+                    return node.register("shared");
+                }));
+            }
+            start.countDown();
+            HashSet<Integer> distinct = new HashSet<>();
+            for (Future<Integer> key : keys) {
+                distinct.add(key.get());
+            }
+            assertEquals(1, distinct.size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, rows("shared"));
+        assertEquals(registry.find("shared"), otherNode.find("shared"));
+    }
+
+    @Test
+    void aCacheMissFallsBackToTheDevicesTable() {
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        assertEquals(0, registry.size()); // loaded, and empty
+
+        // Registered by another node sharing the database after this one loaded
+        int key = new DeviceRegistry(jdbcTemplate).register("elsewhere");
+        assertEquals(key, registry.find("elsewhere"));
+        assertEquals(1, registry.size());
+
+        jdbcTemplate.update("INSERT INTO devices (id, device_id, registered_at) VALUES (?, ?, ?)",
+                key + 1, "by-key", Timestamp.valueOf(LocalDateTime.now()));
+        assertEquals("by-key", registry.deviceIdOf(key + 1));
+        assertEquals(key + 1, registry.find("by-key"));
+        assertNull(registry.find("nowhere"));
+        assertNull(registry.deviceIdOf(-1));
+    }
+
+    @Test
+    void keysPastTheArrayGrowIt() {
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        assertEquals(0, registry.size());
+        // Past the initial 64 slots and the first doubling
+        jdbcTemplate.update("INSERT INTO devices (id, device_id, registered_at) VALUES (?, ?, ?)",
+                1_000, "far", Timestamp.valueOf(LocalDateTime.now()));
+        assertEquals("far", registry.deviceIdOf(1_000));
+        jdbcTemplate.update("INSERT INTO devices (id, device_id, registered_at) VALUES (?, ?, ?)",
+                5_000, "farther", Timestamp.valueOf(LocalDateTime.now()));
+        assertEquals(5_000, registry.find("farther"));
+        assertEquals("farther", registry.deviceIdOf(5_000));
+
+        // Keys from the sequence keep resolving alongside them
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(registry.register("device-" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("device-" + i, registry.deviceIdOf(keys.get(i)));
+        }
+        assertEquals("far", registry.deviceIdOf(1_000));
+        assertEquals(102, registry.size());
+    }
+}
@@ -0,0 +1,135 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeviceTombstoneServiceTest {
+
+    private final List<DeviceTombstone> stored = new ArrayList<>();
+
+    // Only save and findAll are reached
+    private final DeviceTombstoneRepository repo = (DeviceTombstoneRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{DeviceTombstoneRepository.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "save" -> {
+                        stored.add((DeviceTombstone) args[0]);
+                        return args[0];
+                    }
+                    case "findAll" -> {
+                        return new ArrayList<>(stored);
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private DeviceTombstoneService tombstones;
+    private long nextId;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE TABLE device_metrics (id BIGINT PRIMARY KEY, device_key INTEGER, timestamp TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE TABLE metric_rollups (id BIGINT PRIMARY KEY, device_id VARCHAR(255), "
+                + "bucket_start TIMESTAMP(6))");
+        registry = new DeviceRegistry(jdbcTemplate);
+        MetricChunkStore chunkStore = new MetricChunkStore(null, jdbcTemplate, registry, null, false, 60, 10, 1000);
+        tombstones = new DeviceTombstoneService(repo, jdbcTemplate, registry, chunkStore, 2);
+        tombstones.load();
+    }
+
+    private void insert(String deviceId, LocalDateTime timestamp) {
+        long id = nextId++;
+        jdbcTemplate.update("INSERT INTO device_metrics VALUES (?, ?, ?)", id, registry.register(deviceId),
+                Timestamp.valueOf(timestamp));
+        jdbcTemplate.update("INSERT INTO metric_rollups VALUES (?, ?, ?)", id, deviceId, Timestamp.valueOf(timestamp));
+    }
+
+    private int rows(String deviceId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM device_metrics WHERE device_key = ?", Integer.class,
+                registry.find(deviceId));
+    }
+
+    private int rollups(String deviceId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM metric_rollups WHERE device_id = ?", Integer.class,
+                deviceId);
+    }
+
+    private static DeviceMetrics sample(String deviceId, LocalDateTime timestamp) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    @Test
+    void tombstoneHidesHistoryAtOnceAndPurgeRemovesItInChunks() {
+        LocalDateTime past = LocalDateTime.now().minusHours(1);
+        for (int i = 0; i < 5; i++) {
+            insert("a", past.plusSeconds(i));
+            insert("b", past.plusSeconds(i));
+        }
+
+        tombstones.markDeleted("a");
+        LocalDateTime deletedAt = tombstones.deletedAt("a");
+        assertNotNull(deletedAt);
+        assertEquals(1, stored.size());
+        assertTrue(tombstones.isHidden(sample("a", past)));
+        assertFalse(tombstones.isHidden(sample("a", deletedAt.plusSeconds(1))));
+        assertFalse(tombstones.isHidden(sample("b", past)));
+
+        // Reported again after the delete: kept, and under the same registry key
+        insert("a", deletedAt.plusSeconds(1));
+        tombstones.purge();
+
+        assertEquals(1, rows("a"));
+        assertEquals(1, rollups("a"));
+        assertEquals(5, rows("b"));
+        assertEquals(5, rollups("b"));
+        // The tombstone outlives the purge, and survives a restart
+        assertEquals(deletedAt, tombstones.deletedAt("a"));
+        DeviceTombstoneService restarted = new DeviceTombstoneService(repo, jdbcTemplate, registry, null, 2);
+        restarted.load();
+        assertEquals(deletedAt, restarted.deletedAt("a"));
+    }
+
+    @Test
+    void aPurgedTombstoneIsOnlyPurgedAgainOnceReissued() {
+        LocalDateTime past = LocalDateTime.now().minusHours(1);
+        insert("a", past);
+        tombstones.markDeleted("a");
+        tombstones.purge();
+        assertEquals(0, rows("a"));
+
+        // Rows behind an already purged tombstone are left to the next re-issue
+        insert("a", past.plusMinutes(1));
+        tombstones.purge();
+        assertEquals(1, rows("a"));
+
+        tombstones.remember("a", tombstones.deletedAt("a").minusMinutes(5)); // an older one changes nothing
+        tombstones.purge();
+        assertEquals(1, rows("a"));
+
+        tombstones.remember("a", LocalDateTime.now().plusSeconds(1));
+        tombstones.purge();
+        assertEquals(0, rows("a"));
+        assertEquals(0, rollups("a"));
+    }
+}
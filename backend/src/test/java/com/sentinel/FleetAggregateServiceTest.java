@@ -0,0 +1,79 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FleetAggregateServiceTest {
+
+    private final LatestMetricsStore latestStore = new LatestMetricsStore(null, null, 120);
+    private final FleetAggregateService fleet = new FleetAggregateService(latestStore, 60, 60, 2);
+
+    @AfterEach
+    void stop() {
+        fleet.stop();
+    }
+
+    private static DeviceMetrics metric(String deviceId, LocalDateTime timestamp, double cpu, double memory) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(timestamp);
+        m.setCpuUsage(cpu);
+        m.setMemoryUsage(memory);
+        m.setDiskUsage(50);
+        return m;
+    }
+
+    @Test
+    void percentilesAndTopKSpanEveryDevice() {
+        // 1000 devices (enough to split across fork-join leaves), device i reporting cpu i/10 and i/10 + 1
+        LocalDateTime now = LocalDateTime.now();
+        List<DeviceMetrics> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(metric("device-" + i, now.minusMinutes(10), i / 10.0, 40));
+            batch.add(metric("device-" + i, now.minusMinutes(5), i / 10.0 + 1, 40));
+        }
+        fleet.accept(batch);
+
+        FleetAggregate aggregate = fleet.aggregate(MetricField.CPU_USAGE, List.of("p95", "max", "count"),
+                now.minusHours(1), now, null, null);
+        assertEquals(1000, aggregate.getDevices());
+        assertEquals(2000, aggregate.getSamples());
+        assertEquals(95.4, aggregate.getValues().get("p95"), 95.4 * 0.01);
+        assertEquals(100.9, aggregate.getValues().get("max"), 1e-9);
+
+        FleetTopK top = fleet.topK(MetricField.CPU_USAGE, "avg", 3, false, now.minusHours(1), now);
+        assertEquals(List.of("device-999", "device-998", "device-997"),
+                top.getDevices().stream().map(FleetTopK.Entry::getDeviceId).toList());
+        assertEquals(100.4, top.getDevices().get(0).getValue(), 1e-9);
+
+        FleetTopK bottom = fleet.topK(MetricField.CPU_USAGE, "max", 2, true, now.minusHours(1), now);
+        assertEquals("device-0", bottom.getDevices().get(0).getDeviceId());
+
+        // Only the newer sample falls in the last 7 minutes
+        assertEquals(1000, fleet.aggregate(MetricField.CPU_USAGE, List.of("count"), now.minusMinutes(7), now, null, null)
+                .getSamples());
+    }
+
+    @Test
+    void latestModeCountsOnlineDevicesAboveThreshold() {
+        LocalDateTime now = LocalDateTime.now();
+        latestStore.update(metric("a", now, 10, 95));
+        latestStore.update(metric("b", now, 10, 91));
+        latestStore.update(metric("c", now, 10, 50));
+        latestStore.update(metric("offline", now.minusHours(1), 10, 99));
+
+        FleetAggregate high = fleet.aggregate(MetricField.MEMORY_USAGE, List.of("min"), null, now, 90.0, null);
+        assertEquals(2, high.getDevices());
+        assertEquals(91, high.getValues().get("min"), 1e-9);
+        assertNull(high.getFrom());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> fleet.aggregate(MetricField.MEMORY_USAGE, List.of("p101"), null, now, null, null));
+    }
+}
@@ -0,0 +1,121 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestDeduplicatorTest {
+
+    private static final LocalDateTime START = LocalDateTime.now().minusHours(1).withNano(0);
+
+    private static DeviceMetrics sample(String deviceId, long seq) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setSeq(seq);
+        m.setTimestamp(START.plusSeconds(3 * seq));
+        return m;
+    }
+
+    @Test
+    void retriesAreDuplicatesAndOutOfOrderSamplesAreTakenWithinTheLatenessBound() {
+        IngestDeduplicator deduplicator = deduplicator(database());
+
+        for (long seq = 1; seq <= 100; seq += 2) {
+            assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(sample("a", seq)));
+        }
+        // The whole batch retried
+        assertEquals(IngestDeduplicator.Verdict.DUPLICATE, deduplicator.admit(sample("a", 99)));
+        assertEquals(IngestDeduplicator.Verdict.DUPLICATE, deduplicator.admit(sample("a", 41)));
+        // Gaps filled late, up to 64 behind the newest
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(sample("a", 98)));
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(sample("a", 40)));
+        assertEquals(IngestDeduplicator.Verdict.DUPLICATE, deduplicator.admit(sample("a", 40)));
+        assertEquals(IngestDeduplicator.Verdict.LATE, deduplicator.admit(sample("a", 34)));
+
+        // A sample the queue refused is taken when it comes again
+        DeviceMetrics refused = sample("a", 101);
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(refused));
+        deduplicator.release(refused);
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(sample("a", 101)));
+
+        assertEquals(3, deduplicator.getDuplicateCount());
+        assertEquals(1, deduplicator.getLateCount());
+    }
+
+    @Test
+    void keepsTheAgentsTimestampAndNoticesARestartedCounter() {
+        IngestDeduplicator deduplicator = deduplicator(database());
+        for (long seq = 500; seq < 510; seq++) {
+            deduplicator.admit(sample("a", seq));
+        }
+        DeviceMetrics afterReinstall = sample("a", 1);
+        afterReinstall.setTimestamp(START.plusSeconds(3 * 510));
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(afterReinstall));
+        assertEquals(START.plusSeconds(3 * 510), afterReinstall.getTimestamp());
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(sampleAt("a", 2, START.plusSeconds(3 * 511))));
+
+        DeviceMetrics unstamped = new DeviceMetrics();
+        unstamped.setDeviceId("b");
+        assertEquals(IngestDeduplicator.Verdict.NEW, deduplicator.admit(unstamped));
+        assertNotNull(unstamped.getTimestamp());
+
+        DeviceMetrics fromTheFuture = sampleAt("b", 1, LocalDateTime.now().plusHours(1));
+        deduplicator.admit(fromTheFuture);
+        assertTrue(fromTheFuture.getTimestamp().isBefore(LocalDateTime.now().plusMinutes(1)));
+    }
+
+    @Test
+    void windowsAreSeededFromStoredRowsAfterARestart() {
+        JdbcTemplate jdbcTemplate = database();
+        DeviceRegistry registry = new DeviceRegistry(jdbcTemplate);
+        List<DeviceMetrics> stored = new ArrayList<>();
+        for (long seq = 1; seq <= 200; seq++) {
+            if (seq != 150) {
+                stored.add(sample("a", seq));
+            }
+        }
+        new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH)
+                .write(stored);
+
+        IngestDeduplicator restarted = deduplicator(jdbcTemplate);
+        assertEquals(IngestDeduplicator.Verdict.DUPLICATE, restarted.admit(sample("a", 199)));
+        assertEquals(IngestDeduplicator.Verdict.NEW, restarted.admit(sample("a", 150)));
+        assertEquals(IngestDeduplicator.Verdict.LATE, restarted.admit(sample("a", 100)));
+        assertEquals(IngestDeduplicator.Verdict.NEW, restarted.admit(sample("a", 201)));
+        assertEquals(IngestDeduplicator.Verdict.NEW, restarted.admit(sample("new-device", 1)));
+    }
+
+    private static DeviceMetrics sampleAt(String deviceId, long seq, LocalDateTime timestamp) {
+        DeviceMetrics m = sample(deviceId, seq);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    private static IngestDeduplicator deduplicator(JdbcTemplate jdbcTemplate) {
+        return new IngestDeduplicator(jdbcTemplate, new DeviceRegistry(jdbcTemplate), true, 64, 300);
+    }
+
+    private static JdbcTemplate database() {
+        // MODE=PostgreSQL stands in for the production database
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE SEQUENCE device_metrics_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE device_metrics (id BIGINT PRIMARY KEY, device_key INTEGER, "
+                + "cpu_usage DOUBLE PRECISION, memory_usage DOUBLE PRECISION, disk_usage DOUBLE PRECISION, "
+                + "bytes_sent_per_sec BIGINT, bytes_recv_per_sec BIGINT, disk_read_bytes_per_sec BIGINT, "
+                + "disk_write_bytes_per_sec BIGINT, latency_ms DOUBLE PRECISION, system_uptime_seconds DOUBLE PRECISION, "
+                + "timestamp TIMESTAMP(6), client_seq BIGINT)");
+        return jdbcTemplate;
+    }
+}
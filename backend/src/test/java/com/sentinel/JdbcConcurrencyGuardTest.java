@@ -0,0 +1,91 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.env.MockEnvironment;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JdbcConcurrencyGuardTest {
+
+    private static DataSource database() {
+        return new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    @Test
+    void aThreadOverTheLimitTimesOutInsteadOfReachingThePool() throws Exception {
+        JdbcConcurrencyGuard.GuardedDataSource guarded = new JdbcConcurrencyGuard.GuardedDataSource(database(), 1, 50);
+
+        try (Connection held = guarded.getConnection()) {
+            assertFalse(held.isClosed());
+            assertEquals(0, guarded.getAvailablePermits());
+            long start = System.nanoTime();
+            SQLTransientConnectionException e = assertThrows(SQLTransientConnectionException.class, guarded::getConnection);
+            assertTrue(System.nanoTime() - start >= 50_000_000L);
+            assertTrue(e.getMessage().contains("50ms"));
+            // The refused caller took no permit
+            assertEquals(0, guarded.getAvailablePermits());
+        }
+        assertEquals(1, guarded.getAvailablePermits());
+        guarded.getConnection().close();
+    }
+
+    @Test
+    void closingReturnsThePermitOnceEvenWhenClosedTwice() throws Exception {
+        JdbcConcurrencyGuard.GuardedDataSource guarded = new JdbcConcurrencyGuard.GuardedDataSource(database(), 2, 50);
+
+        Connection first = guarded.getConnection();
+        Connection second = guarded.getConnection();
+        assertEquals(0, guarded.getAvailablePermits());
+        assertTrue(first.createStatement().execute("SELECT 1"));
+
+        first.close();
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(1, guarded.getAvailablePermits());
+
+        second.close();
+        assertEquals(2, guarded.getAvailablePermits());
+    }
+
+    @Test
+    void aFailedConnectReturnsThePermit() {
+        DataSource unreachable = new DriverManagerDataSource("jdbc:h2:mem:x", "sa", "") {
+            @Override
+            public Connection getConnection() throws SQLException {
+                throw new SQLException("connection refused");
+            }
+        };
+        JdbcConcurrencyGuard.GuardedDataSource guarded = new JdbcConcurrencyGuard.GuardedDataSource(unreachable, 1, 50);
+
+        for (int i = 0; i < 3; i++) {
+            SQLException e = assertThrows(SQLException.class, guarded::getConnection);
+            assertEquals("connection refused", e.getMessage());
+        }
+        assertEquals(1, guarded.getAvailablePermits());
+    }
+
+    @Test
+    void wrapsDataSourcesOnlyWhenALimitIsSet() {
+        DataSource dataSource = database();
+
+        // Platform threads and no explicit limit: left alone
+        JdbcConcurrencyGuard off = new JdbcConcurrencyGuard(new MockEnvironment());
+        assertSame(dataSource, off.postProcessAfterInitialization(dataSource, "dataSource"));
+
+        JdbcConcurrencyGuard on = new JdbcConcurrencyGuard(new MockEnvironment()
+                .withProperty("sentinel.jdbc.max-concurrency", "3"));
+        Object wrapped = on.postProcessAfterInitialization(dataSource, "dataSource");
+        JdbcConcurrencyGuard.GuardedDataSource guarded = assertInstanceOf(JdbcConcurrencyGuard.GuardedDataSource.class, wrapped);
+        assertEquals(3, guarded.getAvailablePermits());
+        assertSame(wrapped, on.postProcessAfterInitialization(wrapped, "dataSource"));
+        assertSame("notADataSource", on.postProcessAfterInitialization("notADataSource", "other"));
+    }
+}
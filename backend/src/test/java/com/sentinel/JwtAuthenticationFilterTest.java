@@ -0,0 +1,93 @@
+package com.sentinel;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwtAuthenticationFilterTest {
+
+    private static final byte[] KEY = new byte[32];
+    private static final String SECRET = Base64.getEncoder().encodeToString(KEY);
+
+    private final JwtUtil jwtUtil = new JwtUtil(SECRET);
+    private final JwtTokenCache tokenCache = new JwtTokenCache(300, 100);
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    // The user store knows "stored" as an admin; everyone else is unknown
+    private final JwtAuthenticationFilter filter = new JwtAuthenticationFilter(jwtUtil, username -> {
+        lookups.incrementAndGet();
+        if (!username.equals("stored")) {
+            throw new UsernameNotFoundException(username);
+        }
+        return User.withUsername(username).password("").authorities("ROLE_ADMIN").build();
+    }, tokenCache, new PipelineMetrics(new SimpleMeterRegistry(), true));
+
+    // A token signed with the same key, issued at the given time, with or without the roles claim
+    private static String token(String username, long issuedAtMillis, boolean withRoles) {
+        return Jwts.builder()
+                .setClaims(withRoles ? Map.of(JwtUtil.AUTHORITIES_CLAIM, List.of("ROLE_USER")) : Map.of())
+                .setSubject(username)
+                .setIssuedAt(new Date(issuedAtMillis))
+                .setExpiration(new Date(issuedAtMillis + 3_600_000))
+                .signWith(new SecretKeySpec(KEY, SignatureAlgorithm.HS256.getJcaName()), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    @Test
+    void tokensWithRolesAreTrustedWithoutALookupAndCached() {
+        String token = jwtUtil.generateToken("agent", List.of(new SimpleGrantedAuthority("ROLE_USER")));
+
+        UserDetails first = filter.resolve(token);
+        assertEquals("agent", first.getUsername());
+        assertEquals(List.of("ROLE_USER"), first.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+        assertSame(first, filter.resolve(token));
+        assertEquals(0, lookups.get());
+        assertEquals(1, tokenCache.size());
+    }
+
+    @Test
+    void tokensWithoutRolesFallBackToTheUserStore() {
+        String token = token("stored", System.currentTimeMillis(), false);
+
+        UserDetails user = filter.resolve(token);
+        assertEquals(List.of("ROLE_ADMIN"), user.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList());
+        filter.resolve(token);
+        assertEquals(1, lookups.get());
+
+        assertNull(filter.resolve(token("gone", System.currentTimeMillis(), false)));
+        assertNull(filter.resolve("not-a-jwt"));
+    }
+
+    @Test
+    void tokensIssuedBeforeTheUserChangedAreRejected() {
+        long before = System.currentTimeMillis() - 5000;
+        String old = token("agent", before, true);
+        String oldWithoutRoles = token("stored", before, false);
+        assertNotNull(filter.resolve(old));
+
+        tokenCache.invalidateUser("agent");
+        tokenCache.invalidateUser("stored");
+        assertNull(filter.resolve(old));
+        assertNull(filter.resolve(oldWithoutRoles));
+        assertEquals(0, lookups.get());
+
+        // Tokens issued from the change on are taken as usual
+        assertNotNull(filter.resolve(jwtUtil.generateToken("agent", List.of(new SimpleGrantedAuthority("ROLE_USER")))));
+        assertNotNull(filter.resolve(token("stored", System.currentTimeMillis() + 1000, false)));
+    }
+}
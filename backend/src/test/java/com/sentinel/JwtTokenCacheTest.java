@@ -0,0 +1,77 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JwtTokenCacheTest {
+
+    private static UserDetails user(String username) {
+        return User.withUsername(username).password("").authorities("ROLE_USER").build();
+    }
+
+    private static Date inHours(int hours) {
+        return new Date(System.currentTimeMillis() + hours * 3_600_000L);
+    }
+
+    @Test
+    void entriesExpireWithTheTtlOrTheTokenWhicheverIsFirst() throws Exception {
+        JwtTokenCache cache = new JwtTokenCache(1, 100);
+        cache.put("long-lived", user("a"), inHours(10));
+        cache.put("short-lived", user("a"), new Date(System.currentTimeMillis() + 100));
+        assertNotNull(cache.get("long-lived"));
+        assertNotNull(cache.get("short-lived"));
+
+        Thread.sleep(300);
+        assertNull(cache.get("short-lived"));
+        assertNotNull(cache.get("long-lived"));
+
+        Thread.sleep(900);
+        assertNull(cache.get("long-lived"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void staysWithinMaxEntriesAndReclaimsExpiredOnes() throws Exception {
+        JwtTokenCache cache = new JwtTokenCache(300, 2);
+        cache.put("t1", user("a"), inHours(1));
+        cache.put("t2", user("b"), new Date(System.currentTimeMillis() + 100));
+        cache.put("t3", user("c"), inHours(1));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("t3"));
+
+        Thread.sleep(200);
+        cache.put("t3", user("c"), inHours(1));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("t1"));
+        assertNotNull(cache.get("t3"));
+
+        JwtTokenCache disabled = new JwtTokenCache(0, 100);
+        disabled.put("t1", user("a"), inHours(1));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    void invalidateUserDropsItsTokensAndMarksEarlierIssuesChanged() {
+        JwtTokenCache cache = new JwtTokenCache(300, 100);
+        cache.put("a-token", user("a"), inHours(1));
+        cache.put("b-token", user("b"), inHours(1));
+        assertFalse(cache.isChangedSince("a", new Date(0)));
+
+        long now = System.currentTimeMillis();
+        cache.invalidateUser("a");
+        assertNull(cache.get("a-token"));
+        assertNotNull(cache.get("b-token"));
+
+        assertTrue(cache.isChangedSince("a", new Date(now - 2000)));
+        assertTrue(cache.isChangedSince("a", null));
+        assertFalse(cache.isChangedSince("a", new Date(now + 2000)));
+        // Issue times are whole seconds, so one from the second of the change is taken as newer
+        assertFalse(cache.isChangedSince("a", new Date(System.currentTimeMillis() / 1000 * 1000)));
+        assertFalse(cache.isChangedSince("b", new Date(now - 2000)));
+    }
+}
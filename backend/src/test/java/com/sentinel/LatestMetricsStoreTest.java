@@ -0,0 +1,118 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatestMetricsStoreTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.now().withNano(0);
+
+    private final List<DeviceMetrics> latestInDatabase = new ArrayList<>();
+    private int latestQueries;
+
+    // Only findLatestPerDevice is reached
+    private final DeviceMetricsRepository repo = (DeviceMetricsRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{DeviceMetricsRepository.class}, (proxy, method, args) -> {
+                if (method.getName().equals("findLatestPerDevice")) {
+                    latestQueries++;
+                    return new ArrayList<>(latestInDatabase);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    private final DeviceTombstoneService tombstones = new DeviceTombstoneService(null, null, null, null, 1);
+
+    private static DeviceMetrics sample(String deviceId, LocalDateTime timestamp, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(timestamp);
+        m.setCpuUsage(cpu);
+        return m;
+    }
+
+    private LatestMetricsStore store() {
+        LatestMetricsStore store = new LatestMetricsStore(repo, tombstones, 120);
+        store.warmUp();
+        return store;
+    }
+
+    @Test
+    void warmsUpFromOneGroupedQueryAndSkipsDeletedDevices() {
+        latestInDatabase.add(sample("a", NOW.minusSeconds(10), 1));
+        latestInDatabase.add(sample("b", NOW.minusSeconds(20), 2));
+        latestInDatabase.add(sample("deleted", NOW.minusMinutes(5), 3));
+        tombstones.remember("deleted", NOW.minusMinutes(1));
+
+        LatestMetricsStore store = store();
+
+        assertEquals(1, latestQueries);
+        assertEquals(2, store.size());
+        assertEquals(1, store.getLatest("a").getCpuUsage());
+        assertEquals(2, store.getLatest("b").getCpuUsage());
+        assertNull(store.getLatest("deleted"));
+        // Reads are served from memory
+        store.getLatest();
+        store.getStatuses();
+        assertEquals(1, latestQueries);
+    }
+
+    @Test
+    void aLateSampleDoesNotReplaceANewerOne() {
+        LatestMetricsStore store = store();
+
+        store.update(sample("a", NOW.minusSeconds(3), 1));
+        store.update(sample("a", NOW, 2));
+        // Resent from an agent's backlog after the newer sample arrived
+        store.update(sample("a", NOW.minusSeconds(6), 3));
+        assertEquals(2, store.getLatest("a").getCpuUsage());
+
+        store.update(sample("a", NOW.plusSeconds(3), 4));
+        assertEquals(4, store.getLatest("a").getCpuUsage());
+
+        // Samples without a device or timestamp are ignored
+        store.update(sample(null, NOW, 5));
+        store.update(sample("b", null, 6));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void devicesGoOfflineAfterTheConfiguredWindow() {
+        LatestMetricsStore store = store();
+        store.update(sample("fresh", NOW.minusSeconds(30), 1));
+        store.update(sample("stale", NOW.minusSeconds(300), 2));
+
+        Map<String, DeviceStatus> statuses = store.getStatuses().stream()
+                .collect(Collectors.toMap(DeviceStatus::getDeviceId, Function.identity()));
+        assertEquals(2, statuses.size());
+        assertTrue(statuses.get("fresh").isOnline());
+        assertFalse(statuses.get("stale").isOnline());
+        assertEquals(NOW.minusSeconds(300), statuses.get("stale").getLastHeartbeat());
+
+        // A new sample brings it back
+        store.update(sample("stale", LocalDateTime.now(), 3));
+        assertTrue(store.getStatuses().stream().allMatch(DeviceStatus::isOnline));
+    }
+
+    @Test
+    void removeForgetsTheDevice() {
+        latestInDatabase.add(sample("a", NOW, 1));
+        latestInDatabase.add(sample("b", NOW, 2));
+        LatestMetricsStore store = store();
+
+        store.remove("a");
+        store.remove("unknown");
+
+        assertNull(store.getLatest("a"));
+        assertEquals(List.of("b"), store.getLatest().stream().map(DeviceMetrics::getDeviceId).toList());
+        assertEquals(List.of("b"), store.getStatuses().stream().map(DeviceStatus::getDeviceId).toList());
+    }
+}
@@ -0,0 +1,101 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineProtocolCodecTest {
+
+    @Test
+    void roundTripsBatchWithNullableFields() {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        DeviceMetrics full = new DeviceMetrics();
+        full.setDeviceId("host-1");
+        full.setSeq(41L);
+        full.setCpuUsage(12.5);
+        full.setMemoryUsage(40.25);
+        full.setDiskUsage(80);
+        full.setBytesSentPerSec(1234L);
+        full.setBytesRecvPerSec(-5L);
+        full.setDiskReadBytesPerSec(0L);
+        full.setDiskWriteBytesPerSec(9_000_000_000L);
+        full.setLatencyMs(3.5);
+        full.setSystemUptimeSeconds(123456.789);
+        full.setTimestamp(now);
+
+        DeviceMetrics sparse = new DeviceMetrics();
+        sparse.setDeviceId("host-2");
+        sparse.setCpuUsage(1e-7);
+
+        List<DeviceMetrics> decoded = LineProtocolCodec.decode(LineProtocolCodec.encode(Arrays.asList(full, sparse)));
+
+        assertEquals(2, decoded.size());
+        DeviceMetrics a = decoded.get(0);
+        assertEquals("host-1", a.getDeviceId());
+        assertEquals(41L, a.getSeq());
+        assertEquals(12.5, a.getCpuUsage());
+        assertEquals(40.25, a.getMemoryUsage());
+        assertEquals(-5L, a.getBytesRecvPerSec());
+        assertEquals(9_000_000_000L, a.getDiskWriteBytesPerSec());
+        assertEquals(3.5, a.getLatencyMs());
+        assertEquals(123456.789, a.getSystemUptimeSeconds());
+        assertEquals(now, a.getTimestamp());
+
+        DeviceMetrics b = decoded.get(1);
+        assertEquals(1e-7, b.getCpuUsage());
+        assertNull(b.getTimestamp());
+        assertNull(b.getSeq());
+        assertNull(b.getLatencyMs());
+        assertNull(b.getBytesSentPerSec());
+    }
+
+    @Test
+    void acceptsLongFieldNamesCommentsAndCrLf() {
+        byte[] body = ("# from a shell script\r\n"
+                + "web-01 cpuUsage=5,memoryUsage=6.5,bytesSentPerSec=1024.4\r\n"
+                + "\n"
+                + "web-02 cpu=-0.5").getBytes(StandardCharsets.UTF_8);
+
+        List<DeviceMetrics> decoded = LineProtocolCodec.decode(body);
+
+        assertEquals(2, decoded.size());
+        assertEquals(5.0, decoded.get(0).getCpuUsage());
+        assertEquals(6.5, decoded.get(0).getMemoryUsage());
+        assertEquals(1024L, decoded.get(0).getBytesSentPerSec());
+        assertEquals("web-02", decoded.get(1).getDeviceId());
+        assertEquals(-0.5, decoded.get(1).getCpuUsage());
+    }
+
+    @Test
+    void parsesDecimalsExactlyLikeDoubleParseDouble() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 10_000; i++) {
+            String value = Double.toString(Math.round(random.nextDouble(-1e6, 1e6) * 1000) / 1000.0);
+            DeviceMetrics m = LineProtocolCodec.decode(("d cpu=" + value).getBytes(StandardCharsets.UTF_8)).get(0);
+            assertEquals(Double.parseDouble(value), m.getCpuUsage(), value);
+        }
+    }
+
+    @Test
+    void rejectsMalformedLinesWithTheirLineNumber() {
+        assertMalformed("ok cpu=1\nno-fields", "Line 2");
+        assertMalformed("d cpu=1,bogus=2", "unknown field bogus");
+        assertMalformed("d cpu=abc", "invalid number");
+        assertMalformed("d seq=1.5", "invalid integer");
+        assertMalformed("d cpu=1 yesterday", "invalid integer");
+        assertMalformed("d cpu", "expected field=value");
+    }
+
+    private static void assertMalformed(String body, String message) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> LineProtocolCodec.decode(body.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+}
@@ -0,0 +1,227 @@
+package com.sentinel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineProtocolListenerTest {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private final JwtUtil jwtUtil = new JwtUtil(SECRET);
+    private MetricsIngestQueue queue;
+    private LineProtocolListener listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        queue = new MetricsIngestQueue(4, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        WorkerThreads threads = new WorkerThreads(new StandardEnvironment());
+        LatestMetricsStore latestStore = new LatestMetricsStore(null, null, 120);
+        MetricsIngestService ingestService = new MetricsIngestService(queue,
+                new MetricsWriteAheadLog(false, null, 0, MetricsWriteAheadLog.SyncMode.NONE),
+                new IngestDeduplicator(null, null, false, 1024, 300), latestStore, new RecentMetricsBuffer(300, 100),
+                new AlertEngine(new SimpMessagingTemplate((message, timeout) -> true),
+                        Jackson2ObjectMapperBuilder.json().build(), latestStore, threads, "", 0.05, 30, 120, 250),
+                new MetricsBroadcaster(new SimpMessagingTemplate((message, timeout) -> true),
+                        Jackson2ObjectMapperBuilder.json().build(), MetricsBroadcaster.CoalesceMode.LATEST, 250,
+                        threads, null, null),
+                new PipelineMetrics(new SimpleMeterRegistry(), true), null) {
+            // Fails the way the write-ahead log, a refused forward or a bug would, for these devices
+            @Override
+            public ClusterService.ForwardResult ingest(List<DeviceMetrics> metricsList,
+                                                       PipelineMetrics.IngestEndpoint endpoint, String authorization) {
+                switch (metricsList.get(0).getDeviceId()) {
+                    case "not-durable" -> throw new MetricsWriteAheadLog.NotDurableException("force failed", null);
+                    case "refused" -> throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "owner unavailable");
+                    case "broken" -> throw new NullPointerException();
+                    default -> {
+                        return super.ingest(metricsList, endpoint, authorization);
+                    }
+                }
+            }
+        };
+        JwtAuthenticationFilter authFilter = new JwtAuthenticationFilter(jwtUtil, username -> {
+            throw new UsernameNotFoundException(username);
+        }, new JwtTokenCache(300, 100), new PipelineMetrics(new SimpleMeterRegistry(), true));
+        listener = new LineProtocolListener(ingestService, authFilter, jwtUtil, threads,
+                true, "127.0.0.1", 0, 0, 1024, 2, 16, 512, 1, 3);
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    void tcpAuthenticatesOnceThenAcknowledgesWhatTheQueueTook() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            send(out, "AUTH " + token());
+            assertTrue(receive(in).startsWith("OK "));
+
+            send(out, "d1 seq=1,cpu=10\nd1 seq=2,cpu=11\nd1 seq=3,cpu=12\n");
+            assertEquals("ACK 3 3", receive(in));
+            // Capacity 4: one more fits, the rest is the agent's to resend
+            send(out, "d1 seq=4,cpu=13\nd1 seq=5,cpu=14\n");
+            assertEquals("ACK 1 2", receive(in));
+
+            send(out, "d1 cpu=oops");
+            assertTrue(receive(in).startsWith("ERR Line 1"));
+        }
+        List<DeviceMetrics> queued = drain(4);
+        assertEquals(13.0, queued.get(3).getCpuUsage());
+        assertEquals(1, listener.getRejectedFrameCount());
+    }
+
+    @Test
+    void tcpRejectsABadTokenAndClosesTheConnection() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            send(out, "AUTH not-a-jwt");
+            assertEquals("ERR unauthorized", receive(in));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void unauthenticatedConnectionsGetSmallFramesAndLittleTime() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            send(out, "AUTH " + "x".repeat(600));
+            assertEquals("ERR frame longer than 512 bytes", receive(in));
+            assertEquals(-1, in.read());
+        }
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertEquals(1, listener.getRefusedConnectionCount());
+    }
+
+    @Test
+    void connectionsPastTheLimitAreClosedOnAccept() throws Exception {
+        List<Socket> open = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                Socket socket = new Socket("127.0.0.1", listener.getTcpPort());
+                open.add(socket);
+                send(new DataOutputStream(socket.getOutputStream()), "AUTH " + token());
+                assertTrue(receive(new DataInputStream(socket.getInputStream())).startsWith("OK "));
+            }
+            try (Socket refused = new Socket("127.0.0.1", listener.getTcpPort())) {
+                refused.setSoTimeout(5000);
+                assertEquals(-1, refused.getInputStream().read());
+            }
+            assertEquals(1, listener.getRefusedConnectionCount());
+            assertEquals(3, listener.getConnectionCount());
+        } finally {
+            for (Socket socket : open) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void udpDatagramsNeedASessionFromTheTcpHandshake() throws Exception {
+        String session;
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            send(new DataOutputStream(socket.getOutputStream()), "AUTH " + token());
+            session = receive(new DataInputStream(socket.getInputStream())).substring(3);
+        }
+        try (DatagramSocket udp = new DatagramSocket()) {
+            datagram(udp, "unknown-session\nd2 cpu=1\n");
+            datagram(udp, session + "\nd2 cpu=2\nd2 cpu=3\n");
+        }
+        List<DeviceMetrics> queued = drain(2);
+        assertEquals(2.0, queued.get(0).getCpuUsage());
+        assertEquals(3.0, queued.get(1).getCpuUsage());
+        assertEquals(1, listener.getDroppedDatagramCount());
+    }
+
+    @Test
+    void udpDatagramsTheIngestPathFailsAreCountedAsRejected() throws Exception {
+        String session;
+        try (Socket socket = new Socket("127.0.0.1", listener.getTcpPort())) {
+            send(new DataOutputStream(socket.getOutputStream()), "AUTH " + token());
+            session = receive(new DataInputStream(socket.getInputStream())).substring(3);
+        }
+        try (DatagramSocket udp = new DatagramSocket()) {
+            datagram(udp, session + "\nd3 cpu=oops\n");
+            datagram(udp, session + "\nnot-durable cpu=1\n");
+            datagram(udp, session + "\nrefused cpu=1\n");
+            datagram(udp, session + "\nbroken cpu=1\n");
+            datagram(udp, session + "\nd3 cpu=4\n");
+        }
+        // The workers carry on after each failure
+        assertEquals(4.0, drain(1).get(0).getCpuUsage());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (listener.getRejectedFrameCount() < 4 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, listener.getRejectedFrameCount());
+        assertEquals(0, listener.getDroppedDatagramCount());
+    }
+
+    private String token() {
+        return jwtUtil.generateToken("agent", List.of(new SimpleGrantedAuthority("ROLE_USER")));
+    }
+
+    private void datagram(DatagramSocket udp, String payload) throws Exception {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        udp.send(new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), listener.getUdpPort()));
+    }
+
+    private List<DeviceMetrics> drain(int expected) throws InterruptedException {
+        BlockingQueue<DeviceMetrics> partition = queue.partition(0);
+        List<DeviceMetrics> drained = new ArrayList<>();
+        while (drained.size() < expected) {
+            DeviceMetrics m = partition.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "expected " + expected + " queued rows, got " + drained.size());
+            drained.add(m);
+        }
+        return drained;
+    }
+
+    private static void send(DataOutputStream out, String payload) throws Exception {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String receive(DataInputStream in) throws Exception {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
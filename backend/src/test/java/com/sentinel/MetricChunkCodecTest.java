@@ -0,0 +1,119 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricChunkCodecTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 5, 1, 10, 0, 0, 123_456_000);
+
+    @Test
+    void roundTripsIrregularSamplesWithNulls() {
+        SplittableRandom random = new SplittableRandom(7);
+        List<DeviceMetrics> samples = new ArrayList<>();
+        LocalDateTime timestamp = START;
+        long id = 1000;
+        long seq = 500;
+        for (int i = 0; i < 1200; i++) {
+            // Mostly a steady 3s, with jitter, gaps and the odd duplicate timestamp
+            int step = random.nextInt(10);
+            timestamp = timestamp.plusNanos(step == 0 ? 0 : step == 1 ? 47_000_000_000L : 3_000_000_000L + random.nextInt(2000) * 1000L);
+            id += 1 + random.nextInt(step == 2 ? 500 : 3);
+            DeviceMetrics m = new DeviceMetrics();
+            m.setId(id);
+            // Mostly consecutive, with restarts of the agent's counter and unsequenced samples
+            seq = (i % 300 == 299) ? 0 : seq + (step == 3 ? 2 : 1);
+            m.setSeq(i % 11 == 0 ? null : seq);
+            m.setDeviceId("host-1");
+            m.setTimestamp(timestamp);
+            m.setCpuUsage(i % 50 == 0 ? random.nextDouble(0, 100) : Math.round(random.nextDouble(0, 100) * 10) / 10.0);
+            m.setMemoryUsage(i < 600 ? 42.5 : -0.0);
+            m.setDiskUsage(i % 7 == 0 ? Double.MAX_VALUE : 80.125);
+            m.setBytesSentPerSec(i % 5 == 0 ? null : random.nextLong(0, 5_000_000));
+            m.setBytesRecvPerSec(i % 3 == 0 ? Long.MIN_VALUE + 1 : Long.MAX_VALUE);
+            m.setDiskReadBytesPerSec(0L);
+            m.setDiskWriteBytesPerSec(i % 2 == 0 ? null : -(long) i);
+            m.setLatencyMs(i % 4 == 0 ? null : random.nextDouble(1, 80));
+            m.setSystemUptimeSeconds(i == 0 ? null : 1_000_000.0 + 3 * i);
+            samples.add(m);
+        }
+
+        byte[] data = MetricChunkCodec.encode(samples);
+        List<DeviceMetrics> decoded = MetricChunkCodec.decode("host-1", data);
+
+        assertEquals(samples.size(), decoded.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertSameSample(samples.get(i), decoded.get(i));
+        }
+        assertTrue(data.length < samples.size() * 80, "expected smaller than fixed-width columns, was " + data.length);
+    }
+
+    @Test
+    void decodesOnlyTheRequestedRange() {
+        List<DeviceMetrics> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setId((long) i + 1);
+            m.setDeviceId("host-1");
+            m.setTimestamp(START.plusSeconds(3L * i));
+            m.setCpuUsage(i);
+            samples.add(m);
+        }
+        byte[] data = MetricChunkCodec.encode(samples);
+
+        List<DeviceMetrics> range = MetricChunkCodec.decode("host-1", data,
+                RecentMetricsBuffer.toMicros(START.plusSeconds(30)), RecentMetricsBuffer.toMicros(START.plusSeconds(59)));
+
+        assertEquals(10, range.size());
+        assertEquals(START.plusSeconds(30), range.get(0).getTimestamp());
+        assertEquals(19.0, range.get(9).getCpuUsage());
+        assertEquals(20L, range.get(9).getId());
+        assertEquals(0, MetricChunkCodec.decode("host-1", MetricChunkCodec.encode(new ArrayList<>())).size());
+    }
+
+    @Test
+    void rejectsCorruptChunks() {
+        assertThrows(IllegalArgumentException.class, () -> MetricChunkCodec.decode("host-1", new byte[]{9, 0, 0, 0, 1}));
+        DeviceMetrics m = new DeviceMetrics();
+        m.setId(1L);
+        m.setTimestamp(START);
+        byte[] data = MetricChunkCodec.encode(List.of(m));
+        byte[] truncated = java.util.Arrays.copyOf(data, 6);
+        assertThrows(IllegalArgumentException.class, () -> MetricChunkCodec.decode("host-1", truncated));
+    }
+
+    @Test
+    void decodesVersionOneChunksWithoutSeqs() {
+        // version 1, one sample, then zero deltas and unchanged values: an all-zero sample at the epoch
+        byte[] versionOne = {1, 0, 0, 0, 1, 0, 0};
+        List<DeviceMetrics> decoded = MetricChunkCodec.decode("host-1", versionOne);
+        assertEquals(1, decoded.size());
+        assertEquals(0L, decoded.get(0).getId());
+        assertNull(decoded.get(0).getSeq());
+        assertEquals(RecentMetricsBuffer.fromMicros(0), decoded.get(0).getTimestamp());
+        assertEquals(0.0, decoded.get(0).getCpuUsage());
+        assertNull(decoded.get(0).getBytesSentPerSec());
+    }
+
+    private static void assertSameSample(DeviceMetrics expected, DeviceMetrics actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getSeq(), actual.getSeq());
+        assertEquals("host-1", actual.getDeviceId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(Double.doubleToLongBits(expected.getCpuUsage()), Double.doubleToLongBits(actual.getCpuUsage()));
+        assertEquals(Double.doubleToLongBits(expected.getMemoryUsage()), Double.doubleToLongBits(actual.getMemoryUsage()));
+        assertEquals(expected.getDiskUsage(), actual.getDiskUsage());
+        assertEquals(expected.getBytesSentPerSec(), actual.getBytesSentPerSec());
+        assertEquals(expected.getBytesRecvPerSec(), actual.getBytesRecvPerSec());
+        assertEquals(expected.getDiskReadBytesPerSec(), actual.getDiskReadBytesPerSec());
+        assertEquals(expected.getDiskWriteBytesPerSec(), actual.getDiskWriteBytesPerSec());
+        assertEquals(expected.getLatencyMs(), actual.getLatencyMs());
+        assertEquals(expected.getSystemUptimeSeconds(), actual.getSystemUptimeSeconds());
+    }
+}
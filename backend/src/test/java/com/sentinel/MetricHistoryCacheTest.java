@@ -0,0 +1,111 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricHistoryCacheTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.now().withNano(0);
+
+    // Stands in for the database: every read is counted and returns one row stamped at the range end
+    private static class CountingHistory extends MetricHistoryService {
+        int reads;
+        double cpu = 1;
+
+        CountingHistory() {
+            super(null, null, null, null, null, null, null, 100);
+        }
+
+        @Override
+        public MetricHistorySlice readSlice(String deviceId, LocalDateTime from, LocalDateTime to,
+                                            HistoryCursor cursor, int size) {
+            reads++;
+            List<DeviceMetrics> rows = new ArrayList<>();
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(deviceId);
+            m.setId((long) reads);
+            m.setCpuUsage(cpu);
+            m.setTimestamp((to != null) ? to : NOW);
+            rows.add(m);
+            return new MetricHistorySlice(rows, size, false, null);
+        }
+    }
+
+    private static DeviceMetrics persisted(String deviceId, LocalDateTime timestamp) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    @Test
+    void sealedSlicesStayCachedUntilALateRowLandsInThem() {
+        CountingHistory history = new CountingHistory();
+        MetricHistoryCache cache = new MetricHistoryCache(history, null, 1000, 60);
+        LocalDateTime from = NOW.minusHours(2);
+        LocalDateTime to = NOW.minusHours(1);
+
+        MetricHistoryCache.CachedSlice first = cache.readSlice("a", from, to, null, 10);
+        MetricHistoryCache.CachedSlice second = cache.readSlice("a", from, to, null, 10);
+        assertEquals(1, history.reads);
+        assertSame(first, second);
+        assertTrue(first.lastModifiedMillis() > 0);
+
+        // Ordinary ingest, and late rows of other devices or outside the range, leave it alone
+        cache.accept(List.of(persisted("a", NOW), persisted("b", NOW.minusMinutes(90)), persisted("a", NOW.minusHours(3))));
+        cache.readSlice("a", from, to, null, 10);
+        assertEquals(1, history.reads);
+        assertEquals(2, cache.getHitCount());
+
+        history.cpu = 2;
+        cache.accept(List.of(persisted("a", NOW.minusMinutes(90))));
+        MetricHistoryCache.CachedSlice reloaded = cache.readSlice("a", from, to, null, 10);
+        assertEquals(2, history.reads);
+        assertNotEquals(first.etag(), reloaded.etag());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    void rangesReachingTheOpenEdgeAreReadEveryTime() {
+        CountingHistory history = new CountingHistory();
+        MetricHistoryCache cache = new MetricHistoryCache(history, null, 1000, 60);
+
+        MetricHistoryCache.CachedSlice latest = cache.readSlice("a", null, null, null, 10);
+        cache.readSlice("a", NOW.minusHours(1), NOW.minusSeconds(10), null, 10);
+        assertEquals(-1, latest.lastModifiedMillis());
+        assertEquals(2, history.reads);
+        assertEquals(2, cache.getOpenReadCount());
+
+        // Later pages of a newest-first view lie behind their cursor, so they seal
+        HistoryCursor older = new HistoryCursor(true, NOW.minusHours(1), 42);
+        cache.readSlice("a", null, null, older, 10);
+        cache.readSlice("a", null, null, older, 10);
+        assertEquals(3, history.reads);
+
+        // Same rows, same validator
+        assertEquals(latest.etag(), MetricHistoryCache.etag(latest.slice()));
+    }
+
+    @Test
+    void deletesAndRetentionDropCachedSlices() {
+        CountingHistory history = new CountingHistory();
+        MetricHistoryCache cache = new MetricHistoryCache(history, null, 1000, 60);
+        LocalDateTime to = NOW.minusHours(1);
+
+        cache.readSlice("a", NOW.minusDays(2), to, null, 10);
+        cache.readSlice("b", NOW.minusHours(2), to, null, 10);
+        cache.forget("a");
+        cache.readSlice("a", NOW.minusDays(2), to, null, 10);
+        assertEquals(3, history.reads);
+
+        cache.expireBefore(NOW.minusDays(1));
+        cache.readSlice("a", NOW.minusDays(2), to, null, 10);
+        cache.readSlice("b", NOW.minusHours(2), to, null, 10);
+        assertEquals(4, history.reads);
+    }
+}
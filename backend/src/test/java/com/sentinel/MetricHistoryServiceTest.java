@@ -0,0 +1,234 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.hibernate5.SpringBeanContainer;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricHistoryServiceTest {
+
+    // After the buffer starts, so the rows it holds count as complete
+    private static final LocalDateTime BASE = LocalDateTime.now().withNano(0).plusMinutes(1);
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private LocalContainerEntityManagerFactoryBean entityManagerFactory;
+    private EntityManager entityManager;
+    private RecentMetricsBuffer buffer;
+    private MetricHistoryService history;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        registry = new DeviceRegistry(jdbcTemplate);
+
+        // Hibernate creates the schema, named as Spring Boot names it, and builds DeviceKeyConverter with the registry
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("deviceRegistry", registry);
+        entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactory.setDataSource(dataSource);
+        entityManagerFactory.setPackagesToScan("com.sentinel");
+        entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        entityManagerFactory.setJpaPropertyMap(Map.of(
+                AvailableSettings.HBM2DDL_AUTO, "create-drop",
+                AvailableSettings.PHYSICAL_NAMING_STRATEGY, new CamelCaseToUnderscoresNamingStrategy(),
+                AvailableSettings.BEAN_CONTAINER, new SpringBeanContainer(beanFactory)));
+        entityManagerFactory.afterPropertiesSet();
+        entityManager = entityManagerFactory.getObject().createEntityManager();
+
+        MetricChunkStore chunkStore = new MetricChunkStore(null, jdbcTemplate, registry, null, false, 60, 10, 1000);
+        DeviceMetricsRepositoryCustomImpl slices = new DeviceMetricsRepositoryCustomImpl(entityManager, chunkStore);
+        DeviceMetricsRepository repo = (DeviceMetricsRepository) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{DeviceMetricsRepository.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == DeviceMetricsRepositoryCustom.class) {
+                        return method.invoke(slices, args);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        buffer = new RecentMetricsBuffer(5, 10);
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        history = new MetricHistoryService(repo, chunkStore, buffer, jdbcTemplate, registry,
+                new DataSourceTransactionManager(dataSource), objectMapper, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        entityManager.close();
+        entityManagerFactory.destroy();
+    }
+
+    // A persisted row; cpu identifies it in assertions
+    private DeviceMetrics insert(long id, int second, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setId(id);
+        m.setDeviceId("a");
+        m.setCpuUsage(cpu);
+        m.setTimestamp(BASE.plusSeconds(second));
+        jdbcTemplate.update("INSERT INTO device_metrics (id, device_key, timestamp, cpu_usage, memory_usage, disk_usage) "
+                + "VALUES (?, ?, ?, ?, 0, 0)", id, registry.register("a"), Timestamp.valueOf(m.getTimestamp()), cpu);
+        return m;
+    }
+
+    // Every row of the history, following cursors through their encoded form
+    private List<DeviceMetrics> readAll(LocalDateTime from, int size) {
+        List<DeviceMetrics> rows = new ArrayList<>();
+        HistoryCursor cursor = null;
+        do {
+            MetricHistorySlice slice = history.readSlice("a", from, null, cursor, size);
+            assertTrue(slice.getContent().size() <= size);
+            rows.addAll(slice.getContent());
+            cursor = slice.isHasNext() ? HistoryCursor.decode(slice.getNextCursor()) : null;
+        } while (cursor != null);
+        return rows;
+    }
+
+    private static List<Double> cpu(List<DeviceMetrics> rows) {
+        return rows.stream().map(DeviceMetrics::getCpuUsage).toList();
+    }
+
+    @Test
+    void cursorsSurviveEncodingAndMalformedTokensAreRejected() {
+        HistoryCursor cursor = new HistoryCursor(true, BASE.withNano(123_456_789), 42);
+        HistoryCursor decoded = HistoryCursor.decode(cursor.encode());
+        assertTrue(decoded.isDescending());
+        assertEquals(BASE.withNano(123_456_789), decoded.getTimestamp());
+        assertEquals(42, decoded.getId());
+        assertTrue(decoded.hasRowId());
+
+        // A row read from memory has no id, so its cursor points past every row sharing its timestamp
+        DeviceMetrics buffered = new DeviceMetrics();
+        buffered.setTimestamp(BASE);
+        assertEquals(Long.MIN_VALUE, HistoryCursor.decode(HistoryCursor.after(buffered, true).encode()).getId());
+        HistoryCursor ascending = HistoryCursor.decode(HistoryCursor.after(buffered, false).encode());
+        assertFalse(ascending.isDescending());
+        assertEquals(Long.MAX_VALUE, ascending.getId());
+        assertFalse(ascending.hasRowId());
+
+        byte[] valid = Base64.getUrlDecoder().decode(cursor.encode());
+        byte[] badDirection = valid.clone();
+        badDirection[0] = 2;
+        byte[] badNano = valid.clone();
+        ByteBuffer.wrap(badNano).putInt(1 + Long.BYTES, 1_000_000_000);
+        for (String token : List.of("not a cursor!", "", cursor.encode() + "AA", cursor.encode().substring(4),
+                Base64.getUrlEncoder().encodeToString(badDirection), Base64.getUrlEncoder().encodeToString(badNano))) {
+            assertThrows(IllegalArgumentException.class, () -> HistoryCursor.decode(token), token);
+        }
+    }
+
+    @Test
+    void rowsSharingATimestampArePagedByIdInBothDirections() {
+        insert(50, 4, 1);
+        // Ids out of insertion order, so only the tie-break can put them in order
+        insert(30, 5, 4);
+        insert(10, 5, 2);
+        insert(20, 5, 3);
+        insert(5, 6, 5);
+
+        // Page size 2 puts a page edge inside the tie
+        assertEquals(List.of(1.0, 2.0, 3.0, 4.0, 5.0), cpu(readAll(BASE, 2)));
+        assertEquals(List.of(5.0, 4.0, 3.0, 2.0, 1.0), cpu(readAll(null, 2)));
+        assertEquals(List.of(5.0, 4.0, 3.0, 2.0, 1.0), cpu(readAll(null, 1)));
+    }
+
+    @Test
+    void pagesCrossBetweenBufferedAndPersistedRowsWithoutGapsOrRepeats() {
+        // Seconds 0 to 9 with a second row at 3 and at 7; the buffer keeps the newest five (6, 7, 7, 8, 9)
+        List<DeviceMetrics> rows = new ArrayList<>();
+        long id = 1;
+        for (int second = 0; second < 10; second++) {
+            rows.add(insert(id++, second, second * 10));
+            if (second == 3 || second == 7) {
+                rows.add(insert(id++, second, second * 10 + 1));
+            }
+        }
+        for (DeviceMetrics m : rows) {
+            DeviceMetrics sample = new DeviceMetrics();
+            sample.setDeviceId(m.getDeviceId());
+            sample.setCpuUsage(m.getCpuUsage());
+            sample.setTimestamp(m.getTimestamp());
+            buffer.append(sample);
+        }
+        assertNotNull(buffer.find("a", RecentMetricsBuffer.toMicros(BASE.plusSeconds(6)), Long.MAX_VALUE, true, 5));
+
+        for (int size = 1; size <= 4; size++) {
+            List<DeviceMetrics> newestFirst = readAll(null, size);
+            assertEquals(rows.size(), newestFirst.size(), "page size " + size);
+            assertEquals(rows.size(), new HashSet<>(cpu(newestFirst)).size(), "page size " + size);
+            for (int i = 1; i < newestFirst.size(); i++) {
+                assertFalse(newestFirst.get(i).getTimestamp().isAfter(newestFirst.get(i - 1).getTimestamp()));
+            }
+            // The tie at second 3 is persisted only, so it comes back in id order
+            assertEquals(List.of(31.0, 30.0), cpu(newestFirst.subList(7, 9)));
+
+            List<DeviceMetrics> oldestFirst = readAll(BASE, size);
+            assertEquals(cpu(rows), cpu(oldestFirst), "page size " + size);
+        }
+        // The newest pages really came from memory
+        assertTrue(buffer.getHitCount() > 1);
+    }
+
+    @Test
+    void exportsRowsInTimestampThenIdOrder() {
+        insert(7, 2, 4);
+        insert(3, 0, 1);
+        insert(9, 1, 3);
+        insert(1, 1, 2);
+        insert(2, 3, 5);
+        insert(8, 9, 99); // outside the range
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        history.export("a", BASE, BASE.plusSeconds(3), MetricHistoryService.ExportFormat.NDJSON, ndjson);
+        List<Double> exported = new ArrayList<>();
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String line : ndjson.toString(StandardCharsets.UTF_8).split("\n")) {
+            JsonNode row = assertDoesNotThrow(() -> objectMapper.readTree(line));
+            assertEquals("a", row.get("deviceId").asText());
+            exported.add(row.get("cpuUsage").asDouble());
+        }
+        assertEquals(List.of(1.0, 2.0, 3.0, 4.0, 5.0), exported);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        history.export("a", null, null, MetricHistoryService.ExportFormat.CSV, csv);
+        String[] lines = csv.toString(StandardCharsets.UTF_8).split("\n");
+        assertTrue(lines[0].startsWith("deviceId,timestamp,cpuUsage,"), lines[0]);
+        assertEquals(7, lines.length);
+        assertTrue(lines[1].startsWith("a," + BASE + ",1.0,"), lines[1]);
+        assertTrue(lines[2].startsWith("a," + BASE.plusSeconds(1) + ",2.0,"), lines[2]);
+        assertTrue(lines[3].startsWith("a," + BASE.plusSeconds(1) + ",3.0,"), lines[3]);
+        assertTrue(lines[6].startsWith("a," + BASE.plusSeconds(9) + ",99.0,"), lines[6]);
+
+        ByteArrayOutputStream unknown = new ByteArrayOutputStream();
+        history.export("never-seen", null, null, MetricHistoryService.ExportFormat.NDJSON, unknown);
+        assertEquals(0, unknown.size());
+    }
+}
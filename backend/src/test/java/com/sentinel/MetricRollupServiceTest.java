@@ -0,0 +1,143 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricRollupServiceTest {
+
+    private final List<MetricRollup> saved = new ArrayList<>();
+    private final List<MetricRollup> stored = new ArrayList<>();
+    private boolean failSave;
+
+    // Only findBuckets and saveAll are reached by accept/flush
+    private final MetricRollupRepository repo = (MetricRollupRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{MetricRollupRepository.class}, (proxy, method, args) -> {
+                if (method.getName().equals("findBuckets")) {
+                    return new ArrayList<>(stored);
+                }
+                if (method.getName().equals("saveAll")) {
+                    if (failSave) {
+                        throw new IllegalStateException("database down");
+                    }
+                    ((Iterable<?>) args[0]).forEach(rollup -> saved.add((MetricRollup) rollup));
+                    return args[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    private static DeviceMetrics metric(LocalDateTime timestamp, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId("a");
+        m.setCpuUsage(cpu);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    @Test
+    void lateSampleForAClosedBucketIsCountedNotEmittedAgain() {
+        MetricRollupService service = new MetricRollupService(repo, 15);
+        LocalDateTime start = RollupResolution.ONE_HOUR.bucketStart(LocalDateTime.now().minusHours(3));
+
+        service.accept(metric(start, 10));
+        service.flush();
+        int written = saved.size();
+        assertTrue(written > 0);
+
+        // Same buckets at every tier, arriving after they were closed and written
+        service.accept(metric(start.plusSeconds(1), 20));
+        service.flush();
+        assertEquals(written, saved.size());
+        assertEquals(RollupResolution.values().length, service.getLateSampleCount());
+
+        Set<String> keys = new HashSet<>();
+        for (MetricRollup rollup : saved) {
+            assertTrue(keys.add(rollup.getResolutionSeconds() + "/" + rollup.getMetric() + "/" + rollup.getBucketStart()),
+                    "bucket written twice: " + rollup.getBucketStart());
+            assertEquals(1, rollup.getSampleCount());
+        }
+    }
+
+    @Test
+    void samplesForNewerBucketsStillOpenThem() {
+        MetricRollupService service = new MetricRollupService(repo, 15);
+        LocalDateTime start = RollupResolution.ONE_HOUR.bucketStart(LocalDateTime.now().minusHours(3));
+
+        service.accept(metric(start, 10));
+        service.flush();
+        service.accept(metric(start.plusHours(1), 30));
+        service.flush();
+
+        assertEquals(0, service.getLateSampleCount());
+        assertEquals(2, saved.stream()
+                .filter(r -> r.getResolutionSeconds() == RollupResolution.ONE_HOUR.getSeconds())
+                .filter(r -> r.getMetric().equals(MetricField.CPU_USAGE.getFieldName()))
+                .count());
+    }
+
+    @Test
+    void bucketWrittenBeforeARestartIsMergedNotInsertedAgain() {
+        LocalDateTime start = RollupResolution.ONE_HOUR.bucketStart(LocalDateTime.now().minusHours(3));
+        MetricRollup partial = new MetricRollup("a", RollupResolution.ONE_HOUR.getSeconds(),
+                MetricField.CPU_USAGE.getFieldName(), start);
+        partial.setId(7L);
+        partial.setSampleCount(2);
+        partial.setSum(20);
+        partial.setMin(5);
+        partial.setMax(15);
+        partial.setLast(15);
+        partial.setP95(15);
+        stored.add(partial);
+
+        MetricRollupService service = new MetricRollupService(repo, 15);
+        service.accept(metric(start.plusMinutes(30), 40));
+        service.flush();
+
+        List<MetricRollup> hourCpu = saved.stream()
+                .filter(r -> r.getResolutionSeconds() == RollupResolution.ONE_HOUR.getSeconds())
+                .filter(r -> r.getMetric().equals(MetricField.CPU_USAGE.getFieldName()))
+                .toList();
+        assertEquals(1, hourCpu.size());
+        MetricRollup merged = hourCpu.get(0);
+        assertEquals(7L, merged.getId());
+        assertEquals(3, merged.getSampleCount());
+        assertEquals(60, merged.getSum(), 1e-9);
+        assertEquals(5, merged.getMin(), 1e-9);
+        assertEquals(40, merged.getMax(), 1e-9);
+        assertEquals(40, merged.getLast(), 1e-9);
+    }
+
+    @Test
+    void failedWriteRequeuesTheFlushedRollups() {
+        MetricRollupService service = new MetricRollupService(repo, 15);
+        LocalDateTime start = RollupResolution.ONE_HOUR.bucketStart(LocalDateTime.now().minusHours(3));
+        service.accept(metric(start, 10));
+
+        failSave = true;
+        assertThrows(IllegalStateException.class, service::flush);
+        assertTrue(saved.isEmpty());
+
+        failSave = false;
+        service.flush();
+        assertFalse(saved.isEmpty());
+        for (MetricRollup rollup : saved) {
+            assertEquals(1, rollup.getSampleCount());
+        }
+    }
+
+    @Test
+    void rangeTooWideForTheCoarsestTierIsRejected() {
+        LocalDateTime to = LocalDateTime.now();
+        assertEquals(RollupResolution.ONE_HOUR,
+                MetricRollupService.selectTier(to.minusHours(100), to, null, 100));
+        assertThrows(IllegalArgumentException.class,
+                () -> MetricRollupService.selectTier(to.minusHours(101), to, null, 100));
+    }
+}
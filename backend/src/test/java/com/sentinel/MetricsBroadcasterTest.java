@@ -0,0 +1,134 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsBroadcasterTest {
+
+    private static final LocalDateTime START = LocalDateTime.now().withNano(0);
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final List<Message<?>> sent = new ArrayList<>();
+    private boolean failSend;
+
+    // The broker channel behind the template, recording what would go to subscribers
+    private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> {
+        if (failSend) {
+            throw new IllegalStateException("broker unavailable");
+        }
+        sent.add(message);
+        return true;
+    });
+
+    private MetricsBroadcaster broadcaster(MetricsBroadcaster.CoalesceMode mode) {
+        return new MetricsBroadcaster(messagingTemplate, objectMapper, mode, 250, null, null, null);
+    }
+
+    private static DeviceMetrics sample(String deviceId, int second, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(START.plusSeconds(second));
+        m.setCpuUsage(cpu);
+        return m;
+    }
+
+    // Payload of each message sent in the frame, by destination
+    private Map<String, JsonNode> frame() throws Exception {
+        Map<String, JsonNode> byDestination = new TreeMap<>();
+        for (Message<?> message : sent) {
+            String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            assertNull(byDestination.put(destination, objectMapper.readTree((byte[]) message.getPayload())),
+                    "more than one message for " + destination);
+        }
+        sent.clear();
+        return byDestination;
+    }
+
+    @Test
+    void latestModeSendsOneMessagePerDevicePerFrameWithTheNewestUpdate() throws Exception {
+        MetricsBroadcaster broadcaster = broadcaster(MetricsBroadcaster.CoalesceMode.LATEST);
+        for (int i = 0; i < 5; i++) {
+            broadcaster.publish(sample("a", i, i));
+            broadcaster.publish(sample("b", i, 10 + i));
+        }
+
+        broadcaster.flushFrame();
+        Map<String, JsonNode> frame = frame();
+        assertEquals(List.of("/topic/metrics/a", "/topic/metrics/b"), new ArrayList<>(frame.keySet()));
+        assertEquals(4, frame.get("/topic/metrics/a").get("cpuUsage").asDouble());
+        assertEquals(14, frame.get("/topic/metrics/b").get("cpuUsage").asDouble());
+
+        // Nothing new, nothing sent
+        broadcaster.flushFrame();
+        assertTrue(sent.isEmpty());
+
+        broadcaster.publish(sample("b", 5, 15));
+        broadcaster.flushFrame();
+        frame = frame();
+        assertEquals(List.of("/topic/metrics/b"), new ArrayList<>(frame.keySet()));
+        assertEquals(15, frame.get("/topic/metrics/b").get("cpuUsage").asDouble());
+
+        assertEquals(11, broadcaster.getPublishedCount());
+        assertEquals(3, broadcaster.getFramesSentCount());
+    }
+
+    @Test
+    void batchModeSendsEveryUpdateOfTheFrameInArrivalOrder() throws Exception {
+        MetricsBroadcaster broadcaster = broadcaster(MetricsBroadcaster.CoalesceMode.BATCH);
+        broadcaster.publish(sample("a", 0, 1));
+        broadcaster.publish(sample("b", 0, 10));
+        broadcaster.publish(sample("a", 2, 3));
+        // A late sample keeps its place in the order it arrived
+        broadcaster.publish(sample("a", 1, 2));
+        broadcaster.publishRemote(sample("a", 3, 4));
+
+        broadcaster.flushFrame();
+        Map<String, JsonNode> frame = frame();
+        assertEquals(2, frame.size());
+        JsonNode a = frame.get("/topic/metrics/a");
+        assertTrue(a.isArray());
+        List<Double> cpu = new ArrayList<>();
+        a.forEach(update -> cpu.add(update.get("cpuUsage").asDouble()));
+        assertEquals(List.of(1.0, 3.0, 2.0, 4.0), cpu);
+        assertEquals(1, frame.get("/topic/metrics/b").size());
+
+        broadcaster.flushFrame();
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void aForgottenDeviceSendsNothingAndFailuresAreCounted() throws Exception {
+        MetricsBroadcaster broadcaster = broadcaster(MetricsBroadcaster.CoalesceMode.BATCH);
+        broadcaster.publish(sample("deleted", 0, 1));
+        broadcaster.publish(sample("kept", 0, 2));
+        broadcaster.forget("deleted");
+
+        broadcaster.flushFrame();
+        assertEquals(List.of("/topic/metrics/kept"), new ArrayList<>(frame().keySet()));
+
+        failSend = true;
+        broadcaster.publish(sample("kept", 1, 3));
+        broadcaster.flushFrame();
+        assertTrue(sent.isEmpty());
+        assertEquals(1, broadcaster.getSendFailureCount());
+        assertEquals(1, broadcaster.getFramesSentCount());
+
+        // A failed frame is dropped, not resent
+        failSend = false;
+        broadcaster.flushFrame();
+        assertTrue(sent.isEmpty());
+    }
+}
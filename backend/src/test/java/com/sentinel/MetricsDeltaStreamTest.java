@@ -0,0 +1,112 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsDeltaStreamTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Message<?>> sent = new ArrayList<>();
+    private final MessageChannel channel = (message, timeout) -> sent.add(message);
+    private final MetricsDeltaStream deltas = new MetricsDeltaStream(new SimpMessagingTemplate(channel), objectMapper,
+            true, 0.1, "systemUptimeSeconds:60", 120);
+
+    private static DeviceMetrics sample(String deviceId, double cpu, double uptime, LocalDateTime timestamp) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(cpu);
+        m.setMemoryUsage(50.0);
+        m.setDiskUsage(10.0);
+        m.setSystemUptimeSeconds(uptime);
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    private JsonNode take(String destination) throws Exception {
+        for (Message<?> message : sent) {
+            if (destination.equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))) {
+                sent.remove(message);
+                return objectMapper.readTree((byte[]) message.getPayload());
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void sendsOnlyFieldsThatMovedByMoreThanThePrecision() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        deltas.publishFrame(List.of(sample("a", 41.32, 1000, now)));
+        JsonNode first = take("/topic/deltas/a");
+        assertEquals(1, first.get("seq").asLong());
+        assertEquals(41.3, first.get("v").get("cpuUsage").asDouble());
+        assertTrue(first.get("v").get("latencyMs").isNull());
+        assertEquals(List.of("a"), List.of(take("/topic/status").get("online").get(0).asText()));
+
+        // Jitter below the precision, and uptime inside its one-minute step, are not changes
+        deltas.publishFrame(List.of(sample("a", 41.34, 1003, now.plusSeconds(3))));
+        assertTrue(sent.isEmpty());
+
+        deltas.publishFrame(List.of(sample("a", 55.0, 1006, now.plusSeconds(6))));
+        JsonNode second = take("/topic/deltas/a");
+        assertEquals(2, second.get("seq").asLong());
+        assertEquals(1, second.get("v").size());
+        assertEquals(55.0, second.get("v").get("cpuUsage").asDouble());
+
+        // A late sample is ignored rather than rolling the dashboard back
+        deltas.publishFrame(List.of(sample("a", 10.0, 1001, now.plusSeconds(1))));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void resumeReturnsOnlyWhatChangedSinceTheClientsSeq() {
+        LocalDateTime now = LocalDateTime.now();
+        deltas.publishFrame(List.of(sample("a", 10, 0, now), sample("b", 20, 0, now)));
+        DeltaSnapshot full = deltas.snapshot(null, null, null);
+        assertTrue(full.isFull());
+        assertEquals(1, full.getSeq());
+        assertEquals(2, full.getDevices().size());
+        assertEquals(9, full.getDevices().get(0).getValues().size());
+
+        deltas.publishFrame(List.of(sample("a", 15, 0, now.plusSeconds(3))));
+        deltas.publishFrame(List.of(sample("a", 16, 0, now.plusSeconds(6))));
+        deltas.forget("b");
+        deltas.publishFrame(List.of());
+
+        DeltaSnapshot resumed = deltas.snapshot(Set.of("a", "b"), 2L, full.getStream());
+        assertFalse(resumed.isFull());
+        assertEquals(4, resumed.getSeq());
+        assertEquals(1, resumed.getDevices().size());
+        DeltaSnapshot.Entry a = resumed.getDevices().get(0);
+        assertEquals(3, a.getSeq());
+        assertEquals(Set.of("cpuUsage"), a.getValues().keySet());
+        assertEquals(0, a.getValues().get("cpuUsage").compareTo(new BigDecimal("16")));
+        assertEquals(List.of("b"), resumed.getRemoved());
+
+        // Another node's (or a restarted node's) seq means nothing here
+        assertTrue(deltas.snapshot(Set.of("a"), 2L, "other-stream").isFull());
+    }
+
+    @Test
+    void devicesThatStopReportingGoOffline() throws Exception {
+        deltas.publishFrame(List.of(sample("quiet", 10, 0, LocalDateTime.now().minusSeconds(119))));
+        assertEquals("quiet", take("/topic/status").get("online").get(0).asText());
+        Thread.sleep(1100);
+        deltas.publishFrame(List.of());
+        JsonNode status = take("/topic/status");
+        assertEquals("quiet", status.get("offline").get(0).asText());
+        assertFalse(deltas.snapshot(Set.of("quiet"), null, null).getDevices().get(0).isOnline());
+    }
+}
@@ -0,0 +1,53 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsIngestQueueTest {
+
+    private static DeviceMetrics metric(String deviceId, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(cpu);
+        return m;
+    }
+
+    @Test
+    void rejectPolicyRefusesWhenFull() {
+        MetricsIngestQueue queue = new MetricsIngestQueue(2, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        assertTrue(queue.offer(metric("a", 1)));
+        assertTrue(queue.offer(metric("a", 2)));
+        assertFalse(queue.offer(metric("a", 3)));
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    void dropOldestPolicyKeepsNewest() {
+        MetricsIngestQueue queue = new MetricsIngestQueue(2, 1, MetricsIngestQueue.OverflowPolicy.DROP_OLDEST, 0);
+        queue.offer(metric("a", 1));
+        queue.offer(metric("a", 2));
+        assertTrue(queue.offer(metric("a", 3)));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(2.0, queue.partition(0).peek().getCpuUsage());
+    }
+
+    @Test
+    void blockPolicyTimesOut() {
+        MetricsIngestQueue queue = new MetricsIngestQueue(1, 1, MetricsIngestQueue.OverflowPolicy.BLOCK, 10);
+        assertTrue(queue.offer(metric("a", 1)));
+        assertFalse(queue.offer(metric("a", 2)));
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    void sameDeviceAlwaysMapsToSamePartition() {
+        MetricsIngestQueue queue = new MetricsIngestQueue(64, 8, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        int partition = queue.partitionFor("host-1");
+        for (int i = 0; i < 5; i++) {
+            queue.offer(metric("host-1", i));
+        }
+        assertEquals(5, queue.partition(partition).size());
+    }
+}
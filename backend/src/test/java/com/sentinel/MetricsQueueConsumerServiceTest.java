@@ -0,0 +1,189 @@
+package com.sentinel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsQueueConsumerServiceTest {
+
+    private static void fill(MetricsIngestQueue queue, int count) {
+        for (int i = 0; i < count; i++) {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId("device-" + i);
+            queue.offer(m);
+        }
+    }
+
+    @Test
+    void flowControlBacksOffAsTheQueueFills() {
+        MetricsIngestQueue queue = new MetricsIngestQueue(100, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        // Never started, so nothing drains the queue
+        MetricsQueueConsumerService consumer =
+                new MetricsQueueConsumerService(null, queue, null, null, null, null, null, null, 20, 5000, 100, 5, 50, 15000, 120000, 60);
+
+        MetricsQueueConsumerService.FlowControl idle = consumer.flowControl();
+        assertEquals(5, idle.getBatchSize());
+        assertEquals(15000, idle.getFlushIntervalMs());
+        assertEquals(0, idle.getRetryAfterSeconds());
+
+        fill(queue, 50);
+        MetricsQueueConsumerService.FlowControl busy = consumer.flowControl();
+        assertEquals(28, busy.getBatchSize());
+        assertEquals(67500, busy.getFlushIntervalMs());
+        assertEquals(0, busy.getRetryAfterSeconds());
+
+        fill(queue, 30);
+        MetricsQueueConsumerService.FlowControl full = consumer.flowControl();
+        assertEquals(50, full.getBatchSize());
+        assertEquals(120000, full.getFlushIntervalMs());
+        assertEquals(60, full.getRetryAfterSeconds(), "a stalled queue gets the longest back-off");
+    }
+
+    @Test
+    void failingPostWriteHookDoesNotWriteTheBatchAgain() throws Exception {
+        MetricsIngestQueue queue = new MetricsIngestQueue(100, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        List<DeviceMetrics> written = new CopyOnWriteArrayList<>();
+        DeviceMetricsBatchWriter writer = new DeviceMetricsBatchWriter(null, null, null,
+                DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH) {
+            @Override
+            public void write(List<DeviceMetrics> batch) {
+                written.addAll(batch);
+            }
+        };
+        MetricRollupService rollups = new MetricRollupService(null, 15) {
+            @Override
+            public void accept(List<DeviceMetrics> batch) {
+                throw new IllegalStateException("rollups broken");
+            }
+        };
+        MetricHistoryCache historyCache = new MetricHistoryCache(null, null, 0, 60);
+        MetricsQueueConsumerService consumer = new MetricsQueueConsumerService(writer, queue, rollups,
+                new FleetAggregateService(null, 300, 60, 1), historyCache,
+                new MetricsWriteAheadLog(false, null, 1, MetricsWriteAheadLog.SyncMode.NONE),
+                new PipelineMetrics(new SimpleMeterRegistry(), true), new WorkerThreads(new StandardEnvironment()),
+                3, 3, 100, 5, 50, 15000, 120000, 60);
+        consumer.start();
+        try {
+            fill(queue, 3);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (written.size() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200); // time for a repeated write to show up
+        } finally {
+            consumer.stop();
+        }
+        assertEquals(3, written.size());
+    }
+
+    private static MetricsQueueConsumerService consumer(MetricsIngestQueue queue, DeviceMetricsBatchWriter writer,
+                                                        SimpleMeterRegistry registry, int batchSize) {
+        return new MetricsQueueConsumerService(writer, queue, new MetricRollupService(null, 15),
+                new FleetAggregateService(null, 300, 60, 1), new MetricHistoryCache(null, null, 0, 60),
+                new MetricsWriteAheadLog(false, null, 1, MetricsWriteAheadLog.SyncMode.NONE),
+                new PipelineMetrics(registry, true), new WorkerThreads(new StandardEnvironment()),
+                batchSize, batchSize, 100, 5, 50, 15000, 120000, 60);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void failedBatchIsRetriedWithBackoffWithoutGrowing() throws Exception {
+        MetricsIngestQueue queue = new MetricsIngestQueue(100, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        List<Integer> attemptSizes = new CopyOnWriteArrayList<>();
+        List<Long> attemptTimes = new CopyOnWriteArrayList<>();
+        List<DeviceMetrics> written = new CopyOnWriteArrayList<>();
+        DeviceMetricsBatchWriter writer = new DeviceMetricsBatchWriter(null, null, null,
+                DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH) {
+            @Override
+            public void write(List<DeviceMetrics> batch) {
+                attemptSizes.add(batch.size());
+                attemptTimes.add(System.nanoTime());
+                // The database is down for the first four attempts
+                if (attemptSizes.size() <= 4) {
+                    throw new CannotGetJdbcConnectionException("connection refused");
+                }
+                written.addAll(batch);
+            }
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MetricsQueueConsumerService consumer = consumer(queue, writer, registry, 3);
+        consumer.start();
+        try {
+            fill(queue, 9);
+            await(() -> written.size() >= 9);
+        } finally {
+            consumer.stop();
+        }
+        assertEquals(9, written.size());
+        assertTrue(attemptSizes.stream().allMatch(size -> size <= 3), attemptSizes.toString());
+        // 100 + 200 + 400ms between the failed attempts
+        assertTrue(attemptTimes.get(4) - attemptTimes.get(0) >= 700_000_000L);
+        // An outage is never mistaken for bad rows
+        assertEquals(0, registry.get("sentinel.persistence.rows.dead.lettered").counter().count());
+    }
+
+    @Test
+    void rowTheDatabaseRefusesIsDeadLetteredAndThePartitionMovesOn() throws Exception {
+        MetricsIngestQueue queue = new MetricsIngestQueue(100, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+        List<DeviceMetrics> written = new CopyOnWriteArrayList<>();
+        DeviceMetricsBatchWriter writer = new DeviceMetricsBatchWriter(null, null, null,
+                DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH) {
+            @Override
+            public void write(List<DeviceMetrics> batch) {
+                if (batch.stream().anyMatch(m -> "bad".equals(m.getDeviceId()))) {
+                    throw new DataIntegrityViolationException("check constraint",
+                            new SQLException("value out of range", "22003"));
+                }
+                written.addAll(batch);
+            }
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MetricsQueueConsumerService consumer = consumer(queue, writer, registry, 6);
+        consumer.start();
+        try {
+            fill(queue, 3);
+            DeviceMetrics bad = new DeviceMetrics();
+            bad.setDeviceId("bad");
+            queue.offer(bad);
+            fill(queue, 2);
+            await(() -> written.size() >= 5);
+            // Rows queued after it get through too
+            fill(queue, 6);
+            await(() -> written.size() >= 11);
+        } finally {
+            consumer.stop();
+        }
+        assertEquals(11, written.size());
+        assertTrue(written.stream().noneMatch(m -> "bad".equals(m.getDeviceId())));
+        assertEquals(1, registry.get("sentinel.persistence.rows.dead.lettered").counter().count());
+    }
+
+    @Test
+    void onlyContentErrorsCountAsRefusedRows() {
+        assertTrue(MetricsQueueConsumerService.isRowRejected(new DataIntegrityViolationException("duplicate key")));
+        assertTrue(MetricsQueueConsumerService.isRowRejected(
+                new RuntimeException(new SQLException("null value in column", "23502"))));
+        assertFalse(MetricsQueueConsumerService.isRowRejected(new CannotGetJdbcConnectionException("refused")));
+        assertFalse(MetricsQueueConsumerService.isRowRejected(
+                new RuntimeException(new SQLException("connection failure", "08006"))));
+
+        assertEquals(100, MetricsQueueConsumerService.retryBackoffMillis(1));
+        assertEquals(400, MetricsQueueConsumerService.retryBackoffMillis(3));
+        assertEquals(5000, MetricsQueueConsumerService.retryBackoffMillis(40));
+    }
+}
@@ -0,0 +1,159 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsWriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private MetricsWriteAheadLog open() throws Exception {
+        MetricsWriteAheadLog wal = new MetricsWriteAheadLog(true, directory.toString(), 1,
+                MetricsWriteAheadLog.SyncMode.GROUP_COMMIT);
+        wal.open();
+        return wal;
+    }
+
+    private static DeviceMetrics metric(String deviceId, double cpu) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(cpu);
+        m.setLatencyMs(12.5);
+        m.setBytesSentPerSec(1234L);
+        m.setTimestamp(LocalDateTime.of(2024, 5, 1, 12, 0, 0, 123_456_789));
+        return m;
+    }
+
+    @Test
+    void pendingRecordsAreReplayedAfterRestart() throws Exception {
+        MetricsWriteAheadLog wal = open();
+        DeviceMetrics persisted = metric("a", 1);
+        DeviceMetrics lost = metric("b", 2);
+        lost.setSeq(7L);
+        wal.awaitDurable(wal.append(persisted));
+        wal.awaitDurable(wal.append(lost));
+        wal.release(persisted);
+        wal.close();
+
+        MetricsWriteAheadLog reopened = open();
+        List<DeviceMetrics> recovered = reopened.takeRecovered();
+        assertEquals(1, recovered.size());
+        DeviceMetrics m = recovered.get(0);
+        assertEquals("b", m.getDeviceId());
+        assertEquals(2.0, m.getCpuUsage());
+        assertEquals(12.5, m.getLatencyMs());
+        assertEquals(1234L, m.getBytesSentPerSec());
+        assertNull(m.getBytesRecvPerSec());
+        assertEquals(lost.getTimestamp(), m.getTimestamp());
+        assertEquals(7L, m.getSeq());
+
+        // Once replayed and released, the old segment is deleted
+        reopened.release(recovered);
+        assertEquals(1, reopened.getSegmentCount());
+        reopened.close();
+    }
+
+    @Test
+    void deviceIdsUpToTheCapAreReplayedAndLongerOnesRefused() throws Exception {
+        MetricsWriteAheadLog wal = open();
+        // 341 three-byte characters plus one: exactly the cap in UTF-8
+        String longest = "\u20ac".repeat(341) + "x";
+        assertTrue(DeviceMetrics.isDeviceIdWithinLimit(longest));
+        wal.awaitDurable(wal.append(metric(longest, 1)));
+        String tooLong = "\u20ac".repeat(342);
+        assertFalse(DeviceMetrics.isDeviceIdWithinLimit(tooLong));
+        assertThrows(IllegalArgumentException.class, () -> wal.append(metric(tooLong, 2)));
+        assertThrows(IllegalArgumentException.class, () -> wal.append(metric("x".repeat(40_000), 3)));
+        wal.close();
+
+        MetricsWriteAheadLog reopened = open();
+        List<DeviceMetrics> recovered = reopened.takeRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(longest, recovered.get(0).getDeviceId());
+        reopened.close();
+    }
+
+    @Test
+    void fullyReleasedSegmentsAreDeletedOnRollover() throws Exception {
+        MetricsWriteAheadLog wal = open();
+        for (int i = 0; i < 20_000; i++) { // well past one 1 MB segment
+            DeviceMetrics m = metric("device-" + (i % 10), i);
+            wal.append(m);
+            wal.release(m);
+        }
+        assertEquals(1, wal.getSegmentCount());
+        wal.close();
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void failedForceIsNotAcknowledgedAndIsRetried() throws Exception {
+        AtomicInteger failuresLeft = new AtomicInteger(1);
+        MetricsWriteAheadLog wal = new MetricsWriteAheadLog(true, directory.toString(), 1,
+                MetricsWriteAheadLog.SyncMode.GROUP_COMMIT) {
+            @Override
+            void force(MappedByteBuffer buffer, int index, int length) {
+                if (failuresLeft.getAndDecrement() > 0) {
+                    throw new UncheckedIOException(new IOException("disk full"));
+                }
+                super.force(buffer, index, length);
+            }
+        };
+        wal.open();
+
+        long lsn = wal.append(metric("a", 1));
+        MetricsWriteAheadLog.NotDurableException e =
+                assertThrows(MetricsWriteAheadLog.NotDurableException.class, () -> wal.awaitDurable(lsn));
+        assertInstanceOf(UncheckedIOException.class, e.getCause());
+
+        // The next pass forces the earlier record too, and later appends are acknowledged
+        long next = wal.append(metric("b", 2));
+        assertDoesNotThrow(() -> wal.awaitDurable(next));
+        assertDoesNotThrow(() -> wal.awaitDurable(lsn));
+        wal.close();
+    }
+
+    @Test
+    void interruptedWaitIsNotAnAcknowledgement() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MetricsWriteAheadLog wal = new MetricsWriteAheadLog(true, directory.toString(), 1,
+                MetricsWriteAheadLog.SyncMode.GROUP_COMMIT) {
+            @Override
+            void force(MappedByteBuffer buffer, int index, int length) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.force(buffer, index, length);
+            }
+        };
+        wal.open();
+
+        long lsn = wal.append(metric("a", 1));
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(MetricsWriteAheadLog.NotDurableException.class, () -> wal.awaitDurable(lsn));
+            assertTrue(Thread.interrupted());
+        } finally {
+            release.countDown();
+        }
+        wal.awaitDurable(lsn);
+        wal.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.sentinel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineMetricsTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true);
+    private final WorkerThreads threads = new WorkerThreads(new StandardEnvironment());
+    private final MetricsIngestQueue queue = new MetricsIngestQueue(8, 1, MetricsIngestQueue.OverflowPolicy.REJECT, 0);
+
+    // Cluster and line protocol off, as in a default install
+    private PipelineMeterBinder binder(boolean enabled) {
+        LatestMetricsStore latestStore = new LatestMetricsStore(null, null, 120);
+        MetricsBroadcaster broadcaster = new MetricsBroadcaster(messagingTemplate, objectMapper,
+                MetricsBroadcaster.CoalesceMode.LATEST, 250, threads, null, null);
+        AlertEngine alertEngine = new AlertEngine(messagingTemplate, objectMapper, latestStore, threads, "", 0.05, 30, 120, 250);
+        ClusterService cluster = new ClusterService(new ClusterMembership(false, "", List.of(), "", 128), null,
+                objectMapper, latestStore, null, broadcaster, null, alertEngine, null, null, null, null, null, 5000);
+        return new PipelineMeterBinder(queue,
+                new IngestDeduplicator(null, null, false, 1024, 300),
+                broadcaster,
+                new MetricsDeltaStream(messagingTemplate, objectMapper, true, 0.1, "", 120),
+                new MetricRollupService(null, 15),
+                latestStore,
+                new RecentMetricsBuffer(300, 100),
+                new MetricHistoryCache(null, null, 0, 60),
+                new PinnedThreadMonitor(threads, 20),
+                alertEngine,
+                cluster,
+                null,
+                new LineProtocolListener(null, null, null, threads, false, "127.0.0.1", 0, 0, 1024, 1, 16, 512, 1, 1),
+                enabled);
+    }
+
+    private static DeviceMetrics sample(String deviceId) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setTimestamp(LocalDateTime.now());
+        return m;
+    }
+
+    @Test
+    void disabledRegistersNothingAndRecordsAreNoOps() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry, false);
+        binder(false).bindTo(registry);
+
+        metrics.recordIngest(PipelineMetrics.IngestEndpoint.BATCH_JSON, 10, 2);
+        metrics.recordBatchWrite(10, 1_000_000, System.nanoTime() - 5_000_000);
+        metrics.recordJwtValidation(1_000);
+
+        assertTrue(registry.getMeters().isEmpty());
+    }
+
+    @Test
+    void registersTheSeriesTheLoadGeneratorScrapes() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        PipelineMetrics metrics = new PipelineMetrics(registry, true);
+        binder(true).bindTo(registry);
+
+        queue.offer(sample("a"));
+        queue.offer(sample("b"));
+        metrics.recordIngest(PipelineMetrics.IngestEndpoint.BATCH_BINARY, 2, 0);
+        metrics.recordBatchWrite(2, 1_000_000, System.nanoTime() - 5_000_000);
+
+        String scrape = registry.scrape();
+        assertTrue(scrape.contains("sentinel_ingest_queue_depth 2.0"), scrape);
+        assertTrue(scrape.contains("sentinel_ingest_queue_capacity 8.0"), scrape);
+        assertTrue(scrape.contains("sentinel_ingest_persist_lag_seconds_count 1.0"), scrape);
+        assertTrue(scrape.contains("sentinel_ingest_persist_lag_seconds_bucket{le=\"+Inf\",} 1.0"), scrape);
+        assertTrue(scrape.contains("sentinel_ingest_persist_lag_seconds_max "), scrape);
+        assertTrue(scrape.contains("sentinel_persistence_batch_size_rows_sum 2.0"), scrape);
+        assertTrue(scrape.contains("sentinel_ingest_rows_duplicate_total 0.0"), scrape);
+        assertTrue(scrape.contains(
+                "sentinel_ingest_rows_total{endpoint=\"/api/metrics/batch\",format=\"binary\",} 2.0"), scrape);
+        // Off unless enabled
+        assertFalse(scrape.contains("sentinel_cluster_"), scrape);
+        assertFalse(scrape.contains("sentinel_ingest_line_"), scrape);
+    }
+}
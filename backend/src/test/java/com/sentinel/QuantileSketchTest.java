@@ -0,0 +1,36 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileSketchTest {
+
+    @Test
+    void quantilesStayWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (int i = 1; i <= 10_000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(9500, sketch.quantile(0.95), 9500 * 0.01);
+        assertEquals(5000, sketch.quantile(0.5), 5000 * 0.01);
+    }
+
+    @Test
+    void mergedSketchMatchesSingleSketch() {
+        QuantileSketch low = new QuantileSketch(0.01);
+        QuantileSketch high = new QuantileSketch(0.01);
+        QuantileSketch all = new QuantileSketch(0.01);
+        for (int i = 0; i < 1000; i++) {
+            low.add(i * 0.1);
+            high.add(1000 + i);
+            all.add(i * 0.1);
+            all.add(1000 + i);
+        }
+        low.merge(high);
+        assertEquals(all.getCount(), low.getCount());
+        assertEquals(all.quantile(0.95), low.quantile(0.95));
+        assertEquals(0, new QuantileSketch(0.01).getCount());
+        assertTrue(Double.isNaN(new QuantileSketch(0.01).quantile(0.5)));
+    }
+}
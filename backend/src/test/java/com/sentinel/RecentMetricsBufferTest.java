@@ -0,0 +1,89 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentMetricsBufferTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.now().withNano(0).plusMinutes(1);
+
+    private static DeviceMetrics metric(String deviceId, int second) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(second);
+        m.setLatencyMs(second % 2 == 0 ? null : 1.5);
+        m.setBytesSentPerSec(second % 2 == 0 ? 100L : null);
+        m.setTimestamp(BASE.plusSeconds(second));
+        return m;
+    }
+
+    private static long micros(int second) {
+        return RecentMetricsBuffer.toMicros(BASE.plusSeconds(second));
+    }
+
+    @Test
+    void answersRangesInsideTheBufferedWindow() {
+        RecentMetricsBuffer buffer = new RecentMetricsBuffer(4, 10);
+        for (int s = 0; s < 6; s++) {
+            buffer.append(metric("a", s));
+        }
+        // Seconds 0 and 1 were overwritten, so only ranges from second 2 on are complete
+        assertNull(buffer.find("a", micros(0), Long.MAX_VALUE, false, 10));
+        List<DeviceMetrics> rows = buffer.find("a", micros(2), micros(4), false, 10);
+        assertEquals(3, rows.size());
+        assertEquals(2.0, rows.get(0).getCpuUsage());
+        assertNull(rows.get(0).getLatencyMs());
+        assertEquals(100L, rows.get(0).getBytesSentPerSec());
+        assertEquals(1.5, rows.get(1).getLatencyMs());
+        assertEquals(BASE.plusSeconds(3), rows.get(1).getTimestamp());
+
+        // Newest first, a full page is exact even though the range reaches past the buffer
+        List<DeviceMetrics> newest = buffer.find("a", micros(0), Long.MAX_VALUE, true, 2);
+        assertEquals(5.0, newest.get(0).getCpuUsage());
+        assertEquals(4.0, newest.get(1).getCpuUsage());
+        assertNull(buffer.find("a", micros(0), Long.MAX_VALUE, true, 5));
+    }
+
+    @Test
+    void keepsOutOfOrderSamplesSortedAndCapsDevices() {
+        RecentMetricsBuffer buffer = new RecentMetricsBuffer(8, 1);
+        buffer.append(metric("a", 0));
+        buffer.append(metric("a", 2));
+        buffer.append(metric("a", 1));
+        buffer.append(metric("b", 0));
+        List<DeviceMetrics> rows = buffer.find("a", micros(0), Long.MAX_VALUE, false, 10);
+        assertEquals(1.0, rows.get(1).getCpuUsage());
+        assertEquals(2.0, rows.get(2).getCpuUsage());
+        assertNull(buffer.find("b", micros(0), Long.MAX_VALUE, false, 10));
+        assertEquals(1, buffer.getDeviceCount());
+    }
+
+    @Test
+    void historySlicesFollowCursorsThroughTheBuffer() {
+        RecentMetricsBuffer buffer = new RecentMetricsBuffer(16, 10);
+        for (int s = 0; s < 7; s++) {
+            buffer.append(metric("a", s));
+        }
+        MetricHistoryService history = new MetricHistoryService(null, null, buffer, null, null, null, null, 100);
+
+        List<Double> seen = new ArrayList<>();
+        HistoryCursor cursor = null;
+        do {
+            MetricHistorySlice slice = history.readSlice("a", BASE, null, cursor, 3);
+            slice.getContent().forEach(m -> seen.add(m.getCpuUsage()));
+            cursor = slice.isHasNext() ? HistoryCursor.decode(slice.getNextCursor()) : null;
+        } while (cursor != null);
+        assertEquals(List.of(0.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0), seen);
+
+        MetricHistorySlice newest = history.readSlice("a", null, null, null, 2);
+        assertEquals(6.0, newest.getContent().get(0).getCpuUsage());
+        MetricHistorySlice older = history.readSlice("a", null, null, HistoryCursor.decode(newest.getNextCursor()), 2);
+        assertEquals(4.0, older.getContent().get(0).getCpuUsage());
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.decode("not-a-cursor"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.sentinel;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestDecompressionFilterTest {
+
+    private static final byte[] BODY = "[{\"deviceId\":\"a\",\"cpuUsage\":12.5}]".repeat(100)
+            .getBytes(StandardCharsets.UTF_8);
+
+    private interface Compressor {
+        OutputStream wrap(OutputStream out) throws IOException;
+    }
+
+    private static byte[] compress(byte[] data, Compressor compressor) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = compressor.wrap(buffer)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static MockHttpServletRequest request(String encoding, byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/metrics/batch");
+        request.addHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        request.setContent(body);
+        return request;
+    }
+
+    // Runs the filter with a chain that reads the whole body, as a message converter would
+    private static final class ReadingChain extends MockFilterChain {
+        private byte[] body;
+        private HttpServletRequest seen;
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            seen = (HttpServletRequest) request;
+            body = request.getInputStream().readAllBytes();
+        }
+    }
+
+    @Test
+    void gzipAndZstdBodiesReachTheHandlerDecompressed() throws Exception {
+        RequestDecompressionFilter filter = new RequestDecompressionFilter(1 << 20);
+        byte[][] bodies = {compress(BODY, GZIPOutputStream::new), compress(BODY, ZstdOutputStream::new)};
+        String[] encodings = {"gzip", "zstd"};
+        for (int i = 0; i < bodies.length; i++) {
+            assertTrue(bodies[i].length < BODY.length / 10);
+            MockHttpServletRequest request = request(encodings[i], bodies[i]);
+            ReadingChain chain = new ReadingChain();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            filter.doFilter(request, response, chain);
+
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(BODY, chain.body, encodings[i]);
+            // The handler sees a plain body of unknown length
+            assertNull(chain.seen.getHeader(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(-1, chain.seen.getContentLengthLong());
+        }
+    }
+
+    @Test
+    void aBodyInflatingPastTheLimitFailsTheRead() throws Exception {
+        RequestDecompressionFilter filter = new RequestDecompressionFilter(BODY.length - 1);
+        MockHttpServletRequest[] requests = {
+                request("gzip", compress(BODY, GZIPOutputStream::new)),
+                request("zstd", compress(BODY, ZstdOutputStream::new))};
+        for (MockHttpServletRequest request : requests) {
+            IOException e = assertThrows(IOException.class,
+                    () -> filter.doFilter(request, new MockHttpServletResponse(), new ReadingChain()));
+            assertTrue(e.getMessage().contains("exceeds " + (BODY.length - 1)), e.getMessage());
+        }
+
+        // Exactly at the limit is fine
+        ReadingChain chain = new ReadingChain();
+        new RequestDecompressionFilter(BODY.length).doFilter(
+                request("gzip", compress(BODY, GZIPOutputStream::new)), new MockHttpServletResponse(), chain);
+        assertArrayEquals(BODY, chain.body);
+    }
+
+    @Test
+    void aBodyThatIsNotGzipIsABadRequest() throws Exception {
+        RequestDecompressionFilter filter = new RequestDecompressionFilter(1 << 20);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ReadingChain chain = new ReadingChain();
+
+        filter.doFilter(request("gzip", BODY), response, chain);
+
+        assertEquals(400, response.getStatus());
+        assertNull(chain.seen);
+    }
+
+    @Test
+    void unknownEncodingsAreRefusedAndIdentityPassesThrough() throws Exception {
+        RequestDecompressionFilter filter = new RequestDecompressionFilter(1 << 20);
+        MockHttpServletResponse refused = new MockHttpServletResponse();
+        filter.doFilter(request("br", BODY), refused, new ReadingChain());
+        assertEquals(415, refused.getStatus());
+
+        ReadingChain chain = new ReadingChain();
+        filter.doFilter(request("identity", BODY), new MockHttpServletResponse(), chain);
+        assertArrayEquals(BODY, chain.body);
+    }
+}
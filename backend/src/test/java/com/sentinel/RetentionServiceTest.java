@@ -0,0 +1,134 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private long nextId;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        // Only the columns retention looks at
+        jdbcTemplate.execute("CREATE TABLE device_metrics (id BIGINT PRIMARY KEY, device_key INTEGER, timestamp TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE TABLE metric_chunks (id BIGINT PRIMARY KEY, last_timestamp TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE TABLE metric_rollups (id BIGINT PRIMARY KEY, resolution_seconds INTEGER, "
+                + "bucket_start TIMESTAMP(6))");
+    }
+
+    private void insertRaw(int count, LocalDateTime timestamp) {
+        for (int i = 0; i < count; i++) {
+            jdbcTemplate.update("INSERT INTO device_metrics VALUES (?, 1, ?)", nextId++, Timestamp.valueOf(timestamp));
+        }
+    }
+
+    private int count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Integer.class);
+    }
+
+    @Test
+    void deletesExpiredRowsOfEveryTableAcrossSeveralChunks() {
+        LocalDateTime rawCutoff = LocalDate.now().minusDays(7).atStartOfDay();
+        insertRaw(10, rawCutoff.minusMinutes(1));
+        insertRaw(4, rawCutoff);
+        jdbcTemplate.update("INSERT INTO metric_chunks VALUES (1, ?), (2, ?)",
+                Timestamp.valueOf(rawCutoff.minusHours(1)), Timestamp.valueOf(rawCutoff.plusHours(1)));
+        LocalDateTime tenSecondCutoff = LocalDate.now().minusDays(3).atStartOfDay();
+        jdbcTemplate.update("INSERT INTO metric_rollups VALUES (1, 10, ?), (2, 10, ?), (3, 3600, ?)",
+                Timestamp.valueOf(tenSecondCutoff.minusSeconds(10)), Timestamp.valueOf(tenSecondCutoff),
+                Timestamp.valueOf(tenSecondCutoff.minusSeconds(10)));
+
+        // A chunk of 3 takes four statements for the ten expired raw rows
+        new RetentionService(jdbcTemplate, new MetricHistoryCache(null, null, 0, 60),
+                true, 7, 3, 14, 90, 730, 3, 3).enforce();
+
+        assertEquals(4, count("SELECT COUNT(*) FROM device_metrics"));
+        assertEquals(0, count("SELECT COUNT(*) FROM device_metrics WHERE timestamp < CURRENT_DATE - 7"));
+        assertEquals(1, count("SELECT COUNT(*) FROM metric_chunks"));
+        assertEquals(2, count("SELECT id FROM metric_chunks"));
+        assertEquals(2, count("SELECT COUNT(*) FROM metric_rollups"));
+        assertEquals(0, count("SELECT COUNT(*) FROM metric_rollups WHERE id = 1"));
+    }
+
+    @Test
+    void chunkedDeleteStopsOnAnExactMultipleOfTheChunk() {
+        insertRaw(9, LocalDateTime.now().minusDays(30));
+        insertRaw(2, LocalDateTime.now());
+
+        long deleted = ChunkedDelete.deleteInChunks(jdbcTemplate, "device_metrics", "timestamp < ?", 3,
+                Timestamp.valueOf(LocalDateTime.now().minusDays(1)));
+        assertEquals(9, deleted);
+        assertEquals(2, count("SELECT COUNT(*) FROM device_metrics"));
+    }
+
+    @Test
+    void partitionedPathCreatesEachPartitionOnItsOwnAndStillRunsTheRest() {
+        LocalDate today = LocalDate.now();
+        String expired = RetentionService.partitionName(today.minusDays(8));
+        String kept = RetentionService.partitionName(today.minusDays(7));
+        List<String> statements = new ArrayList<>();
+        // H2 has no declarative partitioning: answer the catalog queries and record the DDL instead
+        JdbcTemplate partitioned = new JdbcTemplate(jdbcTemplate.getDataSource()) {
+            @Override
+            public <T> T execute(ConnectionCallback<T> action) {
+                @SuppressWarnings("unchecked")
+                T yes = (T) Boolean.TRUE;
+                return yes;
+            }
+
+            @Override
+            public void execute(String sql) {
+                statements.add(sql);
+                if (sql.contains(RetentionService.partitionName(today))) {
+                    throw new DataIntegrityViolationException("updated partition constraint for default partition would be violated");
+                }
+            }
+
+            @Override
+            public <T> List<T> queryForList(String sql, Class<T> elementType) {
+                if (sql.contains("pg_inherits")) {
+                    @SuppressWarnings("unchecked")
+                    List<T> names = (List<T>) List.of(RetentionService.DEFAULT_PARTITION, expired, kept);
+                    return names;
+                }
+                return super.queryForList(sql, elementType);
+            }
+        };
+        jdbcTemplate.execute("CREATE TABLE " + RetentionService.DEFAULT_PARTITION
+                + " (id BIGINT PRIMARY KEY, timestamp TIMESTAMP(6))");
+        jdbcTemplate.update("INSERT INTO " + RetentionService.DEFAULT_PARTITION + " VALUES (1, ?), (2, ?)",
+                Timestamp.valueOf(today.minusDays(30).atStartOfDay()), Timestamp.valueOf(today.atStartOfDay()));
+        jdbcTemplate.update("INSERT INTO metric_chunks VALUES (1, ?)", Timestamp.valueOf(today.minusDays(30).atStartOfDay()));
+
+        new RetentionService(partitioned, new MetricHistoryCache(null, null, 0, 60),
+                true, 7, 3, 14, 90, 730, 2, 10).enforce();
+
+        // Today's partition failed, the following days were still created
+        for (int i = 0; i <= 2; i++) {
+            String name = RetentionService.partitionName(today.plusDays(i));
+            assertTrue(statements.stream().anyMatch(sql -> sql.startsWith("CREATE TABLE IF NOT EXISTS " + name)), name);
+        }
+        assertTrue(statements.contains("DROP TABLE IF EXISTS " + expired));
+        assertFalse(statements.contains("DROP TABLE IF EXISTS " + kept));
+        assertFalse(statements.contains("DROP TABLE IF EXISTS " + RetentionService.DEFAULT_PARTITION));
+        assertEquals(1, count("SELECT COUNT(*) FROM " + RetentionService.DEFAULT_PARTITION));
+        assertEquals(0, count("SELECT COUNT(*) FROM metric_chunks"));
+    }
+}
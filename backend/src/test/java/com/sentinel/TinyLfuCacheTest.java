@@ -0,0 +1,55 @@
+package com.sentinel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    void frequentKeysSurviveAScanOfOneOffKeys() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, 1000);
+        for (int round = 0; round < 5; round++) {
+            for (int key = 0; key < 50; key++) {
+                if (cache.get(key) == null) {
+                    cache.put(key, "hot", 1);
+                }
+            }
+        }
+        for (int key = 1000; key < 11_000; key++) {
+            if (cache.get(key) == null) {
+                cache.put(key, "scan", 1);
+            }
+        }
+        int survivors = 0;
+        for (int key = 0; key < 50; key++) {
+            if (cache.get(key) != null) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 45, survivors + " of 50 hot keys survived");
+        assertTrue(cache.weight() <= 100);
+    }
+
+    @Test
+    void boundsTotalWeightAndRemovesByPredicate() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, 64);
+        for (int key = 0; key < 20; key++) {
+            cache.get(key);
+            cache.put(key, "v" + key, 10);
+        }
+        assertTrue(cache.weight() <= 100, "weight " + cache.weight());
+        assertTrue(cache.getEvictionCount() > 0);
+
+        cache.put(500, "too big", 101);
+        assertNull(cache.get(500));
+
+        int before = cache.size();
+        int removed = cache.removeIf(key -> key % 2 == 0);
+        assertEquals(before - removed, cache.size());
+        for (int key = 0; key < 20; key += 2) {
+            assertNull(cache.get(key));
+        }
+        assertEquals(10L * cache.size(), cache.weight());
+    }
+}
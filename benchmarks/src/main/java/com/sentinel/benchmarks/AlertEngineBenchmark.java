@@ -0,0 +1,72 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.AlertEngine;
+import com.sentinel.DeviceMetrics;
+import com.sentinel.LatestMetricsStore;
+import com.sentinel.WorkerThreads;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of AlertEngine.evaluate across a fleet, with a mix of plain, sustained and
+ * z-score rules on every device. Samples cycle through the fleet so device state does not stay
+ * in cache, as with interleaved agents. Thresholds sit near the top of the generated ranges so
+ * alerts are rare, as in a healthy fleet. rules=0 leaves only the heartbeat bookkeeping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlertEngineBenchmark {
+
+    private static final String[] FIELDS = {"cpuUsage", "memoryUsage", "diskUsage", "latencyMs", "bytesSentPerSec"};
+
+    @Param({"10000"})
+    public int devices;
+
+    @Param({"0", "20"})
+    public int rules;
+
+    private AlertEngine engine;
+    private List<DeviceMetrics> samples;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        StringJoiner definitions = new StringJoiner(";");
+        for (int i = 0; i < rules; i++) {
+            String field = FIELDS[i % FIELDS.length];
+            switch (i % 4) {
+                case 0: definitions.add("r" + i + ": " + field + " > 99.9"); break;
+                case 1: definitions.add("r" + i + ": " + field + " > 99 for 60s"); break;
+                case 2: definitions.add("r" + i + ": " + field + " zscore > 4"); break;
+                default: definitions.add("r" + i + ": " + field + " zscore < -4"); break;
+            }
+        }
+        engine = new AlertEngine(new SimpMessagingTemplate((message, timeout) -> true),
+                Jackson2ObjectMapperBuilder.json().build(), new LatestMetricsStore(null, null, 120),
+                new WorkerThreads(new StandardEnvironment()), definitions.toString(), 0.05, 30, 120, 250);
+        engine.start();
+        samples = BenchmarkData.batch(devices * 20, devices, 13);
+        samples.forEach(engine::evaluate); // past warm-up, so z-scores are live
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.stop();
+    }
+
+    @Benchmark
+    public void evaluate() {
+        engine.evaluate(samples.get(next));
+        next = (next + 1 == samples.size()) ? 0 : next + 1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * Shared fixtures: realistic agent samples and an H2 schema matching the backend's tables.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {}
+
+    static DeviceMetrics sample(SplittableRandom random, String deviceId, LocalDateTime timestamp) {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setCpuUsage(Math.round(random.nextDouble(0, 100) * 10) / 10.0);
+        m.setMemoryUsage(Math.round(random.nextDouble(20, 90) * 10) / 10.0);
+        m.setDiskUsage(Math.round(random.nextDouble(10, 95) * 10) / 10.0);
+        m.setBytesSentPerSec(random.nextLong(0, 5_000_000));
+        m.setBytesRecvPerSec(random.nextLong(0, 20_000_000));
+        m.setDiskReadBytesPerSec(random.nextLong(0, 50_000_000));
+        m.setDiskWriteBytesPerSec(random.nextLong(0, 50_000_000));
+        m.setLatencyMs(random.nextInt(10) == 0 ? null : random.nextDouble(1, 80));
+        m.setSystemUptimeSeconds(random.nextDouble(0, 3_000_000));
+        m.setTimestamp(timestamp);
+        return m;
+    }
+
+    static List<DeviceMetrics> batch(int size, int devices, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        List<DeviceMetrics> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(sample(random, "bench-device-" + (i % devices), start.plusSeconds(3L * i)));
+        }
+        return batch;
+    }
+
+    // Fresh instances per request, like Jackson hands to the controller; ingest mutates them
+    static List<DeviceMetrics> copy(List<DeviceMetrics> metrics) {
+        List<DeviceMetrics> copies = new ArrayList<>(metrics.size());
+        for (DeviceMetrics source : metrics) {
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(source.getDeviceId());
+            m.setCpuUsage(source.getCpuUsage());
+            m.setMemoryUsage(source.getMemoryUsage());
+            m.setDiskUsage(source.getDiskUsage());
+            m.setBytesSentPerSec(source.getBytesSentPerSec());
+            m.setBytesRecvPerSec(source.getBytesRecvPerSec());
+            m.setDiskReadBytesPerSec(source.getDiskReadBytesPerSec());
+            m.setDiskWriteBytesPerSec(source.getDiskWriteBytesPerSec());
+            m.setLatencyMs(source.getLatencyMs());
+            m.setSystemUptimeSeconds(source.getSystemUptimeSeconds());
+            m.setTimestamp(source.getTimestamp());
+            m.setSeq(source.getSeq());
+            copies.add(m);
+        }
+        return copies;
+    }
+
+    static JdbcTemplate h2() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE SEQUENCE devices_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE devices (id INTEGER PRIMARY KEY, device_id VARCHAR(255) NOT NULL UNIQUE, "
+                + "registered_at TIMESTAMP(6))");
+        jdbcTemplate.execute("CREATE SEQUENCE device_metrics_seq START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE device_metrics (id BIGINT PRIMARY KEY, device_key INTEGER, "
+                + "cpu_usage DOUBLE PRECISION, memory_usage DOUBLE PRECISION, disk_usage DOUBLE PRECISION, "
+                + "bytes_sent_per_sec BIGINT, bytes_recv_per_sec BIGINT, disk_read_bytes_per_sec BIGINT, "
+                + "disk_write_bytes_per_sec BIGINT, latency_ms DOUBLE PRECISION, system_uptime_seconds DOUBLE PRECISION, "
+                + "timestamp TIMESTAMP(6), client_seq BIGINT)");
+        jdbcTemplate.execute("CREATE INDEX idx_device_metrics_device_ts ON device_metrics (device_key, timestamp)");
+        return jdbcTemplate;
+    }
+}
@@ -0,0 +1,192 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsBatchWriter;
+import com.sentinel.DeviceRegistry;
+import com.sentinel.MetricChunkCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One device-hour (1200 samples at 3s) read back as rows from the H2 table versus decoded from a
+ * sealed MetricChunk, plus the cost of sealing it. Setup prints the storage footprint of both
+ * layouts. data=agent is what agents report (percentages to one decimal drifting between
+ * samples, smooth counters, a steady interval with jitter); data=random is uniform noise in
+ * every column, the worst case for XOR encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkStorageBenchmark {
+
+    private static final int SAMPLES_PER_CHUNK = 1200;
+
+    // PostgreSQL heap tuple header + line pointer, plus entries in the primary key and (device_key, timestamp) indexes
+    private static final int PG_ROW_OVERHEAD = 24 + 4;
+    private static final int PG_INDEX_ENTRY_OVERHEAD = 8 + 4;
+
+    private final RowMapper<DeviceMetrics> rowMapper = (rs, rowNum) -> {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setId(rs.getLong("id"));
+        m.setDeviceId(this.registry.deviceIdOf(rs.getInt("device_key")));
+        m.setCpuUsage(rs.getDouble("cpu_usage"));
+        m.setMemoryUsage(rs.getDouble("memory_usage"));
+        m.setDiskUsage(rs.getDouble("disk_usage"));
+        m.setBytesSentPerSec(rs.getObject("bytes_sent_per_sec", Long.class));
+        m.setBytesRecvPerSec(rs.getObject("bytes_recv_per_sec", Long.class));
+        m.setDiskReadBytesPerSec(rs.getObject("disk_read_bytes_per_sec", Long.class));
+        m.setDiskWriteBytesPerSec(rs.getObject("disk_write_bytes_per_sec", Long.class));
+        m.setLatencyMs(rs.getObject("latency_ms", Double.class));
+        m.setSystemUptimeSeconds(rs.getObject("system_uptime_seconds", Double.class));
+        m.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        return m;
+    };
+
+    @Param({"agent", "random"})
+    public String data;
+
+    @Param({"20"})
+    public int devices;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private List<List<DeviceMetrics>> hours;
+    private byte[][] chunks;
+    private LocalDateTime start;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        jdbcTemplate = BenchmarkData.h2();
+        registry = new DeviceRegistry(jdbcTemplate);
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        start = LocalDateTime.of(2024, 5, 1, 10, 0);
+        SplittableRandom random = new SplittableRandom(23);
+        for (int d = 0; d < devices; d++) {
+            List<DeviceMetrics> hour = "random".equals(data)
+                    ? randomHour(random, "bench-device-" + d) : agentHour(random, "bench-device-" + d);
+            writer.write(hour);
+        }
+
+        // Read back so the chunks carry the ids the table assigned
+        hours = new ArrayList<>(devices);
+        chunks = new byte[devices][];
+        long rowBytes = 0;
+        long namedRowBytes = 0;
+        long chunkBytes = 0;
+        for (int d = 0; d < devices; d++) {
+            List<DeviceMetrics> hour = readRows(d);
+            hours.add(hour);
+            chunks[d] = MetricChunkCodec.encode(hour);
+            chunkBytes += chunks[d].length;
+            for (DeviceMetrics m : hour) {
+                rowBytes += pgRowBytes(m, 4);
+                namedRowBytes += pgRowBytes(m, 1 + m.getDeviceId().getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        long samples = (long) devices * SAMPLES_PER_CHUNK;
+        System.out.printf("%n[%s] row layout ~%.1f bytes/sample (PostgreSQL tuple + index entries; %.1f storing "
+                        + "device names), chunk %.1f bytes/sample, %.1fx smaller%n",
+                data, (double) rowBytes / samples, (double) namedRowBytes / samples, (double) chunkBytes / samples,
+                (double) rowBytes / chunkBytes);
+    }
+
+    private List<DeviceMetrics> agentHour(SplittableRandom random, String deviceId) {
+        List<DeviceMetrics> hour = new ArrayList<>(SAMPLES_PER_CHUNK);
+        LocalDateTime timestamp = start;
+        double cpu = random.nextDouble(5, 60);
+        double memory = random.nextDouble(30, 80);
+        double disk = random.nextDouble(20, 90);
+        double uptime = random.nextInt(1_000_000);
+        long sent = random.nextLong(1000, 500_000);
+        long recv = random.nextLong(1000, 2_000_000);
+        for (int i = 0; i < SAMPLES_PER_CHUNK; i++) {
+            timestamp = timestamp.plusNanos(3_000_000_000L + random.nextInt(-20_000, 20_000) * 1000L);
+            cpu = clamp(cpu + random.nextDouble(-4, 4));
+            memory = clamp(memory + random.nextDouble(-0.3, 0.3));
+            if (random.nextInt(100) == 0) {
+                disk = clamp(disk + 0.1);
+            }
+            sent = Math.max(0, sent + random.nextLong(-20_000, 20_000));
+            recv = Math.max(0, recv + random.nextLong(-80_000, 80_000));
+            uptime += 3;
+
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(deviceId);
+            m.setTimestamp(timestamp);
+            m.setCpuUsage(Math.round(cpu * 10) / 10.0);
+            m.setMemoryUsage(Math.round(memory * 10) / 10.0);
+            m.setDiskUsage(Math.round(disk * 10) / 10.0);
+            m.setBytesSentPerSec(sent);
+            m.setBytesRecvPerSec(recv);
+            m.setDiskReadBytesPerSec(random.nextInt(4) == 0 ? random.nextLong(0, 2_000_000) : 0L);
+            m.setDiskWriteBytesPerSec(random.nextLong(0, 400_000) / 4096 * 4096);
+            m.setLatencyMs(random.nextInt(10) == 0 ? null : Math.round(random.nextDouble(5, 40) * 100) / 100.0);
+            m.setSystemUptimeSeconds((double) Math.round(uptime));
+            hour.add(m);
+        }
+        return hour;
+    }
+
+    private List<DeviceMetrics> randomHour(SplittableRandom random, String deviceId) {
+        List<DeviceMetrics> hour = new ArrayList<>(SAMPLES_PER_CHUNK);
+        for (int i = 0; i < SAMPLES_PER_CHUNK; i++) {
+            hour.add(BenchmarkData.sample(random, deviceId, start.plusSeconds(3L * (i + 1))));
+        }
+        return hour;
+    }
+
+    private static double clamp(double percent) {
+        return Math.max(0, Math.min(100, percent));
+    }
+
+    private static long pgRowBytes(DeviceMetrics m, int deviceColumnBytes) {
+        long tuple = PG_ROW_OVERHEAD + 8 + deviceColumnBytes + 3 * 8 + 8
+                + (m.getBytesSentPerSec() != null ? 8 : 0) + (m.getBytesRecvPerSec() != null ? 8 : 0)
+                + (m.getDiskReadBytesPerSec() != null ? 8 : 0) + (m.getDiskWriteBytesPerSec() != null ? 8 : 0)
+                + (m.getLatencyMs() != null ? 8 : 0) + (m.getSystemUptimeSeconds() != null ? 8 : 0);
+        long primaryKey = PG_INDEX_ENTRY_OVERHEAD + 8;
+        long deviceTimestamp = PG_INDEX_ENTRY_OVERHEAD + deviceColumnBytes + 8;
+        return tuple + primaryKey + deviceTimestamp;
+    }
+
+    private List<DeviceMetrics> readRows(int device) {
+        return jdbcTemplate.query("SELECT * FROM device_metrics WHERE device_key = ? AND timestamp >= ? AND timestamp < ? "
+                        + "ORDER BY timestamp, id", rowMapper, registry.find("bench-device-" + device),
+                Timestamp.valueOf(start), Timestamp.valueOf(start.plusHours(2)));
+    }
+
+    private int nextDevice() {
+        next = (next + 1) % devices;
+        return next;
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> readHourFromRows() {
+        return readRows(nextDevice());
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> decodeHourFromChunk() {
+        int device = nextDevice();
+        return MetricChunkCodec.decode("bench-device-" + device, chunks[device]);
+    }
+
+    @Benchmark
+    public byte[] encodeHour() {
+        return MetricChunkCodec.encode(hours.get(nextDevice()));
+    }
+}
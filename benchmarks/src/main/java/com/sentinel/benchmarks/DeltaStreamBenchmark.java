@@ -0,0 +1,111 @@
+package com.sentinel.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sentinel.DeviceMetrics;
+import com.sentinel.MetricsDeltaStream;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One broadcast frame of every device reporting once, as whole DeviceMetrics JSON (what
+ * /topic/metrics/{deviceId} sends) against the quantized deltas of /topic/deltas/{deviceId}.
+ * Samples follow agent-like random walks rather than uniform noise, since deltas only pay off
+ * on values that move gradually. Teardown prints the bytes each device update cost on the wire.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeltaStreamBenchmark {
+
+    @Param({"1000"})
+    public int devices;
+
+    private ObjectMapper objectMapper;
+    private MetricsDeltaStream deltas;
+    private DeviceMetrics[] current;
+    private SplittableRandom random;
+    private LocalDateTime timestamp;
+
+    private long fullBytes;
+    private long fullUpdates;
+    private long deltaBytes;
+    private long deltaUpdates;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        deltas = new MetricsDeltaStream(new SimpMessagingTemplate((message, timeout) -> {
+            deltaBytes += ((byte[]) message.getPayload()).length;
+            return true;
+        }), objectMapper, true, 0.1, "bytesSentPerSec:1000, bytesRecvPerSec:1000, diskReadBytesPerSec:1000, "
+                + "diskWriteBytesPerSec:1000, systemUptimeSeconds:60", 120);
+        random = new SplittableRandom(31);
+        timestamp = LocalDateTime.now();
+        current = new DeviceMetrics[devices];
+        for (int d = 0; d < devices; d++) {
+            current[d] = BenchmarkData.sample(random, "bench-device-" + d, timestamp);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nfull objects %.1f bytes/update, deltas %.1f bytes/update%n",
+                (double) fullBytes / Math.max(1, fullUpdates), (double) deltaBytes / Math.max(1, deltaUpdates));
+    }
+
+    // Advances every device by one 3s sample
+    private List<DeviceMetrics> nextFrame() {
+        timestamp = timestamp.plusSeconds(3);
+        List<DeviceMetrics> frame = new ArrayList<>(devices);
+        for (int d = 0; d < devices; d++) {
+            DeviceMetrics previous = current[d];
+            DeviceMetrics m = new DeviceMetrics();
+            m.setDeviceId(previous.getDeviceId());
+            m.setCpuUsage(walk(previous.getCpuUsage(), 2.0, 0, 100));
+            m.setMemoryUsage(walk(previous.getMemoryUsage(), 0.05, 0, 100));
+            m.setDiskUsage(previous.getDiskUsage());
+            m.setBytesSentPerSec(Math.max(0, previous.getBytesSentPerSec() + random.nextLong(-2000, 2000)));
+            m.setBytesRecvPerSec(Math.max(0, previous.getBytesRecvPerSec() + random.nextLong(-8000, 8000)));
+            m.setDiskReadBytesPerSec(random.nextInt(4) == 0 ? random.nextLong(0, 1_000_000) : 0L);
+            m.setDiskWriteBytesPerSec(random.nextInt(4) == 0 ? random.nextLong(0, 1_000_000) : 0L);
+            m.setLatencyMs(previous.getLatencyMs() == null ? null : walk(previous.getLatencyMs(), 0.5, 1, 500));
+            m.setSystemUptimeSeconds(previous.getSystemUptimeSeconds() + 3);
+            m.setTimestamp(timestamp);
+            current[d] = m;
+            frame.add(m);
+        }
+        return frame;
+    }
+
+    private double walk(double value, double step, double min, double max) {
+        return Math.min(max, Math.max(min, value + random.nextDouble(-step, step)));
+    }
+
+    @Benchmark
+    public long fullObjects() throws Exception {
+        long bytes = 0;
+        for (DeviceMetrics m : nextFrame()) {
+            bytes += objectMapper.writeValueAsBytes(m).length;
+        }
+        fullBytes += bytes;
+        fullUpdates += devices;
+        return bytes;
+    }
+
+    @Benchmark
+    public long deltaFrame() {
+        deltas.publishFrame(nextFrame());
+        deltaUpdates += devices;
+        return deltaBytes;
+    }
+}
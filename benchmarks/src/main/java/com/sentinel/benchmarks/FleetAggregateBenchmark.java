@@ -0,0 +1,112 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.FleetAggregate;
+import com.sentinel.FleetAggregateService;
+import com.sentinel.FleetTopK;
+import com.sentinel.LatestMetricsStore;
+import com.sentinel.MetricField;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fleet p95 and top-k over the last hour (every device reporting each 3s) from the per-device
+ * bucket sketches, against the exact p95 a client computes after pulling every sample, which
+ * is the floor for doing it outside the backend. Setup prints the heap the summaries take.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class FleetAggregateBenchmark {
+
+    private static final int SAMPLES_PER_DEVICE = 1200;
+
+    @Param({"1000", "5000"})
+    public int devices;
+
+    @Param({"60", "300"})
+    public int bucketSeconds;
+
+    private FleetAggregateService fleet;
+    private double[] allCpu;
+    private LocalDateTime from;
+    private LocalDateTime to;
+
+    @Setup
+    public void setUp() {
+        System.gc();
+        long before = usedHeap();
+        fleet = new FleetAggregateService(new LatestMetricsStore(null, null, 120), bucketSeconds, 60, 0);
+        to = LocalDateTime.now();
+        from = to.minusHours(1);
+        allCpu = new double[devices * SAMPLES_PER_DEVICE];
+        SplittableRandom random = new SplittableRandom(31);
+        List<DeviceMetrics> batch = new ArrayList<>(SAMPLES_PER_DEVICE);
+        for (int d = 0; d < devices; d++) {
+            // Each device drifts around its own baseline, like real hosts
+            double cpu = random.nextDouble(5, 80);
+            double memory = random.nextDouble(20, 90);
+            long sent = random.nextLong(1_000, 5_000_000);
+            long written = random.nextLong(0, 50_000_000);
+            batch.clear();
+            for (int i = 0; i < SAMPLES_PER_DEVICE; i++) {
+                cpu = Math.max(0, Math.min(100, cpu + random.nextDouble(-3, 3)));
+                DeviceMetrics m = new DeviceMetrics();
+                m.setDeviceId("bench-device-" + d);
+                m.setTimestamp(from.plusSeconds(3L * i + 1));
+                m.setCpuUsage(Math.round(cpu * 10) / 10.0);
+                m.setMemoryUsage(Math.round(memory * 10) / 10.0);
+                m.setDiskUsage(55.5);
+                m.setBytesSentPerSec(Math.max(0, sent + random.nextLong(-sent / 10 - 1, sent / 10 + 1)));
+                m.setBytesRecvPerSec(Math.max(0, sent * 3 + random.nextLong(-sent / 5 - 1, sent / 5 + 1)));
+                m.setDiskReadBytesPerSec(random.nextInt(4) == 0 ? random.nextLong(0, 2_000_000) : 0L);
+                m.setDiskWriteBytesPerSec(Math.max(0, written + random.nextLong(-written / 4 - 1, written / 4 + 1)));
+                m.setLatencyMs(random.nextDouble(5, 40));
+                m.setSystemUptimeSeconds(100_000.0 + 3 * i);
+                batch.add(m);
+                allCpu[d * SAMPLES_PER_DEVICE + i] = m.getCpuUsage();
+            }
+            fleet.accept(batch);
+        }
+        System.gc();
+        long summaries = usedHeap() - before - (long) allCpu.length * 8;
+        System.out.printf("%n[%d devices, %ds buckets] fleet summaries ~%d KB per device%n",
+                devices, bucketSeconds, summaries / devices / 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fleet.stop();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public FleetAggregate fleetP95() {
+        return fleet.aggregate(MetricField.CPU_USAGE, List.of("p95"), from, to, null, null);
+    }
+
+    @Benchmark
+    public FleetTopK fleetTop20DiskWrite() {
+        return fleet.topK(MetricField.DISK_WRITE_BYTES_PER_SEC, "avg", 20, false, from, to);
+    }
+
+    @Benchmark
+    public double exactP95AfterPullingEverySample() {
+        double[] sorted = allCpu.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.floor(0.95 * (sorted.length - 1))];
+    }
+}
@@ -0,0 +1,67 @@
+package com.sentinel.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sentinel.BinaryMetricsCodec;
+import com.sentinel.DeviceMetrics;
+import com.sentinel.LineProtocolCodec;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse cost of a /api/metrics/batch body: Jackson binding (today's path) versus the
+ * binary frame format, and of the same batch as a line-protocol frame for the TCP/UDP listener.
+ * Bytes on the wire for each format are printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestCodecBenchmark {
+
+    private static final TypeReference<List<DeviceMetrics>> BATCH_TYPE = new TypeReference<>() {};
+
+    @Param({"5", "100", "1000"})
+    public int batchSize;
+
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] lines;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        List<DeviceMetrics> batch = BenchmarkData.batch(batchSize, 1, 42);
+        // The agent doesn't send timestamps or ids
+        for (DeviceMetrics m : batch) {
+            m.setTimestamp(null);
+        }
+        json = objectMapper.writeValueAsBytes(batch);
+        binary = BinaryMetricsCodec.encode(batch);
+        lines = LineProtocolCodec.encode(batch);
+        System.out.printf("%n[wire] batchSize=%d json=%d bytes binary=%d bytes (%.1fx smaller) lines=%d bytes (%.1fx smaller)%n",
+                batchSize, json.length, binary.length, (double) json.length / binary.length,
+                lines.length, (double) json.length / lines.length);
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> jsonBinding() throws Exception {
+        return objectMapper.readValue(json, BATCH_TYPE);
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> binaryDecode() {
+        return BinaryMetricsCodec.decode(binary);
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> lineProtocolDecode() {
+        return LineProtocolCodec.decode(lines);
+    }
+}
@@ -0,0 +1,83 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsBatchWriter;
+import com.sentinel.DeviceRegistry;
+import com.sentinel.IngestDeduplicator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognising a retried batch: IngestDeduplicator's per-device bitmap against the alternative of
+ * a unique (device_key, client_seq) index probed once per row, on H2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestDedupeBenchmark {
+
+    private static final int SAMPLES_PER_DEVICE = 100;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1000"})
+    public int devices;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private IngestDeduplicator deduplicator;
+    private List<DeviceMetrics> retried;
+
+    @Setup
+    public void setUp() {
+        jdbcTemplate = BenchmarkData.h2();
+        registry = new DeviceRegistry(jdbcTemplate);
+        List<DeviceMetrics> rows = BenchmarkData.batch(devices * SAMPLES_PER_DEVICE, devices, 13);
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).setSeq((long) (i / devices) + 1);
+        }
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        for (int i = 0; i < rows.size(); i += 1000) {
+            writer.write(rows.subList(i, Math.min(rows.size(), i + 1000)));
+        }
+        jdbcTemplate.execute("CREATE UNIQUE INDEX idx_device_metrics_client_seq ON device_metrics (device_key, client_seq)");
+
+        deduplicator = new IngestDeduplicator(jdbcTemplate, registry, true, 1024, 300);
+        for (DeviceMetrics m : BenchmarkData.copy(rows)) {
+            deduplicator.admit(m);
+        }
+        // The newest samples of a hundred devices, sent again after a timed-out response
+        retried = rows.subList(rows.size() - BATCH_SIZE, rows.size());
+    }
+
+    @Benchmark
+    public int uniqueIndexLookups() {
+        int duplicates = 0;
+        for (DeviceMetrics m : retried) {
+            Integer found = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM device_metrics WHERE device_key = ? AND client_seq = ?",
+                    Integer.class, registry.find(m.getDeviceId()), m.getSeq());
+            if (found != null && found > 0) {
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+
+    @Benchmark
+    public int bitmapWindows() {
+        int duplicates = 0;
+        for (DeviceMetrics m : retried) {
+            if (deduplicator.admit(m) == IngestDeduplicator.Verdict.DUPLICATE) {
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+}
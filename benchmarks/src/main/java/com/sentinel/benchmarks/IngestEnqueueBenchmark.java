@@ -0,0 +1,105 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.AlertEngine;
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsController;
+import com.sentinel.IngestDeduplicator;
+import com.sentinel.LatestMetricsStore;
+import com.sentinel.MetricsBroadcaster;
+import com.sentinel.MetricsIngestQueue;
+import com.sentinel.MetricsIngestService;
+import com.sentinel.MetricsQueueConsumerService;
+import com.sentinel.MetricsWriteAheadLog;
+import com.sentinel.PipelineMetrics;
+import com.sentinel.RecentMetricsBuffer;
+import com.sentinel.WorkerThreads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of DeviceMetricsController.submitMetricsBatch with agent-sized batches, from
+ * write-ahead log append and queue hand-off through the latest-value store and broadcast
+ * staging. Nothing drains the queue, so it runs with DROP_OLDEST to stay at a steady state;
+ * evicted metrics release their log records, so segments keep rolling over and being deleted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestEnqueueBenchmark {
+
+    @Param({"5", "100"})
+    public int batchSize;
+
+    // OFF disables the write-ahead log, NONE appends without forcing, GROUP_COMMIT waits for msync
+    @Param({"OFF", "NONE", "GROUP_COMMIT"})
+    public String walMode;
+
+    private Path walDirectory;
+    private MetricsWriteAheadLog wal;
+    private DeviceMetricsController controller;
+    private List<DeviceMetrics> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        walDirectory = Files.createTempDirectory("sentinel-wal-bench");
+        wal = walMode.equals("OFF")
+                ? new MetricsWriteAheadLog(false, null, 0, MetricsWriteAheadLog.SyncMode.NONE)
+                : new MetricsWriteAheadLog(true, walDirectory.toString(), 16, MetricsWriteAheadLog.SyncMode.valueOf(walMode));
+        wal.open();
+        MetricsIngestQueue queue = new MetricsIngestQueue(100_000, 4, MetricsIngestQueue.OverflowPolicy.DROP_OLDEST, 0,
+                wal::release);
+        LatestMetricsStore latestStore = new LatestMetricsStore(null, null, 120);
+        MetricsBroadcaster broadcaster = new MetricsBroadcaster(
+                new SimpMessagingTemplate((message, timeout) -> true),
+                Jackson2ObjectMapperBuilder.json().build(),
+                MetricsBroadcaster.CoalesceMode.LATEST, 250,
+                new WorkerThreads(new StandardEnvironment()), null, null);
+        AlertEngine alertEngine = new AlertEngine(new SimpMessagingTemplate((message, timeout) -> true),
+                Jackson2ObjectMapperBuilder.json().build(), latestStore, new WorkerThreads(new StandardEnvironment()),
+                "cpu-high: cpuUsage > 90 for 60s; cpu-anomaly: cpuUsage zscore > 4", 0.05, 30, 120, 250);
+        IngestDeduplicator deduplicator = new IngestDeduplicator(null, null, true, 1024, 300);
+        RecentMetricsBuffer recentBuffer = new RecentMetricsBuffer(300, 2000);
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(new SimpleMeterRegistry(), true);
+        controller = new DeviceMetricsController(null, broadcaster, queue, deduplicator, latestStore,
+                recentBuffer, null, alertEngine, null, null, null, null,
+                new MetricsQueueConsumerService(null, queue, null, null, null, wal, null, null, 20, 5000, 100, 5, 50, 15000, 120000, 60),
+                new MetricsIngestService(queue, wal, deduplicator, latestStore, recentBuffer, alertEngine, broadcaster,
+                        pipelineMetrics, null), null);
+        batch = BenchmarkData.batch(batchSize, 50, 7);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        wal.close();
+        try (var files = Files.list(walDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(walDirectory);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ResponseEntity<String> submitMetricsBatch() {
+        // Stamped now, like live agents' samples; replaying the same old timestamps would measure re-sorting
+        List<DeviceMetrics> metrics = BenchmarkData.copy(batch);
+        LocalDateTime now = LocalDateTime.now();
+        metrics.forEach(m -> m.setTimestamp(now));
+        return controller.submitMetricsBatch(metrics, null, null);
+    }
+}
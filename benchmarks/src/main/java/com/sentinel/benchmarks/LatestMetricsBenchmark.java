@@ -0,0 +1,98 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsBatchWriter;
+import com.sentinel.DeviceRegistry;
+import com.sentinel.LatestMetricsStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The /api/metrics/latest path against H2 with many devices: the original one-query-per-device
+ * loop, the single grouped query used to warm LatestMetricsStore, and the store itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LatestMetricsBenchmark {
+
+    private static final int SAMPLES_PER_DEVICE = 10;
+
+    private final RowMapper<DeviceMetrics> rowMapper = (rs, rowNum) -> {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setId(rs.getLong("id"));
+        m.setDeviceId(this.registry.deviceIdOf(rs.getInt("device_key")));
+        m.setCpuUsage(rs.getDouble("cpu_usage"));
+        m.setMemoryUsage(rs.getDouble("memory_usage"));
+        m.setDiskUsage(rs.getDouble("disk_usage"));
+        m.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        return m;
+    };
+
+    @Param({"1000", "10000"})
+    public int devices;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private LatestMetricsStore store;
+
+    @Setup
+    public void setUp() {
+        jdbcTemplate = BenchmarkData.h2();
+        registry = new DeviceRegistry(jdbcTemplate);
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        store = new LatestMetricsStore(null, null, 120);
+        List<DeviceMetrics> rows = BenchmarkData.batch(devices * SAMPLES_PER_DEVICE, devices, 11);
+        for (int i = 0; i < rows.size(); i += 1000) {
+            writer.write(rows.subList(i, Math.min(rows.size(), i + 1000)));
+        }
+        rows.forEach(store::update);
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> perDeviceQueries() {
+        List<Integer> deviceKeys = jdbcTemplate.queryForList("SELECT DISTINCT device_key FROM device_metrics", Integer.class);
+        List<DeviceMetrics> latest = new ArrayList<>(deviceKeys.size());
+        for (Integer deviceKey : deviceKeys) {
+            latest.addAll(jdbcTemplate.query(
+                    "SELECT * FROM device_metrics WHERE device_key = ? ORDER BY timestamp DESC LIMIT 1", rowMapper, deviceKey));
+        }
+        return latest;
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> groupedQuery() {
+        return jdbcTemplate.query("SELECT * FROM device_metrics WHERE (device_key, timestamp) IN "
+                + "(SELECT device_key, MAX(timestamp) FROM device_metrics GROUP BY device_key)", rowMapper);
+    }
+
+    // Device listing: what GET /api/devices did before the registry, and what it does now
+    @Benchmark
+    public List<String> distinctScanDeviceIds() {
+        List<Integer> deviceKeys = jdbcTemplate.queryForList("SELECT DISTINCT device_key FROM device_metrics", Integer.class);
+        List<String> deviceIds = new ArrayList<>(deviceKeys.size());
+        for (Integer deviceKey : deviceKeys) {
+            deviceIds.add(registry.deviceIdOf(deviceKey));
+        }
+        return deviceIds;
+    }
+
+    @Benchmark
+    public List<String> registryDeviceIds() {
+        return registry.getDeviceIds();
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> latestStore() {
+        return store.getLatest();
+    }
+}
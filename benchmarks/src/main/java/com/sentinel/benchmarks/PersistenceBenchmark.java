@@ -0,0 +1,60 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsBatchWriter;
+import com.sentinel.DeviceRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One consumer-worker cycle against H2: drain a partition and persist the batch through
+ * DeviceMetricsBatchWriter. Rows/s = ops/s x batchSize.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"20", "100", "1000"})
+    public int batchSize;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceMetricsBatchWriter writer;
+    private BlockingQueue<DeviceMetrics> partition;
+    private final List<DeviceMetrics> drained = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        jdbcTemplate = BenchmarkData.h2();
+        writer = new DeviceMetricsBatchWriter(null, jdbcTemplate, new DeviceRegistry(jdbcTemplate),
+                DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        partition = new ArrayBlockingQueue<>(batchSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("TRUNCATE TABLE device_metrics");
+    }
+
+    @Setup(Level.Invocation)
+    public void fillPartition() {
+        partition.addAll(BenchmarkData.batch(batchSize, 20, System.nanoTime()));
+    }
+
+    @Benchmark
+    public int drainAndSave() {
+        drained.clear();
+        partition.drainTo(drained, batchSize);
+        writer.write(drained);
+        return drained.size();
+    }
+}
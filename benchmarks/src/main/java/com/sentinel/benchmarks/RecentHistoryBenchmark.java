@@ -0,0 +1,100 @@
+package com.sentinel.benchmarks;
+
+import com.sentinel.DeviceMetrics;
+import com.sentinel.DeviceMetricsBatchWriter;
+import com.sentinel.DeviceRegistry;
+import com.sentinel.RecentMetricsBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A recent-window history read (the last 5 minutes of one device, 100 samples at 3s) from the
+ * H2 table the repository queries versus from RecentMetricsBuffer, which the controller now
+ * tries first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecentHistoryBenchmark {
+
+    private static final int SAMPLES_PER_DEVICE = 300;
+    private static final int WINDOW_SAMPLES = 100;
+
+    private final RowMapper<DeviceMetrics> rowMapper = (rs, rowNum) -> {
+        DeviceMetrics m = new DeviceMetrics();
+        m.setId(rs.getLong("id"));
+        m.setDeviceId(this.registry.deviceIdOf(rs.getInt("device_key")));
+        m.setCpuUsage(rs.getDouble("cpu_usage"));
+        m.setMemoryUsage(rs.getDouble("memory_usage"));
+        m.setDiskUsage(rs.getDouble("disk_usage"));
+        m.setBytesSentPerSec(rs.getObject("bytes_sent_per_sec", Long.class));
+        m.setBytesRecvPerSec(rs.getObject("bytes_recv_per_sec", Long.class));
+        m.setDiskReadBytesPerSec(rs.getObject("disk_read_bytes_per_sec", Long.class));
+        m.setDiskWriteBytesPerSec(rs.getObject("disk_write_bytes_per_sec", Long.class));
+        m.setLatencyMs(rs.getObject("latency_ms", Double.class));
+        m.setSystemUptimeSeconds(rs.getObject("system_uptime_seconds", Double.class));
+        m.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        return m;
+    };
+
+    @Param({"1000"})
+    public int devices;
+
+    private JdbcTemplate jdbcTemplate;
+    private DeviceRegistry registry;
+    private RecentMetricsBuffer buffer;
+    private LocalDateTime from;
+    private long fromMicros;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        jdbcTemplate = BenchmarkData.h2();
+        registry = new DeviceRegistry(jdbcTemplate);
+        DeviceMetricsBatchWriter writer =
+                new DeviceMetricsBatchWriter(null, jdbcTemplate, registry, DeviceMetricsBatchWriter.WriteMode.JDBC_BATCH);
+        buffer = new RecentMetricsBuffer(SAMPLES_PER_DEVICE, devices);
+        // Stamped after the buffer was created, as samples ingested since startup are
+        LocalDateTime start = LocalDateTime.now().plusSeconds(1);
+        SplittableRandom random = new SplittableRandom(17);
+        List<DeviceMetrics> rows = new ArrayList<>(devices);
+        for (int k = 0; k < SAMPLES_PER_DEVICE; k++) {
+            rows.clear();
+            for (int d = 0; d < devices; d++) {
+                rows.add(BenchmarkData.sample(random, "bench-device-" + d, start.plusSeconds(3L * k)));
+            }
+            writer.write(rows);
+            rows.forEach(buffer::append);
+        }
+        from = start.plusSeconds(3L * (SAMPLES_PER_DEVICE - WINDOW_SAMPLES) - 1);
+        fromMicros = from.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + from.getNano() / 1000;
+    }
+
+    private String nextDevice() {
+        next = (next + 1) % devices;
+        return "bench-device-" + next;
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> database() {
+        return jdbcTemplate.query("SELECT * FROM device_metrics WHERE device_key = ? AND timestamp > ? LIMIT ?",
+                rowMapper, registry.find(nextDevice()), Timestamp.valueOf(from), WINDOW_SAMPLES);
+    }
+
+    @Benchmark
+    public List<DeviceMetrics> recentBuffer() {
+        return buffer.find(nextDevice(), fromMicros, Long.MAX_VALUE, false, WINDOW_SAMPLES);
+    }
+}
@@ -0,0 +1,88 @@
+package com.sentinel.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A scrape of the backend's /actuator/prometheus, as the load generator's user, for what only the backend can see: rows
+ * persisted, duplicates it dropped, and the enqueue-to-persist lag (one sample per flush, taken
+ * from the flush's oldest row, so it is the worst case of each batch). Two scrapes taken around the
+ * measured window are diffed, and the lag timer's cumulative buckets are replayed into an
+ * HdrHistogram so it reports like the client-side latencies (at the timer's bucket resolution).
+ */
+class BackendMeters {
+
+    private static final String PERSIST_LAG = "sentinel_ingest_persist_lag_seconds";
+
+    // Series name without labels -> sum over label sets
+    private final Map<String, Double> totals = new HashMap<>();
+    // Upper bound in seconds -> cumulative count, of the persist lag histogram
+    private final TreeMap<Double, Double> lagBuckets = new TreeMap<>();
+
+    private BackendMeters() {}
+
+    static BackendMeters scrape(HttpClient client, String url, String token) {
+        BackendMeters meters = new BackendMeters();
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + "/actuator/prometheus"))
+                    .header("Authorization", "Bearer " + token)
+                    .timeout(Duration.ofSeconds(10)).GET().build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == 200) {
+                response.body().lines().forEach(meters::parse);
+            }
+        } catch (Exception e) {
+            // Reported as zeros; the client-side numbers still stand
+        }
+        return meters;
+    }
+
+    double total(String name) {
+        return totals.getOrDefault(name, 0.0);
+    }
+
+    double delta(BackendMeters before, String name) {
+        return total(name) - before.total(name);
+    }
+
+    /** Persist lag samples recorded between the two scrapes, in microseconds. */
+    Histogram persistLagSince(BackendMeters before) {
+        Histogram histogram = new Histogram(3_600_000_000L, 3);
+        double previous = 0;
+        for (Map.Entry<Double, Double> bucket : lagBuckets.entrySet()) {
+            double cumulative = bucket.getValue() - before.lagBuckets.getOrDefault(bucket.getKey(), 0.0);
+            long count = Math.round(cumulative - previous);
+            previous = cumulative;
+            if (count > 0) {
+                double upper = bucket.getKey().isInfinite() ? total(PERSIST_LAG + "_max") : bucket.getKey();
+                histogram.recordValueWithCount(Math.min(histogram.getHighestTrackableValue(),
+                        Math.max(1, Math.round(upper * 1_000_000))), count);
+            }
+        }
+        return histogram;
+    }
+
+    private void parse(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+        int space = line.lastIndexOf(' ');
+        int brace = line.indexOf('{');
+        String name = line.substring(0, brace >= 0 && brace < space ? brace : space);
+        double value = Double.parseDouble(line.substring(space + 1));
+        if (name.equals(PERSIST_LAG + "_bucket")) {
+            int le = line.indexOf("le=\"");
+            String bound = line.substring(le + 4, line.indexOf('"', le + 4));
+            lagBuckets.merge(bound.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(bound), value, Double::sum);
+        } else {
+            totals.merge(name, value, Double::sum);
+        }
+    }
+}
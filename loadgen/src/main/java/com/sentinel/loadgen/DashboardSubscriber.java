@@ -0,0 +1,115 @@
+package com.sentinel.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Recorder;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One dashboard tab: a STOMP session on /ws following a handful of devices, on the full-object
+ * topics the React dashboard uses or on the delta topics. Delivery latency runs from the moment
+ * the virtual agent posted the batch carrying a sample to the sample's arrival here, so it covers
+ * ingest, coalescing and fan-out but not the agent's own batching.
+ */
+class DashboardSubscriber extends StompSessionHandlerAdapter {
+
+    private final WebSocketStompClient client;
+    private final String url;
+    private final List<VirtualDevice> devices;
+    private final boolean deltas;
+    private final ObjectMapper mapper;
+    private final Recorder deliveryMicros;
+    private final List<StompSession.Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile StompSession session;
+
+    DashboardSubscriber(WebSocketStompClient client, String url, List<VirtualDevice> devices, boolean deltas,
+                        ObjectMapper mapper, Recorder deliveryMicros) {
+        this.client = client;
+        this.url = url;
+        this.devices = devices;
+        this.deltas = deltas;
+        this.mapper = mapper;
+        this.deliveryMicros = deliveryMicros;
+    }
+
+    void connect() throws Exception {
+        session = client.connectAsync(url + "/ws", this).get(30, TimeUnit.SECONDS);
+    }
+
+    /** Drops the session and opens a new one, as a browser does after a network blip. */
+    void reconnect() throws Exception {
+        disconnect();
+        connect();
+    }
+
+    /** Unsubscribes first and lets frames already on the wire drain, so none arrive after the close. */
+    void disconnect() throws InterruptedException {
+        StompSession current = session;
+        if (current != null && current.isConnected()) {
+            subscriptions.forEach(StompSession.Subscription::unsubscribe);
+            subscriptions.clear();
+            Thread.sleep(200);
+            current.disconnect();
+        }
+    }
+
+    @Override
+    public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+        for (VirtualDevice device : devices) {
+            String topic = (deltas ? "/topic/deltas/" : "/topic/metrics/") + device.deviceId;
+            subscriptions.add(session.subscribe(topic, new StompSessionHandlerAdapter() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return byte[].class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    received(device, (byte[]) payload);
+                }
+            }));
+        }
+        if (deltas) {
+            // Starts the stream with a snapshot, which is not a delivery sample
+            session.subscribe("/app/deltas/" + String.join(",", devices.stream().map(d -> d.deviceId).toList()),
+                    new StompSessionHandlerAdapter() {
+                        @Override
+                        public Type getPayloadType(StompHeaders headers) {
+                            return byte[].class;
+                        }
+                    });
+        }
+    }
+
+    private void received(VirtualDevice device, byte[] payload) {
+        long now = System.currentTimeMillis();
+        try {
+            JsonNode frame = mapper.readTree(payload);
+            // LATEST coalescing sends one object, BATCH an array; delta frames carry "t"
+            for (JsonNode update : frame.isArray() ? frame : List.of(frame)) {
+                JsonNode timestamp = update.has("t") ? update.get("t") : update.get("timestamp");
+                if (timestamp == null || timestamp.isNull()) {
+                    continue;
+                }
+                long postedAt = device.postedAt(LocalDateTime.parse(timestamp.asText())
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                if (postedAt > 0) {
+                    deliveryMicros.recordValue(Math.max(0, now - postedAt) * 1000);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A frame we cannot read is not a latency sample
+        }
+    }
+}
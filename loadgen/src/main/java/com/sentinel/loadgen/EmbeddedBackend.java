@@ -0,0 +1,69 @@
+package com.sentinel.loadgen;
+
+import com.sentinel.SentinelBackendApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * The backend started in this JVM on a random port, with an in-memory H2 database (PostgreSQL
+ * mode) and a throwaway write-ahead log directory, so a load run needs nothing else running.
+ * Further backend properties can be passed through as key=value overrides.
+ */
+class EmbeddedBackend implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+    private final Path walDirectory;
+
+    private EmbeddedBackend(ConfigurableApplicationContext context, Path walDirectory) {
+        this.context = context;
+        this.walDirectory = walDirectory;
+    }
+
+    static EmbeddedBackend start(List<String> overrides) throws IOException {
+        Path walDirectory = Files.createTempDirectory("sentinel-loadgen-wal");
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadgen-" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--jwt.secret=" + Base64.getEncoder().encodeToString(secret),
+                "--sentinel.wal.directory=" + walDirectory,
+                "--logging.level.root=WARN",
+                "--spring.main.banner-mode=off"));
+        for (String override : overrides) {
+            args.add("--" + override);
+        }
+        SpringApplication application = new SpringApplication(SentinelBackendApplication.class);
+        application.setWebApplicationType(WebApplicationType.SERVLET);
+        return new EmbeddedBackend(application.run(args.toArray(new String[0])), walDirectory);
+    }
+
+    String url() {
+        return "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(walDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
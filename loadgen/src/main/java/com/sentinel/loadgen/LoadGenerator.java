@@ -0,0 +1,361 @@
+package com.sentinel.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sentinel.BinaryMetricsCodec;
+import com.sentinel.ClusterService;
+import com.sentinel.DeviceMetrics;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Drives the backend the way a fleet does: virtual devices speaking agent.py's protocol (log in
+ * for a JWT, post batches to /api/metrics/batch as JSON or the binary codec, follow the backend's
+ * batch-size and Retry-After hints, resend what was not accepted), dashboards following devices
+ * over the /ws STOMP endpoint, and periodic reconnect storms in which a share of the devices log
+ * in again at once and flush their backlog while a share of the dashboards reconnect. Reports
+ * ingest throughput, HTTP latency, the backend's enqueue-to-persist lag (from its Prometheus
+ * timer) and WebSocket delivery latency, as HdrHistogram percentiles.
+ *
+ * <p>Without --url the backend is started in this JVM on an in-memory H2 database:
+ * <pre>
+ * mvn -f backend install -DskipTests &amp;&amp; mvn -f loadgen package
+ * java -jar loadgen/target/loadgen.jar --devices 2000 --subscribers 20 --duration 120
+ * java -jar loadgen/target/loadgen.jar --set sentinel.ingest.queue.capacity=5000 --format binary
+ * java -jar loadgen/target/loadgen.jar --url http://localhost:8080 --storm-every 0
+ * </pre>
+ * Raise ulimit -n on both sides when the backend is slow enough for thousands of requests to be in flight.
+ */
+public class LoadGenerator {
+
+    private final Map<String, String> options;
+    private final String url;
+    private final boolean binary;
+    private final int clientCount;
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+    private final AtomicReferenceArray<HttpClient> clients;
+    private final List<VirtualDevice> devices = new ArrayList<>();
+    private final List<DashboardSubscriber> subscribers = new ArrayList<>();
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private final Recorder httpMicros = new Recorder(3);
+    private final Recorder deliveryMicros = new Recorder(3);
+    private final Recorder loginMicros = new Recorder(3);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong storms = new AtomicLong();
+    private volatile boolean recording;
+
+    LoadGenerator(Map<String, String> options, String url) {
+        this.options = options;
+        this.url = url;
+        this.binary = "binary".equals(options.get("format"));
+        this.clientCount = intOption("clients");
+        this.clients = new AtomicReferenceArray<>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            clients.set(i, newClient());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(Map.ofEntries(
+                Map.entry("url", ""),
+                Map.entry("devices", "1000"),
+                Map.entry("interval-ms", "3000"),
+                Map.entry("batch", "5"),
+                Map.entry("clients", "64"),
+                Map.entry("format", "json"),
+                Map.entry("subscribers", "10"),
+                Map.entry("devices-per-subscriber", "20"),
+                Map.entry("topic", "metrics"),
+                Map.entry("duration", "60"),
+                Map.entry("warmup", "15"),
+                Map.entry("storm-every", "20"),
+                Map.entry("storm-fraction", "0.2"),
+                Map.entry("username", "loadtest"),
+                Map.entry("password", "loadtest")));
+        List<String> overrides = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--set")) {
+                overrides.add(args[i + 1]); // backend property for the embedded run, key=value
+            } else {
+                options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+            }
+        }
+
+        EmbeddedBackend embedded = null;
+        String url = options.get("url");
+        if (url.isEmpty()) {
+            System.out.println("Starting embedded backend (H2)...");
+            embedded = EmbeddedBackend.start(overrides);
+            url = embedded.url();
+        }
+        try {
+            new LoadGenerator(options, url).run();
+        } finally {
+            if (embedded != null) {
+                embedded.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        String token = login();
+        long intervalMillis = Long.parseLong(options.get("interval-ms"));
+        for (int i = 0; i < intOption("devices"); i++) {
+            VirtualDevice device = new VirtualDevice("load-device-" + i, random.nextLong(),
+                    intervalMillis / 1000.0, intOption("batch"));
+            device.token = token;
+            devices.add(device);
+        }
+
+        WebSocketStompClient stompClient = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setInboundMessageSizeLimit(1024 * 1024);
+        int perSubscriber = Math.min(intOption("devices-per-subscriber"), devices.size());
+        for (int i = 0; i < intOption("subscribers"); i++) {
+            List<VirtualDevice> followed = new ArrayList<>();
+            for (int j = 0; j < perSubscriber; j++) {
+                followed.add(devices.get((i * perSubscriber + j) % devices.size()));
+            }
+            DashboardSubscriber subscriber = new DashboardSubscriber(stompClient, url, followed,
+                    "deltas".equals(options.get("topic")), mapper, deliveryMicros);
+            subscriber.connect();
+            subscribers.add(subscriber);
+        }
+
+        ScheduledExecutorService ticker = Executors.newScheduledThreadPool(4);
+        for (VirtualDevice device : devices) {
+            long offset = random.nextLong(intervalMillis); // spread devices across the interval
+            ticker.scheduleAtFixedRate(() -> {
+                List<DeviceMetrics> batch = device.tick(System.currentTimeMillis(), System.nanoTime());
+                if (batch != null) {
+                    send(device, batch);
+                }
+            }, offset, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        ExecutorService stormWorkers = Executors.newFixedThreadPool(4);
+        long stormEvery = Long.parseLong(options.get("storm-every"));
+        if (stormEvery > 0) {
+            ticker.scheduleAtFixedRate(() -> storm(stormWorkers), stormEvery, stormEvery, TimeUnit.SECONDS);
+        }
+
+        System.out.printf("%d devices sampling every %dms, posting %s batches of %d to %s; %d dashboards on /topic/%s%n",
+                devices.size(), intervalMillis, options.get("format"), intOption("batch"), url,
+                subscribers.size(), options.get("topic"));
+        Thread.sleep(Duration.ofSeconds(Long.parseLong(options.get("warmup"))).toMillis());
+
+        HttpClient scrapeClient = newClient();
+        BackendMeters before = BackendMeters.scrape(scrapeClient, url, token);
+        httpMicros.reset();
+        deliveryMicros.reset();
+        loginMicros.reset();
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(Duration.ofSeconds(Long.parseLong(options.get("duration"))).toMillis());
+        recording = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        BackendMeters after = BackendMeters.scrape(scrapeClient, url, token);
+        ticker.shutdownNow();
+        stormWorkers.shutdownNow();
+        for (DashboardSubscriber subscriber : subscribers) {
+            subscriber.disconnect();
+        }
+
+        System.out.printf("requests ok        %d (%.0f/s)%n", requests.get(), requests.get() / seconds);
+        System.out.printf("rows accepted      %d (%.0f/s)%n", rows.get(), rows.get() / seconds);
+        double persisted = after.delta(before, "sentinel_persistence_batch_size_rows_sum");
+        System.out.printf("rows persisted     %.0f (%.0f/s)%n", persisted, persisted / seconds);
+        System.out.printf("duplicates dropped %.0f%n", after.delta(before, "sentinel_ingest_rows_duplicate_total"));
+        System.out.printf("throttled (429)    %d%n", throttled.get());
+        System.out.printf("failed             %d%n", failed.get());
+        System.out.printf("storms             %d%n", storms.get());
+        Histogram delivery = deliveryMicros.getIntervalHistogram();
+        System.out.printf("ws updates         %d (%.0f/s)%n", delivery.getTotalCount(), delivery.getTotalCount() / seconds);
+        print("http latency", httpMicros.getIntervalHistogram());
+        print("persist lag", after.persistLagSince(before));
+        print("ws delivery", delivery);
+        print("storm login", loginMicros.getIntervalHistogram());
+    }
+
+    private void send(VirtualDevice device, List<DeviceMetrics> batch) {
+        byte[] body;
+        try {
+            body = binary ? BinaryMetricsCodec.encode(batch) : mapper.writeValueAsBytes(batch);
+        } catch (Exception e) {
+            device.completed(0, 0, 0);
+            return;
+        }
+        long start = System.nanoTime();
+        HttpClient client = clients.get(Math.floorMod(device.deviceId.hashCode(), clientCount));
+        client.sendAsync(post("/api/metrics/batch", body, binary ? BinaryMetricsCodec.CONTENT_TYPE : "application/json",
+                        device.token), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long now = System.nanoTime();
+                    if (error != null) {
+                        device.completed(0, 0, 0);
+                        count(failed);
+                        return;
+                    }
+                    int accepted = response.headers().firstValue(ClusterService.ACCEPTED_HEADER)
+                            .map(Integer::parseInt).orElse(response.statusCode() == 200 ? batch.size() : 0);
+                    int hintedBatchSize = response.headers().firstValue("X-Sentinel-Batch-Size")
+                            .map(Integer::parseInt).orElse(0);
+                    long retryAfter = response.headers().firstValue("Retry-After").map(Long::parseLong).orElse(0L);
+                    device.completed(accepted, hintedBatchSize, now + TimeUnit.SECONDS.toNanos(retryAfter));
+                    if (!recording) {
+                        return;
+                    }
+                    rows.addAndGet(accepted);
+                    if (response.statusCode() == 429) {
+                        throttled.incrementAndGet();
+                    } else if (response.statusCode() != 200) {
+                        failed.incrementAndGet();
+                    } else {
+                        requests.incrementAndGet();
+                        httpMicros.recordValue((now - start) / 1000);
+                    }
+                });
+    }
+
+    // A load balancer restart or network partition healing: connections drop, agents log in again
+    // and flush their backlog together, dashboards reconnect
+    private void storm(ExecutorService workers) {
+        double fraction = Double.parseDouble(options.get("storm-fraction"));
+        for (int i = 0; i < clientCount; i++) {
+            if (random.nextDouble() < fraction) {
+                clients.set(i, newClient());
+            }
+        }
+        byte[] credentials = credentials();
+        for (VirtualDevice device : devices) {
+            if (random.nextDouble() >= fraction) {
+                continue;
+            }
+            long start = System.nanoTime();
+            clients.get(Math.floorMod(device.deviceId.hashCode(), clientCount))
+                    .sendAsync(post("/login", credentials, "application/json", null), HttpResponse.BodyHandlers.ofString())
+                    .thenAccept(response -> {
+                        if (response.statusCode() != 200) {
+                            count(failed);
+                            return;
+                        }
+                        if (recording) {
+                            loginMicros.recordValue((System.nanoTime() - start) / 1000);
+                        }
+                        device.token = token(response.body());
+                        List<DeviceMetrics> backlog = device.takeForReconnect(System.currentTimeMillis());
+                        if (backlog != null) {
+                            send(device, backlog);
+                        }
+                    })
+                    .exceptionally(error -> {
+                        count(failed);
+                        return null;
+                    });
+        }
+        for (DashboardSubscriber subscriber : subscribers) {
+            if (random.nextDouble() < fraction) {
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        subscriber.reconnect();
+                    } catch (Exception e) {
+                        count(failed);
+                    }
+                }, workers);
+            }
+        }
+        if (recording) {
+            storms.incrementAndGet();
+        }
+    }
+
+    private String login() throws Exception {
+        HttpClient client = newClient();
+        byte[] credentials = credentials();
+        client.send(post("/register", credentials, "application/json", null), HttpResponse.BodyHandlers.discarding()); // 409 if it exists
+        HttpResponse<String> response = client.send(post("/login", credentials, "application/json", null),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Login failed: " + response.statusCode() + " " + response.body());
+        }
+        return token(response.body());
+    }
+
+    private byte[] credentials() {
+        try {
+            return mapper.writeValueAsBytes(Map.of("username", options.get("username"), "password", options.get("password")));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String token(String body) {
+        try {
+            return (String) mapper.readValue(body, Map.class).get("token");
+        } catch (Exception e) {
+            throw new IllegalStateException("Unexpected login response: " + body, e);
+        }
+    }
+
+    private HttpRequest post(String path, byte[] body, String contentType, String token) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        if (token != null) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder.build();
+    }
+
+    private static HttpClient newClient() {
+        return HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    private void count(AtomicLong counter) {
+        if (recording) {
+            counter.incrementAndGet();
+        }
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private static void print(String label, Histogram micros) {
+        if (micros.getTotalCount() == 0) {
+            System.out.printf("%-18s no samples%n", label + " ms");
+            return;
+        }
+        System.out.printf("%-18s p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f  (n=%d)%n", label + " ms",
+                micros.getValueAtPercentile(50) / 1000.0, micros.getValueAtPercentile(90) / 1000.0,
+                micros.getValueAtPercentile(99) / 1000.0, micros.getValueAtPercentile(99.9) / 1000.0,
+                micros.getMaxValue() / 1000.0, micros.getTotalCount());
+    }
+}
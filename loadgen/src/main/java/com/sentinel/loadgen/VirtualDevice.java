@@ -0,0 +1,170 @@
+package com.sentinel.loadgen;
+
+import com.sentinel.DeviceMetrics;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * One simulated agent: samples like agent.py on a fixed interval, numbers them with its own seq,
+ * posts once a batch is full (following the backend's batch-size and Retry-After hints), and
+ * keeps what it could not deliver to send again with the next batch, as the agent's
+ * unsent_metrics.json does. The metrics follow distributions shaped like real hosts rather than
+ * uniform noise: CPU reverts to a per-host baseline with occasional saturation spikes, memory
+ * and disk drift slowly, and network, disk I/O and latency are log-normal with heavy tails.
+ */
+class VirtualDevice {
+
+    private static final int MAX_PENDING = 500; // agent.py's MAX_BATCH_SIZE
+    private static final int POSTS_REMEMBERED = 16;
+
+    final String deviceId;
+    private final SplittableRandom random;
+    private final double intervalSeconds;
+
+    private final double cpuBaseline;
+    private final double networkScale;
+    private final double diskIoScale;
+    private final double latencyBaseline;
+    private double cpu;
+    private double memory;
+    private double disk;
+    private double uptimeSeconds;
+    private int spikeSamplesLeft;
+    private long seq;
+
+    // Guarded by this
+    private final List<DeviceMetrics> pending = new ArrayList<>();
+    private boolean inFlight;
+    private long holdUntilNanos;
+    private int batchSize;
+    // Sample-time range and send time of the latest posts, to time WebSocket delivery from the post
+    private final long[] postedFrom = new long[POSTS_REMEMBERED];
+    private final long[] postedTo = new long[POSTS_REMEMBERED];
+    private final long[] postedAt = new long[POSTS_REMEMBERED];
+    private int posts;
+
+    volatile String token;
+
+    VirtualDevice(String deviceId, long seed, double intervalSeconds, int batchSize) {
+        this.deviceId = deviceId;
+        this.random = new SplittableRandom(seed);
+        this.intervalSeconds = intervalSeconds;
+        this.batchSize = batchSize;
+        cpuBaseline = 3 + 50 * Math.pow(random.nextDouble(), 2); // most hosts mostly idle
+        networkScale = Math.log(random.nextDouble(20_000, 2_000_000));
+        diskIoScale = Math.log(random.nextDouble(50_000, 10_000_000));
+        latencyBaseline = Math.log(random.nextDouble(5, 60));
+        cpu = cpuBaseline;
+        memory = random.nextDouble(25, 80);
+        disk = random.nextDouble(15, 85);
+        uptimeSeconds = random.nextDouble(0, 30 * 86_400);
+    }
+
+    /** Takes a sample and returns the batch to post now, or null if the agent would keep collecting. */
+    synchronized List<DeviceMetrics> tick(long nowMillis, long nowNanos) {
+        pending.add(sample(nowMillis));
+        if (pending.size() > MAX_PENDING) {
+            pending.remove(0);
+        }
+        if (inFlight || pending.size() < batchSize || nowNanos < holdUntilNanos) {
+            return null;
+        }
+        return post(nowMillis);
+    }
+
+    /** Drops the samples the backend accepted (a prefix of the batch) and keeps the rest for the next one. */
+    synchronized void completed(int accepted, int hintedBatchSize, long holdUntilNanos) {
+        inFlight = false;
+        pending.subList(0, Math.min(accepted, pending.size())).clear();
+        if (hintedBatchSize > 0) {
+            batchSize = Math.min(MAX_PENDING, hintedBatchSize);
+        }
+        this.holdUntilNanos = Math.max(this.holdUntilNanos, holdUntilNanos);
+    }
+
+    /** Everything still unsent, as an agent flushes its buffer right after logging in again. */
+    synchronized List<DeviceMetrics> takeForReconnect(long nowMillis) {
+        if (inFlight || pending.isEmpty()) {
+            return null;
+        }
+        return post(nowMillis);
+    }
+
+    /** When the latest post carrying the sample stamped sampleMillis was sent, or -1. */
+    synchronized long postedAt(long sampleMillis) {
+        for (int i = 1; i <= Math.min(posts, POSTS_REMEMBERED); i++) {
+            int slot = (posts - i) % POSTS_REMEMBERED;
+            if (sampleMillis >= postedFrom[slot] && sampleMillis <= postedTo[slot]) {
+                return postedAt[slot];
+            }
+        }
+        return -1;
+    }
+
+    private List<DeviceMetrics> post(long nowMillis) {
+        inFlight = true;
+        int slot = posts++ % POSTS_REMEMBERED;
+        postedFrom[slot] = millis(pending.get(0));
+        postedTo[slot] = millis(pending.get(pending.size() - 1));
+        postedAt[slot] = nowMillis;
+        return new ArrayList<>(pending);
+    }
+
+    private static long millis(DeviceMetrics m) {
+        return m.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private DeviceMetrics sample(long nowMillis) {
+        // Mean-reverting CPU with rare bursts to saturation lasting a few samples
+        if (spikeSamplesLeft > 0) {
+            spikeSamplesLeft--;
+            cpu = clamp(random.nextDouble(88, 100));
+        } else {
+            if (random.nextInt(400) == 0) {
+                spikeSamplesLeft = 1 + random.nextInt(20);
+            }
+            cpu = clamp(cpu + 0.3 * (cpuBaseline - cpu) + gaussian() * 4);
+        }
+        memory = clamp(memory + gaussian() * 0.4 + (cpu > 85 ? 0.5 : 0));
+        disk = clamp(disk + Math.abs(gaussian()) * 0.002);
+        uptimeSeconds += intervalSeconds;
+
+        DeviceMetrics m = new DeviceMetrics();
+        m.setDeviceId(deviceId);
+        m.setSeq(++seq);
+        m.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), ZoneId.systemDefault()));
+        m.setCpuUsage(round(cpu));
+        m.setMemoryUsage(round(memory));
+        m.setDiskUsage(round(disk));
+        m.setBytesSentPerSec(logNormal(networkScale, 1.0));
+        m.setBytesRecvPerSec(logNormal(networkScale + 1.0, 1.0));
+        m.setDiskReadBytesPerSec(logNormal(diskIoScale, 1.5));
+        m.setDiskWriteBytesPerSec(logNormal(diskIoScale, 1.2));
+        // agent.py reports no latency when its probe connection fails
+        m.setLatencyMs(random.nextInt(50) == 0 ? null : Math.exp(latencyBaseline + 0.4 * gaussian()));
+        m.setSystemUptimeSeconds(uptimeSeconds);
+        return m;
+    }
+
+    private long logNormal(double mu, double sigma) {
+        return (long) Math.exp(mu + sigma * gaussian());
+    }
+
+    private double gaussian() {
+        // Box-Muller; SplittableRandom has no nextGaussian on Java 17
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static double clamp(double percent) {
+        return Math.max(0, Math.min(100, percent));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}